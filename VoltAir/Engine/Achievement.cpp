@@ -160,7 +160,11 @@ bool Achievement::saveToCloud() {
 }
 
 bool Achievement::cloudUnlock() {
+#ifdef Q_OS_ANDROID
+    return AndroidActivity::unlockAchievement(mName);
+#else
     return true;
+#endif
 }
 
 bool Achievement::cloudReveal() {
@@ -119,6 +119,8 @@ void Engine::init() {
             Qt::DirectConnection);
     connect(mViewer.get(), &QQuickView::afterAnimating, this, &Engine::update,
             Qt::DirectConnection);
+    mFrameSwappedConnection = connect(mViewer.get(), &QQuickView::frameSwapped, this,
+            &Engine::onFrameSwapped, Qt::DirectConnection);
     connect(mLevelLoader, SIGNAL(loadCompleted(bool)), this, SLOT(onLoadCompleted(bool)));
 
     mContactListener.reset(new ContactListener());
@@ -126,7 +128,8 @@ void Engine::init() {
     mDebugDraw.reset(new LiquidFunDebugDraw());
 
 #ifdef Q_OS_ANDROID
-    mValidLetters = AndroidActivity::validLetters();
+    mStudentSkillsVersion = AndroidActivity::getStudentSkillsVersion();
+    mStudentSkills = AndroidActivity::getStudentSkills();
 #endif
     mIsInitialized = true;
 }
@@ -219,6 +222,8 @@ void Engine::onLoadCompleted(bool success) {
 
         invalidateSceneGraphObjectCaches();
         forEach<Logic>([] (Logic* logic) { logic->init(); });
+        // Load the sound effects of the level before they are first played.
+        mSoundManager->preloadSoundEffects(level->getSoundEffects());
 
         int activationThreshold = (level->getPortal())
                 ? level->getPortal()->property("activationThreshold").toInt() : 0;
@@ -248,6 +253,14 @@ void Engine::onAfterRendering() {
     mViewerReady = true;
 }
 
+void Engine::onFrameSwapped() {
+    // Only the first frame is of interest, so stop listening for the rest.
+    disconnect(mFrameSwappedConnection);
+#ifdef Q_OS_ANDROID
+    AndroidActivity::onFirstFrameSwapped();
+#endif
+}
+
 void Engine::synchronizeForRendering() {
     // Stop Qt from clearing the back buffer now that we have properly attached to the rendering
     // thread. We need to render beneath it, so the window clearing would obscure our draws. We
@@ -355,6 +368,18 @@ void Engine::update() {
     performLevelChange();
     mWorldToDelete.reset();
 
+#ifdef Q_OS_ANDROID
+    // Pick up student skills pushed from Java since the last frame.
+    int studentSkillsVersion = AndroidActivity::getStudentSkillsVersion();
+    if (studentSkillsVersion != mStudentSkillsVersion) {
+        mStudentSkillsVersion = studentSkillsVersion;
+        setStudentSkills(AndroidActivity::getStudentSkills());
+    }
+
+    // Route input captured on the Android UI thread since the last frame.
+    AndroidActivity::processControllerEvents();
+#endif
+
     emit beforeUpdate();
 
     if (isPaused()) {
@@ -384,6 +409,11 @@ void Engine::update() {
     setPhase(AFTER_PHYSICS_PHASE);
     forEach<Body>([] (Body* body) { body->updateAfterPhysics(); });
 
+#ifdef Q_OS_ANDROID
+    // Input routed at the start of this frame has now affected the game.
+    AndroidActivity::onControllerEventsConsumed();
+#endif
+
     emit afterUpdate();
 
     setPhase(CAMERA_PHASE);
@@ -403,6 +433,11 @@ void Engine::loadLevel(LevelInfo* levelInfo) {
     mInFlightLevelInfo = levelInfo;
     mHasNextLevel = true;
     mNextLevelName = levelInfo->getFileName();
+    // Warm up the level's background music while the level itself is loading.
+    Environment* environment = levelInfo->getEnvironment();
+    if (environment && !environment->getBGMTrack().isEmpty()) {
+        mSoundManager->prefetchBGMTrack(Util::getPathToSound(environment->getBGMTrack()));
+    }
 }
 
 void Engine::onPlayLevelRequested() {
@@ -464,6 +499,45 @@ void Engine::onDeviceDestroy() {
     emit deviceDestroy();
 }
 
+void Engine::onDeviceTrimMemory(int tier) {
+    QMetaObject::invokeMethod(this, "trimMemory", Qt::QueuedConnection, Q_ARG(int, tier));
+}
+
+void Engine::trimMemory(int tier) {
+    qint64 bytesFreed = 0;
+    if (tier >= TRIM_PREFETCHED) {
+        qint64 textureBytes = mTextureManager->releasePendingDeletions();
+        qDebug() << "Trim memory: released" << textureBytes << "bytes of textures pending deletion";
+        bytesFreed += textureBytes;
+    }
+    if (tier >= TRIM_CACHES) {
+        qint64 textureBytes = mTextureManager->releaseUnusedTextures();
+        qDebug() << "Trim memory: released" << textureBytes << "bytes of unused cached textures";
+        bytesFreed += textureBytes;
+
+        qint64 heapBytes = getNativeHeapSize();
+        mViewer->engine()->trimComponentCache();
+        heapBytes = qMax(Q_INT64_C(0), heapBytes - getNativeHeapSize());
+        qDebug() << "Trim memory: released" << heapBytes << "bytes of QML component caches";
+        bytesFreed += heapBytes;
+    }
+    if (tier >= TRIM_ALL) {
+        // This only takes effect at the next scene graph sync, so its savings are not counted.
+        mViewer->releaseResources();
+        qDebug() << "Trim memory: requested release of scene graph resources";
+    }
+    emit memoryTrimmed(tier, bytesFreed);
+}
+
+qint64 Engine::getNativeHeapSize() const {
+#ifdef Q_OS_ANDROID
+    return AndroidActivity::getMemoryUsed();
+#else
+    // Heap usage is only reported on Android.
+    return 0;
+#endif
+}
+
 void Engine::onSignedIntoCloudChanged(bool signedIntoCloud) {
     emit signedIntoCloudChanged(signedIntoCloud);
 }
@@ -483,13 +557,6 @@ void Engine::onOpeningCinematicCompleted(const QString& menuBGMTrack) {
     mSoundManager->setPaused(false);
 }
 
-void Engine::setValidLettersAndNumbers(const QString &letters)
-{
-    mValidLetters = letters;
-}
-
-
-QString Engine::validLetters() const
-{
-    return mValidLetters;
+void Engine::setStudentSkills(const StudentSkills& skills) {
+    mStudentSkills = skills;
 }
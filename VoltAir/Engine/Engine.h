@@ -25,6 +25,7 @@
 #include "renderer/PointerDeclarations.h"
 #include "utils/ContactListener.h"
 #include "utils/DestructionListener.h"
+#include "utils/StudentSkills.h"
 
 class Camera;
 class Environment;
@@ -357,8 +358,46 @@ public:
      */
     void deleteCurrentLevel();
 
-    void setValidLettersAndNumbers(const QString &letters);
-    QString validLetters() const;
+    /**
+     * @brief Sets the letters and numbers the current student has learned.
+     * @param skills Skills of the current student
+     */
+    void setStudentSkills(const StudentSkills& skills);
+    /**
+     * @brief Returns the letters and numbers the current student has learned.
+     */
+    const StudentSkills& getStudentSkills() const { return mStudentSkills; }
+    /**
+     * @brief Returns the letters the current student has learned, in alphabetical order.
+     */
+    const QString& validLetters() const { return mStudentSkills.getLetters(); }
+
+    /**
+     * @brief Cumulative eviction tiers used to respond to memory pressure.
+     *
+     * Each tier releases everything the tiers below it do, plus more expensive-to-rebuild
+     * resources.
+     * @note These values must be kept in sync with the tiers in MemoryPressure.java.
+     */
+    enum MemoryTrimTier {
+        /**
+         * @brief No eviction.
+         */
+        NO_TRIM = 0,
+        /**
+         * @brief Release Texture%s of the previous level that the current one has not picked up.
+         */
+        TRIM_PREFETCHED,
+        /**
+         * @brief Additionally release cached Texture%s that are not in use, and compiled QML
+         * components (such as those of previously played levels) that are no longer referenced.
+         */
+        TRIM_CACHES,
+        /**
+         * @brief Additionally release all redundant scene graph resources held by the window.
+         */
+        TRIM_ALL
+    };
 
     // TODO: Split this into two methods: create and getInstance()
     /**
@@ -443,6 +482,15 @@ public slots:
      */
     void onDeviceDestroy();
 
+    /**
+     * @brief Respond to Android onTrimMemory() or onLowMemory().
+     *
+     * Caches are released on the Engine's thread, after which memoryTrimmed() is emitted.
+     * @note This may be called from a device thread.
+     * @param tier Eviction tier, see MemoryTrimTier
+     */
+    void onDeviceTrimMemory(int tier);
+
     /**
      * @}
      */
@@ -519,6 +567,13 @@ signals:
      * @}
      */
 
+    /**
+     * @brief Emitted once caches have been released in response to onDeviceTrimMemory().
+     * @param tier Eviction tier that was applied, see MemoryTrimTier
+     * @param bytesFreed Estimated number of bytes freed
+     */
+    void memoryTrimmed(int tier, qint64 bytesFreed);
+
     /**
      * @brief Signal for when the device has reached the end of its application lifecycle.
      *
@@ -533,7 +588,9 @@ private slots:
     void onBeforeSynchronizing();
     void onBeforeRendering();
     void onAfterRendering();
+    void onFrameSwapped();
     void onLoadCompleted(bool success);
+    void trimMemory(int tier);
 
 private:
     // Level needs access to setCurrentLevel and queueWorldForDeletion.
@@ -555,6 +612,12 @@ private:
      */
     void queueWorldForDeletion(b2World* world);
 
+    /**
+     * Returns the number of bytes allocated on the native heap, or 0 if unknown. Used to measure
+     * the savings of evictions whose size cannot be estimated up front.
+     */
+    qint64 getNativeHeapSize() const;
+
     void startLoad();
     void performLevelChange();
     void setPhase(Phase phase);
@@ -595,6 +658,8 @@ private:
     QString mNextLevelName;
     QQuickItem* mLevelLoader = nullptr;
     volatile bool mViewerReady = false;
+    // Connection of onFrameSwapped(), which is dropped once the first frame has been swapped.
+    QMetaObject::Connection mFrameSwappedConnection;
     std::unique_ptr<QQuickView> mViewer;
     std::unique_ptr<ContactListener> mContactListener;
     std::unique_ptr<DestructionListener> mDestructionListener;
@@ -609,7 +674,9 @@ private:
     mutable QSet<const QMetaObject*> mValidCacheSet;
     LevelInfo* mInFlightLevelInfo;
 
-    QString mValidLetters;
+    StudentSkills mStudentSkills;
+    // Version of mStudentSkills as pushed from the Android activity.
+    int mStudentSkillsVersion = 0;
 
     static Engine* sInstance;
 };
@@ -89,7 +89,9 @@ HEADERS += \
     $$PWD/utils/DebugMetricsMonitor.h \
     $$PWD/utils/DestructionListener.h \
     $$PWD/utils/GraphicsUtil.h \
+    $$PWD/utils/InputLatencyMetrics.h \
     $$PWD/utils/QmlUtil.h \
+    $$PWD/utils/StudentSkills.h \
     $$PWD/utils/Util.h \
     $$PWD/utils/VariantConverter.h \
 
@@ -147,7 +149,9 @@ SOURCES +=  \
     $$PWD/utils/DebugMetricsMonitor.cpp \
     $$PWD/utils/DestructionListener.cpp \
     $$PWD/utils/GraphicsUtil.cpp \
+    $$PWD/utils/InputLatencyMetrics.cpp \
     $$PWD/utils/QmlUtil.cpp \
+    $$PWD/utils/StudentSkills.cpp \
     $$PWD/utils/Util.cpp \
 
 android {
@@ -167,6 +171,7 @@ android {
         $$PWD/android/deploy/res/drawable-xhdpi/logo.png \
         $$PWD/android/deploy/res/values/voltairactivity_strings.xml \
         $$PWD/android/deploy/res/values/ids.xml \
+        $$PWD/android/deploy/res/values/config.xml \
         $$PWD/android/deploy/res/xml/voltair_tracker.xml \
         $$PWD/android/deploy/src/org/literacyapp/voltair/VoltAirActivity.java \
         $$PWD/android/deploy/src/org/literacyapp/utils/SoundManager.java \
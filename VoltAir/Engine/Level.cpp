@@ -14,6 +14,7 @@
  * limitations under the License.
  */
 
+#include <QMetaProperty>
 #include <cassert>
 #include "Camera.h"
 #include "Engine.h"
@@ -152,6 +153,34 @@ void Level::componentComplete() {
     // TODO: Add sanity check that completion threshold can be reached.
 }
 
+QStringList Level::getSoundEffects() const {
+    const QString soundPathPrefix = Util::getPathToSound(QString());
+    QSet<QString> soundEffects;
+    for (const QSet<Actor*>& actors : mActors) {
+        for (Actor* actor : actors) {
+            QList<QObject*> objects;
+            objects.append(actor);
+            for (Logic* logic : actor->findChildren<Logic*>()) {
+                objects.append(logic);
+            }
+            for (QObject* object : objects) {
+                const QMetaObject* metaObject = object->metaObject();
+                for (int i = 0; i < metaObject->propertyCount(); ++i) {
+                    QMetaProperty property = metaObject->property(i);
+                    if (property.type() != QVariant::String) {
+                        continue;
+                    }
+                    QString value = property.read(object).toString();
+                    if (value.startsWith(soundPathPrefix)) {
+                        soundEffects.insert(value);
+                    }
+                }
+            }
+        }
+    }
+    return soundEffects.toList();
+}
+
 void Level::updateParticleRendererItemZ() {
     // Set the particle renderer to render just beneath the layer specified.
     // Since the Layer property of Actors is an integer, this is valid.
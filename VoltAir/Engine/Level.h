@@ -20,6 +20,7 @@
 #include <QMap>
 #include <QQuickItem>
 #include <QSet>
+#include <QStringList>
 #include <limits>
 #include <memory>
 #include "Actor.h"
@@ -255,6 +256,14 @@ public:
      * @param type Type (Actor::ActorType) of Actor%s to get
      */
     const QSet<Actor*>& getActors(Actor::ActorType type) const;
+    /**
+     * @brief Returns the asset paths of the sound effects referenced by the Actor%s in the level
+     * scene graph.
+     *
+     * A sound effect is referenced by any string property of an Actor, or of one of its Logic%s,
+     * whose value is a path under Util::getPathToSound().
+     */
+    QStringList getSoundEffects() const;
     /**
      * @brief Returns the physics world (@c b2World) owned by this Level.
      */
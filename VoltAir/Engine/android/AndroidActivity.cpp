@@ -24,11 +24,14 @@
 #include <GameInput/routers/TouchNavigationRouter.h>
 #include <QDebug>
 #include <QGuiApplication>
+#include <QJsonDocument>
+#include <QJsonObject>
 #include <QKeyEvent>
 #include <QQuickWindow>
 #include <android/input.h>
 #include <cassert>
 #include <cmath>
+#include <ctime>
 #include "Engine.h"
 #include <QtAndroidExtras/QtAndroidExtras>
 // TODO: remove references to Game from this module.
@@ -57,6 +60,24 @@ QMap<int, JoystickAxisCode> AndroidActivity::sTouchNavigationJoystickAxisConvers
             { AMOTION_EVENT_AXIS_Y, TOUCH_NAVIGATION_Y },
         });
 
+// NOTE: These tables must match the ones of the same name in MotionEventAxes.java.
+const int AndroidActivity::GAMEPAD_AXES[] = {
+    AMOTION_EVENT_AXIS_X,
+    AMOTION_EVENT_AXIS_Y,
+    AMOTION_EVENT_AXIS_Z,
+    AMOTION_EVENT_AXIS_RZ,
+    AMOTION_EVENT_AXIS_HAT_X,
+    AMOTION_EVENT_AXIS_HAT_Y,
+    AMOTION_EVENT_AXIS_LTRIGGER,
+    AMOTION_EVENT_AXIS_RTRIGGER,
+    AMOTION_EVENT_AXIS_GAS,
+    AMOTION_EVENT_AXIS_BRAKE,
+};
+const int AndroidActivity::TOUCH_NAVIGATION_AXES[] = {
+    AMOTION_EVENT_AXIS_X,
+    AMOTION_EVENT_AXIS_Y,
+};
+
 QMap<KeyCode, int> AndroidActivity::sKeycodeConversionMap({
             { KEYCODE_BUTTON_A, Qt::Key_Enter },
             { KEYCODE_BUTTON_B, InputArea::Key_Button_B },
@@ -77,14 +98,21 @@ jobject AndroidActivity::sActivity = nullptr;
 
 jclass AndroidActivity::sActivityClass = nullptr;
 jclass AndroidActivity::sSoundManagerClass = nullptr;
-jclass AndroidActivity::sMotionEventClass = nullptr;
-jclass AndroidActivity::sKeyEventClass = nullptr;
-jclass AndroidActivity::sInputDeviceClass = nullptr;
-jclass AndroidActivity::sMotionRangeClass = nullptr;
+jclass AndroidActivity::sSoundEffectManagerClass = nullptr;
 jclass AndroidActivity::sDebugClass = nullptr;
 
 JavaVM* AndroidActivity::sJavaVM = nullptr;
 
+QMutex AndroidActivity::sStudentSkillsMutex;
+StudentSkills AndroidActivity::sStudentSkills;
+QAtomicInt AndroidActivity::sStudentSkillsVersion(0);
+
+ControllerEventQueue AndroidActivity::sControllerEventQueue;
+InputLatencyMetrics AndroidActivity::sInputLatencyMetrics;
+QPair<InputLatencyMetrics::Source, qint64>
+        AndroidActivity::sUnconsumedEventTimes[MAX_UNCONSUMED_EVENTS];
+int AndroidActivity::sNumUnconsumedEvents = 0;
+
 SelfDetachingJNIEnv AndroidActivity::getEnv(JavaVM* vm) {
     if (vm) {
         sJavaVM = vm;
@@ -155,99 +183,181 @@ void AndroidActivity::onDestroy(JNIEnv* jni, jobject) {
     }
 }
 
-void AndroidActivity::onControllerDisconnect(JNIEnv*, jobject, int deviceId) {
-    TouchNavigationRouter::getInstance()->onControllerDisconnect(deviceId);
-    GamepadRouter::getInstance()->onControllerDisconnect(deviceId);
-    KeyboardRouter::getInstance()->onControllerDisconnect(deviceId);
-}
+void AndroidActivity::onTrimMemory(JNIEnv*, jobject, jint tier) {
+    qDebug() << "In Native onTrimMemory" << tier;
 
-bool AndroidActivity::onGamepadMotionEvent(JNIEnv* jni, jobject, jobject motionEvent) {
-    ControllerEvent controllerEvent(getMotionEventDeviceId(jni, motionEvent));
+    Engine* engine = Engine::getInstance(false);
+    if (engine) {
+        engine->onDeviceTrimMemory(tier);
+    }
+}
 
-    for (auto it = sGamepadJoystickAxisConversionMap.begin();
-            it != sGamepadJoystickAxisConversionMap.end(); ++it) {
-        controllerEvent.setJoystickAxisValue(it.value(), getAxisValue(jni, motionEvent, it.key()));
+void AndroidActivity::onControllerDisconnect(JNIEnv*, jobject, int deviceId) {
+    // Queue the disconnections behind any events still pending from the device.
+    InputRouter* routers[] = {
+        TouchNavigationRouter::getInstance(),
+        GamepadRouter::getInstance(),
+        KeyboardRouter::getInstance(),
+    };
+    for (InputRouter* router : routers) {
+        ControllerEventQueue::Record record;
+        record.reset(router, deviceId, 0);
+        record.isDisconnect = true;
+        sControllerEventQueue.push(record);
     }
+}
 
-    for (auto it = sGamepadTriggerAxisConversionMap.begin();
-            it != sGamepadTriggerAxisConversionMap.end(); ++it) {
-        controllerEvent.setTriggerAxisValue(it.value(), getAxisValue(jni, motionEvent, it.key()));
+bool AndroidActivity::onGamepadMotionEvent(JNIEnv* jni, jobject, jint deviceId,
+        jint numSamples, jlongArray eventTimes, jfloatArray axes) {
+    const int numAxes = sizeof(GAMEPAD_AXES) / sizeof(GAMEPAD_AXES[0]);
+    float axisData[numAxes * (RANGE_VALUES_PER_AXIS + MAX_SAMPLES)];
+    jlong eventTimeData[MAX_SAMPLES];
+    if (!getPackedSamples(jni, numSamples, eventTimes, axes, numAxes, eventTimeData, axisData)) {
+        return false;
     }
 
-    float dpadX = getAxisValue(jni, motionEvent, AMOTION_EVENT_AXIS_HAT_X);
-    float dpadY = getAxisValue(jni, motionEvent, AMOTION_EVENT_AXIS_HAT_Y);
+    // Queue samples from oldest to newest, so that controllers see every intermediate position
+    // rather than only the latest one.
+    ControllerEventQueue::Record record;
+    const float* sampleData = &axisData[numAxes * RANGE_VALUES_PER_AXIS];
+    for (int sample = 0; sample < numSamples; ++sample, sampleData += numAxes) {
+        record.reset(GamepadRouter::getInstance(), deviceId, eventTimeData[sample]);
+        float dpadX = 0.0f;
+        float dpadY = 0.0f;
+        for (int i = 0; i < numAxes; ++i) {
+            const int axis = GAMEPAD_AXES[i];
+            const float axisValue = getPackedAxisValue(&axisData[i * RANGE_VALUES_PER_AXIS],
+                    sampleData[i]);
+            if (axis == AMOTION_EVENT_AXIS_HAT_X) {
+                dpadX = axisValue;
+            } else if (axis == AMOTION_EVENT_AXIS_HAT_Y) {
+                dpadY = axisValue;
+            } else if (sGamepadJoystickAxisConversionMap.contains(axis)) {
+                record.setJoystickAxisValue(sGamepadJoystickAxisConversionMap.value(axis),
+                        axisValue);
+            } else if (sGamepadTriggerAxisConversionMap.contains(axis)) {
+                record.setTriggerAxisValue(sGamepadTriggerAxisConversionMap.value(axis),
+                        axisValue);
+            }
+        }
 
-    // Gamepad (at least all the ones we are using) handle DPad as a Joystick, even though the
-    // values are stuck to -1, 0, 1.
-    controllerEvent.setKeyState(KEYCODE_DPAD_LEFT, dpadX < 0);
-    controllerEvent.setKeyState(KEYCODE_DPAD_RIGHT, dpadX > 0);
-    controllerEvent.setKeyState(KEYCODE_DPAD_UP, dpadY < 0);
-    controllerEvent.setKeyState(KEYCODE_DPAD_DOWN, dpadY > 0);
+        // Gamepad (at least all the ones we are using) handle DPad as a Joystick, even though the
+        // values are stuck to -1, 0, 1.
+        record.setKeyState(KEYCODE_DPAD_LEFT, dpadX < 0);
+        record.setKeyState(KEYCODE_DPAD_RIGHT, dpadX > 0);
+        record.setKeyState(KEYCODE_DPAD_UP, dpadY < 0);
+        record.setKeyState(KEYCODE_DPAD_DOWN, dpadY > 0);
 
-    GamepadRouter::getInstance()->routeControllerEvent(&controllerEvent);
+        pushControllerEvent(&record);
+    }
     return shouldConsumeTranslatedEvents();
 }
 
-bool AndroidActivity::onGamepadKeyEvent(JNIEnv* jni, jobject, jobject keyEvent) {
-    // Process the KeyEvent into a ControllerEvent, and route it for Gamepads if it is an event
+bool AndroidActivity::onGamepadKeyEvent(JNIEnv*, jobject, jint deviceId, jint action,
+        jint keyCode, jlong eventTime) {
+    // Process the KeyEvent into a ControllerEvent, and queue it for Gamepads if it is an event
     // that we should not ignore.
-    ControllerEvent controllerEvent;
-    if (onKeyEvent(jni, keyEvent, &controllerEvent)) {
-        GamepadRouter::getInstance()->routeControllerEvent(&controllerEvent);
+    if (onKeyEvent(deviceId, action, static_cast<KeyCode>(keyCode), eventTime,
+            GamepadRouter::getInstance())) {
         return shouldConsumeTranslatedEvents();
     } else {
         return false;
     }
 }
 
-bool AndroidActivity::onTouchNavigationMotionEvent(JNIEnv* jni, jobject, jobject motionEvent) {
-    jclass motionEventClass = getMotionEventClass(jni, motionEvent);
-    jmethodID getActionMaskedMethod = jni->GetMethodID(motionEventClass, "getActionMasked", "()I");
-    int action = jni->CallIntMethod(motionEvent, getActionMaskedMethod);
-
-    ControllerEvent controllerEvent(getMotionEventDeviceId(jni, motionEvent));
+bool AndroidActivity::onTouchNavigationMotionEvent(JNIEnv* jni, jobject, jint deviceId,
+        jint action, jint numSamples, jlongArray eventTimes, jfloatArray axes) {
+    const int numAxes = sizeof(TOUCH_NAVIGATION_AXES) / sizeof(TOUCH_NAVIGATION_AXES[0]);
+    float axisData[numAxes * (RANGE_VALUES_PER_AXIS + MAX_SAMPLES)];
+    jlong eventTimeData[MAX_SAMPLES];
+    if (!getPackedSamples(jni, numSamples, eventTimes, axes, numAxes, eventTimeData, axisData)) {
+        return false;
+    }
 
-    for (auto it = sTouchNavigationJoystickAxisConversionMap.begin();
-            it != sTouchNavigationJoystickAxisConversionMap.end(); ++it) {
-        float touchNavigationAxisValue = 0.0f;
-        if (action != AMOTION_EVENT_ACTION_UP) {
-            touchNavigationAxisValue = getNormalizedJoystickAxisValue(jni, motionEvent, it.key());
-            // TODO: To address this we could use a better smoothing function.
-            if (touchNavigationAxisValue < 0) {
-                touchNavigationAxisValue = -1.0f;
-            } else if (touchNavigationAxisValue > 0) {
-                touchNavigationAxisValue = 1.0f;
+    ControllerEventQueue::Record record;
+    const float* sampleData = &axisData[numAxes * RANGE_VALUES_PER_AXIS];
+    for (int sample = 0; sample < numSamples; ++sample, sampleData += numAxes) {
+        record.reset(TouchNavigationRouter::getInstance(), deviceId, eventTimeData[sample]);
+        for (int i = 0; i < numAxes; ++i) {
+            const int axis = TOUCH_NAVIGATION_AXES[i];
+            if (!sTouchNavigationJoystickAxisConversionMap.contains(axis)) {
+                continue;
+            }
+            float touchNavigationAxisValue = 0.0f;
+            if (action != AMOTION_EVENT_ACTION_UP) {
+                touchNavigationAxisValue = getNormalizedPackedAxisValue(
+                        &axisData[i * RANGE_VALUES_PER_AXIS], sampleData[i]);
+                // TODO: To address this we could use a better smoothing function.
+                if (touchNavigationAxisValue < 0) {
+                    touchNavigationAxisValue = -1.0f;
+                } else if (touchNavigationAxisValue > 0) {
+                    touchNavigationAxisValue = 1.0f;
+                }
             }
+            record.setJoystickAxisValue(sTouchNavigationJoystickAxisConversionMap.value(axis),
+                    touchNavigationAxisValue);
         }
-        controllerEvent.setJoystickAxisValue(it.value(), touchNavigationAxisValue);
-    }
 
-    TouchNavigationRouter::getInstance()->routeControllerEvent(&controllerEvent);
+        pushControllerEvent(&record);
+    }
     return shouldConsumeTranslatedEvents();
 }
 
-bool AndroidActivity::onTouchNavigationKeyEvent(JNIEnv* jni, jobject, jobject keyEvent) {
-    // Process the KeyEvent into a ControllerEvent, and route it for touch navigation devices if
+bool AndroidActivity::onTouchNavigationKeyEvent(JNIEnv*, jobject, jint deviceId, jint action,
+        jint keyCode, jlong eventTime) {
+    // Process the KeyEvent into a ControllerEvent, and queue it for touch navigation devices if
     // it is an event that we should not ignore.
-    ControllerEvent controllerEvent;
-    if (onKeyEvent(jni, keyEvent, &controllerEvent)) {
-        TouchNavigationRouter::getInstance()->routeControllerEvent(&controllerEvent);
+    if (onKeyEvent(deviceId, action, static_cast<KeyCode>(keyCode), eventTime,
+            TouchNavigationRouter::getInstance())) {
         return shouldConsumeTranslatedEvents();
     } else {
         return false;
     }
 }
 
-bool AndroidActivity::onKeyboardKeyEvent(JNIEnv* jni, jobject, jobject keyEvent) {
-    ControllerEvent controllerEvent;
-    if (onKeyEvent(jni, keyEvent, &controllerEvent)) {
-        KeyboardRouter::getInstance()->routeControllerEvent(&controllerEvent);
+bool AndroidActivity::onKeyboardKeyEvent(JNIEnv*, jobject, jint deviceId, jint action,
+        jint keyCode, jlong eventTime) {
+    if (onKeyEvent(deviceId, action, static_cast<KeyCode>(keyCode), eventTime,
+            KeyboardRouter::getInstance())) {
         return shouldConsumeTranslatedEvents();
     } else {
         return false;
     }
 }
 
+// Copies a Java string into a QString, returning a null string for a null reference.
+static QString toQString(JNIEnv* jni, jstring javaString) {
+    if (!javaString) {
+        return QString();
+    }
+    const char* nativeString = jni->GetStringUTFChars(javaString, nullptr);
+    QString string = QString::fromUtf8(nativeString);
+    jni->ReleaseStringUTFChars(javaString, nativeString);
+    return string;
+}
+
+void AndroidActivity::onCloudDataLoaded(JNIEnv* jni, jobject, jint statusCode, jstring data) {
+    Engine* engine = Engine::getInstance(false);
+    if (engine) {
+        QMetaObject::invokeMethod(engine, "onCloudDataLoaded", Qt::QueuedConnection,
+                Q_ARG(int, statusCode), Q_ARG(QString, toQString(jni, data)));
+    }
+}
+
+jstring AndroidActivity::onCloudDataConflict(JNIEnv* jni, jobject, jstring localData,
+        jstring serverData) {
+    Game* game = Game::getInstance();
+    if (!game) {
+        return nullptr;
+    }
+    QString resolvedData;
+    QMetaObject::invokeMethod(game, "onCloudDataConflict", Qt::BlockingQueuedConnection,
+            Q_RETURN_ARG(QString, resolvedData), Q_ARG(QString, toQString(jni, localData)),
+            Q_ARG(QString, toQString(jni, serverData)));
+    std::string nativeData = resolvedData.toStdString();
+    return jni->NewStringUTF(nativeData.c_str());
+}
+
 void AndroidActivity::showAchievementsRequested() {
     auto jni = getEnv();
     if (!jni || !getActivity()) {
@@ -259,6 +369,18 @@ void AndroidActivity::showAchievementsRequested() {
     jni->CallVoidMethod(getActivity(), showAchievementsRequestedMethod);
 }
 
+void AndroidActivity::onFirstFrameSwapped() {
+    const qint64 frameTimeNanos = getUptimeNanos();
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return;
+    }
+    jclass activityClass = getActivityClass(jni.getJNIEnv());
+    jmethodID onFirstFrameSwappedMethod = jni->GetMethodID(activityClass, "onFirstFrameSwapped",
+            "(J)V");
+    jni->CallVoidMethod(getActivity(), onFirstFrameSwappedMethod, jlong(frameTimeNanos));
+}
+
 void AndroidActivity::resetAchievementsRequested() {
     auto jni = getEnv();
     if (!jni || !getActivity()) {
@@ -270,6 +392,39 @@ void AndroidActivity::resetAchievementsRequested() {
     jni->CallVoidMethod(getActivity(), resetAchievementsRequestedMethod);
 }
 
+bool AndroidActivity::unlockAchievement(const QString& name) {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return false;
+    }
+    jclass activityClass = getActivityClass(jni.getJNIEnv());
+    jmethodID unlockAchievementMethod = jni->GetMethodID(activityClass, "unlockAchievement",
+            "(Ljava/lang/String;)Z");
+    std::string nativeName = name.toStdString();
+    jstring javaName = jni->NewStringUTF(nativeName.c_str());
+    bool queued = jni->CallBooleanMethod(getActivity(), unlockAchievementMethod, javaName);
+    jni->DeleteLocalRef(javaName);
+    return queued;
+}
+
+void AndroidActivity::logTelemetryEvent(const QString& name, const QVariantMap& fields) {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return;
+    }
+    jclass activityClass = getActivityClass(jni.getJNIEnv());
+    jmethodID logTelemetryEventMethod = jni->GetMethodID(activityClass, "logTelemetryEvent",
+            "(Ljava/lang/String;Ljava/lang/String;)V");
+    std::string nativeName = name.toStdString();
+    std::string nativeFields = QJsonDocument(QJsonObject::fromVariantMap(fields)).toJson(
+            QJsonDocument::Compact).toStdString();
+    jstring javaName = jni->NewStringUTF(nativeName.c_str());
+    jstring javaFields = jni->NewStringUTF(nativeFields.c_str());
+    jni->CallVoidMethod(getActivity(), logTelemetryEventMethod, javaName, javaFields);
+    jni->DeleteLocalRef(javaFields);
+    jni->DeleteLocalRef(javaName);
+}
+
 QString AndroidActivity::getVersionName() {
     auto jni = getEnv();
     if (!jni || !getActivity()) {
@@ -351,6 +506,22 @@ void AndroidActivity::setBGMTrack(int priority, const QString &track) {
     jni->DeleteLocalRef(soundManager);
 }
 
+void AndroidActivity::prefetchBGMTrack(const QString& track) {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return;
+    }
+    jobject soundManager = getSoundManager();
+    jclass soundManagerClass = getSoundManagerClass(jni.getJNIEnv(), soundManager);
+    jmethodID prefetchBGMTrackMethod = jni->GetMethodID(soundManagerClass, "prefetchBGMTrack",
+            "(Ljava/lang/String;)V");
+    std::string nativeTrack = track.toStdString();
+    jstring javaTrack = jni->NewStringUTF(nativeTrack.c_str());
+    jni->CallVoidMethod(soundManager, prefetchBGMTrackMethod, javaTrack);
+    jni->DeleteLocalRef(javaTrack);
+    jni->DeleteLocalRef(soundManager);
+}
+
 bool AndroidActivity::isBGMMuted() {
     auto jni = getEnv();
     if (!jni || !getActivity()) {
@@ -388,30 +559,221 @@ void AndroidActivity::setBGMPaused(bool value) {
     jni->DeleteLocalRef(soundManager);
 }
 
+QString AndroidActivity::getAudioMetrics() {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return QString();
+    }
+    jobject soundManager = getSoundManager();
+    jclass soundManagerClass = getSoundManagerClass(jni.getJNIEnv(), soundManager);
+    jmethodID getAudioMetricsMethod = jni->GetMethodID(soundManagerClass, "getAudioMetrics",
+            "()Ljava/lang/String;");
+    jstring javaMetrics = reinterpret_cast<jstring>(jni->CallObjectMethod(soundManager,
+            getAudioMetricsMethod));
+    jni->DeleteLocalRef(soundManager);
+    if (!javaMetrics) {
+        return QString();
+    }
+    const char* nativeMetrics = jni->GetStringUTFChars(javaMetrics, nullptr);
+    QString metrics = QString::fromUtf8(nativeMetrics);
+    jni->ReleaseStringUTFChars(javaMetrics, nativeMetrics);
+    jni->DeleteLocalRef(javaMetrics);
+    return metrics;
+}
 
-KeyCode AndroidActivity::getKeyCode(JNIEnv* jni, jobject keyEvent) {
-    jclass keyEventClass = getKeyEventClass(jni, keyEvent);
-    jmethodID getKeyCodeMethod = jni->GetMethodID(keyEventClass, "getKeyCode", "()I");
-    return static_cast<KeyCode>(jni->CallIntMethod(keyEvent, getKeyCodeMethod));
+jobject AndroidActivity::getSoundEffectManager() {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return nullptr;
+    }
+    jclass activityClass = getActivityClass(jni.getJNIEnv());
+    jmethodID getSoundEffectManagerMethod = jni->GetMethodID(activityClass,
+            "getSoundEffectManager", "()L" JAVA_PACKAGE_PREFIX "utils/SoundEffectManager;");
+    return jni->CallObjectMethod(getActivity(), getSoundEffectManagerMethod);
 }
 
-int AndroidActivity::getKeyAction(JNIEnv* jni, jobject keyEvent) {
-    jclass keyEventClass = getKeyEventClass(jni, keyEvent);
-    jmethodID getActionMethod = jni->GetMethodID(keyEventClass, "getAction", "()I");
-    return jni->CallIntMethod(keyEvent, getActionMethod);
+QVector<int> AndroidActivity::preloadSoundEffects(const QStringList& paths) {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return QVector<int>();
+    }
+    jobject soundEffectManager = getSoundEffectManager();
+    jclass soundEffectManagerClass = getSoundEffectManagerClass(jni.getJNIEnv(),
+            soundEffectManager);
+    jmethodID preloadSoundEffectsMethod = jni->GetMethodID(soundEffectManagerClass,
+            "preloadSoundEffects", "([Ljava/lang/String;)[I");
+
+    jclass stringClass = jni->FindClass("java/lang/String");
+    jobjectArray javaPaths = jni->NewObjectArray(paths.size(), stringClass, nullptr);
+    for (int i = 0; i < paths.size(); ++i) {
+        std::string nativePath = paths[i].toStdString();
+        jstring javaPath = jni->NewStringUTF(nativePath.c_str());
+        jni->SetObjectArrayElement(javaPaths, i, javaPath);
+        jni->DeleteLocalRef(javaPath);
+    }
+    jintArray javaHandles = reinterpret_cast<jintArray>(jni->CallObjectMethod(soundEffectManager,
+            preloadSoundEffectsMethod, javaPaths));
+
+    QVector<int> handles;
+    if (javaHandles) {
+        handles.resize(paths.size());
+        jni->GetIntArrayRegion(javaHandles, 0, paths.size(),
+                reinterpret_cast<jint*>(handles.data()));
+        jni->DeleteLocalRef(javaHandles);
+    }
+    jni->DeleteLocalRef(javaPaths);
+    jni->DeleteLocalRef(stringClass);
+    jni->DeleteLocalRef(soundEffectManager);
+    return handles;
 }
 
-bool AndroidActivity::onKeyEvent(JNIEnv* jni, jobject keyEvent,
-        ControllerEvent* controllerEvent) {
-    int action = getKeyAction(jni, keyEvent);
+void AndroidActivity::playSoundEffect(int handle, float volume) {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return;
+    }
+    jobject soundEffectManager = getSoundEffectManager();
+    jclass soundEffectManagerClass = getSoundEffectManagerClass(jni.getJNIEnv(),
+            soundEffectManager);
+    jmethodID playSoundEffectMethod = jni->GetMethodID(soundEffectManagerClass,
+            "playSoundEffect", "(IF)V");
+    jni->CallVoidMethod(soundEffectManager, playSoundEffectMethod, handle, volume);
+    jni->DeleteLocalRef(soundEffectManager);
+}
 
+int AndroidActivity::startSoundEffect(int handle, float volume, bool looped) {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return 0;
+    }
+    jobject soundEffectManager = getSoundEffectManager();
+    jclass soundEffectManagerClass = getSoundEffectManagerClass(jni.getJNIEnv(),
+            soundEffectManager);
+    jmethodID startSoundEffectMethod = jni->GetMethodID(soundEffectManagerClass,
+            "startSoundEffect", "(IFZ)I");
+    jint playbackId = jni->CallIntMethod(soundEffectManager, startSoundEffectMethod, handle,
+            volume, looped);
+    jni->DeleteLocalRef(soundEffectManager);
+    return playbackId;
+}
+
+void AndroidActivity::stopSoundEffect(int playbackId) {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return;
+    }
+    jobject soundEffectManager = getSoundEffectManager();
+    jclass soundEffectManagerClass = getSoundEffectManagerClass(jni.getJNIEnv(),
+            soundEffectManager);
+    jmethodID stopSoundEffectMethod = jni->GetMethodID(soundEffectManagerClass,
+            "stopSoundEffect", "(I)V");
+    jni->CallVoidMethod(soundEffectManager, stopSoundEffectMethod, playbackId);
+    jni->DeleteLocalRef(soundEffectManager);
+}
+
+void AndroidActivity::setSoundEffectVolume(int playbackId, float volume) {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return;
+    }
+    jobject soundEffectManager = getSoundEffectManager();
+    jclass soundEffectManagerClass = getSoundEffectManagerClass(jni.getJNIEnv(),
+            soundEffectManager);
+    jmethodID setSoundEffectVolumeMethod = jni->GetMethodID(soundEffectManagerClass,
+            "setSoundEffectVolume", "(IF)V");
+    jni->CallVoidMethod(soundEffectManager, setSoundEffectVolumeMethod, playbackId, volume);
+    jni->DeleteLocalRef(soundEffectManager);
+}
+
+void AndroidActivity::setSoundEffectLooped(int playbackId, bool looped) {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return;
+    }
+    jobject soundEffectManager = getSoundEffectManager();
+    jclass soundEffectManagerClass = getSoundEffectManagerClass(jni.getJNIEnv(),
+            soundEffectManager);
+    jmethodID setSoundEffectLoopedMethod = jni->GetMethodID(soundEffectManagerClass,
+            "setSoundEffectLooped", "(IZ)V");
+    jni->CallVoidMethod(soundEffectManager, setSoundEffectLoopedMethod, playbackId, looped);
+    jni->DeleteLocalRef(soundEffectManager);
+}
+
+// Copies @p strings into a new Java string array.
+static jobjectArray toJavaStringArray(JNIEnv* jni, const QStringList& strings) {
+    jclass stringClass = jni->FindClass("java/lang/String");
+    jobjectArray javaStrings = jni->NewObjectArray(strings.size(), stringClass, nullptr);
+    for (int i = 0; i < strings.size(); ++i) {
+        std::string nativeString = strings[i].toStdString();
+        jstring javaString = jni->NewStringUTF(nativeString.c_str());
+        jni->SetObjectArrayElement(javaStrings, i, javaString);
+        jni->DeleteLocalRef(javaString);
+    }
+    jni->DeleteLocalRef(stringClass);
+    return javaStrings;
+}
+
+void AndroidActivity::saveState(const QMap<QString, QString>& entries) {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return;
+    }
+    jclass activityClass = getActivityClass(jni.getJNIEnv());
+    jmethodID saveStateMethod = jni->GetMethodID(activityClass, "saveState",
+            "([Ljava/lang/String;[Ljava/lang/String;)V");
+    jobjectArray javaKeys = toJavaStringArray(jni.getJNIEnv(), entries.keys());
+    jobjectArray javaValues = toJavaStringArray(jni.getJNIEnv(), entries.values());
+    jni->CallVoidMethod(getActivity(), saveStateMethod, javaKeys, javaValues);
+    jni->DeleteLocalRef(javaValues);
+    jni->DeleteLocalRef(javaKeys);
+}
+
+QMap<QString, QString> AndroidActivity::loadState() {
+    QMap<QString, QString> entries;
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return entries;
+    }
+    jclass activityClass = getActivityClass(jni.getJNIEnv());
+    jmethodID loadStateMethod = jni->GetMethodID(activityClass, "loadState",
+            "()[Ljava/lang/String;");
+    jobjectArray javaEntries = reinterpret_cast<jobjectArray>(jni->CallObjectMethod(
+            getActivity(), loadStateMethod));
+    if (!javaEntries) {
+        return entries;
+    }
+    // Keys and values alternate.
+    const jsize length = jni->GetArrayLength(javaEntries);
+    for (jsize i = 0; i + 1 < length; i += 2) {
+        jstring javaKey = reinterpret_cast<jstring>(jni->GetObjectArrayElement(javaEntries, i));
+        jstring javaValue = reinterpret_cast<jstring>(jni->GetObjectArrayElement(javaEntries,
+                i + 1));
+        entries.insert(toQString(jni.getJNIEnv(), javaKey),
+                toQString(jni.getJNIEnv(), javaValue));
+        jni->DeleteLocalRef(javaValue);
+        jni->DeleteLocalRef(javaKey);
+    }
+    jni->DeleteLocalRef(javaEntries);
+    return entries;
+}
+
+void AndroidActivity::clearState() {
+    auto jni = getEnv();
+    if (!jni || !getActivity()) {
+        return;
+    }
+    jclass activityClass = getActivityClass(jni.getJNIEnv());
+    jmethodID clearStateMethod = jni->GetMethodID(activityClass, "clearState", "()V");
+    jni->CallVoidMethod(getActivity(), clearStateMethod);
+}
+
+bool AndroidActivity::onKeyEvent(int deviceId, int action, KeyCode keyCode, qint64 eventTime,
+        InputRouter* router) {
     // Ignore repeated events.
     if (action == AKEY_EVENT_ACTION_MULTIPLE) {
         return false;
     }
 
-    KeyCode keyCode = getKeyCode(jni, keyEvent);
-
     // QtActivity is able to convert *most* KeyEvents into corresponding QKeyEvents.
     // However, QtActivity is unable to understand Gamepad buttons, converting them to
     // Qt::Key_Unknown, so we must workaround and capture all key events we know will fail Qt's
@@ -430,8 +792,10 @@ bool AndroidActivity::onKeyEvent(JNIEnv* jni, jobject keyEvent,
         return false;
     }
 
-    controllerEvent->setDeviceId(getKeyEventDeviceId(jni, keyEvent));
-    controllerEvent->setKeyState(keyCode, action == AKEY_EVENT_ACTION_DOWN);
+    ControllerEventQueue::Record record;
+    record.reset(router, deviceId, eventTime);
+    record.setKeyState(keyCode, action == AKEY_EVENT_ACTION_DOWN);
+    pushControllerEvent(&record);
     return true;
 }
 
@@ -455,40 +819,14 @@ jclass AndroidActivity::getSoundManagerClass(JNIEnv* jni, jobject soundManager)
     return sSoundManagerClass;
 }
 
-jclass AndroidActivity::getMotionEventClass(JNIEnv* jni, jobject motionEvent) {
-    if (!sMotionEventClass) {
-        sMotionEventClass = reinterpret_cast<jclass>(jni->NewGlobalRef(
-                (motionEvent) ? jni->GetObjectClass(motionEvent)
-                              : jni->FindClass("android/view/MotionEvent")));
-    }
-    return sMotionEventClass;
-}
-
-jclass AndroidActivity::getKeyEventClass(JNIEnv* jni, jobject keyEvent) {
-    if (!sKeyEventClass && keyEvent) {
-        sKeyEventClass = reinterpret_cast<jclass>(jni->NewGlobalRef(
-                (keyEvent) ? jni->GetObjectClass(keyEvent)
-                           : jni->FindClass("android/view/KeyEvent")));
-    }
-    return sKeyEventClass;
-}
-
-jclass AndroidActivity::getInputDeviceClass(JNIEnv* jni, jobject inputDevice) {
-    if (!sInputDeviceClass && inputDevice) {
-        sInputDeviceClass = reinterpret_cast<jclass>(jni->NewGlobalRef(
-                (inputDevice) ? jni->GetObjectClass(inputDevice)
-                              : jni->FindClass("android/view/InputDevice")));
-    }
-    return sInputDeviceClass;
-}
-
-jclass AndroidActivity::getMotionRangeClass(JNIEnv* jni, jobject motionRange) {
-    if (!sMotionRangeClass && motionRange) {
-        sMotionRangeClass = reinterpret_cast<jclass>(jni->NewGlobalRef(
-                (motionRange) ? jni->GetObjectClass(motionRange)
-                              : jni->FindClass("android/view/InputDevice$MotionRange")));
+jclass AndroidActivity::getSoundEffectManagerClass(JNIEnv* jni, jobject soundEffectManager) {
+    if (!sSoundEffectManagerClass) {
+        sSoundEffectManagerClass = reinterpret_cast<jclass>(jni->NewGlobalRef(
+                (soundEffectManager) ? jni->GetObjectClass(soundEffectManager)
+                                     : jni->FindClass(JAVA_PACKAGE_PREFIX
+                                                      "utils/SoundEffectManager")));
     }
-    return sMotionRangeClass;
+    return sSoundEffectManagerClass;
 }
 
 jclass AndroidActivity::getDebugClass(JNIEnv *jni) {
@@ -499,81 +837,55 @@ jclass AndroidActivity::getDebugClass(JNIEnv *jni) {
     return sDebugClass;
 }
 
-// NOTE: The following two functions could be combined into one by using jni->IsInstanceOf
-// but they were separated into two methods for better performance
-
-int AndroidActivity::getMotionEventDeviceId(JNIEnv* jni, jobject motionEvent) {
-    jclass motionEventClass = getMotionEventClass(jni, motionEvent);
-    jmethodID getDeviceIdMethod = jni->GetMethodID(motionEventClass, "getDeviceId", "()I" );
-    return jni->CallIntMethod(motionEvent, getDeviceIdMethod);
+void AndroidActivity::pushControllerEvent(ControllerEventQueue::Record* record) {
+    record->queueTime = getUptimeNanos();
+    sControllerEventQueue.push(*record);
 }
 
-int AndroidActivity::getKeyEventDeviceId(JNIEnv* jni, jobject keyEvent) {
-    jclass keyEventClass = getKeyEventClass(jni, keyEvent);
-    jmethodID getDeviceIdMethod = jni->GetMethodID(keyEventClass, "getDeviceId", "()I" );
-    return jni->CallIntMethod(keyEvent, getDeviceIdMethod);
+qint64 AndroidActivity::getUptimeNanos() {
+    // Android input event times are based on CLOCK_MONOTONIC (i.e. SystemClock.uptimeMillis()).
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return now.tv_sec * 1000000000LL + now.tv_nsec;
 }
 
-jobject AndroidActivity::getInputDevice(JNIEnv* jni, jobject motionEvent) {
-    jclass motionEventClass = getMotionEventClass(jni, motionEvent);
-    jmethodID getDeviceMethod = jni->GetMethodID(motionEventClass, "getDevice",
-            "()Landroid/view/InputDevice;");
-    return jni->CallObjectMethod(motionEvent, getDeviceMethod);
+InputLatencyMetrics::Source AndroidActivity::getInputLatencySource(const InputRouter* router) {
+    if (router == GamepadRouter::getInstance()) {
+        return InputLatencyMetrics::GAMEPAD_SOURCE;
+    } else if (router == TouchNavigationRouter::getInstance()) {
+        return InputLatencyMetrics::TOUCH_NAVIGATION_SOURCE;
+    }
+    return InputLatencyMetrics::KEYBOARD_SOURCE;
 }
 
-jobject AndroidActivity::getMotionRange(JNIEnv* jni, jobject motionEvent, int axis) {
-    // We are "leaking" this local reference, however this should be automatically freed since this
-    // function is only called on the Java Activity thread (i.e. we did not AttachCurrentThread).
-    // http://developer.android.com/training/articles/perf-jni.html#local_and_global_references
-    jobject device = getInputDevice(jni, motionEvent);
-    jclass deviceClass = getInputDeviceClass(jni, device);
-    jmethodID getMotionRangeMethod = jni->GetMethodID(deviceClass, "getMotionRange",
-            "(I)Landroid/view/InputDevice$MotionRange;");
-    return jni->CallObjectMethod(device, getMotionRangeMethod, axis);
+bool AndroidActivity::getPackedSamples(JNIEnv* jni, int numSamples, jlongArray eventTimes,
+        jfloatArray axes, int numAxes, jlong* eventTimesOut, float* axisDataOut) {
+    const int numValues = numAxes * (RANGE_VALUES_PER_AXIS + numSamples);
+    if (numSamples < 1 || numSamples > MAX_SAMPLES || !eventTimes || !axes
+            || jni->GetArrayLength(eventTimes) < numSamples
+            || jni->GetArrayLength(axes) < numValues) {
+        qWarning() << "Ignoring MotionEvent with invalid packed samples";
+        return false;
+    }
+    jni->GetLongArrayRegion(eventTimes, 0, numSamples, eventTimesOut);
+    jni->GetFloatArrayRegion(axes, 0, numValues, axisDataOut);
+    return true;
 }
 
-float AndroidActivity::getAxisValue(JNIEnv* jni, jobject motionEvent, int axis, float* flatOut,
-        float* minOut, float* rangeOut) {
-    jclass motionEventClass = getMotionEventClass(jni, motionEvent);
-    jmethodID getAxisValueMethod = jni->GetMethodID(motionEventClass, "getAxisValue", "(I)F");
-    float axisValue = jni->CallFloatMethod(motionEvent, getAxisValueMethod, axis);
-
-    // We are "leaking" this local reference, however this should be automatically freed since this
-    // function is only called on the Java Activity thread (i.e. we did not AttachCurrentThread).
-    // http://developer.android.com/training/articles/perf-jni.html#local_and_global_references
-    jobject motionRange = getMotionRange(jni, motionEvent, axis);
-    // If no motion range, we have to make assumptions and return "defaults".
-    if (motionRange != nullptr) {
-        jclass motionRangeClass = getMotionRangeClass(jni, motionRange);
-
-        jmethodID getFlatMethod = jni->GetMethodID(motionRangeClass, "getFlat", "()F");
-        float flat = jni->CallFloatMethod(motionRange, getFlatMethod);
-        if (flatOut) {
-            *flatOut = flat;
-        } else if (fabsf(axisValue) < flat) {
-            axisValue = 0.0f;
-        }
-
-        if (minOut) {
-            jmethodID getMinMethod = jni->GetMethodID(motionRangeClass, "getMin", "()F");
-            *minOut = jni->CallFloatMethod(motionRange, getMinMethod);
-        }
-
-        if (rangeOut) {
-            jmethodID getRangeMethod = jni->GetMethodID(motionRangeClass, "getRange", "()F");
-            *rangeOut = jni->CallFloatMethod(motionRange, getRangeMethod);
-        }
+float AndroidActivity::getPackedAxisValue(const float* motionRange, float axisValue) {
+    // If there is no motion range, the flat is NaN and the value is left as is.
+    if (fabsf(axisValue) < motionRange[RANGE_FLAT_OFFSET]) {
+        axisValue = 0.0f;
     }
-
     return axisValue;
 }
 
-float AndroidActivity::getNormalizedJoystickAxisValue(JNIEnv* jni, jobject motionEvent, int axis) {
-    // Assume [-1,1] for default.
-    float flat = 0.005f;
-    float min = -1.0f;
-    float range = 2.0f;
-    float axisValue = getAxisValue(jni, motionEvent, axis, &flat, &min, &range);
+float AndroidActivity::getNormalizedPackedAxisValue(const float* motionRange, float axisValue) {
+    // If there is no motion range, assume [-1,1].
+    const bool hasMotionRange = !std::isnan(motionRange[RANGE_RANGE_OFFSET]);
+    const float flat = hasMotionRange ? motionRange[RANGE_FLAT_OFFSET] : 0.005f;
+    const float min = hasMotionRange ? motionRange[RANGE_MIN_OFFSET] : -1.0f;
+    const float range = hasMotionRange ? motionRange[RANGE_RANGE_OFFSET] : 2.0f;
 
     if (fabsf(axisValue) < flat) {
         axisValue = 0.0f;
@@ -602,33 +914,114 @@ QKeyEvent* AndroidActivity::convertAndroidKeyEvent(int action, KeyCode keyCode)
     return new QKeyEvent(translatedAction, translatedKeyCode, Qt::NoModifier);
 }
 
-void AndroidActivity::onStudentUpdateReceiver(JNIEnv* env, jobject obj, jstring availableLetters)
-{
-    QString letters(env->GetStringUTFChars(availableLetters, 0));
-    Engine* engine = Engine::getInstance();
-    engine->setValidLettersAndNumbers(letters);
+// Copies a Java int array into a QVector.
+static QVector<int> toIntVector(JNIEnv* jni, jintArray javaArray) {
+    QVector<int> values;
+    if (javaArray) {
+        values.resize(jni->GetArrayLength(javaArray));
+        jni->GetIntArrayRegion(javaArray, 0, values.size(), reinterpret_cast<jint*>(values.data()));
+    }
+    return values;
+}
+
+void AndroidActivity::onStudentSkillsChanged(JNIEnv* jni, jobject /* activity */,
+        jintArray skills, jint version) {
+    StudentSkills nativeSkills(toIntVector(jni, skills));
+    QMutexLocker locker(&sStudentSkillsMutex);
+    sStudentSkills = nativeSkills;
+    // Publish the version last, so that readers polling it always find the matching skills.
+    sStudentSkillsVersion.storeRelease(version);
 }
 
-QString AndroidActivity::validLetters()
-{
+StudentSkills AndroidActivity::getStudentSkills() {
+    {
+        QMutexLocker locker(&sStudentSkillsMutex);
+        if (sStudentSkillsVersion.loadAcquire() != 0) {
+            return sStudentSkills;
+        }
+    }
+
+    // Nothing has been pushed yet, so fall back to asking the activity once.
     auto jni = getEnv();
     if (!jni || !getActivity()) {
-        return "";
+        return StudentSkills();
     }
     jclass activityClass = getActivityClass(jni.getJNIEnv());
+    jmethodID getStudentSkillsMethod = jni->GetMethodID(activityClass, "getStudentSkills",
+            "()[I");
+    jintArray javaSkills = reinterpret_cast<jintArray>(jni->CallObjectMethod(getActivity(),
+            getStudentSkillsMethod));
+    StudentSkills skills(toIntVector(jni.getJNIEnv(), javaSkills));
+    if (javaSkills) {
+        jni->DeleteLocalRef(javaSkills);
+    }
+    return skills;
+}
 
-    jmethodID getValidLettersMethod = jni->GetMethodID(activityClass, "getValidLetters",
-            "()Ljava/lang/String;");
-    jstring javaLetters = reinterpret_cast<jstring>(jni->CallObjectMethod(getActivity(),
-            getValidLettersMethod));
-    if (!javaLetters) {
+int AndroidActivity::getStudentSkillsVersion() {
+    return sStudentSkillsVersion.loadAcquire();
+}
+
+void AndroidActivity::processControllerEvents() {
+    // Events routed during a frame that did not update the game were never consumed by it.
+    sNumUnconsumedEvents = 0;
+    sControllerEventQueue.drain([] (const ControllerEventQueue::Record& record) {
+        if (record.isDisconnect || record.eventTime <= 0) {
+            return;
+        }
+        const InputLatencyMetrics::Source source = getInputLatencySource(record.router);
+        const qint64 eventTimeNanos = record.eventTime * 1000000LL;
+        sInputLatencyMetrics.record(source, InputLatencyMetrics::DISPATCH_STAGE,
+                (record.queueTime - eventTimeNanos) / 1000000.0);
+        sInputLatencyMetrics.record(source, InputLatencyMetrics::ROUTING_STAGE,
+                (getUptimeNanos() - record.queueTime) / 1000000.0);
+        if (sNumUnconsumedEvents < MAX_UNCONSUMED_EVENTS) {
+            sUnconsumedEventTimes[sNumUnconsumedEvents++] = qMakePair(source, eventTimeNanos);
+        }
+    });
+    unsigned long long overflowCount = sControllerEventQueue.takeOverflowCount();
+    if (overflowCount > 0) {
+        qWarning() << "Dropped" << overflowCount << "controller events since the last frame ("
+                   << sControllerEventQueue.getTotalOverflowCount() << "in total)";
+    }
+}
+
+void AndroidActivity::onControllerEventsConsumed() {
+    const qint64 now = getUptimeNanos();
+    for (int i = 0; i < sNumUnconsumedEvents; ++i) {
+        const QPair<InputLatencyMetrics::Source, qint64>& eventTime = sUnconsumedEventTimes[i];
+        sInputLatencyMetrics.record(eventTime.first, InputLatencyMetrics::FRAME_STAGE,
+                (now - eventTime.second) / 1000000.0);
+    }
+    sNumUnconsumedEvents = 0;
+}
+
+const InputLatencyMetrics& AndroidActivity::getInputLatencyMetrics() {
+    return sInputLatencyMetrics;
+}
+
+void AndroidActivity::resetInputLatencyMetrics() {
+    sInputLatencyMetrics.reset();
+}
+
+QString AndroidActivity::getDeviceModel() {
+    auto jni = getEnv();
+    if (!jni) {
+        return QString();
+    }
+    jclass buildClass = jni->FindClass("android/os/Build");
+    jfieldID modelField = jni->GetStaticFieldID(buildClass, "MODEL", "Ljava/lang/String;");
+    jstring javaModel = reinterpret_cast<jstring>(jni->GetStaticObjectField(buildClass,
+            modelField));
+    jni->DeleteLocalRef(buildClass);
+    if (!javaModel) {
         return QString();
     }
-    const char* nativeValidLetters = jni->GetStringUTFChars(javaLetters, nullptr);
-    QString letters = QString::fromUtf8(nativeValidLetters);
-    jni->ReleaseStringUTFChars(javaLetters, nativeValidLetters);
-    jni->DeleteLocalRef(javaLetters);
-    return letters;
+    const char* nativeModel = jni->GetStringUTFChars(javaModel, nullptr);
+    QString model = QString::fromUtf8(nativeModel);
+    jni->ReleaseStringUTFChars(javaModel, nativeModel);
+    jni->DeleteLocalRef(javaModel);
+    return model;
 }
 
 #endif // Q_OS_ANDROID
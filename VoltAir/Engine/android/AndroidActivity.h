@@ -21,16 +21,25 @@
 
 #if defined(Q_OS_ANDROID)
 
+#include <GameInput/ControllerEventQueue.h>
 #include <GameInput/JoystickAxisCodes.h>
 #include <GameInput/KeyCodes.h>
 #include <GameInput/TriggerAxisCodes.h>
 #include <QEvent>
+#include <QPair>
+#include <QAtomicInt>
 #include <QMap>
+#include <QMutex>
 #include <QSet>
+#include <QStringList>
+#include <QVariantMap>
+#include <QVector>
 #include <jni.h>
 #include "SelfDetachingJNIEnv.h"
+#include "utils/InputLatencyMetrics.h"
+#include "utils/StudentSkills.h"
 
-class ControllerEvent;
+class InputRouter;
 class QKeyEvent;
 
 /**
@@ -116,6 +125,12 @@ public:
      * @param activity Object reference to invoking Android activity
      */
     static void onDestroy(JNIEnv* jni, jobject activity);
+    /**
+     * @ingroup JNINativeMethod
+     * @brief Android activity @c onTrimMemory / @c onLowMemory callback.
+     * @param tier Eviction tier, see Engine::MemoryTrimTier
+     */
+    static void onTrimMemory(JNIEnv*, jobject, jint tier);
 
     /**
      * @ingroup JNINativeMethod
@@ -129,46 +144,90 @@ public:
      * @brief Android activity @c onGamepadMotionEvent callback for an Android @c MotionEvent that
      * originated from a gamepad device.
      * @param jni Current JNI environment
-     * @param motionEvent Object reference to the Android @c MotionEvent
+     * @param deviceId Id of the device which generated the event
+     * @param numSamples Number of samples packed, from oldest to newest
+     * @param eventTimes Event time of each sample, in milliseconds since boot
+     * @param axes Axis values and motion ranges packed by @c MotionEventAxes.pack() with
+     * @c MotionEventAxes.GAMEPAD_AXES
      * @returns @c true if the event was handled
      */
-    static bool onGamepadMotionEvent(JNIEnv* jni, jobject, jobject motionEvent);
+    static bool onGamepadMotionEvent(JNIEnv* jni, jobject, jint deviceId, jint numSamples,
+            jlongArray eventTimes, jfloatArray axes);
     /**
      * @ingroup JNINativeMethod
      * @brief Android activity @c onGamepadKeyEvent callback for an Android @c KeyEvent that
      * originated from a gamepad device.
-     * @param jni Current JNI environment
-     * @param keyEvent Object reference to the Android @c KeyEvent
+     * @param deviceId Id of the device which generated the event
+     * @param action Action of the event
+     * @param keyCode Android key code of the event
+     * @param eventTime Time at which the event occurred, in milliseconds since boot
      * @returns @c true if the event was handled
      */
-    static bool onGamepadKeyEvent(JNIEnv* jni, jobject, jobject keyEvent);
+    static bool onGamepadKeyEvent(JNIEnv*, jobject, jint deviceId, jint action, jint keyCode,
+            jlong eventTime);
     /**
      * @ingroup JNINativeMethod
      * @brief Android activity @c onTouchNavigationMotionEvent callback for an Android @c
      * MotionEvent that originated from a touch navigation device.
      * @param jni Current JNI environment
-     * @param motionEvent Object reference to the Android @c MotionEvent
+     * @param deviceId Id of the device which generated the event
+     * @param action Masked action of the event
+     * @param numSamples Number of samples packed, from oldest to newest
+     * @param eventTimes Event time of each sample, in milliseconds since boot
+     * @param axes Axis values and motion ranges packed by @c MotionEventAxes.pack() with
+     * @c MotionEventAxes.TOUCH_NAVIGATION_AXES
      * @returns @c true if the event was handled
      */
-    static bool onTouchNavigationMotionEvent(JNIEnv* jni, jobject, jobject motionEvent);
+    static bool onTouchNavigationMotionEvent(JNIEnv* jni, jobject, jint deviceId, jint action,
+            jint numSamples, jlongArray eventTimes, jfloatArray axes);
     /**
      * @ingroup JNINativeMethod
      * @brief Android activity @c onTouchNavigationKeyEvent callback for an Android @c KeyEvent that
      * originated from a touch navigation device.
-     * @param jni Current JNI environment
-     * @param keyEvent Object reference to the Android @c KeyEvent
+     * @param deviceId Id of the device which generated the event
+     * @param action Action of the event
+     * @param keyCode Android key code of the event
+     * @param eventTime Time at which the event occurred, in milliseconds since boot
      * @returns @c true if the event was handled
      */
-    static bool onTouchNavigationKeyEvent(JNIEnv* jni, jobject, jobject keyEvent);
+    static bool onTouchNavigationKeyEvent(JNIEnv*, jobject, jint deviceId, jint action, jint keyCode,
+            jlong eventTime);
     /**
      * @ingroup JNINativeMethod
      * @brief Android activity @c onKeyboardKeyEvent callback for an Android @c KeyEvent that
      * originated from a keyboard device.
-     * @param jni Current JNI environment
-     * @param keyEvent Object reference to the Android @c KeyEvent
+     * @param deviceId Id of the device which generated the event
+     * @param action Action of the event
+     * @param keyCode Android key code of the event
+     * @param eventTime Time at which the event occurred, in milliseconds since boot
      * @returns @c true if the event was handled
      */
-    static bool onKeyboardKeyEvent(JNIEnv* jni, jobject, jobject keyEvent);
+    static bool onKeyboardKeyEvent(JNIEnv*, jobject, jint deviceId, jint action, jint keyCode,
+            jlong eventTime);
+    /**
+     * @ingroup JNINativeMethod
+     * @brief Android activity @c onCloudDataLoaded callback, made once remote save state has been
+     * merged into the local save state.
+     *
+     * The data is handed to the Engine thread, so this may be called from any thread.
+     * @param jni Current JNI environment
+     * @param statusCode Status of the load, zero implying success, non-zero is error
+     * @param data JSON encoded save state, or @c null if an error occurred
+     */
+    static void onCloudDataLoaded(JNIEnv* jni, jobject, jint statusCode, jstring data);
+    /**
+     * @ingroup JNINativeMethod
+     * @brief Android activity @c onCloudDataConflict callback, made when local and remote save
+     * state changed the same entries.
+     * @note This blocks until the Game has resolved the conflict on its own thread, and must not be
+     * called from that thread.
+     * @param jni Current JNI environment
+     * @param localData JSON encoded local save state
+     * @param serverData JSON encoded remote save state
+     * @returns JSON encoded resolved save state, or @c null if the Game is unavailable
+     */
+    static jstring onCloudDataConflict(JNIEnv* jni, jobject, jstring localData,
+            jstring serverData);
 
     /**
      * @brief Launch an intent to show the GPGS achievements activity screen.
@@ -180,6 +239,29 @@ public:
      * no longer in staging.
      */
     static void resetAchievementsRequested();
+    /**
+     * @brief Notifies the Android activity that the first frame has been swapped to the screen.
+     *
+     * The activity defers non-critical initialization work until then.
+     * @note This is called from the Qt render thread.
+     */
+    static void onFirstFrameSwapped();
+    /**
+     * @brief Queues the unlock of the GPGS achievement @p name.
+     *
+     * The Android activity only buffers the unlock, and flushes it in a batch later on.
+     * @param name Android resource name of the achievement
+     * @returns @c true if the achievement is known and its unlock has been queued
+     */
+    static bool unlockAchievement(const QString& name);
+    /**
+     * @brief Records the telemetry event @p name.
+     *
+     * The event is only queued to disk on a background thread, and uploaded later in a batch.
+     * @param name Name of the event
+     * @param fields Fields of the event, which must be convertible to JSON
+     */
+    static void logTelemetryEvent(const QString& name, const QVariantMap& fields);
     /**
      * @brief Returns the version string of the Android application.
      */
@@ -207,6 +289,12 @@ public:
      * @param track Name of track to use for BGM
      */
     static void setBGMTrack(int priority, const QString& track);
+    /**
+     * @brief Asks the Android SoundManager to prepare @p track ahead of time.
+     * @note See SoundManager::prefetchBGMTrack for more details.
+     * @param track Name of track to prefetch
+     */
+    static void prefetchBGMTrack(const QString& track);
     /**
      * @brief Returns whether or not the Android SoundManager's background music is muted.
      * @note See SoundManager::isBGMMuted for more details.
@@ -223,49 +311,161 @@ public:
      * @param value @c true if pausing BGM
      */
     static void setBGMPaused(bool value);
+    /**
+     * @brief Returns a snapshot of the Android SoundManager's audio performance metrics as a JSON
+     * object, or an empty string if the Android activity is unavailable.
+     * @note See SoundManager::getAudioMetrics for more details.
+     */
+    static QString getAudioMetrics();
+    /**
+     * @brief Starts preloading the sound effects at @p paths into the Android SoundEffectManager.
+     * @param paths Asset paths of the sound effects to preload
+     * @returns Handle of each sound effect in @p paths, in the same order, or an empty vector if
+     * the Android activity is unavailable
+     */
+    static QVector<int> preloadSoundEffects(const QStringList& paths);
+    /**
+     * @brief Plays a one-shot sound effect through the Android SoundEffectManager.
+     * @param handle Handle of the sound effect, as returned by preloadSoundEffects()
+     * @param volume Linear gain from @c 0.0 to @c 1.0
+     */
+    static void playSoundEffect(int handle, float volume);
+    /**
+     * @brief Starts playing a sound effect through the Android SoundEffectManager.
+     * @param handle Handle of the sound effect, as returned by preloadSoundEffects()
+     * @param volume Linear gain from @c 0.0 to @c 1.0
+     * @param looped @c true to loop the sound effect until stopSoundEffect() is called
+     * @returns Playback id of the started play, or @c 0 if it could not be started
+     */
+    static int startSoundEffect(int handle, float volume, bool looped);
+    /**
+     * @brief Stops a play started with startSoundEffect(), if it is still playing.
+     * @param playbackId Playback id, as returned by startSoundEffect()
+     */
+    static void stopSoundEffect(int playbackId);
+    /**
+     * @brief Changes the volume of a play started with startSoundEffect().
+     * @param playbackId Playback id, as returned by startSoundEffect()
+     * @param volume Linear gain from @c 0.0 to @c 1.0
+     */
+    static void setSoundEffectVolume(int playbackId, float volume);
+    /**
+     * @brief Changes whether a play started with startSoundEffect() loops.
+     * @param playbackId Playback id, as returned by startSoundEffect()
+     * @param looped @c true to keep looping, @c false to finish the current iteration
+     */
+    static void setSoundEffectLooped(int playbackId, bool looped);
 
     /**
-     * @brief Android activity @c onStudentUpdateReceiver callback for a StudentUpdate bradcast message.
-     * The letters are stored on SharedPreferences.
-     * @param env Current JNI environment
-     * @param obj
-     * @param availableLetters String that stores the available letters for the student
+     * @brief Replaces the save state held by the Android activity with @p entries.
+     *
+     * Only changed entries are written, behind, to the local save state store, which also pushes
+     * them to the cloud save if one is available.
+     * @param entries Save state entries, whose values are JSON encoded
      */
-    static void onStudentUpdateReceiver(JNIEnv *env, jobject obj, jstring availableLetters);
+    static void saveState(const QMap<QString, QString>& entries);
+    /**
+     * @brief Returns the save state entries held by the Android activity, or an empty map if there
+     * are none or the Android activity is unavailable.
+     */
+    static QMap<QString, QString> loadState();
+    /**
+     * @brief Deletes the save state held by the Android activity.
+     */
+    static void clearState();
 
     /**
-     * @brief Android activity @c validLetters returns the letters sent by the broadcast message some time ago. If
-     * no broadcast message was sent, then a default value is retrieved.
-     * If a broadcast message was received before, then the returned letters are retrieve from SharedPreferences.
-     * @return the letters
+     * @brief Android activity @c onStudentSkillsChanged callback, pushed whenever the letters and
+     * numbers valid for the student change.
+     *
+     * The skills are cached natively, so that reading them never requires JNI or preference
+     * access. This may be called from any thread.
+     * @param jni Current JNI environment
+     * @param activity Android activity that pushed the skills
+     * @param skills Letters and numbers encoded as described in StudentSkills
+     * @param version Version of @p skills, which increases with every change
+     */
+    static void onStudentSkillsChanged(JNIEnv* jni, jobject activity, jintArray skills,
+            jint version);
+    /**
+     * @brief Returns the cached skills last pushed through onStudentSkillsChanged().
+     *
+     * If no skills have been pushed yet, they are retrieved once from the Android activity.
      */
-    static QString validLetters();
+    static StudentSkills getStudentSkills();
+    /**
+     * @brief Returns the version of the cached skills, or @c 0 if none have been pushed yet.
+     *
+     * This is cheap enough to poll every frame.
+     */
+    static int getStudentSkillsVersion();
+
+    /**
+     * @brief Routes all controller events captured on the Android UI thread since the last call.
+     *
+     * Input callbacks only queue events, so that input capture never waits on the native routers.
+     * This should be called from the game thread at the start of each frame.
+     */
+    static void processControllerEvents();
+    /**
+     * @brief Notifies that the game has consumed the controller events routed by the last call to
+     * processControllerEvents(), recording their end-to-end latency.
+     *
+     * This should be called from the game thread once the frame's logic and physics have been
+     * updated.
+     */
+    static void onControllerEventsConsumed();
+    /**
+     * @brief Returns the input latency histograms recorded so far.
+     * @note This must only be called from the game thread.
+     */
+    static const InputLatencyMetrics& getInputLatencyMetrics();
+    /**
+     * @brief Clears the input latency histograms.
+     * @note This must only be called from the game thread.
+     */
+    static void resetInputLatencyMetrics();
+    /**
+     * @brief Returns the end-user-visible name of the device model (i.e. @c Build.MODEL).
+     */
+    static QString getDeviceModel();
 
 private:
-    static bool onKeyEvent(JNIEnv* jni, jobject keyEvent, ControllerEvent* controllerEvent);
+    /**
+     * Queues the key event for @p router. Returns false if the event should be ignored.
+     */
+    static bool onKeyEvent(int deviceId, int action, KeyCode keyCode, qint64 eventTime,
+            InputRouter* router);
+    /**
+     * Stamps @p record with the current time and queues it.
+     */
+    static void pushControllerEvent(ControllerEventQueue::Record* record);
+    /**
+     * Returns the current time in the time base of Android input events, in nanoseconds.
+     */
+    static qint64 getUptimeNanos();
+    static InputLatencyMetrics::Source getInputLatencySource(const InputRouter* router);
     static jclass getSoundManagerClass(JNIEnv* jni, jobject soundManager = nullptr);
-    static jclass getMotionEventClass(JNIEnv* jni, jobject motionEvent = nullptr);
-    static jclass getKeyEventClass(JNIEnv* jni, jobject keyEvent = nullptr);
-    static jclass getInputDeviceClass(JNIEnv* jni, jobject inputDevice = nullptr);
-    static jclass getMotionRangeClass(JNIEnv* jni, jobject motionRange = nullptr);
+    static jclass getSoundEffectManagerClass(JNIEnv* jni, jobject soundEffectManager = nullptr);
     static jclass getDebugClass(JNIEnv* jni);
 
-    static int getMotionEventDeviceId(JNIEnv* jni, jobject motionEvent);
-    static KeyCode getKeyCode(JNIEnv* jni, jobject keyEvent);
-    static int getKeyAction(JNIEnv* jni, jobject keyEvent);
-    static int getKeyEventDeviceId(JNIEnv* jni, jobject keyEvent);
-    static jobject getInputDevice(JNIEnv* jni, jobject motionEvent);
-    static jobject getMotionRange(JNIEnv* jni, jobject motionEvent, int axis);
     /**
-     * Returns the axis value and the motion range values associated with the axis (if out params
-     * are non-null).  If flatOut param is null, then the axis value returned is pre-flattened.
+     * Copies @p numSamples packed samples of @p numAxes axes into @p eventTimesOut and
+     * @p axisDataOut, which must hold at least MAX_SAMPLES and
+     * @p numAxes * (RANGE_VALUES_PER_AXIS + MAX_SAMPLES) values respectively. Returns false if
+     * the sample count is out of bounds or the arrays are too short.
+     */
+    static bool getPackedSamples(JNIEnv* jni, int numSamples, jlongArray eventTimes,
+            jfloatArray axes, int numAxes, jlong* eventTimesOut, float* axisDataOut);
+    /**
+     * Returns @p axisValue flattened by the packed @p motionRange.
      */
-    static float getAxisValue(JNIEnv* jni, jobject motionEvent, int axis, float* flatOut = nullptr,
-            float* minOut = nullptr, float* rangeOut = nullptr);
+    static float getPackedAxisValue(const float* motionRange, float axisValue);
     /**
-     * Converts the axis value to be on a real scale from [-1, 1] for Joystick use.
+     * Converts @p axisValue to be on a real scale from [-1, 1] for Joystick use, according to the
+     * packed @p motionRange.
      */
-    static float getNormalizedJoystickAxisValue(JNIEnv* jni, jobject motionEvent, int axis);
+    static float getNormalizedPackedAxisValue(const float* motionRange, float axisValue);
     /**
      * Returns whether or not we should accept and consume Android events which have been translated
      * and possibly routed to VirtualControllers.
@@ -273,6 +473,18 @@ private:
     static bool shouldConsumeTranslatedEvents();
     static QKeyEvent* convertAndroidKeyEvent(int action, KeyCode keyCode);
     static jobject getSoundManager();
+    static jobject getSoundEffectManager();
+
+    // Layout of packed samples, see MotionEventAxes.java.
+    static const int RANGE_VALUES_PER_AXIS = 3;
+    static const int RANGE_FLAT_OFFSET = 0;
+    static const int RANGE_MIN_OFFSET = 1;
+    static const int RANGE_RANGE_OFFSET = 2;
+    static const int MAX_SAMPLES = 16;
+    // Matches the default capacity of ControllerEventQueue, which bounds the events per drain.
+    static const int MAX_UNCONSUMED_EVENTS = 256;
+    static const int GAMEPAD_AXES[];
+    static const int TOUCH_NAVIGATION_AXES[];
 
     static QMap<int, JoystickAxisCode> sGamepadJoystickAxisConversionMap;
     static QMap<int, TriggerAxisCode> sGamepadTriggerAxisConversionMap;
@@ -285,13 +497,23 @@ private:
 
     static jclass sActivityClass;
     static jclass sSoundManagerClass;
-    static jclass sMotionEventClass;
-    static jclass sKeyEventClass;
-    static jclass sInputDeviceClass;
-    static jclass sMotionRangeClass;
+    static jclass sSoundEffectManagerClass;
     static jclass sDebugClass;
 
     static JavaVM* sJavaVM;
+
+    // Written on the Android UI thread and drained on the game thread.
+    static ControllerEventQueue sControllerEventQueue;
+    // Latency metrics and the sources and times (in nanoseconds) of events routed but not yet
+    // consumed by the game. Fixed-size, so that routing events never allocates. Only touched on the
+    // game thread.
+    static InputLatencyMetrics sInputLatencyMetrics;
+    static QPair<InputLatencyMetrics::Source, qint64> sUnconsumedEventTimes[MAX_UNCONSUMED_EVENTS];
+    static int sNumUnconsumedEvents;
+
+    static QMutex sStudentSkillsMutex;
+    static StudentSkills sStudentSkills;
+    static QAtomicInt sStudentSkillsVersion;
 };
 
 #endif // Q_OS_ANDROID
@@ -47,33 +47,45 @@ static const JNINativeMethod JNI_METHODS[] = {
         "onApplicationDestroy", "()V",
         reinterpret_cast<void*>(AndroidActivity::onDestroy)
     },
+    {
+        "onApplicationTrimMemory", "(I)V",
+        reinterpret_cast<void*>(AndroidActivity::onTrimMemory)
+    },
     {
         "onControllerDisconnect", "(I)V",
         reinterpret_cast<void*>(AndroidActivity::onControllerDisconnect)
     },
     {
-        "onGamepadMotionEvent", "(Landroid/view/MotionEvent;)Z",
+        "onGamepadMotionEvent", "(II[J[F)Z",
         reinterpret_cast<void*>(AndroidActivity::onGamepadMotionEvent)
     },
     {
-        "onGamepadKeyEvent", "(Landroid/view/KeyEvent;)Z",
+        "onGamepadKeyEvent", "(IIIJ)Z",
         reinterpret_cast<void*>(AndroidActivity::onGamepadKeyEvent)
     },
     {
-        "onTouchNavigationMotionEvent", "(Landroid/view/MotionEvent;)Z",
+        "onTouchNavigationMotionEvent", "(III[J[F)Z",
         reinterpret_cast<void*>(AndroidActivity::onTouchNavigationMotionEvent)
     },
     {
-        "onTouchNavigationKeyEvent", "(Landroid/view/KeyEvent;)Z",
+        "onTouchNavigationKeyEvent", "(IIIJ)Z",
         reinterpret_cast<void*>(AndroidActivity::onTouchNavigationKeyEvent)
     },
     {
-        "onKeyboardKeyEvent", "(Landroid/view/KeyEvent;)Z",
+        "onKeyboardKeyEvent", "(IIIJ)Z",
         reinterpret_cast<void*>(AndroidActivity::onKeyboardKeyEvent)
     },
     {
-        "onStudentUpdateReceiver", "(Ljava/lang/String;)V",
-        reinterpret_cast<void*>(AndroidActivity::onStudentUpdateReceiver)
+        "onCloudDataLoaded", "(ILjava/lang/String;)V",
+        reinterpret_cast<void*>(AndroidActivity::onCloudDataLoaded)
+    },
+    {
+        "onCloudDataConflict", "(Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;",
+        reinterpret_cast<void*>(AndroidActivity::onCloudDataConflict)
+    },
+    {
+        "onStudentSkillsChanged", "([II)V",
+        reinterpret_cast<void*>(AndroidActivity::onStudentSkillsChanged)
     },
 };
 static const int sNumOfJNIMethods = sizeof(JNI_METHODS) / sizeof(JNI_METHODS[0]);
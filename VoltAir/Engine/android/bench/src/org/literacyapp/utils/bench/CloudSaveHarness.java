@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils.bench;
+
+import org.literacyapp.utils.CloudSaveSync;
+import org.literacyapp.utils.FileCloudSaveService;
+import org.literacyapp.utils.SaveStateStore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * @brief Harness that runs SaveStateStore, CloudSaveSync and FileCloudSaveService together on a
+ * plain JVM.
+ *
+ * Several simulated devices, each with its own local and base SaveStateStore, sync through one
+ * FileCloudSaveService file in a temporary directory. The harness checks:
+ * - merge: progress made on different entries on two devices ends up on both and in the cloud
+ * - conflict: an entry changed differently on two devices is reported to the listener, and the
+ *   state resolved by the game is pushed and merged into the other device
+ * - crash truncation: a local log cut off at every byte of its last record, or followed by
+ *   garbage, loads the last complete state and can be appended to again
+ *
+ * Usage: CloudSaveHarness
+ * @note No Android class is used, so this runs without @c android.jar. It exits with a non-zero
+ * status if any check fails.
+ */
+public class CloudSaveHarness {
+    private final File mDir;
+    private final FileCloudSaveService mService;
+    private int mChecks = 0;
+    private int mFailures = 0;
+
+    // A simulated device syncing with the shared FileCloudSaveService.
+    private class Device implements CloudSaveSync.Listener {
+        final SaveStateStore mLocalStore;
+        final CloudSaveSync mSync;
+        int mMerges = 0;
+        int mConflicts = 0;
+
+        Device(String name) {
+            mLocalStore = new SaveStateStore(new File(mDir, name + "_save_state.dat"));
+            mSync = new CloudSaveSync(mLocalStore,
+                    new SaveStateStore(new File(mDir, name + "_cloud_save_base.dat")), mService,
+                    this);
+        }
+
+        // Saves entries like VoltAirActivity.saveState() and waits for the sync to complete.
+        void save(Map<String, String> entries) {
+            mLocalStore.put(entries);
+            sync();
+        }
+
+        void sync() {
+            mSync.requestSync();
+            mSync.flush();
+            mLocalStore.flush();
+        }
+
+        @Override
+        public void onCloudDataMerged(String json) {
+            mMerges++;
+        }
+
+        @Override
+        public String onCloudDataConflict(String localJson, String serverJson) {
+            mConflicts++;
+            // Like native code, the resolved state is saved through save() instead of returned.
+            return null;
+        }
+    }
+
+    /**
+     * @brief Runs the harness.
+     * @param args Command line arguments, which are ignored
+     * @throws IOException if the temporary directory could not be set up
+     */
+    public static void main(String[] args) throws IOException {
+        // Truncated records are expected here, so do not log every one of them.
+        Logger.getLogger("org.literacyapp.utils").setLevel(Level.SEVERE);
+        File dir = File.createTempFile("cloud_save_harness", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        CloudSaveHarness harness = new CloudSaveHarness(dir);
+        try {
+            harness.runMerge();
+            harness.runConflict();
+            harness.runCrashTruncation();
+        } finally {
+            deleteRecursively(dir);
+        }
+        System.out.println(String.format("Cloud save harness: %d checks, %d failed",
+                harness.mChecks, harness.mFailures));
+        // The stores' and syncs' executor threads keep the JVM alive otherwise.
+        System.exit((harness.mFailures > 0) ? 1 : 0);
+    }
+
+    private CloudSaveHarness(File dir) {
+        mDir = dir;
+        mService = new FileCloudSaveService(new File(dir, "cloud_save.dat"));
+    }
+
+    private void runMerge() throws IOException {
+        Device first = new Device("merge_a");
+        Device second = new Device("merge_b");
+        first.save(entries("NumStars/Main", "3"));
+        second.save(entries("NumStars/Alt", "2"));
+        first.sync();
+
+        Map<String, String> expected = entries("NumStars/Main", "3", "NumStars/Alt", "2");
+        check("merge: first device", expected, first.mLocalStore.getEntries());
+        check("merge: second device", expected, second.mLocalStore.getEntries());
+        check("merge: cloud", expected, mService.load().entries);
+        check("merge: merges reported", 2, first.mMerges + second.mMerges);
+        check("merge: no conflicts", 0, first.mConflicts + second.mConflicts);
+        checkReopened("merge: first device reopened", "merge_a", expected);
+        clearCloud();
+    }
+
+    private void runConflict() throws IOException {
+        Device first = new Device("conflict_a");
+        Device second = new Device("conflict_b");
+        first.save(entries("NumStars/Main", "1"));
+        second.sync();
+
+        first.save(entries("NumStars/Main", "5"));
+        second.save(entries("NumStars/Main", "7"));
+        check("conflict: reported once", 1, second.mConflicts);
+        check("conflict: local state kept", entries("NumStars/Main", "7"),
+                second.mLocalStore.getEntries());
+
+        // The game resolves the conflict by keeping the higher score and saves it.
+        second.save(entries("NumStars/Main", "7"));
+        first.sync();
+        Map<String, String> expected = entries("NumStars/Main", "7");
+        check("conflict: resolved state pushed", expected, mService.load().entries);
+        check("conflict: resolved state merged", expected, first.mLocalStore.getEntries());
+        check("conflict: first device not in conflict", 0, first.mConflicts);
+        clearCloud();
+    }
+
+    private void runCrashTruncation() throws IOException {
+        File file = new File(mDir, "truncation_save_state.dat");
+        ArrayList<Map<String, String>> states = new ArrayList<Map<String, String>>();
+        states.add(entries("NumStars/Main", "1"));
+        states.add(entries("NumStars/Main", "2", "NumStars/Alt", "1"));
+        states.add(entries("NumStars/Main", "3", "NumStars/Alt", "1", "Collected/Main", "12"));
+        ArrayList<Long> lengths = new ArrayList<Long>();
+        SaveStateStore store = new SaveStateStore(file);
+        for (Map<String, String> state : states) {
+            store.put(state);
+            store.flush();
+            lengths.add(file.length());
+        }
+        byte[] log = readFile(file);
+
+        Map<String, String> lastComplete = states.get(states.size() - 2);
+        Map<String, String> appended = new HashMap<String, String>(lastComplete);
+        appended.put("NumStars/Main", "4");
+        long start = lengths.get(lengths.size() - 2);
+        long end = lengths.get(lengths.size() - 1);
+        int mismatches = 0;
+        for (long cut = start; cut < end; ++cut) {
+            writeFile(file, log, (int) cut);
+            if (!loadAndAppend(file, lastComplete, appended)) {
+                mismatches++;
+            }
+        }
+        check("truncation: every cut in the last record", 0, mismatches);
+
+        byte[] garbage = new byte[log.length + 16];
+        System.arraycopy(log, 0, garbage, 0, log.length);
+        for (int i = log.length; i < garbage.length; ++i) {
+            garbage[i] = (byte) (0x5a ^ i);
+        }
+        writeFile(file, garbage, garbage.length);
+        check("truncation: trailing garbage",
+                true, loadAndAppend(file, states.get(states.size() - 1), appended));
+
+        // A snapshot interrupted before its rename only leaves a temporary file behind.
+        Device device = new Device("truncation_device");
+        device.save(entries("NumStars/Main", "2"));
+        File tempFile = new File(mDir, "cloud_save.dat.tmp");
+        writeFile(tempFile, log, log.length / 2);
+        device.save(entries("NumStars/Main", "3"));
+        check("truncation: cloud ignores partial snapshot", entries("NumStars/Main", "3"),
+                mService.load().entries);
+        clearCloud();
+    }
+
+    // Loads file, which should hold expected, then appends appended and reloads it.
+    private boolean loadAndAppend(File file, Map<String, String> expected,
+            Map<String, String> appended) {
+        SaveStateStore store = new SaveStateStore(file);
+        if (!store.getEntries().equals(expected)) {
+            return false;
+        }
+        store.put(appended);
+        store.flush();
+        return new SaveStateStore(file).getEntries().equals(appended);
+    }
+
+    private void checkReopened(String name, String device, Map<String, String> expected) {
+        check(name, expected,
+                new SaveStateStore(new File(mDir, device + "_save_state.dat")).getEntries());
+    }
+
+    private void clearCloud() {
+        File file = new File(mDir, "cloud_save.dat");
+        if (file.exists() && !file.delete()) {
+            throw new IllegalStateException("Failed to delete " + file);
+        }
+    }
+
+    private void check(String name, Object expected, Object actual) {
+        mChecks++;
+        if (!expected.equals(actual)) {
+            mFailures++;
+            System.out.println("FAILED " + name + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static Map<String, String> entries(String... keysAndValues) {
+        HashMap<String, String> entries = new HashMap<String, String>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            entries.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return entries;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static void writeFile(File file, byte[] bytes, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils.bench;
+
+import android.content.Context;
+
+import org.literacyapp.utils.BGMPlayer;
+import org.literacyapp.utils.BGMPlayerFactory;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * @brief BGMPlayerFactory that hands out FakeBGMPlayer%s, which prepare and loop in virtual time.
+ *
+ * Prepare latencies are drawn from a seeded Random, so runs are reproducible.
+ */
+public class FakeBGMPlayerFactory implements BGMPlayerFactory {
+    /**
+     * @brief BGMPlayer that becomes prepared after a random virtual delay and loops a track of
+     * fixed virtual duration while started.
+     */
+    public class FakeBGMPlayer implements BGMPlayer {
+        private String mTrack = null;
+        private long mReadyAtNanos = 0;
+        private boolean mFailed = false;
+        private boolean mStarted = false;
+        private boolean mReleased = false;
+        private float mVolume = 0.0f;
+        // Virtual time played in the current loop, up to the last call to advance().
+        private long mLoopPositionNanos = 0;
+
+        @Override
+        public boolean prepare(Context context, String track) {
+            mTrack = track;
+            mReadyAtNanos = mClock.getTimeNanos() + mMinPrepareNanos
+                    + (long) (mRandom.nextDouble() * (mMaxPrepareNanos - mMinPrepareNanos));
+            mFailed = mRandom.nextDouble() < mErrorRate;
+            return true;
+        }
+
+        @Override
+        public boolean isPrepared() {
+            return !mFailed && mClock.getTimeNanos() >= mReadyAtNanos;
+        }
+
+        @Override
+        public boolean hasError() {
+            return mFailed && mClock.getTimeNanos() >= mReadyAtNanos;
+        }
+
+        /**
+         * @brief Does nothing, as FakeBGMPlayer%s only fail while preparing, which SoundManager
+         * polls for.
+         */
+        @Override
+        public void setErrorListener(ErrorListener listener) {
+        }
+
+        @Override
+        public void start() {
+            mStarted = true;
+        }
+
+        @Override
+        public void pause() {
+            mStarted = false;
+        }
+
+        @Override
+        public void setVolume(float volume) {
+            mVolume = volume;
+        }
+
+        @Override
+        public long trimMemory(int tier) {
+            return 0;
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return 0;
+        }
+
+        @Override
+        public void release() {
+            if (hasError()) {
+                mFailures++;
+                mLastFailedTrack = mTrack;
+            }
+            mReleased = true;
+            mStarted = false;
+            mLivePlayers.remove(this);
+        }
+
+        /**
+         * @brief Returns the track this player was prepared for.
+         */
+        public String getTrack() {
+            return mTrack;
+        }
+
+        /**
+         * @brief Returns whether this player is started and playing at full volume.
+         */
+        public boolean isAudibleAtFullVolume() {
+            return mStarted && !mReleased && mVolume >= 1.0f;
+        }
+
+        // Plays for intervalNanos of virtual time, completing a loop every mLoopNanos.
+        private void advance(long intervalNanos) {
+            if (!mStarted) {
+                return;
+            }
+            mLoopPositionNanos += intervalNanos;
+            while (mLoopPositionNanos >= mLoopNanos) {
+                // Equivalent of MediaPlayer.OnCompletionListener.onCompletion.
+                mLoopPositionNanos -= mLoopNanos;
+                mLoopsCompleted++;
+            }
+        }
+    }
+
+    private final VirtualFrameClock mClock;
+    private final Random mRandom;
+    private final long mMinPrepareNanos;
+    private final long mMaxPrepareNanos;
+    private final long mLoopNanos;
+    private final double mErrorRate;
+    private final ArrayList<FakeBGMPlayer> mLivePlayers = new ArrayList<FakeBGMPlayer>();
+    private long mPlayersCreated = 0;
+    private long mPrefetches = 0;
+    private long mFailures = 0;
+    private String mLastFailedTrack = null;
+    private long mLoopsCompleted = 0;
+
+    /**
+     * @brief Constructs a FakeBGMPlayerFactory.
+     * @param clock Clock providing virtual time
+     * @param random Source of prepare latencies and failures
+     * @param minPrepareMs Minimum virtual prepare latency, in milliseconds
+     * @param maxPrepareMs Maximum virtual prepare latency, in milliseconds
+     * @param loopMs Virtual duration of one loop of a track, in milliseconds
+     * @param errorRate Probability of a player failing to prepare
+     */
+    public FakeBGMPlayerFactory(VirtualFrameClock clock, Random random, long minPrepareMs,
+            long maxPrepareMs, long loopMs, double errorRate) {
+        mClock = clock;
+        mRandom = random;
+        mMinPrepareNanos = minPrepareMs * 1000000L;
+        mMaxPrepareNanos = maxPrepareMs * 1000000L;
+        mLoopNanos = loopMs * 1000000L;
+        mErrorRate = errorRate;
+    }
+
+    @Override
+    public BGMPlayer createBGMPlayer(int backend, String track) {
+        FakeBGMPlayer player = new FakeBGMPlayer();
+        mLivePlayers.add(player);
+        mPlayersCreated++;
+        return player;
+    }
+
+    @Override
+    public void prefetchBGMTrack(Context context, String track, int backend) {
+        mPrefetches++;
+    }
+
+    @Override
+    public void cancelBGMTrack(String track) {
+    }
+
+    @Override
+    public void setPrefetchBudget(long bytes) {
+    }
+
+    @Override
+    public long trimMemory(int tier) {
+        return 0;
+    }
+
+    @Override
+    public void releaseAll() {
+    }
+
+    /**
+     * @brief Plays all started players for @p intervalNanos of virtual time.
+     * @param intervalNanos Virtual time to play for, in nanoseconds
+     */
+    public void advance(long intervalNanos) {
+        for (int i = 0; i < mLivePlayers.size(); ++i) {
+            mLivePlayers.get(i).advance(intervalNanos);
+        }
+    }
+
+    /**
+     * @brief Returns the players that have been created and not yet released.
+     */
+    public ArrayList<FakeBGMPlayer> getLivePlayers() {
+        return mLivePlayers;
+    }
+
+    /**
+     * @brief Returns the number of players created so far.
+     */
+    public long getPlayersCreated() {
+        return mPlayersCreated;
+    }
+
+    /**
+     * @brief Returns the number of prefetch requests received so far.
+     */
+    public long getPrefetches() {
+        return mPrefetches;
+    }
+
+    /**
+     * @brief Returns the number of failed players released so far.
+     */
+    public long getFailures() {
+        return mFailures;
+    }
+
+    /**
+     * @brief Returns the track of the failed player released last, or @c null if there was none.
+     */
+    public String getLastFailedTrack() {
+        return mLastFailedTrack;
+    }
+
+    /**
+     * @brief Returns the number of loops completed by all players so far.
+     */
+    public long getLoopsCompleted() {
+        return mLoopsCompleted;
+    }
+}
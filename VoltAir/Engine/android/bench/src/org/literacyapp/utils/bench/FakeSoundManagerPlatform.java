@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils.bench;
+
+import android.content.Context;
+
+import org.literacyapp.utils.SoundManagerPlatform;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * @brief SoundManagerPlatform that keeps settings in memory, discards log messages and runs posted
+ * work in virtual time.
+ */
+public class FakeSoundManagerPlatform implements SoundManagerPlatform {
+    private static class Task {
+        final Runnable runnable;
+        final long dueNanos;
+
+        Task(Runnable runnable, long dueNanos) {
+            this.runnable = runnable;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    private final VirtualFrameClock mClock;
+    private final HashMap<String, Boolean> mSettings = new HashMap<String, Boolean>();
+    private final ArrayList<Task> mTasks = new ArrayList<Task>();
+    private final ArrayList<Task> mDueTasks = new ArrayList<Task>();
+    private long mWarnings = 0;
+
+    /**
+     * @brief Constructs a FakeSoundManagerPlatform.
+     * @param clock Clock providing the virtual time posted work is due at
+     */
+    public FakeSoundManagerPlatform(VirtualFrameClock clock) {
+        mClock = clock;
+    }
+
+    @Override
+    public boolean getBoolean(Context context, String key, boolean defaultValue) {
+        Boolean value = mSettings.get(key);
+        return (value != null) ? value : defaultValue;
+    }
+
+    @Override
+    public void putBoolean(Context context, String key, boolean value) {
+        mSettings.put(key, value);
+    }
+
+    @Override
+    public void logInfo(String message) {
+    }
+
+    @Override
+    public void logWarning(String message) {
+        mWarnings++;
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMs) {
+        mTasks.add(new Task(runnable, mClock.getTimeNanos() + delayMs * 1000000L));
+    }
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+        for (int i = mTasks.size() - 1; i >= 0; --i) {
+            if (mTasks.get(i).runnable == runnable) {
+                mTasks.remove(i);
+            }
+        }
+    }
+
+    /**
+     * @brief Returns the number of warnings logged so far.
+     */
+    public long getWarnings() {
+        return mWarnings;
+    }
+
+    /**
+     * @brief Runs the posted work that is due at the current virtual time, in posting order.
+     */
+    public void runDueTasks() {
+        long now = mClock.getTimeNanos();
+        for (int i = 0; i < mTasks.size(); ) {
+            if (mTasks.get(i).dueNanos <= now) {
+                mDueTasks.add(mTasks.remove(i));
+            } else {
+                ++i;
+            }
+        }
+        for (int i = 0; i < mDueTasks.size(); ++i) {
+            mDueTasks.get(i).runnable.run();
+        }
+        mDueTasks.clear();
+    }
+}
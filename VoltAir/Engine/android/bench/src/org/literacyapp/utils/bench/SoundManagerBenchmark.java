@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils.bench;
+
+import org.literacyapp.utils.AudioMetrics;
+import org.literacyapp.utils.SoundManager;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @brief Benchmark that drives SoundManager's background music transitions in virtual time on a
+ * plain JVM.
+ *
+ * Random sequences of setBGMTrack(), clearBGMTrack() and prefetchBGMTrack() calls are interleaved
+ * with display frames of jittered length, while FakeBGMPlayer%s prepare with random latency and
+ * complete loops in virtual time. The benchmark reports:
+ * - time to target track: virtual time from the request that changes the highest priority track
+ *   until that track plays at full volume, or until silence if all tracks were cleared
+ * - player allocations per transition
+ * - main-thread work per loop: wall-clock time and bytes allocated in SoundManager, and frame
+ *   callbacks run, per completed loop of the playing tracks
+ *
+ * Usage: SoundManagerBenchmark [--iterations N] [--warmup N] [--seed N] [--error-rate P]
+ * @note Run it with the Android SDK's @c android.jar on the class path, which is only needed to
+ * load the classes. No Android method is called.
+ */
+public class SoundManagerBenchmark {
+    private static final int NUM_PRIORITIES = 2;
+    private static final String[] TRACKS = {
+        "sounds/music/music_loop_menu.mp3", "sounds/music/music_loop_e1.mp3",
+        "sounds/music/music_loop_e2.mp3", "sounds/music/music_loop_e3.mp3"
+    };
+    private static final long FRAME_NANOS = 16666667;
+    // Requests are up to 15 seconds apart, so tracks regularly play for several loops.
+    private static final int MAX_FRAMES_PER_STEP = 900;
+    // Frames after which a pending transition that has not settled is reported as stuck.
+    private static final int MAX_DRAIN_FRAMES = 10000;
+    private static final long MIN_PREPARE_MS = 20;
+    private static final long MAX_PREPARE_MS = 250;
+    private static final long LOOP_MS = 12000;
+
+    private final Random mRandom;
+    private final VirtualFrameClock mClock = new VirtualFrameClock();
+    private final FakeSoundManagerPlatform mPlatform = new FakeSoundManagerPlatform(mClock);
+    private final FakeBGMPlayerFactory mFactory;
+    private final SoundManager mSoundManager;
+    private final ThreadMXBean mThreadBean = ManagementFactory.getThreadMXBean();
+    private final long mThreadId = Thread.currentThread().getId();
+    private final boolean mMeasureAllocations;
+
+    // Mirror of the tracks set on mSoundManager, to know which track it should end up playing.
+    private final TreeMap<Integer, String> mTracks = new TreeMap<Integer, String>();
+    // Virtual time of the first request not yet reflected in playback, or -1 if settled.
+    private long mPendingSinceNanos = -1;
+    private long mFailuresAtPending = 0;
+    private final ArrayList<Long> mLatenciesNanos = new ArrayList<Long>();
+    private long mSetRequests = 0;
+    private long mClearRequests = 0;
+    private long mPrefetchRequests = 0;
+    private long mTransitions = 0;
+    private long mFailedTransitions = 0;
+    private long mStuckTransitions = 0;
+    private long mWorkNanos = 0;
+    private long mAllocatedBytes = 0;
+
+    private SoundManagerBenchmark(long seed, double errorRate) {
+        mRandom = new Random(seed);
+        mFactory = new FakeBGMPlayerFactory(mClock, mRandom, MIN_PREPARE_MS, MAX_PREPARE_MS,
+                LOOP_MS, errorRate);
+        mSoundManager = new SoundManager(mFactory, mClock, mPlatform, new AudioMetrics());
+        mMeasureAllocations = mThreadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) mThreadBean)
+                        .isThreadAllocatedMemorySupported();
+        if (mMeasureAllocations) {
+            ((com.sun.management.ThreadMXBean) mThreadBean).setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    /**
+     * @brief Runs the benchmark and prints its report.
+     * @param args Command line arguments, see the class documentation
+     */
+    public static void main(String[] args) {
+        int iterations = 5000;
+        int warmup = 500;
+        long seed = 1;
+        double errorRate = 0.01;
+        for (int i = 0; i < args.length; ++i) {
+            String value = (i + 1 < args.length) ? args[i + 1] : null;
+            if (value == null) {
+                usage();
+            } else if (args[i].equals("--iterations")) {
+                iterations = Integer.parseInt(value);
+            } else if (args[i].equals("--warmup")) {
+                warmup = Integer.parseInt(value);
+            } else if (args[i].equals("--seed")) {
+                seed = Long.parseLong(value);
+            } else if (args[i].equals("--error-rate")) {
+                errorRate = Double.parseDouble(value);
+            } else {
+                usage();
+            }
+            ++i;
+        }
+
+        // Warm up the JIT on a separate instance, so compilation is not measured.
+        new SoundManagerBenchmark(seed + 1, errorRate).run(warmup);
+        SoundManagerBenchmark benchmark = new SoundManagerBenchmark(seed, errorRate);
+        benchmark.run(iterations);
+        benchmark.printReport(iterations, seed, errorRate);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: SoundManagerBenchmark [--iterations N] [--warmup N] "
+                + "[--seed N] [--error-rate P]");
+        System.exit(2);
+    }
+
+    private void run(int iterations) {
+        long startWork = beginWork();
+        mSoundManager.onStart(null);
+        endWork(startWork);
+        for (int i = 0; i < iterations; ++i) {
+            issueRandomRequest();
+            int frames = 1 + mRandom.nextInt(MAX_FRAMES_PER_STEP);
+            for (int frame = 0; frame < frames; ++frame) {
+                runFrame();
+            }
+        }
+        // Let the last transition complete.
+        for (int frame = 0; frame < MAX_DRAIN_FRAMES && mPendingSinceNanos >= 0; ++frame) {
+            runFrame();
+        }
+        if (mPendingSinceNanos >= 0) {
+            mStuckTransitions++;
+        }
+    }
+
+    private void issueRandomRequest() {
+        String oldTarget = getTarget();
+        int priority = mRandom.nextInt(NUM_PRIORITIES);
+        double choice = mRandom.nextDouble();
+        long startWork;
+        if (choice < 0.45) {
+            String track = TRACKS[mRandom.nextInt(TRACKS.length)];
+            mTracks.put(priority, track);
+            mSetRequests++;
+            startWork = beginWork();
+            mSoundManager.setBGMTrack(priority, track);
+            endWork(startWork);
+        } else if (choice < 0.7) {
+            mTracks.remove(priority);
+            mClearRequests++;
+            startWork = beginWork();
+            mSoundManager.clearBGMTrack(priority);
+            endWork(startWork);
+        } else if (choice < 0.8) {
+            mPrefetchRequests++;
+            startWork = beginWork();
+            mSoundManager.prefetchBGMTrack(TRACKS[mRandom.nextInt(TRACKS.length)]);
+            endWork(startWork);
+        }
+        String target = getTarget();
+        boolean changed = (target == null) ? (oldTarget != null) : !target.equals(oldTarget);
+        if (changed && mPendingSinceNanos < 0) {
+            mPendingSinceNanos = mClock.getTimeNanos();
+            mFailuresAtPending = mFactory.getFailures();
+        }
+        checkSettled();
+    }
+
+    private void runFrame() {
+        // One in twenty frames is late, by up to three frame intervals.
+        long interval = FRAME_NANOS;
+        if (mRandom.nextInt(20) == 0) {
+            interval += (long) (mRandom.nextDouble() * 3 * FRAME_NANOS);
+        }
+        mClock.skip(interval);
+        mFactory.advance(interval);
+        long startWork = beginWork();
+        mPlatform.runDueTasks();
+        mClock.runFrame(0);
+        endWork(startWork);
+        checkSettled();
+    }
+
+    private void checkSettled() {
+        if (mPendingSinceNanos < 0) {
+            return;
+        }
+        String target = getTarget();
+        ArrayList<FakeBGMPlayerFactory.FakeBGMPlayer> players = mFactory.getLivePlayers();
+        boolean settled = false;
+        if (target == null) {
+            settled = players.isEmpty();
+        } else {
+            for (int i = 0; i < players.size(); ++i) {
+                FakeBGMPlayerFactory.FakeBGMPlayer player = players.get(i);
+                if (target.equals(player.getTrack()) && player.isAudibleAtFullVolume()) {
+                    settled = true;
+                }
+            }
+            if (!settled && mFactory.getFailures() > mFailuresAtPending
+                    && target.equals(mFactory.getLastFailedTrack())) {
+                // SoundManager gives up on a track that fails to prepare.
+                mFailedTransitions++;
+                mPendingSinceNanos = -1;
+                return;
+            }
+        }
+        if (settled) {
+            mLatenciesNanos.add(mClock.getTimeNanos() - mPendingSinceNanos);
+            mTransitions++;
+            mPendingSinceNanos = -1;
+        }
+    }
+
+    private String getTarget() {
+        return mTracks.isEmpty() ? null : mTracks.lastEntry().getValue();
+    }
+
+    private long beginWork() {
+        if (mMeasureAllocations) {
+            mAllocatedBytes -= getAllocatedBytes();
+        }
+        return System.nanoTime();
+    }
+
+    private void endWork(long startNanos) {
+        mWorkNanos += System.nanoTime() - startNanos;
+        if (mMeasureAllocations) {
+            mAllocatedBytes += getAllocatedBytes();
+        }
+    }
+
+    private long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) mThreadBean).getThreadAllocatedBytes(mThreadId);
+    }
+
+    private void printReport(int iterations, long seed, double errorRate) {
+        long[] latencies = new long[mLatenciesNanos.size()];
+        for (int i = 0; i < latencies.length; ++i) {
+            latencies[i] = mLatenciesNanos.get(i);
+        }
+        Arrays.sort(latencies);
+        long loops = Math.max(1, mFactory.getLoopsCompleted());
+        long transitions = Math.max(1, mTransitions + mFailedTransitions);
+
+        System.out.println(String.format("SoundManager benchmark: %d iterations, seed %d, "
+                + "prepare error rate %.3f, %.1f virtual minutes", iterations, seed, errorRate,
+                mClock.getTimeNanos() / 60e9));
+        System.out.println(String.format("Requests: %d setBGMTrack, %d clearBGMTrack, "
+                + "%d prefetchBGMTrack", mSetRequests, mClearRequests, mPrefetchRequests));
+        System.out.println(String.format("Transitions: %d completed, %d failed to prepare, "
+                + "%d stuck", mTransitions, mFailedTransitions, mStuckTransitions));
+        System.out.println(String.format("Time to target track (virtual ms): p50 %.1f, p95 %.1f, "
+                + "p99 %.1f, max %.1f", percentile(latencies, 0.5), percentile(latencies, 0.95),
+                percentile(latencies, 0.99), percentile(latencies, 1.0)));
+        System.out.println(String.format("Player allocations per transition: %.3f "
+                + "(%d players created, %d prefetches)",
+                (double) mFactory.getPlayersCreated() / transitions, mFactory.getPlayersCreated(),
+                mFactory.getPrefetches()));
+        System.out.println(String.format("Main-thread work per loop: %.1f us, %.1f frame callbacks, "
+                + "%s bytes allocated (%d loops of %d ms)",
+                mWorkNanos / 1000.0 / loops, (double) mClock.getCallbacksRun() / loops,
+                mMeasureAllocations ? String.format("%.0f", (double) mAllocatedBytes / loops)
+                                    : "n/a", mFactory.getLoopsCompleted(), LOOP_MS));
+        if (mStuckTransitions > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static double percentile(long[] sortedValues, double fraction) {
+        if (sortedValues.length == 0) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(fraction * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, index)] / 1e6;
+    }
+}
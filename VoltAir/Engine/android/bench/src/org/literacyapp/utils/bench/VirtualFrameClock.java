@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils.bench;
+
+import org.literacyapp.utils.FrameClock;
+
+import java.util.ArrayList;
+
+/**
+ * @brief FrameClock that delivers frames in virtual time, on demand.
+ *
+ * Frames only happen when the benchmark calls runFrame(), which advances the virtual clock and runs
+ * the callbacks posted since the previous frame.
+ */
+public class VirtualFrameClock implements FrameClock {
+    private final ArrayList<Callback> mCallbacks = new ArrayList<Callback>();
+    private final ArrayList<Callback> mRunningCallbacks = new ArrayList<Callback>();
+    private long mTimeNanos = 0;
+    private long mCallbacksRun = 0;
+
+    @Override
+    public void postFrameCallback(Callback callback) {
+        mCallbacks.add(callback);
+    }
+
+    @Override
+    public void removeFrameCallback(Callback callback) {
+        while (mCallbacks.remove(callback)) {
+        }
+    }
+
+    /**
+     * @brief Returns the current virtual time, in nanoseconds.
+     */
+    public long getTimeNanos() {
+        return mTimeNanos;
+    }
+
+    /**
+     * @brief Returns the number of frame callbacks run so far.
+     */
+    public long getCallbacksRun() {
+        return mCallbacksRun;
+    }
+
+    /**
+     * @brief Returns whether or not any frame callback is waiting for the next frame.
+     */
+    public boolean hasPendingCallbacks() {
+        return !mCallbacks.isEmpty();
+    }
+
+    /**
+     * @brief Advances virtual time by @p intervalNanos and runs the pending frame callbacks.
+     * @param intervalNanos Time since the previous frame, in nanoseconds
+     */
+    public void runFrame(long intervalNanos) {
+        mTimeNanos += intervalNanos;
+        // Callbacks posted while running are due on the next frame.
+        mRunningCallbacks.addAll(mCallbacks);
+        mCallbacks.clear();
+        for (int i = 0; i < mRunningCallbacks.size(); ++i) {
+            mRunningCallbacks.get(i).doFrame(mTimeNanos);
+            mCallbacksRun++;
+        }
+        mRunningCallbacks.clear();
+    }
+
+    /**
+     * @brief Advances virtual time by @p intervalNanos without running a frame.
+     * @param intervalNanos Time to skip, in nanoseconds
+     */
+    public void skip(long intervalNanos) {
+        mTimeNanos += intervalNanos;
+    }
+}
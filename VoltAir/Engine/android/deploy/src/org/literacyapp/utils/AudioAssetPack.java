@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * @brief Opens audio assets by offset into a single archive.
+ *
+ * The archive is written at build time by @c tools/pack_audio.py and holds every audio asset
+ * behind an index of asset path to offset, length and CRC32. It is opened and its index is read
+ * once per process, so opening a sound only costs a hash lookup instead of an @c AssetManager
+ * lookup and a new file descriptor into the APK. All sources share the file descriptor of the archive.
+ *
+ * The build removes the packed files from the APK. If the archive is not present, or does not
+ * contain a path, the asset is opened individually with @c AssetManager.openFd() instead. That is
+ * only safe as long as every sound on Android, including native sound effects through
+ * SoundEffectManager, is opened through this class by its path in the APK assets, e.g.
+ * @c "assets/sounds/jump.wav", rather than by Qt.
+ * @note This class is thread-safe.
+ */
+public final class AudioAssetPack {
+    /**
+     * @brief Asset path of the archive.
+     *
+     * aapt stores files with this extension uncompressed, which is required to open the archive
+     * by file descriptor.
+     */
+    public static final String PACK_ASSET = "sounds.pack.ogg";
+
+    private static final String LOG_TAG = AudioAssetPack.class.toString();
+    private static final int MAGIC = 0x5641504b; // "VAPK"
+    // Version 2 index entries carry a CRC32 of the asset.
+    private static final int VERSION = 2;
+    // Size of the fixed part of the header, which precedes the index entries.
+    private static final int HEADER_SIZE = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static AudioAssetPack sInstance = null;
+
+    /**
+     * @brief Byte range of an audio asset within an open file.
+     */
+    public static final class Source {
+        private final FileDescriptor mFileDescriptor;
+        private final long mStartOffset;
+        private final long mLength;
+        // Descriptor owned by this source if the asset was opened individually, or null.
+        private final AssetFileDescriptor mOwnedDescriptor;
+
+        private Source(FileDescriptor fd, long startOffset, long length,
+                AssetFileDescriptor ownedDescriptor) {
+            mFileDescriptor = fd;
+            mStartOffset = startOffset;
+            mLength = length;
+            mOwnedDescriptor = ownedDescriptor;
+        }
+
+        /**
+         * @brief Returns the file descriptor to read the asset from.
+         */
+        public FileDescriptor getFileDescriptor() {
+            return mFileDescriptor;
+        }
+
+        /**
+         * @brief Returns the offset of the asset within getFileDescriptor(), in bytes.
+         */
+        public long getStartOffset() {
+            return mStartOffset;
+        }
+
+        /**
+         * @brief Returns the length of the asset, in bytes.
+         */
+        public long getLength() {
+            return mLength;
+        }
+
+        /**
+         * @brief Releases this source.
+         *
+         * The shared file descriptor of the archive stays open; only a descriptor opened for this
+         * source alone is closed.
+         */
+        public void close() throws IOException {
+            if (mOwnedDescriptor != null) {
+                mOwnedDescriptor.close();
+            }
+        }
+    }
+
+    /**
+     * Reads an asset from the archive with positional reads, which leave the offset of the shared
+     * file descriptor alone.
+     */
+    private final class PackEntryInputStream extends InputStream {
+        private long mPosition;
+        private final long mEnd;
+
+        PackEntryInputStream(int entry) {
+            mPosition = mPackDescriptor.getStartOffset() + mOffsets[entry];
+            mEnd = mPosition + mLengths[entry];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            return (read(buffer, 0, 1) == 1) ? (buffer[0] & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            if (mPosition >= mEnd) {
+                return -1;
+            }
+            int chunk = (int) Math.min(count, mEnd - mPosition);
+            int read = mPackChannel.read(ByteBuffer.wrap(buffer, offset, chunk), mPosition);
+            if (read < 0) {
+                throw new IOException("Audio asset pack is truncated");
+            }
+            mPosition += read;
+            return read;
+        }
+    }
+
+    private final Context mContext;
+    // The archive is kept open for the lifetime of the process, or null if absent.
+    private AssetFileDescriptor mPackDescriptor = null;
+    private FileInputStream mPackStream = null;
+    private FileChannel mPackChannel = null;
+    private final HashMap<String, Integer> mEntries = new HashMap<String, Integer>();
+    private long[] mOffsets = new long[0];
+    private long[] mLengths = new long[0];
+    private int[] mCrcs = new int[0];
+    // Content key of assets missing from the archive, derived from when the APK was last updated.
+    private String mUnpackedKey = null;
+
+    private AudioAssetPack(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * @brief Returns the AudioAssetPack of this process, opening the archive on first use.
+     * @param context Context used to open the archive and any assets missing from it
+     */
+    public static synchronized AudioAssetPack getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AudioAssetPack(context.getApplicationContext());
+            sInstance.openPack();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @brief Returns whether the archive was found and its index read.
+     */
+    public boolean isPacked() {
+        return mPackChannel != null;
+    }
+
+    /**
+     * @brief Opens the audio asset at @p path.
+     *
+     * The returned Source must be closed once the asset is no longer read from.
+     * @param path Asset path, such as @c "assets/sounds/jump.wav"
+     * @throws IOException if the asset does not exist or could not be opened
+     */
+    public Source open(String path) throws IOException {
+        Integer entry = mEntries.get(path);
+        if (entry != null) {
+            return new Source(mPackDescriptor.getFileDescriptor(),
+                    mPackDescriptor.getStartOffset() + mOffsets[entry], mLengths[entry], null);
+        }
+        AssetFileDescriptor afd = mContext.getAssets().openFd(path);
+        return new Source(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength(), afd);
+    }
+
+    /**
+     * @brief Returns the length of the audio asset at @p path, in bytes.
+     * @param path Asset path, such as @c "assets/sounds/jump.wav"
+     * @throws IOException if the asset does not exist or could not be opened
+     */
+    public long getLength(String path) throws IOException {
+        Integer entry = mEntries.get(path);
+        if (entry != null) {
+            return mLengths[entry];
+        }
+        Source source = open(path);
+        try {
+            return source.getLength();
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * @brief Returns a key that changes whenever the content of the audio asset at @p path does.
+     *
+     * For an asset in the archive, this is the CRC32 and length recorded in its index at build
+     * time, so no asset data is read. For any other asset, it is derived from its length and from
+     * when the app was last installed or updated.
+     * @param path Asset path, such as @c "assets/sounds/jump.wav"
+     * @returns Key made up of hexadecimal digits and @c '-'
+     * @throws IOException if the asset does not exist or could not be opened
+     */
+    public String getContentKey(String path) throws IOException {
+        Integer entry = mEntries.get(path);
+        if (entry != null) {
+            return String.format("%08x-%x", mCrcs[entry], mLengths[entry]);
+        }
+        return String.format("%s-%x", getUnpackedKey(), getLength(path));
+    }
+
+    /**
+     * @brief Opens the contents of the audio asset at @p path as a stream.
+     *
+     * The returned stream must be closed once it is no longer read from.
+     * @param path Asset path, such as @c "assets/sounds/jump.wav"
+     * @throws IOException if the asset does not exist or could not be opened
+     */
+    public InputStream openStream(String path) throws IOException {
+        Integer entry = mEntries.get(path);
+        if (entry != null) {
+            return new PackEntryInputStream(entry);
+        }
+        return mContext.getAssets().open(path);
+    }
+
+    private void openPack() {
+        try {
+            mPackDescriptor = mContext.getAssets().openFd(PACK_ASSET);
+        } catch (FileNotFoundException ex) {
+            Log.i(LOG_TAG, "No audio asset pack, opening audio assets individually");
+            return;
+        } catch (IOException ex) {
+            Log.w(LOG_TAG, "Could not open audio asset pack", ex);
+            return;
+        }
+        try {
+            // The stream owns the archive descriptor, and closes it when it is closed.
+            mPackStream = mPackDescriptor.createInputStream();
+            mPackChannel = mPackStream.getChannel();
+            readIndex();
+            Log.i(LOG_TAG, "Indexed " + mEntries.size() + " audio assets in " + PACK_ASSET);
+        } catch (IOException ex) {
+            Log.w(LOG_TAG, "Could not read audio asset pack, opening audio assets individually",
+                    ex);
+            closePack();
+        } catch (RuntimeException ex) {
+            // Thrown by the index buffer if the index is truncated.
+            Log.w(LOG_TAG, "Corrupt audio asset pack, opening audio assets individually", ex);
+            closePack();
+        }
+    }
+
+    private void readIndex() throws IOException {
+        long packLength = mPackDescriptor.getLength();
+        ByteBuffer header = readPack(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not an audio asset pack");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported audio asset pack version " + version);
+        }
+        int count = header.getInt();
+        // The index lies between the header and the file data.
+        int dataOffset = header.getInt();
+        if (dataOffset < HEADER_SIZE || dataOffset > packLength) {
+            throw new IOException("Audio asset pack data offset out of bounds");
+        }
+        ByteBuffer index = readPack(HEADER_SIZE, dataOffset - HEADER_SIZE);
+        mOffsets = new long[count];
+        mLengths = new long[count];
+        mCrcs = new int[count];
+        byte[] pathBytes = new byte[256];
+        for (int entry = 0; entry < count; ++entry) {
+            int pathLength = index.getShort() & 0xffff;
+            if (pathLength > pathBytes.length) {
+                pathBytes = new byte[pathLength];
+            }
+            index.get(pathBytes, 0, pathLength);
+            mOffsets[entry] = index.getLong();
+            mLengths[entry] = index.getLong();
+            mCrcs[entry] = index.getInt();
+            if (mOffsets[entry] < 0 || mLengths[entry] < 0
+                    || mOffsets[entry] + mLengths[entry] > packLength) {
+                throw new IOException("Audio asset pack entry out of bounds");
+            }
+            mEntries.put(new String(pathBytes, 0, pathLength, UTF_8), entry);
+        }
+    }
+
+    private synchronized String getUnpackedKey() throws IOException {
+        if (mUnpackedKey == null) {
+            try {
+                long updateTime = mContext.getPackageManager()
+                        .getPackageInfo(mContext.getPackageName(), 0 /* No flags */)
+                        .lastUpdateTime;
+                mUnpackedKey = String.format("u%x", updateTime);
+            } catch (PackageManager.NameNotFoundException ex) {
+                throw new IOException("Could not look up own package", ex);
+            }
+        }
+        return mUnpackedKey;
+    }
+
+    // Reads @p length bytes at @p offset into the archive, without touching the descriptor offset.
+    private ByteBuffer readPack(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        long position = mPackDescriptor.getStartOffset() + offset;
+        while (buffer.hasRemaining()) {
+            int read = mPackChannel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Audio asset pack is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void closePack() {
+        mEntries.clear();
+        mPackChannel = null;
+        try {
+            if (mPackStream != null) {
+                mPackStream.close();
+            } else {
+                mPackDescriptor.close();
+            }
+        } catch (IOException ex) {
+            Log.w(LOG_TAG, "Could not close audio asset pack", ex);
+        }
+        mPackStream = null;
+        mPackDescriptor = null;
+    }
+}
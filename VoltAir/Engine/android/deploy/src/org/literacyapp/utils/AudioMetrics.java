@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import java.util.Arrays;
+
+/**
+ * @brief Counters and latency histograms describing the behavior of the Android audio path.
+ *
+ * SoundManager and the players it drives record into an AudioMetrics instance, and the native
+ * DebugMetricsMonitor periodically polls a snapshot of it through toJson() so that audio stalls can
+ * be correlated with frame drops. Recording never allocates.
+ * @note Methods may be called from the main looper thread, audio worker threads and the native Qt
+ * thread.
+ */
+public class AudioMetrics {
+    /**
+     * @brief Histogram of @c MediaPlayer data source open times.
+     */
+    public static final int OPEN_TIME = 0;
+    /**
+     * @brief Histogram of @c MediaPlayer prepare times, from @c prepareAsync to @c onPrepared.
+     */
+    public static final int PREPARE_TIME = 1;
+    /**
+     * @brief Histogram of the silence between the end of one pass through a looped track and the
+     * start of the next, as heard at the output.
+     *
+     * MediaPlayerBGMPlayer measures it from the positions of the two players it swaps between.
+     * StreamingBGMPlayer estimates it as the part of #LOOP_REWIND_TIME that is not covered by
+     * audio buffered ahead of the output, and records no gap when looping a cached track.
+     */
+    public static final int LOOP_GAP = 2;
+    /**
+     * @brief Histogram of fade tick jitter, i.e. the change in interval between consecutive fade
+     * ticks.
+     */
+    public static final int FADE_TICK_JITTER = 3;
+    /**
+     * @brief Histogram of the number of transition requests coalesced into each completed
+     * background music transition.
+     * @note Unlike the other histograms, this one records counts rather than milliseconds.
+     */
+    public static final int TRANSITION_QUEUE_DEPTH = 4;
+    /**
+     * @brief Histogram of the time StreamingBGMPlayer takes from rewinding the decoder at the end
+     * of a track until the first samples of the next pass are ready to be played.
+     */
+    public static final int LOOP_REWIND_TIME = 5;
+
+    private static final int NUM_HISTOGRAMS = 6;
+    private static final String[] HISTOGRAM_NAMES = {
+        "openTimeMs", "prepareTimeMs", "loopGapMs", "fadeTickJitterMs", "transitionQueueDepth",
+        "loopRewindTimeMs"
+    };
+    // Histogram bucket i holds samples in [2^(i-1), 2^i), with bucket 0 holding samples below 1.
+    private static final int NUM_BUCKETS = 12;
+
+    private final long[][] mBuckets = new long[NUM_HISTOGRAMS][NUM_BUCKETS];
+    private final long[] mCounts = new long[NUM_HISTOGRAMS];
+    private final double[] mSums = new double[NUM_HISTOGRAMS];
+    private final double[] mMaxima = new double[NUM_HISTOGRAMS];
+    private int mPlayersAlive = 0;
+    private int mPeakPlayersAlive = 0;
+    private long mPlayersCreated = 0;
+    private long mTransitions = 0;
+    private long mPrepareErrors = 0;
+
+    /**
+     * @brief Records a sample into the histogram @p histogram.
+     * @param histogram One of #OPEN_TIME, #PREPARE_TIME, #LOOP_GAP, #FADE_TICK_JITTER,
+     * #TRANSITION_QUEUE_DEPTH or #LOOP_REWIND_TIME
+     * @param value Sample to record, in milliseconds unless noted otherwise
+     */
+    public synchronized void record(int histogram, double value) {
+        value = Math.max(0.0, value);
+        mBuckets[histogram][getBucket(value)]++;
+        mCounts[histogram]++;
+        mSums[histogram] += value;
+        mMaxima[histogram] = Math.max(mMaxima[histogram], value);
+    }
+
+    /**
+     * @brief Records the time elapsed since @p startNanos into the histogram @p histogram.
+     * @param histogram Histogram to record into, see record()
+     * @param startNanos Start time, as returned by @c System.nanoTime()
+     */
+    public void recordSince(int histogram, long startNanos) {
+        record(histogram, (System.nanoTime() - startNanos) / 1000000.0);
+    }
+
+    /**
+     * @brief Records that an audio player has been created.
+     */
+    public synchronized void onPlayerCreated() {
+        mPlayersCreated++;
+        mPlayersAlive++;
+        mPeakPlayersAlive = Math.max(mPeakPlayersAlive, mPlayersAlive);
+    }
+
+    /**
+     * @brief Records that an audio player has been released.
+     */
+    public synchronized void onPlayerReleased() {
+        mPlayersAlive--;
+    }
+
+    /**
+     * @brief Records that a background music transition has completed.
+     * @param numRequests Number of transition requests coalesced into the transition
+     */
+    public synchronized void onTransitionCompleted(int numRequests) {
+        mTransitions++;
+        record(TRANSITION_QUEUE_DEPTH, numRequests);
+    }
+
+    /**
+     * @brief Records that an audio track failed to be opened or prepared.
+     */
+    public synchronized void onPrepareError() {
+        mPrepareErrors++;
+    }
+
+    /**
+     * @brief Clears all histograms and counters, except for the number of players alive.
+     */
+    public synchronized void reset() {
+        for (long[] buckets : mBuckets) {
+            Arrays.fill(buckets, 0);
+        }
+        Arrays.fill(mCounts, 0);
+        Arrays.fill(mSums, 0.0);
+        Arrays.fill(mMaxima, 0.0);
+        mPeakPlayersAlive = mPlayersAlive;
+        mPlayersCreated = 0;
+        mTransitions = 0;
+        mPrepareErrors = 0;
+    }
+
+    /**
+     * @brief Returns a snapshot of all metrics as a JSON object.
+     *
+     * Each histogram is reported with its sample count, mean, maximum, approximate 50th and 95th
+     * percentiles, and raw power-of-two buckets.
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append('{');
+        json.append("\"playersAlive\":").append(mPlayersAlive);
+        json.append(",\"peakPlayersAlive\":").append(mPeakPlayersAlive);
+        json.append(",\"playersCreated\":").append(mPlayersCreated);
+        json.append(",\"transitions\":").append(mTransitions);
+        json.append(",\"prepareErrors\":").append(mPrepareErrors);
+        for (int histogram = 0; histogram < NUM_HISTOGRAMS; ++histogram) {
+            long count = mCounts[histogram];
+            json.append(",\"").append(HISTOGRAM_NAMES[histogram]).append("\":{");
+            json.append("\"count\":").append(count);
+            json.append(",\"mean\":").append(count > 0 ? (float) (mSums[histogram] / count) : 0.0f);
+            json.append(",\"max\":").append((float) mMaxima[histogram]);
+            json.append(",\"p50\":").append(getPercentile(histogram, 0.5f));
+            json.append(",\"p95\":").append(getPercentile(histogram, 0.95f));
+            json.append(",\"buckets\":[");
+            for (int bucket = 0; bucket < NUM_BUCKETS; ++bucket) {
+                if (bucket > 0) {
+                    json.append(',');
+                }
+                json.append(mBuckets[histogram][bucket]);
+            }
+            json.append("]}");
+        }
+        json.append('}');
+        return json.toString();
+    }
+
+    // Returns the upper bound of the bucket containing the given percentile.
+    private float getPercentile(int histogram, float percentile) {
+        long count = mCounts[histogram];
+        if (count == 0) {
+            return 0.0f;
+        }
+        long rank = (long) Math.ceil(percentile * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < NUM_BUCKETS - 1; ++bucket) {
+            seen += mBuckets[histogram][bucket];
+            if (seen >= rank) {
+                return Math.min(1 << bucket, (float) mMaxima[histogram]);
+            }
+        }
+        return (float) mMaxima[histogram];
+    }
+
+    private static int getBucket(double value) {
+        int bucket = 0;
+        while (bucket < NUM_BUCKETS - 1 && value >= (1 << bucket)) {
+            bucket++;
+        }
+        return bucket;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.Context;
+
+/**
+ * @brief Playback backend for a single, endlessly looping background music track.
+ *
+ * SoundManager owns at most one BGMPlayer per track it is playing or fading into, and drives it
+ * exclusively from the main looper thread.
+ */
+public interface BGMPlayer {
+    /**
+     * @brief Listener notified when a BGMPlayer fails.
+     */
+    interface ErrorListener {
+        /**
+         * @brief Called when preparing or playing the track of @p player has failed.
+         * @param player BGMPlayer that failed
+         * @note This may be called on any thread.
+         */
+        void onPlaybackError(BGMPlayer player);
+    }
+
+    /**
+     * @brief Starts asynchronously preparing @p track for playback.
+     * @param context Context used to open the audio track asset
+     * @param track Audio track asset path to loop
+     * @returns @c false if the audio track could not be opened
+     */
+    boolean prepare(Context context, String track);
+
+    /**
+     * @brief Returns whether or not the track has been prepared and playback can be started.
+     */
+    boolean isPrepared();
+
+    /**
+     * @brief Returns whether or not preparing or playing the track has failed.
+     */
+    boolean hasError();
+
+    /**
+     * @brief Sets the listener to notify once this player fails, including after playback has
+     * started.
+     * @param listener Listener to notify, or @c null
+     */
+    void setErrorListener(ErrorListener listener);
+
+    /**
+     * @brief Starts or resumes playback.
+     */
+    void start();
+
+    /**
+     * @brief Pauses playback.
+     */
+    void pause();
+
+    /**
+     * @brief Sets the playback volume.
+     * @param volume Linear gain from @c 0.0 to @c 1.0
+     */
+    void setVolume(float volume);
+
+    /**
+     * @brief Releases redundant resources held for playback, without interrupting it.
+     * @param tier Eviction tier, one of the MemoryPressure tiers
+     * @returns Estimated number of bytes freed
+     */
+    long trimMemory(int tier);
+
+    /**
+     * @brief Returns the estimated number of bytes held by this player.
+     */
+    long getMemoryUsage();
+
+    /**
+     * @brief Stops playback and releases all resources held by this player.
+     *
+     * A released player must not be used again.
+     */
+    void release();
+}
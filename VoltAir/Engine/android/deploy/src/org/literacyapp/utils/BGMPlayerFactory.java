@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.Context;
+
+/**
+ * @brief Creates the BGMPlayer%s used by SoundManager and owns any resources shared between them.
+ *
+ * The default implementation is DefaultBGMPlayerFactory. Alternative implementations can hand out
+ * fake players, so that SoundManager's transition and looping logic can be driven without
+ * Android's media stack.
+ */
+public interface BGMPlayerFactory {
+    /**
+     * @brief Creates a BGMPlayer for @p track.
+     *
+     * The player may already have been prepared for @p track by prefetchBGMTrack(), in which case
+     * its BGMPlayer#prepare() call returns at once.
+     * @param backend Either SoundManager#BACKEND_MEDIA_PLAYER or SoundManager#BACKEND_STREAMING
+     * @param track Audio track asset path the player is going to be prepared for
+     */
+    BGMPlayer createBGMPlayer(int backend, String track);
+
+    /**
+     * @brief Starts preparing @p track ahead of time, if supported.
+     * @param context Context used to open the audio track asset
+     * @param track Audio track asset path to prefetch
+     * @param backend Backend the track is going to be played with
+     */
+    void prefetchBGMTrack(Context context, String track, int backend);
+
+    /**
+     * @brief Releases resources prepared for @p track that are not held by a BGMPlayer, such as
+     * players of an abandoned transition or of a prefetch.
+     * @param track Audio track asset path to cancel, or @c null
+     */
+    void cancelBGMTrack(String track);
+
+    /**
+     * @brief Sets the memory budget for prefetched tracks.
+     * @param bytes Budget in bytes, or @c 0 to disable prefetching
+     */
+    void setPrefetchBudget(long bytes);
+
+    /**
+     * @brief Releases resources that are not held by a BGMPlayer, as appropriate for @p tier.
+     * @param tier Eviction tier, one of the MemoryPressure tiers
+     * @returns Estimated number of bytes freed
+     */
+    long trimMemory(int tier);
+
+    /**
+     * @brief Releases all resources that are not held by a BGMPlayer created by this factory.
+     */
+    void releaseAll();
+}
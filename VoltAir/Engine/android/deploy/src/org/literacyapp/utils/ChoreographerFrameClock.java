@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.view.Choreographer;
+
+import java.util.HashMap;
+
+/**
+ * @brief FrameClock backed by the @c Choreographer of the calling thread, which must be a looper
+ * thread.
+ */
+public class ChoreographerFrameClock implements FrameClock {
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final HashMap<Callback, Choreographer.FrameCallback> mFrameCallbacks =
+            new HashMap<Callback, Choreographer.FrameCallback>();
+
+    @Override
+    public void postFrameCallback(Callback callback) {
+        mChoreographer.postFrameCallback(getFrameCallback(callback));
+    }
+
+    @Override
+    public void removeFrameCallback(Callback callback) {
+        Choreographer.FrameCallback frameCallback = mFrameCallbacks.get(callback);
+        if (frameCallback != null) {
+            mChoreographer.removeFrameCallback(frameCallback);
+        }
+    }
+
+    // Returns the Choreographer.FrameCallback that forwards to callback, creating it only once so
+    // that posting a callback every frame does not allocate.
+    private Choreographer.FrameCallback getFrameCallback(final Callback callback) {
+        Choreographer.FrameCallback frameCallback = mFrameCallbacks.get(callback);
+        if (frameCallback == null) {
+            frameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    callback.doFrame(frameTimeNanos);
+                }
+            };
+            mFrameCallbacks.put(callback, frameCallback);
+        }
+        return frameCallback;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import java.util.Map;
+
+/**
+ * @brief Remote storage of save state, used by CloudSaveSync.
+ *
+ * Saves are versioned: every successful save() increments the version, and a save is only
+ * accepted if it is based on the current version, so that concurrent saves from different devices
+ * are detected rather than silently overwriting each other.
+ * @note Methods are called from a background thread and may block.
+ */
+public interface CloudSaveService {
+    /**
+     * @brief Loads the save state.
+     * @returns Remote save state, or @c null if nothing has been saved yet
+     * @throws Exception if the service could not be reached
+     */
+    SaveStateStore.Snapshot load() throws Exception;
+
+    /**
+     * @brief Saves @p entries as the new save state.
+     * @param baseVersion Version of the remote state @p entries are based on, or @c 0 if there was
+     * none
+     * @param entries Entries to save
+     * @returns @c true if the state was saved, or @c false if the remote state is no longer at
+     * @p baseVersion
+     * @throws Exception if the service could not be reached
+     */
+    boolean save(long baseVersion, Map<String, String> entries) throws Exception;
+}
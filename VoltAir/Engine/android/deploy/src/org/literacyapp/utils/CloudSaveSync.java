@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * @brief Synchronizes a local SaveStateStore with a CloudSaveService.
+ *
+ * Each sync compares the local and remote state against the base state recorded at the last
+ * successful sync:
+ * - If the remote state has not changed since, the local state is pushed if it has.
+ * - Otherwise the three are merged with SaveStateMerger. Changes made on only one side are
+ *   combined in Java, stored locally, pushed, and reported through Listener.onCloudDataMerged().
+ * - Only if the same entry changed on both sides is Listener.onCloudDataConflict() called to
+ *   resolve it. The resolved state is expected to be saved back locally, which is then pushed by
+ *   the next sync.
+ *
+ * Syncs run on a dedicated background thread, separate from the one the SaveStateStore writes
+ * on, and requests made while a sync is pending are coalesced.
+ */
+public class CloudSaveSync {
+    private static final Logger LOGGER = Logger.getLogger(CloudSaveSync.class.getName());
+    // Key under which the remote version of the base state is recorded in the base store.
+    private static final String BASE_VERSION_KEY = "#cloudVersion";
+    // Number of times a sync is retried if the remote or local state changes while it runs.
+    private static final int MAX_SYNC_ATTEMPTS = 3;
+
+    /**
+     * @brief Listener notified when remote changes have been merged into the local state.
+     * @note Methods are called from the sync thread.
+     */
+    public interface Listener {
+        /**
+         * @brief Called with the merged state after remote changes have been merged in.
+         * @param json Merged state, as assembled by SaveStateMerger.toJson()
+         */
+        void onCloudDataMerged(String json);
+
+        /**
+         * @brief Called to resolve entries that changed differently locally and remotely.
+         * @param localJson Local state, as assembled by SaveStateMerger.toJson()
+         * @param serverJson Remote state, as assembled by SaveStateMerger.toJson()
+         * @returns Resolved state as JSON, or @c null if the conflict was not resolved
+         */
+        String onCloudDataConflict(String localJson, String serverJson);
+    }
+
+    private final SaveStateStore mLocalStore;
+    private final SaveStateStore mBaseStore;
+    private final CloudSaveService mService;
+    private final Listener mListener;
+    private final ExecutorService mSyncExecutor;
+    private final AtomicBoolean mSyncPending = new AtomicBoolean(false);
+
+    private final Runnable mSyncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mSyncPending.set(false);
+            try {
+                sync();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to sync save state", e);
+            }
+        }
+    };
+
+    /**
+     * @brief Constructs a CloudSaveSync.
+     * @param localStore Store holding the local state
+     * @param baseStore Store to record the state of the last successful sync in
+     * @param service Service to sync with
+     * @param listener Listener to notify of merged remote changes
+     */
+    public CloudSaveSync(SaveStateStore localStore, SaveStateStore baseStore,
+            CloudSaveService service, Listener listener) {
+        mLocalStore = localStore;
+        mBaseStore = baseStore;
+        mService = service;
+        mListener = listener;
+        mSyncExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CloudSaveSync");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @brief Requests a sync on the background thread.
+     *
+     * Does nothing if a sync has already been requested but has not started yet.
+     */
+    public void requestSync() {
+        if (!mSyncPending.getAndSet(true)) {
+            mSyncExecutor.execute(mSyncRunnable);
+        }
+    }
+
+    /**
+     * @brief Blocks until all syncs requested so far have completed.
+     */
+    public void flush() {
+        try {
+            mSyncExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.WARNING, "Failed to flush save state sync", e);
+        }
+    }
+
+    private void sync() throws Exception {
+        for (int attempt = 0; attempt < MAX_SYNC_ATTEMPTS; ++attempt) {
+            SaveStateStore.Snapshot remote = mService.load();
+            long remoteVersion = (remote != null) ? remote.version : 0;
+            Map<String, String> remoteEntries = (remote != null) ? remote.entries
+                    : new HashMap<String, String>();
+
+            Map<String, String> base = mBaseStore.getEntries();
+            String baseVersionValue = base.remove(BASE_VERSION_KEY);
+            long baseVersion = (baseVersionValue != null) ? Long.parseLong(baseVersionValue) : 0;
+
+            Map<String, String> local;
+            long localVersion;
+            synchronized (mLocalStore) {
+                local = mLocalStore.getEntries();
+                localVersion = mLocalStore.getVersion();
+            }
+
+            Map<String, String> entries;
+            if (remoteVersion == baseVersion) {
+                if (local.equals(base)) {
+                    return;
+                }
+                entries = local;
+            } else {
+                SaveStateMerger.Result merged = SaveStateMerger.merge(base, local, remoteEntries);
+                if (!merged.conflicts.isEmpty()) {
+                    LOGGER.info("Resolving save state conflicts in " + merged.conflicts);
+                    String resolved = mListener.onCloudDataConflict(
+                            SaveStateMerger.toJson(local), SaveStateMerger.toJson(remoteEntries));
+                    // The resolved state is derived from the remote state, so the next sync can
+                    // push it once it has been saved locally.
+                    setBase(remoteEntries, remoteVersion);
+                    if (resolved != null) {
+                        mListener.onCloudDataMerged(resolved);
+                    }
+                    return;
+                }
+                entries = merged.entries;
+                if (!entries.equals(local)) {
+                    synchronized (mLocalStore) {
+                        if (mLocalStore.getVersion() != localVersion) {
+                            // Local state changed while merging; merge again with the new state.
+                            continue;
+                        }
+                        mLocalStore.put(entries);
+                    }
+                    mListener.onCloudDataMerged(SaveStateMerger.toJson(entries));
+                }
+                if (entries.equals(remoteEntries)) {
+                    setBase(remoteEntries, remoteVersion);
+                    return;
+                }
+            }
+
+            if (mService.save(remoteVersion, entries)) {
+                setBase(entries, remoteVersion + 1);
+                return;
+            }
+            // Remote state changed since it was loaded; merge again with the new state.
+        }
+        LOGGER.warning("Gave up syncing save state after " + MAX_SYNC_ATTEMPTS + " attempts");
+    }
+
+    private void setBase(Map<String, String> entries, long version) {
+        HashMap<String, String> base = new HashMap<String, String>(entries);
+        base.put(BASE_VERSION_KEY, Long.toString(version));
+        mBaseStore.put(base);
+    }
+}
@@ -0,0 +1,627 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @brief Persistent cache of decoded 16-bit PCM for compressed audio assets.
+ *
+ * The first time a track is decoded, its samples are written to a file in the app's cache
+ * directory through a Writer, which hands all file I/O to a background thread. Later, including
+ * after a restart, get() memory-maps that file instead, so the track can be played without setting
+ * up a decoder. Entries are keyed by asset path and AudioAssetPack.getContentKey(), which is read
+ * from the archive index rather than computed from the asset, so updating an asset invalidates its
+ * entry without hashing anything at runtime.
+ *
+ * The total size of the files is bounded, and the least recently used files are deleted once it is
+ * exceeded. Mapped entries are additionally kept in memory within a smaller budget, and are
+ * released on memory pressure (see trimMemory()).
+ * @note This class is thread-safe.
+ */
+public final class DecodedAudioCache {
+    /**
+     * @brief Default maximum total size of the cache files, in bytes.
+     */
+    public static final long DEFAULT_MAX_DISK_BYTES = 32 * 1024 * 1024;
+    /**
+     * @brief Default maximum total size of the entries kept mapped, in bytes.
+     */
+    public static final long DEFAULT_MAX_MAPPED_BYTES = 12 * 1024 * 1024;
+
+    private static final String LOG_TAG = DecodedAudioCache.class.toString();
+    private static final String CACHE_DIRECTORY = "pcm";
+    private static final String ENTRY_SUFFIX = ".pcm";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x5650434d; // "VPCM"
+    // Version 2 entries have trailing encoder padding trimmed.
+    private static final int VERSION = 2;
+    // Magic, version, sample rate and channel count.
+    private static final int HEADER_BYTES = 16;
+    // Samples per Chunk handed from a Writer to the write thread.
+    private static final int CHUNK_SAMPLES = 16 * 1024;
+    // Chunks kept for reuse once written. Beyond that, chunks are left to the garbage collector.
+    private static final int MAX_POOLED_CHUNKS = 8;
+
+    private static DecodedAudioCache sInstance = null;
+    private static Handler sWriteHandler = null;
+    // Chunks that have been written, ready to be filled again.
+    private static final ArrayList<Chunk> sChunkPool = new ArrayList<Chunk>();
+
+    /**
+     * Samples handed from a Writer to the write thread, which recycles the chunk once they have
+     * been written. This keeps a Writer from allocating on the decoding thread once the pool has
+     * warmed up.
+     */
+    private static final class Chunk implements Runnable {
+        final short[] mSamples = new short[CHUNK_SAMPLES];
+        int mCount = 0;
+        Writer mWriter = null;
+
+        @Override
+        public void run() {
+            mWriter.writeSamples(mSamples, mCount);
+            recycleChunk(this);
+        }
+    }
+
+    /**
+     * @brief Decoded samples of a cached track.
+     */
+    public static final class Pcm {
+        private final int mSampleRate;
+        private final int mChannelCount;
+        private final ShortBuffer mSamples;
+        private final long mSizeBytes;
+
+        private Pcm(int sampleRate, int channelCount, ShortBuffer samples, long sizeBytes) {
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+            mSamples = samples;
+            mSizeBytes = sizeBytes;
+        }
+
+        /**
+         * @brief Returns the sample rate of the track, in Hz.
+         */
+        public int getSampleRate() {
+            return mSampleRate;
+        }
+
+        /**
+         * @brief Returns the number of interleaved channels of the track.
+         */
+        public int getChannelCount() {
+            return mChannelCount;
+        }
+
+        /**
+         * @brief Returns a new read-only view of all interleaved samples of the track.
+         *
+         * Encoder priming samples have already been removed, so the samples loop seamlessly.
+         */
+        public ShortBuffer getSamples() {
+            return mSamples.duplicate();
+        }
+    }
+
+    /**
+     * @brief Writes the decoded samples of a track into the cache.
+     *
+     * Samples are copied into pooled chunks, which are written to a temporary file on a background
+     * thread once full, so that no disk I/O or allocation happens on the decoding thread. The file
+     * only becomes visible to get() once the entry has been committed. A Writer that is abandoned
+     * must be aborted to delete that file. Errors are logged, and discard the entry.
+     * @note A Writer is meant to be fed from a single thread.
+     */
+    public final class Writer {
+        private final String mPath;
+        private final File mFile;
+        private final int mSampleRate;
+        private final int mChannelCount;
+        // Set by the feeding thread once the entry has been committed or aborted.
+        private boolean mClosed = false;
+        // Chunk being filled by the feeding thread, or null.
+        private Chunk mChunk = null;
+        // State below is only touched on the background thread.
+        private File mTempFile = null;
+        private FileOutputStream mStream = null;
+        private final ByteBuffer mBuffer =
+                ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        private boolean mFailed = false;
+
+        private Writer(String path, File file, int sampleRate, int channelCount) {
+            mPath = path;
+            mFile = file;
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+        }
+
+        /**
+         * @brief Appends a copy of @p count interleaved samples from @p samples, starting at
+         * @p offset.
+         */
+        public void write(short[] samples, int offset, int count) {
+            if (mClosed) {
+                return;
+            }
+            while (count > 0) {
+                if (mChunk == null) {
+                    mChunk = obtainChunk(this);
+                }
+                int chunk = Math.min(count, CHUNK_SAMPLES - mChunk.mCount);
+                System.arraycopy(samples, offset, mChunk.mSamples, mChunk.mCount, chunk);
+                mChunk.mCount += chunk;
+                offset += chunk;
+                count -= chunk;
+                if (mChunk.mCount == CHUNK_SAMPLES) {
+                    postChunk();
+                }
+            }
+        }
+
+        /**
+         * @brief Completes the entry, making it available to get() once all samples have been
+         * written.
+         *
+         * The least recently used entries are deleted as needed to stay within the cache size.
+         */
+        public void commit() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            postChunk();
+            sWriteHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    finish();
+                }
+            });
+        }
+
+        /**
+         * @brief Discards the entry. Does nothing if the Writer has already been committed.
+         */
+        public void abort() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (mChunk != null) {
+                recycleChunk(mChunk);
+                mChunk = null;
+            }
+            sWriteHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    discard();
+                }
+            });
+        }
+
+        private void postChunk() {
+            if (mChunk != null) {
+                sWriteHandler.post(mChunk);
+                mChunk = null;
+            }
+        }
+
+        private void writeSamples(short[] samples, int count) {
+            if (mFailed) {
+                return;
+            }
+            try {
+                open();
+                int offset = 0;
+                while (offset < count) {
+                    if (mBuffer.remaining() < 2) {
+                        flushBuffer();
+                    }
+                    int chunk = Math.min(count - offset, mBuffer.remaining() / 2);
+                    mBuffer.asShortBuffer().put(samples, offset, chunk);
+                    mBuffer.position(mBuffer.position() + chunk * 2);
+                    offset += chunk;
+                }
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        }
+
+        private void finish() {
+            if (mFailed) {
+                return;
+            }
+            try {
+                open();
+                flushBuffer();
+                mStream.getFD().sync();
+                mStream.close();
+                mStream = null;
+                if (mTempFile.length() <= HEADER_BYTES) {
+                    throw new IOException("No samples written");
+                }
+                if (!mTempFile.renameTo(mFile)) {
+                    throw new IOException("Could not rename " + mTempFile);
+                }
+            } catch (IOException ex) {
+                fail(ex);
+                return;
+            }
+            onEntryWritten(mPath, mFile);
+        }
+
+        private void open() throws IOException {
+            if (mStream != null) {
+                return;
+            }
+            // Unique, so that two players decoding the same track do not clobber each other.
+            mTempFile = File.createTempFile(mFile.getName(), TEMP_SUFFIX, mFile.getParentFile());
+            mStream = new FileOutputStream(mTempFile);
+            mBuffer.putInt(MAGIC).putInt(VERSION).putInt(mSampleRate).putInt(mChannelCount);
+        }
+
+        private void fail(IOException ex) {
+            Log.w(LOG_TAG, "Could not cache decoded samples for " + mPath, ex);
+            mFailed = true;
+            discard();
+        }
+
+        private void discard() {
+            if (mStream != null) {
+                try {
+                    mStream.close();
+                } catch (IOException ex) {
+                    // The file is deleted regardless.
+                }
+                mStream = null;
+            }
+            if (mTempFile != null && mTempFile.exists() && !mTempFile.delete()) {
+                Log.w(LOG_TAG, "Could not delete " + mTempFile);
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            mStream.write(mBuffer.array(), 0, mBuffer.position());
+            mBuffer.clear();
+        }
+    }
+
+    private final Context mContext;
+    private final File mDirectory;
+    private long mMaxDiskBytes = DEFAULT_MAX_DISK_BYTES;
+    private long mMaxMappedBytes = DEFAULT_MAX_MAPPED_BYTES;
+    // Cache file name of each asset path whose content key has been looked up.
+    private final HashMap<String, String> mFileNames = new HashMap<String, String>();
+    // Size of each cache file, in least recently used order.
+    private final LinkedHashMap<String, Long> mFiles = new LinkedHashMap<String, Long>(16, 0.75f,
+            true /* Access order */);
+    private long mDiskBytes = 0;
+    // Mapped entries by cache file name, in least recently used order.
+    private final LinkedHashMap<String, Pcm> mMapped = new LinkedHashMap<String, Pcm>(16, 0.75f,
+            true /* Access order */);
+    private long mMappedBytes = 0;
+    private boolean mLoaded = false;
+
+    private DecodedAudioCache(Context context) {
+        mContext = context;
+        mDirectory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+    }
+
+    /**
+     * @brief Returns the DecodedAudioCache of this process.
+     *
+     * No I/O happens until the cache is first accessed.
+     * @param context Context used to locate the cache directory and open audio assets
+     */
+    public static synchronized DecodedAudioCache getInstance(Context context) {
+        if (sInstance == null) {
+            HandlerThread writeThread = new HandlerThread("DecodedAudioCache",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            writeThread.start();
+            sWriteHandler = new Handler(writeThread.getLooper());
+            sInstance = new DecodedAudioCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @brief Sets the maximum total size of the cache files, deleting the least recently used
+     * files as needed to stay within it.
+     * @param bytes Size in bytes
+     */
+    public synchronized void setMaxDiskBytes(long bytes) {
+        mMaxDiskBytes = Math.max(0, bytes);
+        ensureLoaded();
+        trimFiles();
+    }
+
+    /**
+     * @brief Sets the maximum total size of the entries kept mapped, releasing the least recently
+     * used mappings as needed to stay within it.
+     * @param bytes Size in bytes
+     */
+    public synchronized void setMaxMappedBytes(long bytes) {
+        mMaxMappedBytes = Math.max(0, bytes);
+        trimMapped(mMaxMappedBytes);
+    }
+
+    /**
+     * @brief Returns the cached samples of the audio asset at @p path, or @c null if they are not
+     * cached.
+     *
+     * As this may open the asset to look up its content key the first time it is called for
+     * @p path, it should not be called on the main looper thread.
+     * @param path Asset path, such as @c "assets/sounds/music/music_loop_menu.mp3"
+     */
+    public synchronized Pcm get(String path) {
+        ensureLoaded();
+        String fileName = getFileName(path);
+        if (fileName == null) {
+            return null;
+        }
+        Pcm pcm = mMapped.get(fileName);
+        if (pcm != null) {
+            mFiles.get(fileName);
+            return pcm;
+        }
+        if (mFiles.get(fileName) == null) {
+            return null;
+        }
+        File file = new File(mDirectory, fileName);
+        try {
+            pcm = map(file);
+        } catch (IOException ex) {
+            Log.w(LOG_TAG, "Dropping unreadable cache entry " + fileName, ex);
+            removeFile(fileName);
+            return null;
+        }
+        // Keep the modification time in step with use, so the LRU order survives a restart.
+        file.setLastModified(System.currentTimeMillis());
+        if (pcm.mSizeBytes <= mMaxMappedBytes) {
+            trimMapped(mMaxMappedBytes - pcm.mSizeBytes);
+            mMapped.put(fileName, pcm);
+            mMappedBytes += pcm.mSizeBytes;
+        }
+        return pcm;
+    }
+
+    /**
+     * @brief Starts writing the decoded samples of the audio asset at @p path into the cache.
+     * @param path Asset path, such as @c "assets/sounds/music/music_loop_menu.mp3"
+     * @param sampleRate Sample rate of the decoded samples, in Hz
+     * @param channelCount Number of interleaved channels of the decoded samples
+     * @returns Writer for the samples, or @c null if the asset cannot be cached
+     */
+    public synchronized Writer startWriting(String path, int sampleRate, int channelCount) {
+        ensureLoaded();
+        String fileName = getFileName(path);
+        if (fileName == null || mMaxDiskBytes == 0) {
+            return null;
+        }
+        return new Writer(path, new File(mDirectory, fileName), sampleRate, channelCount);
+    }
+
+    /**
+     * @brief Releases mapped entries, as appropriate for @p tier.
+     *
+     * From MemoryPressure#TIER_CACHES, all mappings held by the cache are released. The cache files
+     * themselves are kept, and players that are still reading an entry keep their own mapping.
+     * @param tier Eviction tier, one of the MemoryPressure tiers
+     * @returns Estimated number of bytes freed, which is always @c 0: releasing a mapping only
+     * drops the cache's reference to it, and it is not unmapped until it has been garbage
+     * collected and no player reads from it any more.
+     */
+    public synchronized long trimMemory(int tier) {
+        if (tier >= MemoryPressure.TIER_CACHES) {
+            trimMapped(0);
+        }
+        return 0;
+    }
+
+    private synchronized void onEntryWritten(String path, File file) {
+        String fileName = file.getName();
+        Long oldSize = mFiles.put(fileName, file.length());
+        if (oldSize != null) {
+            mDiskBytes -= oldSize;
+        }
+        mDiskBytes += file.length();
+        Log.i(LOG_TAG, String.format("Cached %d bytes of decoded samples for %s", file.length(),
+                path));
+        // Entries for previous versions of the asset can never be hit again.
+        String prefix = getPathPrefix(path);
+        Iterator<String> it = mFiles.keySet().iterator();
+        while (it.hasNext()) {
+            String otherName = it.next();
+            if (!otherName.equals(fileName) && isEntryFor(otherName, prefix)) {
+                mDiskBytes -= mFiles.get(otherName);
+                it.remove();
+                deleteFile(otherName);
+            }
+        }
+        trimFiles();
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Could not create " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long aTime = a.lastModified();
+                long bTime = b.lastModified();
+                return (aTime < bTime) ? -1 : ((aTime == bTime) ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(ENTRY_SUFFIX)) {
+                mFiles.put(file.getName(), file.length());
+                mDiskBytes += file.length();
+            } else if (!file.delete()) {
+                // Left behind by a Writer that was interrupted by the process being killed.
+                Log.w(LOG_TAG, "Could not delete " + file);
+            }
+        }
+        trimFiles();
+    }
+
+    /**
+     * Returns the cache file name for the current content of the asset at @p path, or @c null if
+     * the asset could not be read.
+     */
+    private String getFileName(String path) {
+        String fileName = mFileNames.get(path);
+        if (fileName != null) {
+            return fileName;
+        }
+        try {
+            fileName = getPathPrefix(path)
+                    + AudioAssetPack.getInstance(mContext).getContentKey(path) + ENTRY_SUFFIX;
+        } catch (IOException ex) {
+            Log.w(LOG_TAG, "Could not read audio asset " + path, ex);
+            return null;
+        }
+        mFileNames.put(path, fileName);
+        return fileName;
+    }
+
+    private static String getPathPrefix(String path) {
+        return path.replace('/', '@') + '.';
+    }
+
+    private static boolean isEntryFor(String fileName, String prefix) {
+        // The content key following the prefix contains no further '.', which tells "a.mp3" apart
+        // from e.g. "a.mp3.old".
+        return fileName.startsWith(prefix)
+                && fileName.indexOf('.', prefix.length())
+                        == fileName.length() - ENTRY_SUFFIX.length();
+    }
+
+    private static Pcm map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the file is closed, or even deleted.
+            MappedByteBuffer data = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    in.length());
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.remaining() <= HEADER_BYTES || data.getInt() != MAGIC
+                    || data.getInt() != VERSION) {
+                throw new IOException("Not a cache entry");
+            }
+            int sampleRate = data.getInt();
+            int channelCount = data.getInt();
+            ShortBuffer samples = data.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            if (sampleRate <= 0 || channelCount <= 0 || samples.remaining() < channelCount) {
+                throw new IOException("Corrupt cache entry");
+            }
+            return new Pcm(sampleRate, channelCount, samples.asReadOnlyBuffer(), in.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Chunk obtainChunk(Writer writer) {
+        Chunk chunk = null;
+        synchronized (sChunkPool) {
+            if (!sChunkPool.isEmpty()) {
+                chunk = sChunkPool.remove(sChunkPool.size() - 1);
+            }
+        }
+        if (chunk == null) {
+            chunk = new Chunk();
+        }
+        chunk.mWriter = writer;
+        return chunk;
+    }
+
+    private static void recycleChunk(Chunk chunk) {
+        chunk.mCount = 0;
+        chunk.mWriter = null;
+        synchronized (sChunkPool) {
+            if (sChunkPool.size() < MAX_POOLED_CHUNKS) {
+                sChunkPool.add(chunk);
+            }
+        }
+    }
+
+    private void trimFiles() {
+        Iterator<Map.Entry<String, Long>> it = mFiles.entrySet().iterator();
+        while (mDiskBytes > mMaxDiskBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            mDiskBytes -= entry.getValue();
+            it.remove();
+            deleteFile(entry.getKey());
+        }
+    }
+
+    private void trimMapped(long budget) {
+        Iterator<Pcm> it = mMapped.values().iterator();
+        while (mMappedBytes > budget && it.hasNext()) {
+            mMappedBytes -= it.next().mSizeBytes;
+            it.remove();
+        }
+    }
+
+    private void removeFile(String fileName) {
+        Long size = mFiles.remove(fileName);
+        if (size != null) {
+            mDiskBytes -= size;
+        }
+        deleteFile(fileName);
+    }
+
+    private void deleteFile(String fileName) {
+        Pcm pcm = mMapped.remove(fileName);
+        if (pcm != null) {
+            mMappedBytes -= pcm.mSizeBytes;
+        }
+        if (!new File(mDirectory, fileName).delete()) {
+            Log.w(LOG_TAG, "Could not delete cache entry " + fileName);
+        }
+    }
+}
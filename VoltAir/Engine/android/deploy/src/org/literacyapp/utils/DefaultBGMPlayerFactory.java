@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.Context;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * @brief BGMPlayerFactory that creates MediaPlayerBGMPlayer%s backed by a shared MediaPlayerPool,
+ * or StreamingBGMPlayer%s.
+ *
+ * Prefetching with the @c MediaPlayer backend prepares pooled @c MediaPlayer%s. With the streaming
+ * backend, it prepares a StreamingBGMPlayer, which opens the track and primes its ring buffer, and
+ * then waits unstarted until it is handed out by createBGMPlayer(). Both share the prefetch budget
+ * of the MediaPlayerPool.
+ * @note Must only be used on the main looper thread.
+ */
+public class DefaultBGMPlayerFactory implements BGMPlayerFactory {
+    private final AudioMetrics mMetrics;
+    private final MediaPlayerPool mPlayerPool;
+    // Prepared streaming players that have not been handed out, in least recently prefetched order.
+    private final LinkedHashMap<String, StreamingBGMPlayer> mPrefetchedStreams =
+            new LinkedHashMap<String, StreamingBGMPlayer>();
+
+    /**
+     * @brief Constructs a DefaultBGMPlayerFactory.
+     * @param metrics AudioMetrics the created players record into
+     */
+    public DefaultBGMPlayerFactory(AudioMetrics metrics) {
+        mMetrics = metrics;
+        mPlayerPool = new MediaPlayerPool(metrics);
+    }
+
+    @Override
+    public BGMPlayer createBGMPlayer(int backend, String track) {
+        if (backend == SoundManager.BACKEND_STREAMING) {
+            StreamingBGMPlayer player = mPrefetchedStreams.remove(track);
+            return (player != null) ? player : new StreamingBGMPlayer(mMetrics);
+        }
+        return new MediaPlayerBGMPlayer(mPlayerPool, mMetrics);
+    }
+
+    @Override
+    public void prefetchBGMTrack(Context context, String track, int backend) {
+        if (backend != SoundManager.BACKEND_STREAMING) {
+            mPlayerPool.prefetch(context, track, MediaPlayerBGMPlayer.NUM_PLAYERS);
+            return;
+        }
+        StreamingBGMPlayer player = mPrefetchedStreams.remove(track);
+        if (player == null) {
+            if (mPlayerPool.getPrefetchBudget() < StreamingBGMPlayer.MEMORY_USAGE) {
+                return;
+            }
+            player = new StreamingBGMPlayer(mMetrics);
+            if (!player.prepare(context, track)) {
+                player.release();
+                return;
+            }
+        }
+        // Re-insert to mark the track as the most recently prefetched.
+        mPrefetchedStreams.put(track, player);
+        trimPrefetchedStreams(mPlayerPool.getPrefetchBudget());
+    }
+
+    @Override
+    public void cancelBGMTrack(String track) {
+        mPlayerPool.cancel(track);
+        StreamingBGMPlayer player = mPrefetchedStreams.remove(track);
+        if (player != null) {
+            player.release();
+        }
+    }
+
+    @Override
+    public void setPrefetchBudget(long bytes) {
+        mPlayerPool.setPrefetchBudget(bytes);
+        trimPrefetchedStreams(mPlayerPool.getPrefetchBudget());
+    }
+
+    @Override
+    public long trimMemory(int tier) {
+        long bytesFreed = mPlayerPool.trimMemory(tier);
+        if (tier >= MemoryPressure.TIER_PREFETCHED) {
+            bytesFreed += trimPrefetchedStreams(0);
+        }
+        return bytesFreed;
+    }
+
+    @Override
+    public void releaseAll() {
+        mPlayerPool.releaseAll();
+        trimPrefetchedStreams(0);
+    }
+
+    // Releases the least recently prefetched streaming players until the rest fit into @p budget,
+    // and returns the number of bytes freed.
+    private long trimPrefetchedStreams(long budget) {
+        long bytesFreed = 0;
+        long bytesUsed = (long) mPrefetchedStreams.size() * StreamingBGMPlayer.MEMORY_USAGE;
+        Iterator<StreamingBGMPlayer> it = mPrefetchedStreams.values().iterator();
+        while (bytesUsed > budget && it.hasNext()) {
+            StreamingBGMPlayer player = it.next();
+            it.remove();
+            player.release();
+            bytesUsed -= StreamingBGMPlayer.MEMORY_USAGE;
+            bytesFreed += StreamingBGMPlayer.MEMORY_USAGE;
+        }
+        return bytesFreed;
+    }
+}
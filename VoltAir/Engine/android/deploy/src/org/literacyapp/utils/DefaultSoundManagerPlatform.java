@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * @brief SoundManagerPlatform that persists settings through SettingsStore, logs to @c logcat and
+ * posts work to the main looper.
+ */
+public class DefaultSoundManagerPlatform implements SoundManagerPlatform {
+    private static final String LOG_TAG = SoundManager.class.toString();
+    private static final String SOUNDMANAGER_PREFS = "SoundManagerPreferences";
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public boolean getBoolean(Context context, String key, boolean defaultValue) {
+        return SettingsStore.getInstance(context, SOUNDMANAGER_PREFS).getBoolean(key,
+                defaultValue);
+    }
+
+    @Override
+    public void putBoolean(Context context, String key, boolean value) {
+        // Written behind; VoltAirActivity flushes all settings once it has stopped its managers.
+        SettingsStore.getInstance(context, SOUNDMANAGER_PREFS).putBoolean(key, value);
+    }
+
+    @Override
+    public void logInfo(String message) {
+        Log.i(LOG_TAG, message);
+    }
+
+    @Override
+    public void logWarning(String message) {
+        Log.w(LOG_TAG, message);
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMs) {
+        mHandler.postDelayed(runnable, delayMs);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+        mHandler.removeCallbacks(runnable);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import java.util.ArrayList;
+
+/**
+ * @brief Defers non-critical initialization work until after the first frame has been rendered.
+ *
+ * Tasks are queued with schedule() and, once start() has been called and the first frame has been
+ * reported through onFirstFrameRendered(), run on the following frames, one task per frame so that
+ * the deferred work does not simply move the hitch to the second frame. The first frame is
+ * reported by the renderer rather than taken from the FrameClock, as the game renders on its own
+ * thread, and the first vsync on the main thread may well precede its first frame. Each task is
+ * timed as a phase of the StartupTracer, and the trace is written out once the queue has been
+ * drained for the first time. Tasks scheduled after that, e.g. when the activity is restarted,
+ * still run deferred but are no longer part of the startup trace.
+ *
+ * runPending() runs any remaining tasks immediately. It should be called whenever deferred work
+ * must have completed, e.g. from @c onStop, in case the activity is stopped before its first
+ * frame.
+ * @note Methods must be called from the main thread.
+ */
+public class DeferredInitScheduler {
+    /**
+     * @brief Listener notified once all deferred work has completed.
+     */
+    public interface TraceListener {
+        /**
+         * @brief Called once the last deferred startup task has run.
+         *
+         * This is only called once per DeferredInitScheduler.
+         * @param tracer Tracer the startup phases were recorded into
+         */
+        void onStartupCompleted(StartupTracer tracer);
+    }
+
+    private static class Task {
+        final String name;
+        final Runnable runnable;
+
+        Task(String name, Runnable runnable) {
+            this.name = name;
+            this.runnable = runnable;
+        }
+    }
+
+    private final FrameClock mFrameClock;
+    private final StartupTracer mTracer;
+    private final ArrayList<Task> mTasks = new ArrayList<Task>();
+    private TraceListener mTraceListener = null;
+    private boolean mStarted = false;
+    private boolean mFrameCallbackPosted = false;
+    private boolean mFirstFrameRendered = false;
+    private boolean mCompleted = false;
+
+    private final FrameClock.Callback mFrameCallback = new FrameClock.Callback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameCallbackPosted = false;
+            if (!mTasks.isEmpty()) {
+                runTask(mTasks.remove(0));
+            }
+            if (mTasks.isEmpty()) {
+                onCompleted();
+            } else {
+                postFrameCallback();
+            }
+        }
+    };
+
+    /**
+     * @brief Constructs a DeferredInitScheduler.
+     * @param frameClock Clock to wait for frames with
+     * @param tracer Tracer to record the startup phases into
+     */
+    public DeferredInitScheduler(FrameClock frameClock, StartupTracer tracer) {
+        mFrameClock = frameClock;
+        mTracer = tracer;
+    }
+
+    /**
+     * @brief Sets the listener to notify once all deferred work has completed.
+     * @param listener Listener to notify, or @c null
+     */
+    public void setTraceListener(TraceListener listener) {
+        mTraceListener = listener;
+    }
+
+    /**
+     * @brief Queues @p task to run after the first frame.
+     *
+     * If the first frame has already been rendered, @p task runs on the next frame.
+     * @param name Name of the task, used as its StartupTracer phase name
+     * @param task Task to run
+     */
+    public void schedule(String name, Runnable task) {
+        mTasks.add(new Task(name, task));
+        if (mStarted && mFirstFrameRendered) {
+            postFrameCallback();
+        }
+    }
+
+    /**
+     * @brief Starts waiting for the first frame.
+     *
+     * This method should be called once the critical startup work has been done.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        if (mFirstFrameRendered) {
+            postFrameCallback();
+        }
+    }
+
+    /**
+     * @brief Notifies this DeferredInitScheduler that the first frame has been rendered.
+     *
+     * Deferred tasks start running on the frame after this. Only the first call has an effect.
+     * @param frameTimeNanos Time at which the frame was presented, in the @c System.nanoTime()
+     * time base
+     */
+    public void onFirstFrameRendered(long frameTimeNanos) {
+        if (mFirstFrameRendered) {
+            return;
+        }
+        mFirstFrameRendered = true;
+        mTracer.onFirstFrame(frameTimeNanos);
+        if (mStarted) {
+            postFrameCallback();
+        }
+    }
+
+    /**
+     * @brief Runs all pending tasks immediately, in the order they were scheduled.
+     */
+    public void runPending() {
+        if (mTasks.isEmpty()) {
+            return;
+        }
+        while (!mTasks.isEmpty()) {
+            runTask(mTasks.remove(0));
+        }
+        onCompleted();
+    }
+
+    private void postFrameCallback() {
+        if (!mFrameCallbackPosted) {
+            mFrameCallbackPosted = true;
+            mFrameClock.postFrameCallback(mFrameCallback);
+        }
+    }
+
+    private void runTask(Task task) {
+        if (mCompleted) {
+            task.runnable.run();
+            return;
+        }
+        mTracer.beginPhase(task.name);
+        task.runnable.run();
+        mTracer.endPhase(task.name);
+    }
+
+    private void onCompleted() {
+        if (mCompleted) {
+            return;
+        }
+        mCompleted = true;
+        if (mTraceListener != null) {
+            mTraceListener.onStartupCompleted(mTracer);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * @brief CloudSaveService which stores the save state in a local file.
+ *
+ * This stands in for a remote service during development and off-device testing: pointing
+ * several CloudSaveSync instances at the same file simulates several devices sharing a cloud save.
+ */
+public class FileCloudSaveService implements CloudSaveService {
+    private final File mFile;
+
+    /**
+     * @brief Constructs a FileCloudSaveService backed by @p file.
+     * @param file File to store the save state in
+     */
+    public FileCloudSaveService(File file) {
+        mFile = file;
+    }
+
+    @Override
+    public synchronized SaveStateStore.Snapshot load() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        return SaveStateStore.read(mFile);
+    }
+
+    @Override
+    public synchronized boolean save(long baseVersion, Map<String, String> entries)
+            throws Exception {
+        long version = mFile.exists() ? SaveStateStore.read(mFile).version : 0;
+        if (version != baseVersion) {
+            return false;
+        }
+        SaveStateStore.writeSnapshot(mFile, version + 1, entries);
+        return true;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+/**
+ * @brief Source of per-frame callbacks that drive SoundManager's background music transitions.
+ *
+ * On device this is backed by the display's @c Choreographer (see ChoreographerFrameClock). Other
+ * implementations can advance virtual time on their own schedule, so transition and fade logic
+ * can be exercised without a display.
+ */
+public interface FrameClock {
+    /**
+     * @brief Callback that is run once on the next frame after it has been posted.
+     */
+    interface Callback {
+        /**
+         * @brief Called when a new frame starts.
+         * @param frameTimeNanos Time at which the frame started, in nanoseconds on a monotonic
+         * clock
+         */
+        void doFrame(long frameTimeNanos);
+    }
+
+    /**
+     * @brief Posts @p callback to be run once on the next frame.
+     * @param callback Callback to post
+     */
+    void postFrameCallback(Callback callback);
+
+    /**
+     * @brief Removes @p callback if it has been posted and not yet run.
+     * @param callback Callback to remove
+     */
+    void removeFrameCallback(Callback callback);
+}
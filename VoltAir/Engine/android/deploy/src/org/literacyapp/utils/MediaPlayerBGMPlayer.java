@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+
+/**
+ * @brief BGMPlayer that uses double buffering of Android @c MediaPlayer%s to achieve gapless
+ * looping.
+ *
+ * Two players for the same track are chained with @c setNextMediaPlayer. Whenever one completes,
+ * it is rewound and queued up behind the other. Players are obtained from and returned to a shared
+ * MediaPlayerPool.
+ */
+public class MediaPlayerBGMPlayer implements BGMPlayer, MediaPlayer.OnCompletionListener,
+        MediaPlayer.OnErrorListener {
+    /**
+     * @brief Number of @c MediaPlayer%s used to double buffer a single track.
+     */
+    public static final int NUM_PLAYERS = 2;
+
+    private final MediaPlayerPool mPool;
+    private final AudioMetrics mMetrics;
+    private String mTrack = null;
+    private MediaPlayer mPlayer = null;
+    private MediaPlayer mPlayerBuffered = null;
+    private float mVolume = 0.0f;
+    // Whether an acquired player has failed.
+    private boolean mFailed = false;
+    private ErrorListener mErrorListener = null;
+    // Time at which the current loop started playing, or 0 while paused.
+    private long mLoopStartTime = 0;
+
+    /**
+     * @brief Constructs a MediaPlayerBGMPlayer.
+     * @param pool Pool to obtain @c MediaPlayer%s from and return them to
+     * @param metrics AudioMetrics to record loop gaps into
+     */
+    public MediaPlayerBGMPlayer(MediaPlayerPool pool, AudioMetrics metrics) {
+        mPool = pool;
+        mMetrics = metrics;
+    }
+
+    @Override
+    public boolean prepare(Context context, String track) {
+        mTrack = track;
+        return mPool.prepare(context, track, NUM_PLAYERS);
+    }
+
+    @Override
+    public boolean isPrepared() {
+        if (mPlayer != null) {
+            return true;
+        }
+        if (mTrack == null || !mPool.isPrepared(mTrack, NUM_PLAYERS)) {
+            return false;
+        }
+        mPlayer = mPool.acquire(mTrack);
+        mPlayerBuffered = mPool.acquire(mTrack);
+        mPlayer.setOnCompletionListener(this);
+        mPlayerBuffered.setOnCompletionListener(this);
+        mPlayer.setOnErrorListener(this);
+        mPlayerBuffered.setOnErrorListener(this);
+        setVolume(mVolume);
+        mPlayer.setNextMediaPlayer(mPlayerBuffered);
+        return true;
+    }
+
+    @Override
+    public boolean hasError() {
+        return mFailed || (mPlayer == null && mTrack != null && mPool.hasFailed(mTrack));
+    }
+
+    /**
+     * @brief Sets the listener to notify once an acquired @c MediaPlayer fails.
+     *
+     * Failures while preparing are only reported through hasError(), as SoundManager polls it
+     * until the players have been prepared.
+     */
+    @Override
+    public void setErrorListener(ErrorListener listener) {
+        mErrorListener = listener;
+    }
+
+    @Override
+    public void start() {
+        if (mPlayer != null) {
+            mPlayer.start();
+            mLoopStartTime = System.nanoTime() - mPlayer.getCurrentPosition() * 1000000L;
+        }
+    }
+
+    @Override
+    public void pause() {
+        if (mPlayer != null) {
+            mPlayer.pause();
+        }
+        mLoopStartTime = 0;
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        mVolume = volume;
+        if (mPlayer != null) {
+            mPlayer.setVolume(volume, volume);
+        }
+        if (mPlayerBuffered != null) {
+            mPlayerBuffered.setVolume(volume, volume);
+        }
+    }
+
+    /**
+     * @brief Releases the buffered @c MediaPlayer from MemoryPressure#TIER_CACHES.
+     *
+     * The remaining player loops on its own, which is no longer gapless, until this player is
+     * released.
+     */
+    @Override
+    public long trimMemory(int tier) {
+        if (tier < MemoryPressure.TIER_CACHES || mPlayer == null || mPlayerBuffered == null) {
+            return 0;
+        }
+        mPlayer.setNextMediaPlayer(null);
+        mPlayer.setLooping(true);
+        mPool.recycle(mPlayerBuffered);
+        mPlayerBuffered = null;
+        return mPool.getTrackSize(mTrack);
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        int numPlayers = ((mPlayer != null) ? 1 : 0) + ((mPlayerBuffered != null) ? 1 : 0);
+        return numPlayers * mPool.getTrackSize(mTrack);
+    }
+
+    @Override
+    public void release() {
+        // Players still preparing for the track would otherwise stay in the pool, as nothing is
+        // going to acquire them anymore.
+        mPool.cancel(mTrack);
+        mPool.recycle(mPlayer);
+        mPlayer = null;
+        mPool.recycle(mPlayerBuffered);
+        mPlayerBuffered = null;
+        mTrack = null;
+        mLoopStartTime = 0;
+    }
+
+    /**
+     * @brief Called when an acquired @c MediaPlayer encounters an error.
+     * @param mp @c MediaPlayer that encountered the error
+     * @param what Type of error that occurred
+     * @param extra Implementation specific error code
+     * @returns @c true, as the error is reported to the ErrorListener instead
+     */
+    @Override
+    public boolean onError(MediaPlayer mp, int what, int extra) {
+        if (mp != mPlayer && mp != mPlayerBuffered) {
+            return false;
+        }
+        mFailed = true;
+        if (mErrorListener != null) {
+            mErrorListener.onPlaybackError(this);
+        }
+        return true;
+    }
+
+    /**
+     * @brief Called when the end of a media source is reached during playback.
+     *
+     * This callback swaps the internally double buffered @c MediaPlayer%s to achieve gapless
+     * playback. The completed player is rewound and queued up behind the one now playing, so no
+     * asset IO or decoder setup happens on a loop boundary.
+     * @param mp @c MediaPlayer that reached the end of the sample data
+     */
+    @Override
+    public void onCompletion(MediaPlayer mp) {
+        if (mp != mPlayer || mPlayerBuffered == null) {
+            return;
+        }
+        // Derive when the next player started from how far it has played, so that the delivery
+        // latency of this callback does not count towards the gap between the two.
+        long now = System.nanoTime();
+        long nextStartTime = now - mPlayerBuffered.getCurrentPosition() * 1000000L;
+        if (mLoopStartTime != 0) {
+            long endTime = mLoopStartTime + mp.getDuration() * 1000000L;
+            mMetrics.record(AudioMetrics.LOOP_GAP,
+                    Math.max(0L, nextStartTime - endTime) / 1000000.0);
+        }
+        mLoopStartTime = nextStartTime;
+        mPlayer = mPlayerBuffered;
+        mPlayerBuffered = mp;
+        mPlayerBuffered.seekTo(0);
+        mPlayer.setNextMediaPlayer(mPlayerBuffered);
+    }
+}
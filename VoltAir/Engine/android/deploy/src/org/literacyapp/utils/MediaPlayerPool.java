@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * @brief Pool of Android @c MediaPlayer%s that are recycled rather than released and reconstructed
+ * for every loop or track change.
+ *
+ * Players are prepared ahead of time per audio track with @c prepareAsync, so acquiring one never
+ * blocks the calling thread on asset IO or decoder setup. Players that are no longer needed are
+ * @c reset() and kept idle for reuse with the next track.
+ *
+ * Tracks that are likely to be needed soon can be prefetched. Prefetched players are kept prepared
+ * within a memory budget, and the least recently prefetched tracks are evicted once it is exceeded.
+ * @note This class is not thread-safe and is expected to be used from the main looper thread, which
+ * is also the thread @c MediaPlayer callbacks are delivered on.
+ */
+public class MediaPlayerPool implements MediaPlayer.OnPreparedListener,
+        MediaPlayer.OnErrorListener {
+    private static final String LOG_TAG = MediaPlayerPool.class.toString();
+    // Maximum number of reset players kept around for reuse with a different track.
+    private static final int MAX_IDLE_PLAYERS = 2;
+    // Default memory budget for prefetched players, in bytes.
+    private static final long DEFAULT_PREFETCH_BUDGET = 2 * 1024 * 1024;
+
+    private final LinkedList<MediaPlayer> mIdlePlayers = new LinkedList<MediaPlayer>();
+    private final HashMap<MediaPlayer, String> mPreparingPlayers =
+            new HashMap<MediaPlayer, String>();
+    private final HashMap<String, LinkedList<MediaPlayer>> mPreparedPlayers =
+            new HashMap<String, LinkedList<MediaPlayer>>();
+    private final HashMap<MediaPlayer, Long> mPrepareStartTimes = new HashMap<MediaPlayer, Long>();
+    private final HashSet<String> mFailedTracks = new HashSet<String>();
+    // Estimated memory cost of each prefetched track, in least recently prefetched order.
+    private final LinkedHashMap<String, Long> mPrefetchedTracks = new LinkedHashMap<String, Long>();
+    private long mPrefetchBudget = DEFAULT_PREFETCH_BUDGET;
+    private long mPrefetchedBytes = 0;
+    // Size of the asset of each track that has been opened, used to estimate memory use.
+    private final HashMap<String, Long> mTrackSizes = new HashMap<String, Long>();
+    private final AudioMetrics mMetrics;
+
+    /**
+     * @brief Constructs a MediaPlayerPool.
+     * @param metrics AudioMetrics to record player open and prepare times into
+     */
+    public MediaPlayerPool(AudioMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * @brief Starts asynchronously preparing @c MediaPlayer%s for @p track until at least @p count
+     * of them are either prepared or being prepared.
+     * @param context Context used to open the audio track asset
+     * @param track Audio track asset path to prepare players for
+     * @param count Number of players needed for @p track
+     * @returns @c false if the audio track asset could not be opened
+     */
+    public boolean prepare(Context context, String track, int count) {
+        // The track is now actually needed, so it must no longer be evicted.
+        forgetPrefetchedTrack(track);
+        return prepareInternal(context, track, count);
+    }
+
+    /**
+     * @brief Speculatively starts preparing @c MediaPlayer%s for @p track, in the same way as
+     * prepare(), if they fit into the prefetch budget.
+     *
+     * The memory cost of a prefetched track is estimated from the size of its asset. Less recently
+     * prefetched tracks are evicted as needed to stay within the budget. A prefetched track stops
+     * counting against the budget once it is passed to prepare() or acquire().
+     * @param context Context used to open the audio track asset
+     * @param track Audio track asset path to prefetch players for
+     * @param count Number of players needed for @p track
+     * @returns @c true if @p track has been or is being prefetched
+     */
+    public boolean prefetch(Context context, String track, int count) {
+        if (mPrefetchedTracks.containsKey(track)) {
+            return true;
+        }
+        if (getPendingCount(track) >= count) {
+            // Already prepared on demand.
+            return true;
+        }
+        long cost;
+        try {
+            cost = AudioAssetPack.getInstance(context).getLength(track) * count;
+        } catch (IOException ex) {
+            Log.e(LOG_TAG, "Could not open audio track " + track, ex);
+            return false;
+        }
+        if (cost > mPrefetchBudget) {
+            return false;
+        }
+        trimPrefetchedTracks(mPrefetchBudget - cost);
+        if (!prepareInternal(context, track, count)) {
+            return false;
+        }
+        mPrefetchedTracks.put(track, cost);
+        mPrefetchedBytes += cost;
+        return true;
+    }
+
+    /**
+     * @brief Sets the memory budget for prefetched @c MediaPlayer%s, evicting prefetched tracks as
+     * needed to stay within it.
+     * @param bytes Budget in bytes, or @c 0 to disable prefetching
+     */
+    public void setPrefetchBudget(long bytes) {
+        mPrefetchBudget = Math.max(0, bytes);
+        trimPrefetchedTracks(mPrefetchBudget);
+    }
+
+    /**
+     * @brief Returns the memory budget for prefetched @c MediaPlayer%s in bytes.
+     */
+    public long getPrefetchBudget() {
+        return mPrefetchBudget;
+    }
+
+    /**
+     * @brief Returns the estimated memory cost of a single @c MediaPlayer prepared for @p track, or
+     * @c 0 if the track has not been opened by this pool.
+     * @param track Audio track asset path to query
+     */
+    public long getTrackSize(String track) {
+        Long size = mTrackSizes.get(track);
+        return (size != null) ? size : 0;
+    }
+
+    /**
+     * @brief Releases players that are not acquired by a caller, as appropriate for @p tier.
+     *
+     * From MemoryPressure#TIER_PREFETCHED, all prefetched tracks are evicted. From
+     * MemoryPressure#TIER_CACHES, idle players are released as well.
+     * @param tier Eviction tier, one of the MemoryPressure tiers
+     * @returns Estimated number of bytes freed
+     */
+    public long trimMemory(int tier) {
+        long bytesFreed = 0;
+        if (tier >= MemoryPressure.TIER_PREFETCHED) {
+            bytesFreed += mPrefetchedBytes;
+            trimPrefetchedTracks(0);
+        }
+        if (tier >= MemoryPressure.TIER_CACHES) {
+            // Idle players have been reset, so they hold no decoder or data source.
+            for (MediaPlayer mp : mIdlePlayers) {
+                releasePlayer(mp);
+            }
+            mIdlePlayers.clear();
+        }
+        return bytesFreed;
+    }
+
+    /**
+     * @brief Returns whether or not at least @p count @c MediaPlayer%s are prepared and ready to be
+     * acquired for @p track.
+     * @param track Audio track asset path to query
+     * @param count Number of players needed for @p track
+     */
+    public boolean isPrepared(String track, int count) {
+        LinkedList<MediaPlayer> prepared = mPreparedPlayers.get(track);
+        return prepared != null && prepared.size() >= count;
+    }
+
+    /**
+     * @brief Returns whether or not the last attempt to prepare @p track failed.
+     * @param track Audio track asset path to query
+     */
+    public boolean hasFailed(String track) {
+        return mFailedTracks.contains(track);
+    }
+
+    /**
+     * @brief Removes and returns a prepared @c MediaPlayer for @p track, or @c null if none is
+     * currently prepared.
+     *
+     * The returned player is owned by the caller until it is handed back through recycle(). Callers
+     * are responsible for attaching their own @c OnCompletionListener, and may replace the
+     * @c OnErrorListener.
+     * @param track Audio track asset path to acquire a player for
+     */
+    public MediaPlayer acquire(String track) {
+        forgetPrefetchedTrack(track);
+        LinkedList<MediaPlayer> prepared = mPreparedPlayers.get(track);
+        if (prepared == null || prepared.isEmpty()) {
+            return null;
+        }
+        MediaPlayer mp = prepared.removeFirst();
+        if (prepared.isEmpty()) {
+            mPreparedPlayers.remove(track);
+        }
+        return mp;
+    }
+
+    /**
+     * @brief Returns a @c MediaPlayer to this pool.
+     *
+     * The player is stopped and @c reset() so that it no longer holds on to its data source or
+     * decoder, and is kept for reuse if the pool has room for it. Otherwise it is released.
+     * @param mp @c MediaPlayer to recycle, or @c null
+     */
+    public void recycle(MediaPlayer mp) {
+        if (mp == null) {
+            return;
+        }
+        if (mp.isPlaying()) {
+            mp.stop();
+        }
+        mp.reset();
+        mp.setOnCompletionListener(null);
+        if (mIdlePlayers.size() < MAX_IDLE_PLAYERS) {
+            mIdlePlayers.addLast(mp);
+        } else {
+            releasePlayer(mp);
+        }
+    }
+
+    /**
+     * @brief Releases the @c MediaPlayer%s that are preparing or prepared for @p track, e.g.
+     * because the track was abandoned before its players were acquired.
+     *
+     * Players already acquired for @p track are not affected.
+     * @param track Audio track asset path to cancel, or @c null
+     */
+    public void cancel(String track) {
+        if (track != null) {
+            evictTrack(track);
+        }
+    }
+
+    /**
+     * @brief Releases all @c MediaPlayer%s owned by this pool, whether idle, preparing, or prepared.
+     * @note Players currently acquired by callers are not affected.
+     */
+    public void releaseAll() {
+        for (MediaPlayer mp : mPreparingPlayers.keySet()) {
+            releasePlayer(mp);
+        }
+        mPreparingPlayers.clear();
+        mPrepareStartTimes.clear();
+        for (LinkedList<MediaPlayer> prepared : mPreparedPlayers.values()) {
+            for (MediaPlayer mp : prepared) {
+                releasePlayer(mp);
+            }
+        }
+        mPreparedPlayers.clear();
+        for (MediaPlayer mp : mIdlePlayers) {
+            releasePlayer(mp);
+        }
+        mIdlePlayers.clear();
+        mFailedTracks.clear();
+        mPrefetchedTracks.clear();
+        mPrefetchedBytes = 0;
+    }
+
+    /**
+     * @brief Called when a @c MediaPlayer prepared by this pool is ready for playback.
+     * @param mp @c MediaPlayer that finished preparing
+     */
+    @Override
+    public void onPrepared(MediaPlayer mp) {
+        String track = mPreparingPlayers.remove(mp);
+        if (track == null) {
+            return;
+        }
+        mMetrics.recordSince(AudioMetrics.PREPARE_TIME, mPrepareStartTimes.remove(mp));
+        LinkedList<MediaPlayer> prepared = mPreparedPlayers.get(track);
+        if (prepared == null) {
+            prepared = new LinkedList<MediaPlayer>();
+            mPreparedPlayers.put(track, prepared);
+        }
+        prepared.addLast(mp);
+    }
+
+    /**
+     * @brief Called when a @c MediaPlayer prepared by this pool encounters an error.
+     *
+     * Players that fail while preparing are discarded from the pool. Errors on players that have
+     * already been acquired are left to the caller that acquired them.
+     * @param mp @c MediaPlayer that encountered the error
+     * @param what Type of error that occurred
+     * @param extra Implementation specific error code
+     * @returns @c true if the error was handled
+     */
+    @Override
+    public boolean onError(MediaPlayer mp, int what, int extra) {
+        String track = mPreparingPlayers.remove(mp);
+        if (track != null) {
+            Log.e(LOG_TAG, String.format("Could not prepare audio track %s (%d, %d)", track, what,
+                    extra));
+            mPrepareStartTimes.remove(mp);
+            mMetrics.onPrepareError();
+            mFailedTracks.add(track);
+            releasePlayer(mp);
+            if (mPrefetchedTracks.containsKey(track)) {
+                evictTrack(track);
+            }
+        }
+        return track != null;
+    }
+
+    private boolean prepareInternal(Context context, String track, int count) {
+        mFailedTracks.remove(track);
+        for (int i = getPendingCount(track); i < count; ++i) {
+            MediaPlayer mp = (!mIdlePlayers.isEmpty()) ? mIdlePlayers.removeFirst()
+                                                       : createPlayer();
+            long openStartTime = System.nanoTime();
+            try {
+                AudioAssetPack.Source source = AudioAssetPack.getInstance(context).open(track);
+                mTrackSizes.put(track, source.getLength());
+                try {
+                    mp.setDataSource(source.getFileDescriptor(), source.getStartOffset(),
+                            source.getLength());
+                } finally {
+                    source.close();
+                }
+            } catch (IOException ex) {
+                Log.e(LOG_TAG, "Could not open audio track " + track, ex);
+                mMetrics.onPrepareError();
+                mFailedTracks.add(track);
+                recycle(mp);
+                return false;
+            }
+            long prepareStartTime = System.nanoTime();
+            mMetrics.record(AudioMetrics.OPEN_TIME, (prepareStartTime - openStartTime) / 1000000.0);
+            mp.setOnPreparedListener(this);
+            mp.setOnErrorListener(this);
+            mPreparingPlayers.put(mp, track);
+            mPrepareStartTimes.put(mp, prepareStartTime);
+            mp.prepareAsync();
+        }
+        return true;
+    }
+
+    private void forgetPrefetchedTrack(String track) {
+        Long cost = mPrefetchedTracks.remove(track);
+        if (cost != null) {
+            mPrefetchedBytes -= cost;
+        }
+    }
+
+    private void trimPrefetchedTracks(long budget) {
+        Iterator<String> it = mPrefetchedTracks.keySet().iterator();
+        while (mPrefetchedBytes > budget && it.hasNext()) {
+            String track = it.next();
+            mPrefetchedBytes -= mPrefetchedTracks.get(track);
+            it.remove();
+            releaseTrack(track);
+        }
+    }
+
+    private void evictTrack(String track) {
+        forgetPrefetchedTrack(track);
+        releaseTrack(track);
+    }
+
+    // Releases all preparing and prepared players of track.
+    private void releaseTrack(String track) {
+        Iterator<Map.Entry<MediaPlayer, String>> it = mPreparingPlayers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<MediaPlayer, String> entry = it.next();
+            if (entry.getValue().equals(track)) {
+                mPrepareStartTimes.remove(entry.getKey());
+                releasePlayer(entry.getKey());
+                it.remove();
+            }
+        }
+        LinkedList<MediaPlayer> prepared = mPreparedPlayers.remove(track);
+        if (prepared != null) {
+            for (MediaPlayer mp : prepared) {
+                recycle(mp);
+            }
+        }
+    }
+
+    private MediaPlayer createPlayer() {
+        mMetrics.onPlayerCreated();
+        return new MediaPlayer();
+    }
+
+    private void releasePlayer(MediaPlayer mp) {
+        mp.release();
+        mMetrics.onPlayerReleased();
+    }
+
+    private int getPendingCount(String track) {
+        int count = 0;
+        for (Map.Entry<MediaPlayer, String> entry : mPreparingPlayers.entrySet()) {
+            if (entry.getValue().equals(track)) {
+                count++;
+            }
+        }
+        LinkedList<MediaPlayer> prepared = mPreparedPlayers.get(track);
+        if (prepared != null) {
+            count += prepared.size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * @brief Eviction tiers used to respond to memory pressure.
+ *
+ * Android reports memory pressure through @c onTrimMemory levels, which getTier() maps onto a
+ * small number of cumulative eviction tiers: each tier releases everything the tiers below it do,
+ * plus more expensive-to-rebuild resources.
+ * @note The tier values must be kept in sync with Engine::MemoryTrimTier.
+ */
+public final class MemoryPressure {
+    /**
+     * @brief No eviction.
+     */
+    public static final int TIER_NONE = 0;
+    /**
+     * @brief Release resources that were only loaded speculatively, such as prefetched audio.
+     */
+    public static final int TIER_PREFETCHED = 1;
+    /**
+     * @brief Additionally release caches of resources that are not currently in use, and
+     * redundant buffers of those that are.
+     */
+    public static final int TIER_CACHES = 2;
+    /**
+     * @brief Additionally release everything that can be rebuilt, short of losing game state.
+     */
+    public static final int TIER_ALL = 3;
+
+    private MemoryPressure() {
+    }
+
+    /**
+     * @brief Returns the eviction tier for an @c onTrimMemory level.
+     * @param trimLevel Level passed to @c ComponentCallbacks2.onTrimMemory()
+     */
+    public static int getTier(int trimLevel) {
+        if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // We are in the middle or at the end of the background LRU list.
+            return TIER_ALL;
+        } else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return TIER_CACHES;
+        } else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return TIER_PREFETCHED;
+        } else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return TIER_ALL;
+        } else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return TIER_CACHES;
+        } else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return TIER_PREFETCHED;
+        }
+        return TIER_NONE;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * @brief Three-way merge of save state entries.
+ *
+ * Entries that only changed on one side since the common base are taken from that side, so that
+ * progress made on different devices on different level progressions merges without involving the
+ * game. Only entries that changed differently on both sides are reported as conflicts.
+ */
+public final class SaveStateMerger {
+    /**
+     * @brief Separator between the top-level key and the sub-key of an entry, as in
+     * @c "NumStars/Main".
+     */
+    public static final char KEY_SEPARATOR = '/';
+
+    /**
+     * @brief Result of a merge.
+     */
+    public static class Result {
+        /**
+         * @brief Merged entries. Conflicting entries hold their local value.
+         */
+        public final Map<String, String> entries = new TreeMap<String, String>();
+        /**
+         * @brief Keys of the entries that changed differently on both sides.
+         */
+        public final Set<String> conflicts = new HashSet<String>();
+    }
+
+    private SaveStateMerger() {
+    }
+
+    /**
+     * @brief Merges @p local and @p remote, which both derive from @p base.
+     * @param base Entries at the last synchronization, or an empty map if there was none
+     * @param local Local entries
+     * @param remote Remote entries
+     */
+    public static Result merge(Map<String, String> base, Map<String, String> local,
+            Map<String, String> remote) {
+        Result result = new Result();
+        Set<String> keys = new HashSet<String>(local.keySet());
+        keys.addAll(remote.keySet());
+        keys.addAll(base.keySet());
+        for (String key : keys) {
+            String baseValue = base.get(key);
+            String localValue = local.get(key);
+            String remoteValue = remote.get(key);
+            String merged;
+            if (equals(localValue, remoteValue) || equals(remoteValue, baseValue)) {
+                merged = localValue;
+            } else if (equals(localValue, baseValue)) {
+                merged = remoteValue;
+            } else {
+                result.conflicts.add(key);
+                merged = localValue;
+            }
+            if (merged != null) {
+                result.entries.put(key, merged);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @brief Assembles @p entries into a JSON object.
+     *
+     * Entry values must be JSON values. An entry whose key contains ::KEY_SEPARATOR becomes a member
+     * of the object named by the part of the key before it.
+     * @param entries Entries to assemble
+     */
+    public static String toJson(Map<String, String> entries) {
+        // Sort the entries so that entries sharing a top-level key are adjacent.
+        TreeMap<String, String> sortedEntries = new TreeMap<String, String>(entries);
+        StringBuilder json = new StringBuilder("{");
+        String openObject = null;
+        for (Map.Entry<String, String> entry : sortedEntries.entrySet()) {
+            String key = entry.getKey();
+            int separator = key.indexOf(KEY_SEPARATOR);
+            String topKey = (separator < 0) ? key : key.substring(0, separator);
+            if (openObject != null && !openObject.equals(topKey)) {
+                json.append('}');
+                openObject = null;
+            }
+            if (json.length() > 1 && openObject == null) {
+                json.append(',');
+            }
+            if (separator < 0) {
+                appendString(json, key);
+                json.append(':').append(entry.getValue());
+                continue;
+            }
+            if (openObject == null) {
+                appendString(json, topKey);
+                json.append(":{");
+                openObject = topKey;
+            } else {
+                json.append(',');
+            }
+            appendString(json, key.substring(separator + 1));
+            json.append(':').append(entry.getValue());
+        }
+        if (openObject != null) {
+            json.append('}');
+        }
+        json.append('}');
+        return json.toString();
+    }
+
+    private static boolean equals(String a, String b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
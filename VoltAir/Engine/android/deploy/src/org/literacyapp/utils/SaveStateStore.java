@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * @brief Append-only, compressed store of save game state.
+ *
+ * The state is a set of string entries keyed by name, e.g. one entry per level progression.
+ * put() compares the new state against the current one and appends only the entries that changed
+ * as a compressed delta record. Records are written on a background thread, so put() never blocks
+ * on disk I/O, and each one is synced to disk before the next is written.
+ *
+ * Every record is framed with its length and a CRC32 checksum. Loading replays records in order
+ * and stops at the first one that is truncated or corrupt, e.g. because the process was killed
+ * while appending it, so a load always yields the last state that was completely written. Once the
+ * log has grown to many times the size of the state, it is compacted into a single snapshot record
+ * which atomically replaces the log.
+ * @note This class only depends on the Java standard library, so that it can be exercised off
+ * device. Methods are thread-safe.
+ */
+public class SaveStateStore {
+    private static final Logger LOGGER = Logger.getLogger(SaveStateStore.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int RECORD_MAGIC = 0x56415352; // "VASR"
+    private static final int RECORD_HEADER_BYTES = 12;
+    private static final byte RECORD_SNAPSHOT = 0;
+    private static final byte RECORD_DELTA = 1;
+    // Upper bound on the size of a single record, to reject corrupt lengths before allocating.
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    // The log is compacted once it holds this many delta records, or is this many times larger
+    // than the last snapshot.
+    private static final int MAX_DELTA_RECORDS = 64;
+    private static final int MAX_LOG_GROWTH = 4;
+
+    /**
+     * @brief Save state read from a file.
+     */
+    public static class Snapshot {
+        /**
+         * @brief Version of the state, which increases with every record written.
+         */
+        public final long version;
+        /**
+         * @brief Entries of the state.
+         */
+        public final Map<String, String> entries;
+
+        /**
+         * @brief Constructs a Snapshot.
+         * @param version Version of the state
+         * @param entries Entries of the state
+         */
+        public Snapshot(long version, Map<String, String> entries) {
+            this.version = version;
+            this.entries = entries;
+        }
+    }
+
+    // Result of reading a log, including how much of it is valid.
+    private static class ReadResult {
+        long version = 0;
+        final HashMap<String, String> entries = new HashMap<String, String>();
+        long validLength = 0;
+        long snapshotLength = 0;
+        int numDeltaRecords = 0;
+    }
+
+    private final File mFile;
+    private final ExecutorService mWriteExecutor;
+    private boolean mLoaded = false;
+    private long mVersion = 0;
+    private final HashMap<String, String> mEntries = new HashMap<String, String>();
+
+    // Writer state, only touched on the write thread. mWrittenEntries mirrors the state on disk.
+    private final HashMap<String, String> mWrittenEntries = new HashMap<String, String>();
+    private long mLogLength = 0;
+    private long mSnapshotLength = 0;
+    private int mNumDeltaRecords = 0;
+    private boolean mTruncatePending = false;
+
+    /**
+     * @brief Constructs a SaveStateStore backed by @p file.
+     *
+     * No I/O happens until the state is first accessed.
+     * @param file File to store the state in
+     */
+    public SaveStateStore(File file) {
+        mFile = file;
+        mWriteExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SaveStateStore");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @brief Returns a copy of the current entries, loading them from disk if necessary.
+     */
+    public synchronized Map<String, String> getEntries() {
+        ensureLoaded();
+        return new HashMap<String, String>(mEntries);
+    }
+
+    /**
+     * @brief Returns the version of the current state, loading it from disk if necessary.
+     */
+    public synchronized long getVersion() {
+        ensureLoaded();
+        return mVersion;
+    }
+
+    /**
+     * @brief Replaces the state with @p entries, writing the difference behind.
+     * @param entries New entries of the state. Entries that are not present are removed.
+     * @returns @c true if the state changed
+     */
+    public synchronized boolean put(Map<String, String> entries) {
+        ensureLoaded();
+        final HashMap<String, String> delta = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (!entry.getValue().equals(mEntries.get(entry.getKey()))) {
+                delta.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String key : mEntries.keySet()) {
+            if (!entries.containsKey(key)) {
+                // Removed keys are recorded with a null value.
+                delta.put(key, null);
+            }
+        }
+        if (delta.isEmpty()) {
+            return false;
+        }
+        applyDelta(mEntries, delta);
+        final long version = ++mVersion;
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeDelta(version, delta);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @brief Removes all entries and deletes the backing file.
+     */
+    public synchronized void clear() {
+        ensureLoaded();
+        mEntries.clear();
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mWrittenEntries.clear();
+                mLogLength = 0;
+                mSnapshotLength = 0;
+                mNumDeltaRecords = 0;
+                mTruncatePending = false;
+                if (mFile.exists() && !mFile.delete()) {
+                    LOGGER.warning("Failed to delete " + mFile);
+                }
+            }
+        });
+    }
+
+    /**
+     * @brief Blocks until all state put so far has been written to disk.
+     */
+    public void flush() {
+        try {
+            mWriteExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.WARNING, "Failed to flush save state", e);
+        }
+    }
+
+    /**
+     * @brief Reads the state stored in @p file.
+     * @param file File to read
+     * @returns State of the last complete record, or an empty state of version @c 0 if @p file
+     * does not exist
+     */
+    public static Snapshot read(File file) {
+        ReadResult result = readLog(file);
+        return new Snapshot(result.version, result.entries);
+    }
+
+    /**
+     * @brief Atomically replaces @p file with a single snapshot record of @p entries.
+     * @param file File to write
+     * @param version Version to store with the snapshot
+     * @param entries Entries of the state
+     * @returns Size of the written file in bytes
+     * @throws IOException if the file could not be written, in which case it is left untouched
+     */
+    public static long writeSnapshot(File file, long version, Map<String, String> entries)
+            throws IOException {
+        byte[] record = encodeRecord(RECORD_SNAPSHOT, version, entries);
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(record);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+        return record.length;
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        final ReadResult result = readLog(mFile);
+        mEntries.putAll(result.entries);
+        mVersion = result.version;
+        mLoaded = true;
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mWrittenEntries.putAll(result.entries);
+                mLogLength = result.validLength;
+                mSnapshotLength = result.snapshotLength;
+                mNumDeltaRecords = result.numDeltaRecords;
+                // Drop any partially written record before appending behind it.
+                mTruncatePending = result.validLength < mFile.length();
+            }
+        });
+    }
+
+    private void writeDelta(long version, Map<String, String> delta) {
+        applyDelta(mWrittenEntries, delta);
+        try {
+            if (mNumDeltaRecords + 1 >= MAX_DELTA_RECORDS
+                    || mLogLength > Math.max(1, mSnapshotLength) * MAX_LOG_GROWTH) {
+                compact(version);
+                return;
+            }
+            if (mTruncatePending) {
+                RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+                try {
+                    file.setLength(mLogLength);
+                } finally {
+                    file.close();
+                }
+                mTruncatePending = false;
+            }
+            byte[] record = encodeRecord(RECORD_DELTA, version, delta);
+            FileOutputStream out = new FileOutputStream(mFile, true);
+            try {
+                out.write(record);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            mLogLength += record.length;
+            mNumDeltaRecords++;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write save state", e);
+            // The log may now end in a partial record, which a snapshot replaces as a whole.
+            mNumDeltaRecords = MAX_DELTA_RECORDS;
+        }
+    }
+
+    private void compact(long version) throws IOException {
+        mSnapshotLength = writeSnapshot(mFile, version, mWrittenEntries);
+        mLogLength = mSnapshotLength;
+        mNumDeltaRecords = 0;
+        mTruncatePending = false;
+    }
+
+    private static void applyDelta(Map<String, String> entries, Map<String, String> delta) {
+        for (Map.Entry<String, String> entry : delta.entrySet()) {
+            if (entry.getValue() != null) {
+                entries.put(entry.getKey(), entry.getValue());
+            } else {
+                entries.remove(entry.getKey());
+            }
+        }
+    }
+
+    private static ReadResult readLog(File file) {
+        ReadResult result = new ReadResult();
+        if (!file.exists()) {
+            return result;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            while (true) {
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int length = in.readInt();
+                long checksum = in.readInt() & 0xffffffffL;
+                if (magic != RECORD_MAGIC || length < 0 || length > MAX_RECORD_BYTES) {
+                    LOGGER.warning("Corrupt save state record header in " + file);
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if (crc.getValue() != checksum) {
+                    LOGGER.warning("Save state record checksum mismatch in " + file);
+                    break;
+                }
+                decodeRecord(payload, result);
+                result.validLength += RECORD_HEADER_BYTES + length;
+            }
+        } catch (EOFException e) {
+            LOGGER.warning("Truncated save state record in " + file);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read save state from " + file, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to close " + file, e);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Record layout: magic, payload length and CRC32 of the payload, followed by the deflated
+    // payload. The payload holds the record type, version, and entry count, followed by each entry
+    // as its key, a presence flag, and (if present) its UTF-8 encoded value.
+    private static byte[] encodeRecord(byte type, long version, Map<String, String> entries)
+            throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(new DeflaterOutputStream(payloadBytes));
+        payload.writeByte(type);
+        payload.writeLong(version);
+        payload.writeInt(entries.size());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            payload.writeUTF(entry.getKey());
+            String value = entry.getValue();
+            payload.writeBoolean(value != null);
+            if (value != null) {
+                byte[] valueBytes = value.getBytes(UTF_8);
+                payload.writeInt(valueBytes.length);
+                payload.write(valueBytes);
+            }
+        }
+        payload.close();
+
+        byte[] compressed = payloadBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(compressed);
+        ByteArrayOutputStream recordBytes =
+                new ByteArrayOutputStream(RECORD_HEADER_BYTES + compressed.length);
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        record.writeInt(RECORD_MAGIC);
+        record.writeInt(compressed.length);
+        record.writeInt((int) crc.getValue());
+        record.write(compressed);
+        record.close();
+        return recordBytes.toByteArray();
+    }
+
+    private static void decodeRecord(byte[] compressed, ReadResult result) throws IOException {
+        InputStream inflater = new InflaterInputStream(new ByteArrayInputStream(compressed));
+        DataInputStream payload = new DataInputStream(inflater);
+        try {
+            byte type = payload.readByte();
+            long version = payload.readLong();
+            int numEntries = payload.readInt();
+            HashMap<String, String> delta = new HashMap<String, String>();
+            for (int i = 0; i < numEntries; ++i) {
+                String key = payload.readUTF();
+                String value = null;
+                if (payload.readBoolean()) {
+                    byte[] valueBytes = new byte[payload.readInt()];
+                    payload.readFully(valueBytes);
+                    value = new String(valueBytes, UTF_8);
+                }
+                delta.put(key, value);
+            }
+            if (type == RECORD_SNAPSHOT) {
+                result.entries.clear();
+                result.numDeltaRecords = 0;
+                result.snapshotLength = RECORD_HEADER_BYTES + compressed.length;
+            } else {
+                result.numDeltaRecords++;
+            }
+            applyDelta(result.entries, delta);
+            result.version = version;
+        } finally {
+            payload.close();
+        }
+    }
+}
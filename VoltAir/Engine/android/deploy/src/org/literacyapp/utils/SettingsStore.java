@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * @brief Write-behind settings store layered on top of Android @c SharedPreferences.
+ *
+ * Each SettingsStore keeps an in-memory, authoritative copy of one @c SharedPreferences file.
+ * The file is loaded on a shared background thread, so creating a store does not block on disk
+ * I/O. Only a read issued before the load has completed waits for it. Writes never block, and take
+ * precedence over the loaded values. All methods are safe to call from any thread.
+ *
+ * Modified values are batched and committed to disk on the background thread within
+ * #WRITE_DELAY_MS of being written, so if the process is killed without stopping, at most the
+ * values written during that window are lost. flush() (or flushAll()) hands any outstanding values
+ * to @c SharedPreferences.Editor.apply(), which the framework waits on before an activity is
+ * reported as stopped, so that values written before @c onStop survive process death.
+ * @note Stores for the same preferences file are shared; obtain them through getInstance().
+ */
+public class SettingsStore {
+    private static final String LOG_TAG = SettingsStore.class.toString();
+    /**
+     * @brief Delay used to batch consecutive writes into a single commit, in milliseconds.
+     */
+    public static final long WRITE_DELAY_MS = 200;
+
+    private static final HashMap<String, SettingsStore> sStores =
+            new HashMap<String, SettingsStore>();
+    private static Handler sWriteHandler = null;
+
+    private final SharedPreferences mPreferences;
+    private final HashMap<String, Object> mValues = new HashMap<String, Object>();
+    // Whether the values of the SharedPreferences have been loaded into mValues.
+    private boolean mLoaded = false;
+    // Keys written before the values were loaded, whose loaded values are stale.
+    private final HashSet<String> mKeysWrittenBeforeLoad = new HashSet<String>();
+    // Values modified since they were last handed to the SharedPreferences. Removed keys map to
+    // null.
+    private final HashMap<String, Object> mPendingWrites = new HashMap<String, Object>();
+    private boolean mWriteScheduled = false;
+    // Incremented whenever pending values are taken to be handed to the SharedPreferences.
+    private long mBatchGeneration = 0;
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePendingValues(false);
+        }
+    };
+
+    /**
+     * @brief Returns the SettingsStore of the @c SharedPreferences file @p name, loading it if
+     * necessary.
+     * @param context Context used to open the preferences file
+     * @param name Name of the preferences file
+     */
+    public static synchronized SettingsStore getInstance(Context context, String name) {
+        SettingsStore store = sStores.get(name);
+        if (store == null) {
+            if (sWriteHandler == null) {
+                HandlerThread writeThread = new HandlerThread("SettingsStore",
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                writeThread.start();
+                sWriteHandler = new Handler(writeThread.getLooper());
+            }
+            store = new SettingsStore(context.getApplicationContext()
+                    .getSharedPreferences(name, Context.MODE_PRIVATE));
+            sStores.put(name, store);
+        }
+        return store;
+    }
+
+    /**
+     * @brief Flushes all SettingsStore%s.
+     *
+     * This method should be called from the @c onStop method in the main activity, after any final
+     * values have been written.
+     */
+    public static synchronized void flushAll() {
+        for (SettingsStore store : sStores.values()) {
+            store.flush();
+        }
+    }
+
+    private SettingsStore(SharedPreferences preferences) {
+        mPreferences = preferences;
+        sWriteHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadValues();
+            }
+        });
+    }
+
+    /**
+     * @brief Returns the boolean value of @p key, or @p defValue if it is not set.
+     * @param key Key of the setting
+     * @param defValue Value to return if @p key is not set
+     */
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        Object value = getValue(key);
+        return (value instanceof Boolean) ? (Boolean) value : defValue;
+    }
+
+    /**
+     * @brief Returns the integer value of @p key, or @p defValue if it is not set.
+     * @param key Key of the setting
+     * @param defValue Value to return if @p key is not set
+     */
+    public synchronized int getInt(String key, int defValue) {
+        Object value = getValue(key);
+        return (value instanceof Integer) ? (Integer) value : defValue;
+    }
+
+    /**
+     * @brief Returns the long value of @p key, or @p defValue if it is not set.
+     * @param key Key of the setting
+     * @param defValue Value to return if @p key is not set
+     */
+    public synchronized long getLong(String key, long defValue) {
+        Object value = getValue(key);
+        return (value instanceof Long) ? (Long) value : defValue;
+    }
+
+    /**
+     * @brief Returns the string value of @p key, or @p defValue if it is not set.
+     * @param key Key of the setting
+     * @param defValue Value to return if @p key is not set
+     */
+    public synchronized String getString(String key, String defValue) {
+        Object value = getValue(key);
+        return (value instanceof String) ? (String) value : defValue;
+    }
+
+    /**
+     * @brief Sets the boolean value of @p key.
+     * @param key Key of the setting
+     * @param value Value to set
+     */
+    public void putBoolean(String key, boolean value) {
+        put(key, value);
+    }
+
+    /**
+     * @brief Sets the integer value of @p key.
+     * @param key Key of the setting
+     * @param value Value to set
+     */
+    public void putInt(String key, int value) {
+        put(key, value);
+    }
+
+    /**
+     * @brief Sets the long value of @p key.
+     * @param key Key of the setting
+     * @param value Value to set
+     */
+    public void putLong(String key, long value) {
+        put(key, value);
+    }
+
+    /**
+     * @brief Sets the string value of @p key.
+     * @param key Key of the setting
+     * @param value Value to set, or @c null to remove the setting
+     */
+    public void putString(String key, String value) {
+        put(key, value);
+    }
+
+    /**
+     * @brief Hands all outstanding values to the @c SharedPreferences without waiting for the
+     * background thread.
+     * @note The values are written to disk asynchronously, but are guaranteed to be written before
+     * the activity that calls this from its @c onStop method is reported as stopped.
+     */
+    public void flush() {
+        sWriteHandler.removeCallbacks(mWriteRunnable);
+        writePendingValues(true);
+    }
+
+    private synchronized Object getValue(String key) {
+        boolean interrupted = false;
+        while (!mLoaded) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return mValues.get(key);
+    }
+
+    private void loadValues() {
+        // Blocks until the SharedPreferences have been read from disk.
+        Map<String, ?> values = mPreferences.getAll();
+        synchronized (this) {
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                if (!mKeysWrittenBeforeLoad.contains(entry.getKey())) {
+                    mValues.put(entry.getKey(), entry.getValue());
+                }
+            }
+            mKeysWrittenBeforeLoad.clear();
+            mLoaded = true;
+            notifyAll();
+        }
+    }
+
+    private synchronized void put(String key, Object value) {
+        if (!mLoaded) {
+            mKeysWrittenBeforeLoad.add(key);
+        } else {
+            Object oldValue = mValues.get(key);
+            if (value == null ? (oldValue == null && !mValues.containsKey(key))
+                              : value.equals(oldValue)) {
+                return;
+            }
+        }
+        if (value == null) {
+            mValues.remove(key);
+        } else {
+            mValues.put(key, value);
+        }
+        mPendingWrites.put(key, value);
+        if (!mWriteScheduled) {
+            mWriteScheduled = true;
+            sWriteHandler.postDelayed(mWriteRunnable, WRITE_DELAY_MS);
+        }
+    }
+
+    private void writePendingValues(boolean apply) {
+        HashMap<String, Object> values;
+        long generation;
+        synchronized (this) {
+            mWriteScheduled = false;
+            if (mPendingWrites.isEmpty()) {
+                return;
+            }
+            values = new HashMap<String, Object>(mPendingWrites);
+            mPendingWrites.clear();
+            generation = ++mBatchGeneration;
+        }
+        // No lock is held while the values are handed over, so that flush() on the main thread
+        // never waits for a commit in progress on the background thread.
+        while (true) {
+            writeValues(values, apply);
+            if (apply) {
+                return;
+            }
+            synchronized (this) {
+                if (mBatchGeneration == generation) {
+                    return;
+                }
+                // A newer batch was handed over while this one was being committed, and may have
+                // been overwritten by it. Rewrite the keys of this batch with their current values.
+                generation = mBatchGeneration;
+                for (Map.Entry<String, Object> entry : values.entrySet()) {
+                    entry.setValue(mValues.get(entry.getKey()));
+                }
+            }
+        }
+    }
+
+    private void writeValues(HashMap<String, Object> values, boolean apply) {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else {
+                editor.remove(entry.getKey());
+            }
+        }
+        if (apply) {
+            editor.apply();
+        } else if (!editor.commit()) {
+            Log.e(LOG_TAG, "Could not write settings");
+        }
+    }
+}
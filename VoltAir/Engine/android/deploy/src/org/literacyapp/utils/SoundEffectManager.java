@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * @brief Plays low-latency sound effects on Android devices.
+ *
+ * This class implements the Android side of SoundManager::playSoundEffect and of
+ * SoundEffectInstance. Sound effects are decoded ahead of time into a @c SoundPool and are
+ * afterwards referred to by integer handles, so playing an effect does not involve any asset path
+ * lookups or allocation. Each play is identified by a playback id, through which a looped or
+ * otherwise long-running play can later be stopped or changed. The number of concurrently playing
+ * voices is capped, and once the cap is reached the oldest one-shot voice is stolen.
+ * @note Handles remain valid across @c onStop / @c onStart, as all known effects are reloaded when
+ * the SoundEffectManager is restarted. Playbacks, including looped ones, end at @c onStop.
+ * @note Methods may be called from both the main looper thread and the native Qt thread.
+ */
+public class SoundEffectManager implements SoundPool.OnLoadCompleteListener {
+    /**
+     * @brief Represents an invalid sound effect handle.
+     */
+    public static final int INVALID_HANDLE = -1;
+    /**
+     * @brief Represents an invalid playback id, e.g. of a play that could not be started.
+     */
+    public static final int INVALID_PLAYBACK = 0;
+
+    private static final String LOG_TAG = SoundEffectManager.class.toString();
+    private static final int MAX_VOICES = 8;
+    // SoundPool sample and stream ids are always positive; 0 denotes one that does not exist.
+    private static final int NO_SAMPLE = 0;
+    private static final int NO_STREAM = 0;
+
+    private final HashMap<String, Integer> mHandles = new HashMap<String, Integer>();
+    private final ArrayList<String> mPaths = new ArrayList<String>();
+    private int[] mSampleIds = new int[16];
+    private boolean[] mLoaded = new boolean[16];
+    // Voices, indexed by voice. A voice with a playback id but no stream waits on its sample to
+    // finish loading.
+    private final int[] mVoicePlaybackIds = new int[MAX_VOICES];
+    private final int[] mVoiceStreamIds = new int[MAX_VOICES];
+    private final int[] mVoiceHandles = new int[MAX_VOICES];
+    private final float[] mVoiceVolumes = new float[MAX_VOICES];
+    private final boolean[] mVoiceLooped = new boolean[MAX_VOICES];
+    private int mNextVoice = 0;
+    private int mNextPlaybackId = INVALID_PLAYBACK + 1;
+    private Context mContext = null;
+    private SoundPool mSoundPool = null;
+
+    /**
+     * @brief Notifies this SoundEffectManager of the @c onStart activity lifecycle event.
+     *
+     * This method should be called from the @c onStart method in the main activity.
+     * @param context Context to be used for loading sound effect assets
+     */
+    public synchronized void onStart(Context context) {
+        mContext = context;
+        mSoundPool = new SoundPool(MAX_VOICES, AudioManager.STREAM_MUSIC, 0 /* Default quality */);
+        mSoundPool.setOnLoadCompleteListener(this);
+        for (int handle = 0; handle < mPaths.size(); ++handle) {
+            load(handle);
+        }
+    }
+
+    /**
+     * @brief Notifies this SoundEffectManager of the @c onStop activity lifecycle event.
+     *
+     * This method should be called from the @c onStop method in the main activity.
+     */
+    public synchronized void onStop() {
+        if (mSoundPool != null) {
+            mSoundPool.release();
+            mSoundPool = null;
+        }
+        Arrays.fill(mSampleIds, NO_SAMPLE);
+        Arrays.fill(mLoaded, false);
+        for (int voice = 0; voice < MAX_VOICES; ++voice) {
+            freeVoice(voice);
+        }
+        mContext = null;
+    }
+
+    /**
+     * @brief Starts loading the sound effects at @p paths, if not already loaded, and returns
+     * their handles.
+     * @param paths Sound effect asset paths to preload
+     * @returns Handle for each entry of @p paths, in the same order
+     */
+    public synchronized int[] preloadSoundEffects(String[] paths) {
+        int[] handles = new int[paths.length];
+        for (int i = 0; i < paths.length; ++i) {
+            handles[i] = getSoundEffectHandle(paths[i]);
+        }
+        return handles;
+    }
+
+    /**
+     * @brief Returns the handle of the sound effect at @p path, loading it if necessary.
+     * @param path Sound effect asset path
+     */
+    public synchronized int getSoundEffectHandle(String path) {
+        Integer handle = mHandles.get(path);
+        if (handle != null) {
+            return handle;
+        }
+        int newHandle = mPaths.size();
+        mPaths.add(path);
+        mHandles.put(path, newHandle);
+        ensureCapacity(newHandle + 1);
+        load(newHandle);
+        return newHandle;
+    }
+
+    /**
+     * @brief Plays the sound effect identified by @p handle once.
+     *
+     * If the effect has not finished loading yet, it is played as soon as it has.
+     * @param handle Handle of the sound effect, as returned by preloadSoundEffects() or
+     * getSoundEffectHandle()
+     * @param volume Linear gain from @c 0.0 to @c 1.0
+     */
+    public synchronized void playSoundEffect(int handle, float volume) {
+        startSoundEffect(handle, volume, false);
+    }
+
+    /**
+     * @brief Starts playing the sound effect identified by @p handle.
+     *
+     * If the effect has not finished loading yet, it is played as soon as it has.
+     * @param handle Handle of the sound effect, as returned by preloadSoundEffects() or
+     * getSoundEffectHandle()
+     * @param volume Linear gain from @c 0.0 to @c 1.0
+     * @param looped @c true to loop the effect until stopSoundEffect() is called
+     * @returns Playback id to stop or change the play with, or #INVALID_PLAYBACK if the
+     * SoundEffectManager is stopped or @p handle is invalid
+     */
+    public synchronized int startSoundEffect(int handle, float volume, boolean looped) {
+        if (mSoundPool == null || handle < 0 || handle >= mPaths.size()
+                || mSampleIds[handle] == NO_SAMPLE) {
+            return INVALID_PLAYBACK;
+        }
+        int voice = stealVoice();
+        int playbackId = mNextPlaybackId;
+        mNextPlaybackId = (playbackId == Integer.MAX_VALUE) ? INVALID_PLAYBACK + 1 : playbackId + 1;
+        mVoicePlaybackIds[voice] = playbackId;
+        mVoiceHandles[voice] = handle;
+        mVoiceVolumes[voice] = volume;
+        mVoiceLooped[voice] = looped;
+        if (mLoaded[handle]) {
+            play(voice);
+        }
+        return playbackId;
+    }
+
+    /**
+     * @brief Stops the play identified by @p playbackId, if it is still playing.
+     * @param playbackId Playback id, as returned by startSoundEffect()
+     */
+    public synchronized void stopSoundEffect(int playbackId) {
+        int voice = findVoice(playbackId);
+        if (voice < 0) {
+            return;
+        }
+        if (mVoiceStreamIds[voice] != NO_STREAM) {
+            mSoundPool.stop(mVoiceStreamIds[voice]);
+        }
+        freeVoice(voice);
+    }
+
+    /**
+     * @brief Changes the volume of the play identified by @p playbackId.
+     * @param playbackId Playback id, as returned by startSoundEffect()
+     * @param volume Linear gain from @c 0.0 to @c 1.0
+     */
+    public synchronized void setSoundEffectVolume(int playbackId, float volume) {
+        int voice = findVoice(playbackId);
+        if (voice < 0) {
+            return;
+        }
+        mVoiceVolumes[voice] = volume;
+        if (mVoiceStreamIds[voice] != NO_STREAM) {
+            mSoundPool.setVolume(mVoiceStreamIds[voice], volume, volume);
+        }
+    }
+
+    /**
+     * @brief Changes whether the play identified by @p playbackId loops.
+     *
+     * A play that stops looping finishes its current iteration.
+     * @param playbackId Playback id, as returned by startSoundEffect()
+     * @param looped @c true to loop the effect until stopSoundEffect() is called
+     */
+    public synchronized void setSoundEffectLooped(int playbackId, boolean looped) {
+        int voice = findVoice(playbackId);
+        if (voice < 0) {
+            return;
+        }
+        mVoiceLooped[voice] = looped;
+        if (mVoiceStreamIds[voice] != NO_STREAM) {
+            mSoundPool.setLoop(mVoiceStreamIds[voice], looped ? -1 : 0);
+        }
+    }
+
+    /**
+     * @brief Called when a sound effect has finished loading into the @c SoundPool.
+     * @param soundPool @c SoundPool the sample was loaded into
+     * @param sampleId Id of the loaded sample
+     * @param status Status of the load operation, @c 0 on success
+     */
+    @Override
+    public synchronized void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+        if (soundPool != mSoundPool) {
+            return;
+        }
+        for (int handle = 0; handle < mPaths.size(); ++handle) {
+            if (mSampleIds[handle] != sampleId) {
+                continue;
+            }
+            if (status != 0) {
+                Log.e(LOG_TAG, "Could not load sound effect " + mPaths.get(handle));
+                mSampleIds[handle] = NO_SAMPLE;
+            } else {
+                mLoaded[handle] = true;
+            }
+            // Start or drop the plays that were waiting on this sample.
+            for (int voice = 0; voice < MAX_VOICES; ++voice) {
+                if (mVoicePlaybackIds[voice] != INVALID_PLAYBACK && mVoiceHandles[voice] == handle
+                        && mVoiceStreamIds[voice] == NO_STREAM) {
+                    if (mLoaded[handle]) {
+                        play(voice);
+                    } else {
+                        freeVoice(voice);
+                    }
+                }
+            }
+            return;
+        }
+    }
+
+    private void load(int handle) {
+        if (mSoundPool == null) {
+            return;
+        }
+        String path = mPaths.get(handle);
+        try {
+            AudioAssetPack.Source source = AudioAssetPack.getInstance(mContext).open(path);
+            try {
+                mSampleIds[handle] = mSoundPool.load(source.getFileDescriptor(),
+                        source.getStartOffset(), source.getLength(), 1 /* Priority */);
+            } finally {
+                source.close();
+            }
+        } catch (IOException ex) {
+            Log.e(LOG_TAG, "Could not open sound effect " + path, ex);
+        }
+    }
+
+    private int stealVoice() {
+        // Steal the oldest one-shot voice, which has most likely finished already. Looped voices
+        // are only stolen if all voices are looped.
+        int voice = mNextVoice;
+        for (int i = 0; i < MAX_VOICES; ++i) {
+            int candidate = (mNextVoice + i) % MAX_VOICES;
+            if (!mVoiceLooped[candidate] || mVoicePlaybackIds[candidate] == INVALID_PLAYBACK) {
+                voice = candidate;
+                break;
+            }
+        }
+        // Stopping a voice that has already finished is harmless.
+        if (mVoiceStreamIds[voice] != NO_STREAM) {
+            mSoundPool.stop(mVoiceStreamIds[voice]);
+        }
+        freeVoice(voice);
+        mNextVoice = (voice + 1) % MAX_VOICES;
+        return voice;
+    }
+
+    private int findVoice(int playbackId) {
+        if (playbackId == INVALID_PLAYBACK) {
+            return -1;
+        }
+        for (int voice = 0; voice < MAX_VOICES; ++voice) {
+            if (mVoicePlaybackIds[voice] == playbackId) {
+                return voice;
+            }
+        }
+        return -1;
+    }
+
+    private void play(int voice) {
+        float volume = mVoiceVolumes[voice];
+        mVoiceStreamIds[voice] = mSoundPool.play(mSampleIds[mVoiceHandles[voice]], volume, volume,
+                1 /* Priority */, mVoiceLooped[voice] ? -1 : 0, 1.0f /* Normal rate */);
+    }
+
+    private void freeVoice(int voice) {
+        mVoicePlaybackIds[voice] = INVALID_PLAYBACK;
+        mVoiceStreamIds[voice] = NO_STREAM;
+        mVoiceHandles[voice] = INVALID_HANDLE;
+        mVoiceLooped[voice] = false;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mSampleIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mSampleIds.length * 2);
+        mSampleIds = Arrays.copyOf(mSampleIds, newCapacity);
+        mLoaded = Arrays.copyOf(mLoaded, newCapacity);
+    }
+}
@@ -17,15 +17,7 @@
 package org.literacyapp.utils;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.content.res.AssetFileDescriptor;
-import android.media.MediaPlayer;
-import android.os.Handler;
-import android.util.Log;
-
-import java.io.IOException;
-import java.lang.Runnable;
-import java.util.LinkedList;
+
 import java.util.TreeMap;
 
 /**
@@ -33,17 +25,42 @@ import java.util.TreeMap;
  * devices.
  *
  * This class implements a subset of the API defined in SoundManager.h related to background music.
- * Specifically, it uses double buffering of Android @c MediaPlayer%s to achieve gapless looping.
+ * By default, it uses double buffering of Android @c MediaPlayer%s to achieve gapless looping (see
+ * MediaPlayerBGMPlayer). Alternatively, tracks can be streamed through a single @c AudioTrack with
+ * sample-accurate loops (see StreamingBGMPlayer) by selecting #BACKEND_STREAMING.
+ *
+ * The track at the next lower priority level and tracks announced through prefetchBGMTrack() are
+ * prepared ahead of time within a memory budget (see setPrefetchBudget()), so switching to them can
+ * begin fading in at once.
+ *
+ * Player open and prepare times, loop gaps, fade tick jitter, transition queue depth and the
+ * number of players alive are recorded into an AudioMetrics instance (see getAudioMetrics()).
+ *
+ * With warm resume enabled (see setWarmResumeTimeout()), the prepared player of the current track is
+ * paused rather than released when the activity stops, so that music resumes instantly, from where
+ * it left off, if the activity is started again before the timeout expires.
+ *
+ * Players are obtained from a BGMPlayerFactory, transitions are driven by a FrameClock, and
+ * settings, logging and delayed work go through a SoundManagerPlatform. All default to the Android
+ * implementations, but can be replaced through the
+ * SoundManager(BGMPlayerFactory, FrameClock, SoundManagerPlatform, AudioMetrics) constructor.
  */
-public class SoundManager implements MediaPlayer.OnCompletionListener {
+public class SoundManager {
     /**
      * @brief Represents an invalid background music priority level and serves as a lower bound on
      * priority.
      */
     public static final int INVALID_PRIORITY = -1;
+    /**
+     * @brief Background music backend that double buffers Android @c MediaPlayer%s.
+     */
+    public static final int BACKEND_MEDIA_PLAYER = 0;
+    /**
+     * @brief Background music backend that decodes with @c MediaCodec and streams through a
+     * single @c AudioTrack for sample-accurate looping.
+     */
+    public static final int BACKEND_STREAMING = 1;
 
-    private static final String LOG_TAG = SoundManager.class.toString();
-    private static final String SOUNDMANAGER_PREFS = "SoundManagerPreferences";
     private static final String BGM_MUTED = "BGMMuted";
     // The number of fixed, quantized steps for volume level between full off and full on.
     // These are used, as suggested by Android convention, for ease of use on a Ui volume slider
@@ -51,64 +68,133 @@ public class SoundManager implements MediaPlayer.OnCompletionListener {
     private static final int NUM_VOLUME_STEPS = 100;
     private static final long BGM_FADE_DURATION = 500;
 
-    /**
-     * Helper class to asynchronously fade out from the current track and into a newly
-     * specified track.
-     */
-    private class TransitionBGMTask implements Runnable {
-        private String mTrack;
+    // Duration of a single volume step while fading.
+    private static final long FADE_STEP_NANOS = BGM_FADE_DURATION * 1000000 / NUM_VOLUME_STEPS;
+    // Gain of each volume step, scaled logarithmically.
+    private static final float[] VOLUME_STEP_GAINS = new float[NUM_VOLUME_STEPS + 1];
 
-        public TransitionBGMTask(String track) {
-            this.mTrack = track;
+    static {
+        for (int step = 0; step <= NUM_VOLUME_STEPS; ++step) {
+            float gain = 1.0f - (((float) Math.log(NUM_VOLUME_STEPS - step)) /
+                    (float) Math.log(NUM_VOLUME_STEPS));
+            VOLUME_STEP_GAINS[step] = Math.max(0.0f, Math.min(1.0f, gain));
         }
+    }
 
+    /**
+     * Drives the BGM transition once per display frame. The number of volume steps taken is
+     * derived from the time that actually elapsed between frames, so late frames cannot stretch a
+     * transition.
+     */
+    private final FrameClock.Callback mFadeFrameCallback = new FrameClock.Callback() {
         @Override
-        public void run() {
-            if (mCurrentBGMTrack != null) {
-                // Are we still fading out?
-                if (mCurrentVolumeStep > 0) {
-                    updateMediaPlayerVolumes(-1);
-                } else {
-                    destroyMediaPlayers();
-                    if (mTrack == null) {
-                        startNextFadeTask();
-                        return;
-                    }
-                }
-            } else if (mTrack != null) {
-                // Make sure the BGMPlayers have been initialized for the new track.
-                if (mBGMPlayer == null || mBGMPlayerBuffered == null) {
-                    mBGMPlayer = initMediaPlayer(mTrack);
-                    mBGMPlayerBuffered = initMediaPlayer(mTrack);
-                    mBGMPlayer.setNextMediaPlayer(mBGMPlayerBuffered);
-                    mBGMPlayer.start();
+        public void doFrame(long frameTimeNanos) {
+            if (!mTransitionActive) {
+                return;
+            }
+            if (mLastFadeFrameTimeNanos != 0) {
+                long frameIntervalNanos = frameTimeNanos - mLastFadeFrameTimeNanos;
+                mFadeElapsedNanos += frameIntervalNanos;
+                if (mLastFadeFrameIntervalNanos != 0) {
+                    mMetrics.record(AudioMetrics.FADE_TICK_JITTER,
+                            Math.abs(frameIntervalNanos - mLastFadeFrameIntervalNanos) / 1000000.0);
                 }
+                mLastFadeFrameIntervalNanos = frameIntervalNanos;
+            }
+            mLastFadeFrameTimeNanos = frameTimeNanos;
+            int numSteps = (int) (mFadeElapsedNanos / FADE_STEP_NANOS);
+            mFadeElapsedNanos -= numSteps * FADE_STEP_NANOS;
 
-                // Are we still fading in?
-                if (mCurrentVolumeStep < NUM_VOLUME_STEPS) {
-                    updateMediaPlayerVolumes(1);
-                } else {
-                    mCurrentBGMTrack = mTrack;
-                    startNextFadeTask();
-                    return;
-                }
+            if (stepTransition(numSteps)) {
+                mTransitionActive = false;
+                mMetrics.onTransitionCompleted(mTransitionRequests);
+                prefetchNextBGMTrack();
+            } else {
+                mFrameClock.postFrameCallback(this);
             }
+        }
+    };
 
-            mHandler.postDelayed(this, BGM_FADE_DURATION / NUM_VOLUME_STEPS);
+    /**
+     * Hands failures of players that surface after their transition has completed to the main
+     * looper thread. Failures during a transition are picked up by stepTransition().
+     */
+    private final BGMPlayer.ErrorListener mPlayerErrorListener = new BGMPlayer.ErrorListener() {
+        @Override
+        public void onPlaybackError(final BGMPlayer player) {
+            mPlatform.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    onPlayerError(player);
+                }
+            }, 0);
         }
-    }
+    };
 
-    private final Handler mHandler = new Handler();
+    private final FrameClock mFrameClock;
+    private final BGMPlayerFactory mPlayerFactory;
+    private final SoundManagerPlatform mPlatform;
+    private final AudioMetrics mMetrics;
     private final TreeMap<Integer, String> mBGMTracks = new TreeMap<Integer, String>();
     private Context mContext = null;
-    private String mCurrentBGMTrack = null;
-    private MediaPlayer mBGMPlayer = null;
-    private MediaPlayer mBGMPlayerBuffered = null;
+    // Whether the activity is between onStart and onStop.
+    private boolean mStarted = false;
+    private int mBackend = BACKEND_MEDIA_PLAYER;
+    // Track that background music is transitioning to, or has transitioned to.
+    private String mTargetBGMTrack = null;
+    // Track played by mBGMPlayer.
+    private String mBGMPlayerTrack = null;
+    private BGMPlayer mBGMPlayer = null;
+    private boolean mBGMPlayerStarted = false;
     private int mCurrentVolumeStep = 0;
-    private boolean mBGMMuted = false;
-    private final LinkedList<TransitionBGMTask> mTransitionTasks =
-            new LinkedList<TransitionBGMTask>();
-    private TransitionBGMTask mCurrentTransitionTask = null;
+    // Written from any thread by setBGMMuted(), read on the main looper thread.
+    private volatile boolean mBGMMuted = false;
+    private boolean mTransitionActive = false;
+    // Whether transitions are held back, e.g. until startup has completed.
+    private boolean mTransitionsDeferred = false;
+    // Time to keep the current player through a stop, or 0 to release it immediately.
+    private long mWarmResumeTimeoutMs = 0;
+    private final Runnable mWarmResumeExpiredRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mPlatform.logInfo("Warm resume expired; releasing background music player.");
+            releaseBGMPlayers();
+        }
+    };
+    // Number of transition requests coalesced into the active transition.
+    private int mTransitionRequests = 0;
+    private long mLastFadeFrameTimeNanos = 0;
+    private long mLastFadeFrameIntervalNanos = 0;
+    private long mFadeElapsedNanos = 0;
+    // Gain most recently applied to mBGMPlayer.
+    private float mAppliedVolume = -1.0f;
+
+    /**
+     * @brief Constructs a SoundManager that plays background music through Android's media stack
+     * and drives transitions from the calling thread's @c Choreographer.
+     * @note Must be called on a looper thread.
+     */
+    public SoundManager() {
+        mMetrics = new AudioMetrics();
+        mPlayerFactory = new DefaultBGMPlayerFactory(mMetrics);
+        mFrameClock = new ChoreographerFrameClock();
+        mPlatform = new DefaultSoundManagerPlatform();
+    }
+
+    /**
+     * @brief Constructs a SoundManager with the given player factory, frame clock and platform.
+     * @param playerFactory Factory to create BGMPlayer%s with
+     * @param frameClock Clock to drive background music transitions with
+     * @param platform Platform to persist settings, log and post delayed work with
+     * @param metrics AudioMetrics to record into
+     */
+    public SoundManager(BGMPlayerFactory playerFactory, FrameClock frameClock,
+            SoundManagerPlatform platform, AudioMetrics metrics) {
+        mPlayerFactory = playerFactory;
+        mFrameClock = frameClock;
+        mPlatform = platform;
+        mMetrics = metrics;
+    }
 
     /**
      * @brief Notifies this SoundManager of the @c onStart activity lifecycle event.
@@ -117,10 +203,10 @@ public class SoundManager implements MediaPlayer.OnCompletionListener {
      * @param context Context to be used for the @c MediaPlayer%s
      */
     public void onStart(Context context) {
+        mPlatform.removeCallbacks(mWarmResumeExpiredRunnable);
         mContext = context;
-        SharedPreferences settings = mContext.getSharedPreferences(SOUNDMANAGER_PREFS,
-                Context.MODE_PRIVATE);
-        mBGMMuted = settings.getBoolean(BGM_MUTED, mBGMMuted);
+        mStarted = true;
+        mBGMMuted = mPlatform.getBoolean(mContext, BGM_MUTED, mBGMMuted);
         updateCurrentBGMTrack();
     }
 
@@ -129,11 +215,19 @@ public class SoundManager implements MediaPlayer.OnCompletionListener {
      *
      * This method should be called from the @c onStop method in the main activity used to create
      * this SoundManager.
+     * @note If warm resume is enabled and the current track is playing, its player is paused and
+     * kept until onStart() or the warm resume timeout, whichever comes first.
      */
     public void onStop() {
         saveSoundManagerSettings();
-        destroyMediaPlayers();
         mContext = null;
+        mStarted = false;
+        if (mWarmResumeTimeoutMs > 0 && !mTransitionActive && mBGMPlayerStarted) {
+            mBGMPlayer.pause();
+            mPlatform.postDelayed(mWarmResumeExpiredRunnable, mWarmResumeTimeoutMs);
+            return;
+        }
+        releaseBGMPlayers();
     }
 
     /**
@@ -143,16 +237,23 @@ public class SoundManager implements MediaPlayer.OnCompletionListener {
      * background music is transitioned to the next highest priority level for which an audio track
      * is set, or faded out if none are available.
      * @param priority %Background music priority level to clear the audio track for
+     * @note This may be called from any thread. The change is posted to the main looper thread.
      */
-    public void clearBGMTrack(int priority) {
-        if (mContext == null) {
-            return;
-        }
+    public void clearBGMTrack(final int priority) {
+        mPlatform.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                clearBGMTrackOnMainThread(priority);
+            }
+        }, 0);
+    }
 
-        if (priority != INVALID_PRIORITY) {
-            mBGMTracks.remove(priority);
-            updateCurrentBGMTrack();
-        }
+    /**
+     * @brief Returns a snapshot of the audio performance metrics as a JSON object.
+     * @note See AudioMetrics::toJson for the reported values.
+     */
+    public String getAudioMetrics() {
+        return mMetrics.toJson();
     }
 
     /**
@@ -166,27 +267,125 @@ public class SoundManager implements MediaPlayer.OnCompletionListener {
      * @brief Sets the audio track of the specified background priority level.
      * @param priority %Background music priority level to set the audio track for
      * @param track Audio track asset path to load for the sound effect
+     * @note This may be called from any thread. The change is posted to the main looper thread.
      */
-    public void setBGMTrack(int priority, String track) {
-        if (mContext == null) {
-            return;
-        }
+    public void setBGMTrack(final int priority, final String track) {
+        mPlatform.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                setBGMTrackOnMainThread(priority, track);
+            }
+        }, 0);
+    }
 
-        if (priority != INVALID_PRIORITY) {
-            if (!track.equals(mBGMTracks.get(priority))) {
-                mBGMTracks.put(priority, track);
-                updateCurrentBGMTrack();
+    /**
+     * @brief Starts preparing @p track ahead of time, as it is expected to be set as a background
+     * music track soon.
+     *
+     * Prefetching is best effort and is skipped if @p track does not fit into the prefetch budget.
+     * A track prefetched for one backend is not used if the backend changes in the meantime.
+     * @param track Audio track asset path to prefetch
+     * @note This may be called from any thread, e.g. by native code loading a level. The prefetch
+     * itself is posted to the main looper thread, which the player pool is confined to.
+     */
+    public void prefetchBGMTrack(final String track) {
+        mPlatform.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                prefetchBGMTrackOnMainThread(track);
             }
-        }
+        }, 0);
+    }
+
+    /**
+     * @brief Sets the memory budget for prefetched background music tracks.
+     * @param bytes Budget in bytes, or @c 0 to disable prefetching
+     */
+    public void setPrefetchBudget(long bytes) {
+        mPlayerFactory.setPrefetchBudget(bytes);
+    }
+
+    /**
+     * @brief Sets the backend used to play background music.
+     *
+     * The new backend takes effect for the next background music track that is faded in. If the
+     * streaming backend fails to play a track, SoundManager falls back to #BACKEND_MEDIA_PLAYER.
+     * @param backend Either #BACKEND_MEDIA_PLAYER or #BACKEND_STREAMING
+     */
+    public void setBackend(int backend) {
+        mBackend = backend;
     }
 
     /**
      * @brief Sets whether or not the background music is muted.
      * @param value @c true to mute the background music
+     * @note This may be called from any thread. isBGMMuted() reflects @p value right away, while
+     * the volume change is posted to the main looper thread.
      */
-    public void setBGMMuted(boolean value) {
+    public void setBGMMuted(final boolean value) {
         mBGMMuted = value;
-        updateMediaPlayerVolumes(0);
+        mPlatform.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                setBGMMutedOnMainThread();
+            }
+        }, 0);
+    }
+
+    /**
+     * @brief Sets whether or not background music transitions are held back.
+     *
+     * While deferred, track changes are still recorded, but no player is created and no fade is
+     * started. Once transitions are no longer deferred, the background music transitions to the
+     * current highest priority track. This allows the first frames after startup to be rendered
+     * without competing with player creation.
+     * @param value @c true to hold back transitions
+     */
+    public void setTransitionsDeferred(boolean value) {
+        if (mTransitionsDeferred == value) {
+            return;
+        }
+        mTransitionsDeferred = value;
+        if (!value && mStarted) {
+            updateCurrentBGMTrack();
+        }
+    }
+
+    /**
+     * @brief Sets how long the current background music player is kept through an @c onStop.
+     *
+     * Warm resume is disabled by default. When enabled, a paused player holds on to its decoder
+     * and buffers while the activity is in the background, so the timeout should be kept short.
+     * @param timeoutMs Time in milliseconds to keep the player for, or @c 0 to release it as soon
+     * as the activity stops
+     * @note Must be called on the main looper thread.
+     */
+    public void setWarmResumeTimeout(long timeoutMs) {
+        mWarmResumeTimeoutMs = Math.max(0, timeoutMs);
+    }
+
+    /**
+     * @brief Releases background music resources as appropriate for the eviction tier @p tier.
+     *
+     * From MemoryPressure#TIER_PREFETCHED, prefetched tracks are evicted. From
+     * MemoryPressure#TIER_CACHES, idle players and the buffered player used for gapless looping are
+     * released as well. At MemoryPressure#TIER_ALL, a player kept for warm resume is released too.
+     * @param tier Eviction tier, one of the MemoryPressure tiers
+     * @returns Estimated number of bytes freed
+     */
+    public long trimMemory(int tier) {
+        long bytesFreed = mPlayerFactory.trimMemory(tier);
+        if (mBGMPlayer != null) {
+            if (tier >= MemoryPressure.TIER_ALL && !mStarted) {
+                // Only kept for warm resume, which is not worth being killed over.
+                mPlatform.removeCallbacks(mWarmResumeExpiredRunnable);
+                bytesFreed += mBGMPlayer.getMemoryUsage();
+                releaseBGMPlayers();
+            } else {
+                bytesFreed += mBGMPlayer.trimMemory(tier);
+            }
+        }
+        return bytesFreed;
     }
 
     /**
@@ -194,8 +393,49 @@ public class SoundManager implements MediaPlayer.OnCompletionListener {
      *
      * This method will either stop background music from playing or resume it.
      * @param value @c true to pause the background music
+     * @note This may be called from any thread. The change is posted to the main looper thread.
      */
-    public void setPaused(boolean value) {
+    public void setPaused(final boolean value) {
+        mPlatform.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                setPausedOnMainThread(value);
+            }
+        }, 0);
+    }
+
+    private void clearBGMTrackOnMainThread(int priority) {
+        if (!mStarted) {
+            return;
+        }
+
+        if (priority != INVALID_PRIORITY) {
+            mBGMTracks.remove(priority);
+            updateCurrentBGMTrack();
+        }
+    }
+
+    private void setBGMTrackOnMainThread(int priority, String track) {
+        if (!mStarted) {
+            return;
+        }
+
+        if (priority != INVALID_PRIORITY) {
+            if (!track.equals(mBGMTracks.get(priority))) {
+                mBGMTracks.put(priority, track);
+                updateCurrentBGMTrack();
+            }
+        }
+    }
+
+    private void setBGMMutedOnMainThread() {
+        updateBGMVolume(0);
+        if (mStarted) {
+            saveSoundManagerSettings();
+        }
+    }
+
+    private void setPausedOnMainThread(boolean value) {
         if (mBGMPlayer != null) {
             if (value) {
                 mBGMPlayer.pause();
@@ -205,102 +445,171 @@ public class SoundManager implements MediaPlayer.OnCompletionListener {
         }
     }
 
-    /**
-     * @brief Called when the end of a media source is reached during playback.
-     *
-     * This callback swaps the internally double buffered @c MediaPlayer%s to achieve gapless
-     * playback.
-     * @param mp @c MediaPlayer that reached the end of the sample data
-     */
-    @Override
-    public void onCompletion(MediaPlayer mp) {
-        destroyMediaPlayer(mBGMPlayer);
-        mBGMPlayer = mBGMPlayerBuffered;
-        mBGMPlayerBuffered = initMediaPlayer(mCurrentBGMTrack);
-        mBGMPlayer.setNextMediaPlayer(mBGMPlayerBuffered);
-    }
-
     private void updateCurrentBGMTrack() {
+        if (mTransitionsDeferred) {
+            return;
+        }
         int highestPriority = (!mBGMTracks.isEmpty()) ? mBGMTracks.lastKey() : INVALID_PRIORITY;
         String track = mBGMTracks.get(highestPriority);
-        if (track != mCurrentBGMTrack) {
-            if ((track == null && mCurrentBGMTrack != null) || !track.equals(mCurrentBGMTrack)) {
-                queueFadeTask(new TransitionBGMTask(track));
-            }
+        if (track == null ? mTargetBGMTrack == null : track.equals(mTargetBGMTrack)) {
+            return;
         }
+        // Only the latest target matters. An in-flight transition simply changes course from its
+        // current volume step, so no matter how many requests arrive, at most one track is faded
+        // out before the target is faded in.
+        mTargetBGMTrack = track;
+        mTransitionRequests++;
+        startTransition();
     }
 
-    private MediaPlayer initMediaPlayer(String track) {
-        MediaPlayer mp = new MediaPlayer();
-        try {
-            AssetFileDescriptor afd = mContext.getAssets().openFd(track);
-            mp.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
-            mp.setOnCompletionListener(this);
-            setVolume(mp);
-            mp.prepare();
-        } catch (IOException ex) {
-            Log.e(LOG_TAG, "Could not initialize MediaPlayer", ex);
-            mp = null;
+    private void startTransition() {
+        if (!mTransitionActive) {
+            mTransitionActive = true;
+            mTransitionRequests = 1;
+            mLastFadeFrameTimeNanos = 0;
+            mLastFadeFrameIntervalNanos = 0;
+            mFadeElapsedNanos = 0;
+            mFrameClock.postFrameCallback(mFadeFrameCallback);
         }
-        return mp;
     }
 
-    private void destroyMediaPlayers() {
-        destroyMediaPlayer(mBGMPlayer);
-        mBGMPlayer = null;
-        destroyMediaPlayer(mBGMPlayerBuffered);
-        mBGMPlayerBuffered = null;
-        mCurrentBGMTrack = null;
+    private void onPlayerError(BGMPlayer player) {
+        if (player != mBGMPlayer || mTransitionActive) {
+            // Either the player has already been released, or the transition handles its failure.
+            return;
+        }
+        destroyBGMPlayer();
+        if (mBackend == BACKEND_STREAMING) {
+            mPlatform.logWarning("Streaming playback failed, falling back to MediaPlayer.");
+            mBackend = BACKEND_MEDIA_PLAYER;
+            // Fade the target track back in with the new backend.
+            startTransition();
+        } else {
+            mPlatform.logWarning("Background music playback failed.");
+            // Retried once the tracks change, or the activity is restarted.
+            mTargetBGMTrack = null;
+        }
     }
 
-    private static void destroyMediaPlayer(MediaPlayer mp) {
-        if (mp != null) {
-            if (mp.isPlaying()) {
-                mp.stop();
+    /**
+     * Advances the transition towards mTargetBGMTrack by @p numSteps volume steps and returns
+     * whether or not it has completed.
+     */
+    private boolean stepTransition(int numSteps) {
+        if (mBGMPlayer != null && !mBGMPlayerTrack.equals(mTargetBGMTrack)) {
+            // Fade out the track that is no longer wanted.
+            if (mBGMPlayerStarted && mCurrentVolumeStep > 0) {
+                updateBGMVolume(-numSteps);
+                return false;
             }
-            mp.release();
+            destroyBGMPlayer();
         }
+        if (mTargetBGMTrack == null) {
+            return true;
+        }
+
+        // Make sure the BGMPlayer has been initialized for the target track. It is prepared
+        // asynchronously, so keep polling until it is ready.
+        if (mBGMPlayer == null) {
+            mBGMPlayer = mPlayerFactory.createBGMPlayer(mBackend, mTargetBGMTrack);
+            mBGMPlayerTrack = mTargetBGMTrack;
+            mBGMPlayer.setErrorListener(mPlayerErrorListener);
+            setVolume(mBGMPlayer);
+            mBGMPlayer.prepare(mContext, mBGMPlayerTrack);
+        }
+        if (mBGMPlayer.hasError()) {
+            destroyBGMPlayer();
+            if (mBackend == BACKEND_STREAMING) {
+                // MediaPlayer copes with more formats and devices, so retry the track with it.
+                mPlatform.logWarning("Streaming playback failed, falling back to MediaPlayer.");
+                mBackend = BACKEND_MEDIA_PLAYER;
+                return false;
+            }
+            return true;
+        }
+        if (!mBGMPlayerStarted) {
+            if (!mBGMPlayer.isPrepared()) {
+                return false;
+            }
+            mBGMPlayer.start();
+            mBGMPlayerStarted = true;
+        }
+
+        // Are we still fading in?
+        if (mCurrentVolumeStep < NUM_VOLUME_STEPS) {
+            updateBGMVolume(numSteps);
+            return false;
+        }
+        return true;
     }
 
-    private void updateMediaPlayerVolumes(int numSteps) {
-        // Update the current volume step.
-        mCurrentVolumeStep += numSteps;
-        mCurrentVolumeStep = Math.max(0, Math.min(NUM_VOLUME_STEPS, mCurrentVolumeStep));
+    // Abandons any in-flight transition and releases all players. onStart will start a new
+    // transition for the current track.
+    private void releaseBGMPlayers() {
+        if (mTransitionActive) {
+            mFrameClock.removeFrameCallback(mFadeFrameCallback);
+            mTransitionActive = false;
+        }
+        mTargetBGMTrack = null;
+        destroyBGMPlayer();
+        mPlayerFactory.releaseAll();
+    }
 
-        setVolume(mBGMPlayer);
-        setVolume(mBGMPlayerBuffered);
+    // Prefetches the track that would be played if the current one was cleared.
+    private void prefetchNextBGMTrack() {
+        if (mTargetBGMTrack == null) {
+            return;
+        }
+        Integer nextPriority = mBGMTracks.lowerKey(mBGMTracks.lastKey());
+        if (nextPriority != null) {
+            prefetchBGMTrackOnMainThread(mBGMTracks.get(nextPriority));
+        }
     }
 
-    private void setVolume(MediaPlayer mp) {
-        // Scale the volume step logarithmically.
-        float volume = mBGMMuted
-                ? 0.0f : 1.0f - (((float) Math.log(NUM_VOLUME_STEPS - mCurrentVolumeStep)) /
-                (float) Math.log(NUM_VOLUME_STEPS));
-        volume = Math.max(0.0f, Math.min(1.0f, volume));
-        if (mp != null) {
-            mp.setVolume(volume, volume);
+    private void prefetchBGMTrackOnMainThread(String track) {
+        if (!mStarted) {
+            return;
+        }
+        if (track == null || track.isEmpty() || track.equals(mBGMPlayerTrack)) {
+            return;
         }
+        mPlayerFactory.prefetchBGMTrack(mContext, track, mBackend);
     }
 
-    private void queueFadeTask(TransitionBGMTask task) {
-        mTransitionTasks.addLast(task);
-        if (mCurrentTransitionTask == null) {
-            startNextFadeTask();
+    private void destroyBGMPlayer() {
+        if (mBGMPlayer != null) {
+            mBGMPlayer.setErrorListener(null);
+            mBGMPlayer.release();
+            mBGMPlayer = null;
+            // Also drops players for the track that were prepared but never acquired.
+            mPlayerFactory.cancelBGMTrack(mBGMPlayerTrack);
         }
+        mBGMPlayerTrack = null;
+        mBGMPlayerStarted = false;
+        mCurrentVolumeStep = 0;
     }
 
-    private void startNextFadeTask() {
-        if (!mTransitionTasks.isEmpty()) {
-            mCurrentTransitionTask = mTransitionTasks.removeFirst();
-            mHandler.post(mCurrentTransitionTask);
-        } else {
-            mCurrentTransitionTask = null;
+    private void updateBGMVolume(int numSteps) {
+        // Update the current volume step.
+        mCurrentVolumeStep += numSteps;
+        mCurrentVolumeStep = Math.max(0, Math.min(NUM_VOLUME_STEPS, mCurrentVolumeStep));
+
+        // Only cross into the player when the quantized gain actually changes.
+        if (mBGMPlayer != null && getVolume() != mAppliedVolume) {
+            setVolume(mBGMPlayer);
         }
     }
 
+    private float getVolume() {
+        return mBGMMuted ? 0.0f : VOLUME_STEP_GAINS[mCurrentVolumeStep];
+    }
+
+    private void setVolume(BGMPlayer player) {
+        mAppliedVolume = getVolume();
+        player.setVolume(mAppliedVolume);
+    }
+
     private void saveSoundManagerSettings() {
-        SharedPreferences settings = mContext.getSharedPreferences(SOUNDMANAGER_PREFS,
-                Context.MODE_PRIVATE);
-        settings.edit().putBoolean(BGM_MUTED, mBGMMuted).commit();
+        mPlatform.putBoolean(mContext, BGM_MUTED, mBGMMuted);
     }
 }
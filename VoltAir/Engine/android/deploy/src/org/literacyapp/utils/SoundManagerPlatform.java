@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.Context;
+
+/**
+ * @brief Platform services used by SoundManager besides playback: persisted settings, logging and
+ * delayed work on the main looper thread.
+ *
+ * On device this is DefaultSoundManagerPlatform. Other implementations keep settings in memory and
+ * run delayed work in virtual time, so SoundManager can be exercised on a plain JVM.
+ */
+public interface SoundManagerPlatform {
+    /**
+     * @brief Returns the persisted boolean setting @p key, or @p defaultValue if it is not set.
+     * @param context Context passed to SoundManager#onStart
+     * @param key Name of the setting
+     * @param defaultValue Value to return if the setting is not set
+     */
+    boolean getBoolean(Context context, String key, boolean defaultValue);
+
+    /**
+     * @brief Persists the boolean setting @p key.
+     * @param context Context passed to SoundManager#onStart
+     * @param key Name of the setting
+     * @param value Value to persist
+     */
+    void putBoolean(Context context, String key, boolean value);
+
+    /**
+     * @brief Logs an informational message.
+     * @param message Message to log
+     */
+    void logInfo(String message);
+
+    /**
+     * @brief Logs a warning.
+     * @param message Message to log
+     */
+    void logWarning(String message);
+
+    /**
+     * @brief Runs @p runnable on the main looper thread after @p delayMs milliseconds.
+     * @param runnable Work to run
+     * @param delayMs Delay in milliseconds
+     */
+    void postDelayed(Runnable runnable, long delayMs);
+
+    /**
+     * @brief Removes @p runnable if it has been posted and not yet run.
+     * @param runnable Work to remove
+     */
+    void removeCallbacks(Runnable runnable);
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * @brief Records the duration of each phase of application startup, so that cold start regressions
+ * can be located.
+ *
+ * Phases are timed with beginPhase() / endPhase() relative to the construction of the tracer, on
+ * the same monotonic clock as FrameClock frame times. Once startup has completed, writeAsync()
+ * appends the trace as a single line of JSON to a local file:
+ * @code
+ * {"firstFrameMs":412.5,"phases":[{"name":"onCreate","startMs":0.0,"durationMs":120.3},...]}
+ * @endcode
+ * @note Methods must be called from the main thread, with the exception of the background write
+ * started by writeAsync().
+ */
+public class StartupTracer {
+    private static final String LOG_TAG = StartupTracer.class.toString();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Traces are appended so that consecutive starts can be compared, until the file reaches this
+    // size, at which point it is started over.
+    private static final long MAX_TRACE_FILE_BYTES = 64 * 1024;
+
+    private static class Phase {
+        final String name;
+        final long startNanos;
+        long durationNanos = -1;
+
+        Phase(String name, long startNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+        }
+    }
+
+    private final long mOriginNanos = System.nanoTime();
+    private final ArrayList<Phase> mPhases = new ArrayList<Phase>();
+    private long mFirstFrameNanos = -1;
+    private boolean mWritten = false;
+
+    /**
+     * @brief Starts timing the phase @p name.
+     * @param name Name of the phase, which should be unique within the trace
+     */
+    public void beginPhase(String name) {
+        if (!mWritten) {
+            mPhases.add(new Phase(name, System.nanoTime() - mOriginNanos));
+        }
+    }
+
+    /**
+     * @brief Stops timing the most recently begun phase named @p name.
+     * @param name Name of the phase passed to beginPhase()
+     */
+    public void endPhase(String name) {
+        long nowNanos = System.nanoTime() - mOriginNanos;
+        for (int i = mPhases.size() - 1; i >= 0; --i) {
+            Phase phase = mPhases.get(i);
+            if (phase.name.equals(name) && phase.durationNanos < 0) {
+                phase.durationNanos = nowNanos - phase.startNanos;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @brief Records the time at which the first frame was rendered.
+     * @param frameTimeNanos Time at which the frame was presented, in the @c System.nanoTime()
+     * time base
+     */
+    public void onFirstFrame(long frameTimeNanos) {
+        if (mFirstFrameNanos < 0) {
+            mFirstFrameNanos = frameTimeNanos - mOriginNanos;
+        }
+    }
+
+    /**
+     * @brief Returns the trace recorded so far as a JSON object.
+     *
+     * Phases that have not ended are reported with a @c durationMs of @c -1.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"firstFrameMs\":").append(toMillis(mFirstFrameNanos));
+        json.append(",\"phases\":[");
+        for (int i = 0; i < mPhases.size(); ++i) {
+            Phase phase = mPhases.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":\"").append(phase.name).append('"');
+            json.append(",\"startMs\":").append(toMillis(phase.startNanos));
+            json.append(",\"durationMs\":").append(toMillis(phase.durationNanos));
+            json.append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * @brief Appends the trace to @p file on a background thread.
+     *
+     * Only the first call has any effect, and no further phases are recorded afterwards.
+     * @param file File to append the trace to
+     */
+    public void writeAsync(final File file) {
+        if (mWritten) {
+            return;
+        }
+        mWritten = true;
+        final String trace = toJson();
+        Log.i(LOG_TAG, "Startup trace: " + trace);
+
+        Thread writeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                boolean append = file.length() < MAX_TRACE_FILE_BYTES;
+                Writer writer = null;
+                try {
+                    writer = new OutputStreamWriter(new FileOutputStream(file, append), UTF_8);
+                    writer.write(trace);
+                    writer.write('\n');
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to write startup trace: " + e.getMessage());
+                } finally {
+                    if (writer != null) {
+                        try {
+                            writer.close();
+                        } catch (IOException e) {
+                            Log.w(LOG_TAG, "Failed to close startup trace: " + e.getMessage());
+                        }
+                    }
+                }
+            }
+        }, "StartupTracer");
+        writeThread.start();
+    }
+
+    private static double toMillis(long nanos) {
+        return (nanos < 0) ? -1.0 : nanos / 1000000.0;
+    }
+}
@@ -0,0 +1,698 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * @brief BGMPlayer that decodes a track with @c MediaExtractor / @c MediaCodec and streams it
+ * through a single @c AudioTrack.
+ *
+ * Decoding and playback happen on a dedicated worker thread. Decoded 16-bit PCM is staged in a
+ * fixed-size ring buffer that is reused for the lifetime of the player, and the end of the track
+ * is stitched to its beginning at sample level by rewinding the extractor and flushing the codec
+ * when the decoder signals end of stream. This keeps exactly one decoder instance alive per track
+ * and bounds memory use to the ring buffer plus the @c AudioTrack buffer.
+ *
+ * Encoder priming samples and trailing encoder padding are trimmed on every pass, so the loop is
+ * seamless. Their lengths are taken from the @c encoder-delay and @c encoder-padding format keys,
+ * which are set for MP3s with a LAME / Xing header. If an MP3 lacks them, leading and trailing
+ * digital silence of up to two MP3 frames is trimmed instead. To trim the padding without knowing
+ * the length of the track in advance, the last decoded samples are held back from playback until
+ * more samples follow them.
+ *
+ * If the decoder reports an output format that differs from the one the @c AudioTrack was created
+ * with, the samples already buffered are played out and the @c AudioTrack is recreated.
+ *
+ * The samples of the first full pass are also written into the DecodedAudioCache. Once a track is
+ * cached, it is played from the memory-mapped cache entry instead, without setting up a decoder.
+ */
+public class StreamingBGMPlayer implements BGMPlayer, Runnable {
+    private static final String LOG_TAG = StreamingBGMPlayer.class.toString();
+    private static final String KEY_ENCODER_DELAY = "encoder-delay";
+    private static final String KEY_ENCODER_PADDING = "encoder-padding";
+    private static final String MIME_MP3 = "audio/mpeg";
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+    // Capacity of the decoded PCM ring buffer, in 16-bit samples (~0.75s of 44.1kHz stereo).
+    private static final int RING_BUFFER_SAMPLES = 64 * 1024;
+    // Number of 16-bit samples handed to the AudioTrack per write.
+    private static final int WRITE_CHUNK_SAMPLES = 4096;
+    // Time after which a decoder that stopped producing samples is given up on.
+    private static final long DECODE_STALL_TIMEOUT_NS = 5L * 1000 * 1000 * 1000;
+    // Maximum number of frames of silence trimmed from either end of an MP3 that lacks encoder
+    // delay and padding metadata. Two MP3 frames cover the usual encoder and decoder delay.
+    private static final int FALLBACK_TRIM_FRAMES = 2 * 1152;
+    // Largest magnitude of a sample that is considered silent by the fallback trimming.
+    private static final int SILENCE_THRESHOLD = 16;
+    // Upper bound on the samples held back to trim trailing padding, to keep the ring buffer usable
+    // with corrupt metadata.
+    private static final int MAX_HELD_SAMPLES = RING_BUFFER_SAMPLES / 4;
+
+    /**
+     * @brief Estimated memory used by a StreamingBGMPlayer, in bytes.
+     */
+    public static final int MEMORY_USAGE = RING_BUFFER_SAMPLES * 2 /* Bytes/sample */;
+
+    private final AudioMetrics mMetrics;
+    private final Object mLock = new Object();
+    private final short[] mRingBuffer = new short[RING_BUFFER_SAMPLES];
+    private int mRingBufferRead = 0;
+    // Samples ready to be played, starting at mRingBufferRead.
+    private int mRingBufferCount = 0;
+    // Samples decoded after those ready to be played, which are held back as they may turn out to
+    // be trailing encoder padding.
+    private int mHeldSamples = 0;
+
+    private AudioAssetPack.Source mSource = null;
+    private DecodedAudioCache mCache = null;
+    private String mTrack = null;
+    private volatile AudioTrack mAudioTrack = null;
+    private volatile float mVolume = 0.0f;
+    private volatile boolean mPrepared = false;
+    private volatile boolean mError = false;
+    private volatile boolean mReleased = false;
+    private volatile ErrorListener mErrorListener = null;
+    // Guarded by mLock.
+    private boolean mPaused = true;
+
+    // Decoder state, only touched on the worker thread.
+    private MediaExtractor mExtractor = null;
+    private MediaCodec mCodec = null;
+    private ByteBuffer[] mInputBuffers = null;
+    private ByteBuffer[] mOutputBuffers = null;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private boolean mInputDone = false;
+    private int mPendingOutputIndex = -1;
+    private int mPendingOutputOffset = 0;
+    private boolean mPendingOutputEndOfStream = false;
+    // Format of the samples in the ring buffer.
+    private int mSampleRate = 0;
+    private int mChannelCount = 0;
+    // Format of the decoder output once it differs from the one in the ring buffer, or 0 if it
+    // does not.
+    private int mNextSampleRate = 0;
+    private int mNextChannelCount = 0;
+    // Format the AudioTrack was created with.
+    private int mAudioTrackSampleRate = 0;
+    private int mAudioTrackChannelCount = 0;
+    private long mAudioTrackSamplesWritten = 0;
+    // Time the decoder was rewound at the end of the track, or 0 once the next pass has produced
+    // samples, and the audio that was buffered ahead of the output at that time.
+    private long mWrapStartTime = 0;
+    private double mWrapBufferedMs = 0.0;
+    private int mEncoderDelayFrames = 0;
+    private int mEncoderPaddingFrames = 0;
+    // Whether leading and trailing silence is trimmed in lieu of encoder delay and padding.
+    private boolean mTrimSilence = false;
+    private int mFramesToSkip = 0;
+    private int mSilentFramesToSkip = 0;
+    // Samples made ready to be played since the start of the current pass through the track.
+    private long mPassSamples = 0;
+    // Receives the samples of the first decoded pass, or null if they are not being cached.
+    private DecodedAudioCache.Writer mCacheWriter = null;
+    // Samples of the cached track, or null if the track is being decoded.
+    private ShortBuffer mCachedSamples = null;
+
+    /**
+     * @brief Constructs a StreamingBGMPlayer.
+     * @param metrics AudioMetrics to record decoder open, prepare and loop times into
+     */
+    public StreamingBGMPlayer(AudioMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * @brief Starts opening @p track and decoding its first samples on a worker thread.
+     *
+     * A player that has been prepared, but not started, keeps its ring buffer primed, which is how
+     * DefaultBGMPlayerFactory prefetches streamed tracks. Preparing it again for the same track
+     * does nothing.
+     */
+    @Override
+    public boolean prepare(Context context, String track) {
+        if (mTrack != null) {
+            // Already prepared ahead of time.
+            return !mError;
+        }
+        mTrack = track;
+        mCache = DecodedAudioCache.getInstance(context);
+        try {
+            mSource = AudioAssetPack.getInstance(context).open(track);
+        } catch (IOException ex) {
+            Log.e(LOG_TAG, "Could not open audio track " + track, ex);
+            mMetrics.onPrepareError();
+            mError = true;
+            return false;
+        }
+        new Thread(this, "StreamingBGMPlayer").start();
+        return true;
+    }
+
+    /**
+     * @brief Does nothing, as a streaming player holds no redundant resources.
+     */
+    @Override
+    public long trimMemory(int tier) {
+        return 0;
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        return MEMORY_USAGE;
+    }
+
+    @Override
+    public boolean isPrepared() {
+        return mPrepared;
+    }
+
+    @Override
+    public boolean hasError() {
+        return mError;
+    }
+
+    /**
+     * @brief Sets the listener to notify once decoding or playback fails.
+     *
+     * The listener is called on the worker thread of this player.
+     */
+    @Override
+    public void setErrorListener(ErrorListener listener) {
+        mErrorListener = listener;
+    }
+
+    @Override
+    public void start() {
+        synchronized (mLock) {
+            mPaused = false;
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void pause() {
+        synchronized (mLock) {
+            mPaused = true;
+        }
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        mVolume = volume;
+        AudioTrack audioTrack = mAudioTrack;
+        if (audioTrack != null) {
+            audioTrack.setStereoVolume(volume, volume);
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (mLock) {
+            mReleased = true;
+            mLock.notifyAll();
+        }
+        // The worker thread releases the decoder and AudioTrack itself, so that the caller never
+        // blocks on an in-progress AudioTrack write.
+    }
+
+    /**
+     * @brief Worker thread entry point that decodes the track and feeds the @c AudioTrack until
+     * this player is released.
+     */
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        mMetrics.onPlayerCreated();
+        AudioTrack audioTrack = null;
+        try {
+            long openStartTime = System.nanoTime();
+            DecodedAudioCache.Pcm pcm = mCache.get(mTrack);
+            if (pcm != null) {
+                mCachedSamples = pcm.getSamples();
+                mSampleRate = pcm.getSampleRate();
+                mChannelCount = pcm.getChannelCount();
+            } else {
+                MediaFormat format = openDecoder();
+                mSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                mChannelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                boolean hasDelay = format.containsKey(KEY_ENCODER_DELAY);
+                boolean hasPadding = format.containsKey(KEY_ENCODER_PADDING);
+                mEncoderDelayFrames = hasDelay ? format.getInteger(KEY_ENCODER_DELAY) : 0;
+                mEncoderPaddingFrames = hasPadding ? format.getInteger(KEY_ENCODER_PADDING) : 0;
+                mTrimSilence = MIME_MP3.equals(format.getString(MediaFormat.KEY_MIME))
+                        && !hasDelay && !hasPadding;
+                startPass();
+                mCacheWriter = mCache.startWriting(mTrack, mSampleRate, mChannelCount);
+            }
+            long prepareStartTime = System.nanoTime();
+            mMetrics.record(AudioMetrics.OPEN_TIME,
+                    (prepareStartTime - openStartTime) / 1000000.0);
+
+            // Pre-fill the ring buffer so playback can begin as soon as it is started. This also
+            // lets the decoder report its actual output format before the AudioTrack is created.
+            fillRingBuffer(RING_BUFFER_SAMPLES / 2);
+            audioTrack = createAudioTrack();
+            mMetrics.recordSince(AudioMetrics.PREPARE_TIME, prepareStartTime);
+            mPrepared = true;
+
+            boolean playing = false;
+            while (true) {
+                synchronized (mLock) {
+                    if (mPaused && playing) {
+                        audioTrack.pause();
+                        playing = false;
+                    }
+                    while (mPaused && !mReleased) {
+                        mLock.wait();
+                    }
+                    if (mReleased) {
+                        break;
+                    }
+                }
+                if (!playing) {
+                    audioTrack.play();
+                    playing = true;
+                }
+                fillRingBuffer(WRITE_CHUNK_SAMPLES);
+                if (mRingBufferCount == 0 && mNextSampleRate != 0) {
+                    // All samples of the previous output format have been played.
+                    mSampleRate = mNextSampleRate;
+                    mChannelCount = mNextChannelCount;
+                    mNextSampleRate = 0;
+                    mNextChannelCount = 0;
+                }
+                if (mSampleRate != mAudioTrackSampleRate
+                        || mChannelCount != mAudioTrackChannelCount) {
+                    AudioTrack oldAudioTrack = audioTrack;
+                    audioTrack = null;
+                    mAudioTrack = null;
+                    oldAudioTrack.release();
+                    audioTrack = createAudioTrack();
+                    audioTrack.play();
+                }
+                writeChunk(audioTrack);
+            }
+        } catch (IOException ex) {
+            Log.e(LOG_TAG, "Could not decode audio track", ex);
+            if (!mPrepared) {
+                mMetrics.onPrepareError();
+            }
+            onError();
+        } catch (IllegalStateException ex) {
+            Log.e(LOG_TAG, "Could not play audio track", ex);
+            onError();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mAudioTrack = null;
+            if (audioTrack != null) {
+                audioTrack.release();
+            }
+            closeDecoder();
+            mMetrics.onPlayerReleased();
+        }
+    }
+
+    private MediaFormat openDecoder() throws IOException {
+        mExtractor = new MediaExtractor();
+        mExtractor.setDataSource(mSource.getFileDescriptor(), mSource.getStartOffset(),
+                mSource.getLength());
+        for (int i = 0; i < mExtractor.getTrackCount(); ++i) {
+            MediaFormat format = mExtractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                mExtractor.selectTrack(i);
+                mCodec = MediaCodec.createDecoderByType(mime);
+                mCodec.configure(format, null, null, 0 /* No flags */);
+                mCodec.start();
+                mInputBuffers = mCodec.getInputBuffers();
+                mOutputBuffers = mCodec.getOutputBuffers();
+                return format;
+            }
+        }
+        throw new IOException("No audio stream found");
+    }
+
+    private void closeDecoder() {
+        if (mCacheWriter != null) {
+            // The first pass was not completed.
+            mCacheWriter.abort();
+            mCacheWriter = null;
+        }
+        mCachedSamples = null;
+        if (mCodec != null) {
+            try {
+                mCodec.stop();
+            } catch (IllegalStateException ex) {
+                // The codec may already be in an error state; release it regardless.
+            }
+            mCodec.release();
+            mCodec = null;
+        }
+        if (mExtractor != null) {
+            mExtractor.release();
+            mExtractor = null;
+        }
+        if (mSource != null) {
+            try {
+                mSource.close();
+            } catch (IOException ex) {
+                Log.w(LOG_TAG, "Could not close audio track", ex);
+            }
+            mSource = null;
+        }
+    }
+
+    private void onError() {
+        mError = true;
+        ErrorListener listener = mErrorListener;
+        if (listener != null) {
+            listener.onPlaybackError(this);
+        }
+    }
+
+    // Creates an AudioTrack for the format of the samples in the ring buffer.
+    private AudioTrack createAudioTrack() {
+        if (mChannelCount < 1 || mChannelCount > 2) {
+            throw new IllegalStateException("Unsupported channel count " + mChannelCount);
+        }
+        int channelConfig = (mChannelCount == 1) ? AudioFormat.CHANNEL_OUT_MONO
+                                                 : AudioFormat.CHANNEL_OUT_STEREO;
+        int minBufferSize = AudioTrack.getMinBufferSize(mSampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT);
+        int bufferSize = Math.max(minBufferSize, 2 * WRITE_CHUNK_SAMPLES * 2 /* Bytes/sample */);
+        AudioTrack audioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, mSampleRate,
+                channelConfig, AudioFormat.ENCODING_PCM_16BIT, bufferSize, AudioTrack.MODE_STREAM);
+        if (audioTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+            audioTrack.release();
+            throw new IllegalStateException("Could not initialize AudioTrack");
+        }
+        audioTrack.setStereoVolume(mVolume, mVolume);
+        mAudioTrackSampleRate = mSampleRate;
+        mAudioTrackChannelCount = mChannelCount;
+        mAudioTrackSamplesWritten = 0;
+        mAudioTrack = audioTrack;
+        return audioTrack;
+    }
+
+    /**
+     * Decodes until the ring buffer holds at least @p minSamples samples, or this player is
+     * released. Throws if decoding stops making progress, rather than spinning forever.
+     */
+    private void fillRingBuffer(int minSamples) throws IOException {
+        long deadline = System.nanoTime() + DECODE_STALL_TIMEOUT_NS;
+        // Samples in a new output format must wait until those already buffered have been played.
+        while (!mReleased && mNextSampleRate == 0 && mRingBufferCount < minSamples) {
+            int count = mRingBufferCount;
+            decode();
+            if (mRingBufferCount > count) {
+                deadline = System.nanoTime() + DECODE_STALL_TIMEOUT_NS;
+            } else if (System.nanoTime() > deadline) {
+                throw new IOException("Audio decoder stalled");
+            }
+        }
+    }
+
+    /**
+     * Performs one step of decoding: feeds at most one compressed sample to the codec and copies
+     * as much decoded output into the ring buffer as fits. If the track is cached, copies from the
+     * cached samples instead.
+     */
+    private void decode() throws IOException {
+        if (mCachedSamples != null) {
+            copyCachedToRingBuffer();
+            return;
+        }
+        if (!mInputDone) {
+            int inputIndex = mCodec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+            if (inputIndex >= 0) {
+                int size = mExtractor.readSampleData(mInputBuffers[inputIndex], 0);
+                if (size < 0) {
+                    mCodec.queueInputBuffer(inputIndex, 0, 0, 0,
+                            MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                    mInputDone = true;
+                } else {
+                    mCodec.queueInputBuffer(inputIndex, 0, size, mExtractor.getSampleTime(), 0);
+                    mExtractor.advance();
+                }
+            }
+        }
+
+        if (mPendingOutputIndex < 0) {
+            if (mNextSampleRate != 0) {
+                return;
+            }
+            int outputIndex = mCodec.dequeueOutputBuffer(mBufferInfo, DEQUEUE_TIMEOUT_US);
+            if (outputIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                mOutputBuffers = mCodec.getOutputBuffers();
+                return;
+            } else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                onOutputFormatChanged(mCodec.getOutputFormat());
+                return;
+            } else if (outputIndex < 0) {
+                return;
+            }
+            mPendingOutputIndex = outputIndex;
+            mPendingOutputOffset = mBufferInfo.offset;
+            mPendingOutputEndOfStream =
+                    (mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            ByteBuffer output = mOutputBuffers[outputIndex];
+            output.limit(mBufferInfo.offset + mBufferInfo.size);
+        }
+
+        ByteBuffer output = mOutputBuffers[mPendingOutputIndex];
+        output.position(mPendingOutputOffset);
+        copyToRingBuffer(output);
+        mPendingOutputOffset = output.position();
+        if (output.hasRemaining()) {
+            // The ring buffer is full. Hold on to the rest of this output until it drains.
+            return;
+        }
+
+        mCodec.releaseOutputBuffer(mPendingOutputIndex, false);
+        mPendingOutputIndex = -1;
+        if (mPendingOutputEndOfStream) {
+            finishPass();
+            if (mPassSamples == 0) {
+                // Wrapping around would never produce any samples either.
+                throw new IOException("Audio track decodes to no samples");
+            }
+            mPassSamples = 0;
+            if (mCacheWriter != null) {
+                mCacheWriter.commit();
+                mCacheWriter = null;
+            }
+            // Wrap around to the start of the track. The ring buffer already holds the tail of the
+            // track, so the first decoded samples of the next pass follow it without any gap,
+            // unless producing them takes longer than playing what is buffered.
+            mWrapStartTime = System.nanoTime();
+            mWrapBufferedMs = getBufferedMs();
+            mExtractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            mCodec.flush();
+            mInputDone = false;
+            startPass();
+        }
+    }
+
+    private void startPass() {
+        mFramesToSkip = mEncoderDelayFrames;
+        mSilentFramesToSkip = mTrimSilence ? FALLBACK_TRIM_FRAMES : 0;
+    }
+
+    // Trims the trailing padding from the held samples and makes the rest ready to be played.
+    private void finishPass() {
+        int trimmed = mHeldSamples;
+        if (mTrimSilence) {
+            // Count the silent frames at the end of the held samples.
+            int end = mRingBufferRead + mRingBufferCount + mHeldSamples;
+            trimmed = 0;
+            while (trimmed + mChannelCount <= mHeldSamples
+                    && isSilent(end - trimmed - mChannelCount)) {
+                trimmed += mChannelCount;
+            }
+        }
+        releaseHeldSamples(mHeldSamples - trimmed);
+        mHeldSamples = 0;
+    }
+
+    private void onOutputFormatChanged(MediaFormat format) {
+        int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        if (sampleRate == mSampleRate && channelCount == mChannelCount) {
+            return;
+        }
+        Log.i(LOG_TAG, String.format("Decoder output format of %s changed to %d Hz, %d channels",
+                mTrack, sampleRate, channelCount));
+        if (mCacheWriter != null) {
+            mCacheWriter.abort();
+            // Nothing has been cached yet if this is the start of the track, which is where
+            // decoders typically report the change (e.g. for HE-AAC).
+            mCacheWriter = (mPassSamples == 0 && mHeldSamples == 0)
+                    ? mCache.startWriting(mTrack, sampleRate, channelCount) : null;
+        }
+        // Held samples are not padding if the format changes after them.
+        releaseHeldSamples(mHeldSamples);
+        if (mRingBufferCount == 0) {
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+        } else {
+            mNextSampleRate = sampleRate;
+            mNextChannelCount = channelCount;
+        }
+    }
+
+    private void copyToRingBuffer(ByteBuffer output) {
+        ShortBuffer samples = output.slice().order(ByteOrder.nativeOrder()).asShortBuffer();
+        int available = samples.remaining();
+        int skipped = Math.min(mFramesToSkip, available / mChannelCount) * mChannelCount;
+        mFramesToSkip -= skipped / mChannelCount;
+        if (mFramesToSkip == 0 && mSilentFramesToSkip > 0) {
+            while (mSilentFramesToSkip > 0 && available - skipped >= mChannelCount
+                    && isSilent(samples, skipped)) {
+                skipped += mChannelCount;
+                mSilentFramesToSkip--;
+            }
+            if (available - skipped >= mChannelCount) {
+                // The track has started.
+                mSilentFramesToSkip = 0;
+            }
+        }
+        samples.position(skipped);
+
+        int count = Math.min(samples.remaining(),
+                RING_BUFFER_SAMPLES - mRingBufferCount - mHeldSamples);
+        int writeIndex = (mRingBufferRead + mRingBufferCount + mHeldSamples) % RING_BUFFER_SAMPLES;
+        int firstPart = Math.min(count, RING_BUFFER_SAMPLES - writeIndex);
+        samples.get(mRingBuffer, writeIndex, firstPart);
+        samples.get(mRingBuffer, 0, count - firstPart);
+        mHeldSamples += count;
+        releaseHeldSamples(mHeldSamples - getMaxHeldSamples());
+
+        int consumedSamples = skipped + count;
+        output.position(output.position() + consumedSamples * 2 /* Bytes/sample */);
+    }
+
+    // Returns the number of samples that may turn out to be trailing padding.
+    private int getMaxHeldSamples() {
+        int frames = mTrimSilence ? FALLBACK_TRIM_FRAMES : mEncoderPaddingFrames;
+        return Math.min(frames * mChannelCount, MAX_HELD_SAMPLES);
+    }
+
+    // Makes the first @p count held samples ready to be played, and caches them.
+    private void releaseHeldSamples(int count) {
+        if (count <= 0) {
+            return;
+        }
+        int index = (mRingBufferRead + mRingBufferCount) % RING_BUFFER_SAMPLES;
+        int firstPart = Math.min(count, RING_BUFFER_SAMPLES - index);
+        if (mCacheWriter != null) {
+            mCacheWriter.write(mRingBuffer, index, firstPart);
+            mCacheWriter.write(mRingBuffer, 0, count - firstPart);
+        }
+        if (mPassSamples == 0 && mWrapStartTime != 0) {
+            // The first samples of a pass after a wrap are ready to be played.
+            double rewindMs = (System.nanoTime() - mWrapStartTime) / 1000000.0;
+            mMetrics.record(AudioMetrics.LOOP_REWIND_TIME, rewindMs);
+            mMetrics.record(AudioMetrics.LOOP_GAP, Math.max(0.0, rewindMs - mWrapBufferedMs));
+            mWrapStartTime = 0;
+        }
+        mRingBufferCount += count;
+        mHeldSamples -= count;
+        mPassSamples += count;
+    }
+
+    // Returns the duration of the audio that is ready to be played, in the ring buffer and queued
+    // in the AudioTrack, in milliseconds.
+    private double getBufferedMs() {
+        double bufferedMs = mRingBufferCount * 1000.0 / (mSampleRate * mChannelCount);
+        AudioTrack audioTrack = mAudioTrack;
+        if (audioTrack != null) {
+            long framesWritten = mAudioTrackSamplesWritten / mAudioTrackChannelCount;
+            long framesPlayed = audioTrack.getPlaybackHeadPosition() & 0xffffffffL;
+            bufferedMs += Math.max(0, framesWritten - framesPlayed) * 1000.0
+                    / mAudioTrackSampleRate;
+        }
+        return bufferedMs;
+    }
+
+    // Returns whether the frame starting at @p index of @p samples is silent.
+    private boolean isSilent(ShortBuffer samples, int index) {
+        for (int channel = 0; channel < mChannelCount; ++channel) {
+            if (Math.abs(samples.get(index + channel)) > SILENCE_THRESHOLD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns whether the frame starting at @p index of the ring buffer is silent.
+    private boolean isSilent(int index) {
+        for (int channel = 0; channel < mChannelCount; ++channel) {
+            if (Math.abs(mRingBuffer[(index + channel) % RING_BUFFER_SAMPLES])
+                    > SILENCE_THRESHOLD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void copyCachedToRingBuffer() throws IOException {
+        if (mCachedSamples.limit() == 0) {
+            throw new IOException("Cached audio track holds no samples");
+        }
+        if (!mCachedSamples.hasRemaining()) {
+            // Wrap around to the start of the track, which is seamless as encoder priming samples
+            // were not cached.
+            mCachedSamples.rewind();
+            mMetrics.record(AudioMetrics.LOOP_GAP, 0.0);
+        }
+        int count = Math.min(mCachedSamples.remaining(), RING_BUFFER_SAMPLES - mRingBufferCount);
+        int writeIndex = (mRingBufferRead + mRingBufferCount) % RING_BUFFER_SAMPLES;
+        int firstPart = Math.min(count, RING_BUFFER_SAMPLES - writeIndex);
+        mCachedSamples.get(mRingBuffer, writeIndex, firstPart);
+        mCachedSamples.get(mRingBuffer, 0, count - firstPart);
+        mRingBufferCount += count;
+    }
+
+    private void writeChunk(AudioTrack audioTrack) {
+        int count = Math.min(mRingBufferCount, WRITE_CHUNK_SAMPLES);
+        int firstPart = Math.min(count, RING_BUFFER_SAMPLES - mRingBufferRead);
+        int written = audioTrack.write(mRingBuffer, mRingBufferRead, firstPart);
+        if (written == firstPart && firstPart < count) {
+            written += audioTrack.write(mRingBuffer, 0, count - firstPart);
+        }
+        if (written < 0) {
+            throw new IllegalStateException("AudioTrack write failed: " + written);
+        }
+        mRingBufferRead = (mRingBufferRead + written) % RING_BUFFER_SAMPLES;
+        mRingBufferCount -= written;
+        mAudioTrackSamplesWritten += written;
+    }
+}
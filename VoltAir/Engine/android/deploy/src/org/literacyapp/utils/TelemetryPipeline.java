@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * @brief Records telemetry events to a TelemetryQueue and uploads them in batches.
+ *
+ * log() may be called from any thread and only hands the event to a background worker, which
+ * appends it to the queue. The pending batch is sealed once it is full, or once its first event is
+ * older than the maximum batch age, and sealed batches are then uploaded oldest first. Sending a
+ * few compressed batches, rather than a request per event, keeps the radio asleep most of the
+ * time.
+ *
+ * Failed uploads are retried with exponential backoff and jitter, so that a classroom of tablets
+ * which lost connectivity together does not retry in lockstep. Batches the server rejects as
+ * malformed are dropped rather than retried.
+ * @note This class only depends on the Java standard library, so that it can be exercised off
+ * device against a local stub server.
+ */
+public class TelemetryPipeline {
+    private static final Logger LOGGER = Logger.getLogger(TelemetryPipeline.class.getName());
+    private static final long INITIAL_BACKOFF_MS = 30 * 1000;
+    private static final long MAX_BACKOFF_MS = 60 * 60 * 1000;
+
+    /**
+     * @brief Transport that delivers a batch to the telemetry server.
+     */
+    public interface Uploader {
+        /**
+         * @brief Uploads one batch.
+         * @param body Gzip-compressed batch of newline-delimited JSON events
+         * @returns HTTP status code of the response
+         * @throws IOException if the server could not be reached
+         */
+        int upload(byte[] body) throws IOException;
+    }
+
+    private final TelemetryQueue mQueue;
+    private final Uploader mUploader;
+    private final long mMaxBatchAgeMs;
+    private final String mSessionId = UUID.randomUUID().toString();
+    private final Random mRandom = new Random();
+    private final ScheduledExecutorService mWorker;
+
+    // Worker state, only touched on the worker thread.
+    private ScheduledFuture<?> mSealFuture = null;
+    private ScheduledFuture<?> mRetryFuture = null;
+    private long mBackoffMs = 0;
+
+    private final Runnable mSealRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mSealFuture = null;
+            sealAndUpload();
+        }
+    };
+    private final Runnable mRetryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mRetryFuture = null;
+            uploadBatches();
+        }
+    };
+
+    /**
+     * @brief Constructs a TelemetryPipeline, and starts uploading any batches left by a previous
+     * process.
+     * @param queue Queue to record events to
+     * @param uploader Transport to upload batches with, or @c null to only record them
+     * @param maxBatchAgeMs Time in milliseconds after which a batch is sealed even if not full
+     */
+    public TelemetryPipeline(TelemetryQueue queue, Uploader uploader, long maxBatchAgeMs) {
+        mQueue = queue;
+        mUploader = uploader;
+        mMaxBatchAgeMs = maxBatchAgeMs;
+        mWorker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TelemetryPipeline");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mQueue.getPendingEventCount() > 0) {
+                    scheduleSeal();
+                }
+                uploadBatches();
+            }
+        });
+    }
+
+    /**
+     * @brief Records the event @p name.
+     * @param name Name of the event
+     * @param fieldsJson JSON object holding the fields of the event, or @c null if it has none
+     */
+    public void log(String name, String fieldsJson) {
+        StringBuilder event = new StringBuilder("{\"time\":").append(System.currentTimeMillis());
+        event.append(",\"session\":\"").append(mSessionId).append('"');
+        event.append(",\"name\":\"");
+        for (int i = 0; i < name.length(); ++i) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                event.append('\\');
+            }
+            event.append((c < 0x20) ? ' ' : c);
+        }
+        event.append('"');
+        if (fieldsJson != null) {
+            event.append(",\"fields\":").append(fieldsJson);
+        }
+        event.append('}');
+
+        final String line = event.toString();
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mQueue.append(line);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to record telemetry event", e);
+                    return;
+                }
+                if (mQueue.isPendingBatchFull()) {
+                    sealAndUpload();
+                } else {
+                    scheduleSeal();
+                }
+            }
+        });
+    }
+
+    /**
+     * @brief Seals the pending batch and uploads all batches, unless an upload is backing off.
+     *
+     * This is a good time to upload when the app is going into the background anyway.
+     */
+    public void flush() {
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                sealAndUpload();
+            }
+        });
+    }
+
+    private void scheduleSeal() {
+        if (mSealFuture == null) {
+            mSealFuture = mWorker.schedule(mSealRunnable, mMaxBatchAgeMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sealAndUpload() {
+        if (mSealFuture != null) {
+            mSealFuture.cancel(false);
+            mSealFuture = null;
+        }
+        try {
+            mQueue.seal();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to seal telemetry batch", e);
+        }
+        uploadBatches();
+    }
+
+    private void uploadBatches() {
+        if (mUploader == null || mRetryFuture != null) {
+            // Uploads are disabled, or backing off.
+            return;
+        }
+        List<File> batches = mQueue.getBatches();
+        for (File batch : batches) {
+            int status;
+            try {
+                status = mUploader.upload(readFile(batch));
+            } catch (IOException e) {
+                LOGGER.info("Telemetry upload failed: " + e.getMessage());
+                scheduleRetry();
+                return;
+            }
+            if (status >= 200 && status < 300) {
+                mQueue.remove(batch);
+                mBackoffMs = 0;
+            } else if (status >= 400 && status < 500 && status != 408 && status != 429) {
+                LOGGER.warning("Telemetry batch " + batch.getName() + " rejected with " + status);
+                mQueue.remove(batch);
+            } else {
+                LOGGER.info("Telemetry upload failed with " + status);
+                scheduleRetry();
+                return;
+            }
+        }
+    }
+
+    private void scheduleRetry() {
+        mBackoffMs = (mBackoffMs == 0) ? INITIAL_BACKOFF_MS
+                : Math.min(mBackoffMs * 2, MAX_BACKOFF_MS);
+        // Spread retries over [0.75, 1.25) of the backoff.
+        long delayMs = mBackoffMs * 3 / 4 + (long) (mRandom.nextDouble() * mBackoffMs / 2);
+        mRetryFuture = mWorker.schedule(mRetryRunnable, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @brief Bounded on-disk queue of telemetry events, grouped into compressed batches.
+ *
+ * Events are appended as lines of JSON to a pending batch file, so that they survive the process
+ * being killed. Once the pending batch is full, or whenever seal() is called, it is gzip-compressed
+ * into a numbered batch file that is ready to upload. The total size of the sealed batches is
+ * bounded; when it is exceeded, the oldest batches are dropped.
+ * @note This class is not thread-safe, and is meant to be confined to a single worker thread.
+ */
+public class TelemetryQueue {
+    private static final Logger LOGGER = Logger.getLogger(TelemetryQueue.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String PENDING_FILE = "pending.jsonl";
+    private static final String BATCH_PREFIX = "batch-";
+    private static final String BATCH_SUFFIX = ".json.gz";
+
+    private final File mDirectory;
+    private final File mPendingFile;
+    private final int mMaxBatchEvents;
+    private final long mMaxBatchBytes;
+    private final long mMaxQueueBytes;
+    private int mPendingEvents = 0;
+    private long mNextSequence = 0;
+    private long mDroppedBatches = 0;
+    private boolean mLoaded = false;
+
+    /**
+     * @brief Constructs a TelemetryQueue stored in @p directory.
+     *
+     * No I/O happens until the queue is first accessed, at which point any events and batches left
+     * there by a previous process are picked up.
+     * @param directory Directory to store the queue in, which is created if necessary
+     * @param maxBatchEvents Number of events at which the pending batch is full
+     * @param maxBatchBytes Uncompressed size in bytes at which the pending batch is full
+     * @param maxQueueBytes Maximum total size in bytes of the sealed batches
+     */
+    public TelemetryQueue(File directory, int maxBatchEvents, long maxBatchBytes,
+            long maxQueueBytes) {
+        mDirectory = directory;
+        mPendingFile = new File(directory, PENDING_FILE);
+        mMaxBatchEvents = maxBatchEvents;
+        mMaxBatchBytes = maxBatchBytes;
+        mMaxQueueBytes = maxQueueBytes;
+    }
+
+    /**
+     * @brief Appends @p event to the pending batch.
+     * @param event Event encoded as a single line of JSON
+     * @throws IOException if the event could not be written
+     */
+    public void append(String event) throws IOException {
+        ensureLoaded();
+        OutputStream out = new FileOutputStream(mPendingFile, true);
+        try {
+            out.write(event.getBytes(UTF_8));
+            out.write('\n');
+        } finally {
+            out.close();
+        }
+        mPendingEvents++;
+    }
+
+    /**
+     * @brief Returns the number of events in the pending batch.
+     */
+    public int getPendingEventCount() {
+        ensureLoaded();
+        return mPendingEvents;
+    }
+
+    /**
+     * @brief Returns whether the pending batch has reached its maximum number of events or size.
+     */
+    public boolean isPendingBatchFull() {
+        ensureLoaded();
+        return mPendingEvents >= mMaxBatchEvents || mPendingFile.length() >= mMaxBatchBytes;
+    }
+
+    /**
+     * @brief Compresses the pending batch into a sealed batch, dropping the oldest sealed batches
+     * if the queue has grown past its maximum size.
+     * @returns Sealed batch file, or @c null if there were no pending events
+     * @throws IOException if the batch could not be written, in which case the pending events are
+     * kept
+     */
+    public File seal() throws IOException {
+        ensureLoaded();
+        if (mPendingEvents == 0) {
+            return null;
+        }
+        File batch = new File(mDirectory, String.format("%s%019d%s", BATCH_PREFIX, mNextSequence,
+                BATCH_SUFFIX));
+        File tempFile = new File(mDirectory, batch.getName() + ".tmp");
+        InputStream in = new FileInputStream(mPendingFile);
+        try {
+            OutputStream out = new GZIPOutputStream(new FileOutputStream(tempFile));
+            try {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, length);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if (!tempFile.renameTo(batch)) {
+            tempFile.delete();
+            throw new IOException("Failed to seal " + batch);
+        }
+        mPendingFile.delete();
+        mPendingEvents = 0;
+        mNextSequence++;
+        trim();
+        return batch;
+    }
+
+    /**
+     * @brief Returns the sealed batches, oldest first.
+     */
+    public List<File> getBatches() {
+        File[] files = mDirectory.listFiles();
+        ArrayList<File> batches = new ArrayList<File>();
+        if (files == null) {
+            return batches;
+        }
+        // Sequence numbers are zero-padded, so names sort in sequence order.
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(BATCH_PREFIX) && name.endsWith(BATCH_SUFFIX)) {
+                batches.add(file);
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * @brief Removes the sealed batch @p batch, e.g. once it has been uploaded.
+     * @param batch Batch returned by getBatches()
+     */
+    public void remove(File batch) {
+        if (!batch.delete()) {
+            LOGGER.warning("Failed to delete " + batch);
+        }
+    }
+
+    /**
+     * @brief Returns the number of sealed batches dropped so far because the queue was full.
+     */
+    public long getDroppedBatchCount() {
+        return mDroppedBatches;
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            LOGGER.warning("Failed to create " + mDirectory);
+        }
+        mPendingEvents = countLines(mPendingFile);
+        List<File> batches = getBatches();
+        if (!batches.isEmpty()) {
+            mNextSequence = getSequence(batches.get(batches.size() - 1)) + 1;
+        }
+    }
+
+    private void trim() {
+        List<File> batches = getBatches();
+        long queueBytes = 0;
+        for (File batch : batches) {
+            queueBytes += batch.length();
+        }
+        for (int i = 0; i < batches.size() - 1 && queueBytes > mMaxQueueBytes; ++i) {
+            File batch = batches.get(i);
+            queueBytes -= batch.length();
+            remove(batch);
+            mDroppedBatches++;
+            LOGGER.warning("Telemetry queue full, dropped " + batch.getName());
+        }
+    }
+
+    private static long getSequence(File batch) {
+        String name = batch.getName();
+        try {
+            return Long.parseLong(name.substring(BATCH_PREFIX.length(),
+                    name.length() - BATCH_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int countLines(File file) {
+        if (!file.exists()) {
+            return 0;
+        }
+        int count = 0;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            while (reader.readLine() != null) {
+                count++;
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Failed to read " + file + ": " + e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    LOGGER.warning("Failed to close " + file + ": " + e.getMessage());
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.voltair;
+
+import android.content.res.Resources;
+import java.util.HashMap;
+
+/**
+ * @brief Maps achievement names to their GPGS ids and titles, and buffers unlocks of them.
+ *
+ * The ids and titles are resolved from string resources once, when the registry is built, so that
+ * later lookups are a map lookup rather than a reflective @c Resources.getIdentifier() call. Each
+ * achievement is assigned a dense index, which is what the unlock queue holds: unlockAchievement()
+ * only records the index of a newly unlocked achievement in a primitive array, and drainUnlocks()
+ * hands the whole batch over to be persisted and announced off the game's critical path.
+ * @note Methods may be called from both the main thread and the native Qt thread.
+ */
+public class AchievementRegistry {
+    private static final String TITLE_SUFFIX = "_title";
+
+    private final String[] mNames;
+    private final String[] mIds;
+    private final String[] mTitles;
+    private final HashMap<String, Integer> mIndices = new HashMap<String, Integer>();
+
+    // Unlock queue. mUnlocked holds every achievement queued so far, so each is queued only once.
+    private final Object mQueueLock = new Object();
+    private final boolean[] mUnlocked;
+    private final int[] mQueue;
+    private int mQueueSize = 0;
+
+    /**
+     * @brief Builds the registry of the achievements named in @p names.
+     *
+     * Each name must have a string resource of the same name holding its id, and one suffixed with
+     * @c "_title" holding its title. Names without an id resource are skipped.
+     * @param resources Resources to resolve ids and titles from
+     * @param packageName Package the resources belong to
+     * @param names Names of the achievements
+     */
+    public AchievementRegistry(Resources resources, String packageName, String[] names) {
+        mNames = new String[names.length];
+        mIds = new String[names.length];
+        mTitles = new String[names.length];
+        int count = 0;
+        for (String name : names) {
+            int idResId = resources.getIdentifier(name, "string", packageName);
+            if (idResId == 0) {
+                continue;
+            }
+            int titleResId = resources.getIdentifier(name + TITLE_SUFFIX, "string", packageName);
+            mNames[count] = name;
+            mIds[count] = resources.getString(idResId);
+            mTitles[count] = (titleResId != 0) ? resources.getString(titleResId) : name;
+            mIndices.put(name, count);
+            count++;
+        }
+        mUnlocked = new boolean[count];
+        mQueue = new int[count];
+    }
+
+    /**
+     * @brief Returns the number of achievements in the registry.
+     */
+    public int size() {
+        return mUnlocked.length;
+    }
+
+    /**
+     * @brief Returns the index of the achievement @p name, or @c -1 if it is not registered.
+     * @param name Name of the achievement
+     */
+    public int indexOf(String name) {
+        Integer index = mIndices.get(name);
+        return (index != null) ? index : -1;
+    }
+
+    /**
+     * @brief Returns the name of the achievement at @p index.
+     * @param index Index of the achievement
+     */
+    public String getName(int index) {
+        return mNames[index];
+    }
+
+    /**
+     * @brief Returns the GPGS id of the achievement at @p index.
+     * @param index Index of the achievement
+     */
+    public String getId(int index) {
+        return mIds[index];
+    }
+
+    /**
+     * @brief Returns the user-visible title of the achievement at @p index.
+     * @param index Index of the achievement
+     */
+    public String getTitle(int index) {
+        return mTitles[index];
+    }
+
+    /**
+     * @brief Marks the achievement at @p index as unlocked, without queueing it.
+     *
+     * This should be used for achievements that were unlocked in a previous session.
+     * @param index Index of the achievement
+     */
+    public void setUnlocked(int index) {
+        synchronized (mQueueLock) {
+            mUnlocked[index] = true;
+        }
+    }
+
+    /**
+     * @brief Queues the unlock of the achievement @p name.
+     * @param name Name of the achievement
+     * @returns @c true if the achievement is registered, whether or not it was already unlocked
+     */
+    public boolean unlockAchievement(String name) {
+        int index = indexOf(name);
+        if (index < 0) {
+            return false;
+        }
+        synchronized (mQueueLock) {
+            if (!mUnlocked[index]) {
+                mUnlocked[index] = true;
+                mQueue[mQueueSize++] = index;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @brief Returns whether any unlocks are queued.
+     */
+    public boolean hasPendingUnlocks() {
+        synchronized (mQueueLock) {
+            return mQueueSize > 0;
+        }
+    }
+
+    /**
+     * @brief Moves all queued unlocks into @p indices, in the order they were queued.
+     * @param indices Array to receive the indices of the unlocked achievements, which must hold at
+     * least size() elements
+     * @returns Number of indices written to @p indices
+     */
+    public int drainUnlocks(int[] indices) {
+        synchronized (mQueueLock) {
+            int count = mQueueSize;
+            System.arraycopy(mQueue, 0, indices, 0, count);
+            mQueueSize = 0;
+            return count;
+        }
+    }
+}
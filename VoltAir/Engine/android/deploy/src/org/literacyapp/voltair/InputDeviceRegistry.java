@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.voltair;
+
+import android.hardware.input.InputManager;
+import android.util.SparseArray;
+import android.view.InputDevice;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @brief Caches the source classification and motion ranges of input devices.
+ *
+ * Devices are queried from the @c InputManager the first time an event from them is seen, after
+ * which lookups are a primitive array search that does not allocate. Entries are invalidated by
+ * forwarding the @c InputManager.InputDeviceListener callbacks to onInputDeviceAdded(),
+ * onInputDeviceChanged() and onInputDeviceRemoved(), and all entries should be dropped with clear()
+ * whenever the listener is re-registered.
+ * @note Methods may be called from both the main thread and the native Qt thread.
+ */
+public class InputDeviceRegistry {
+    /**
+     * @brief Flag for devices that are joysticks or gamepads.
+     */
+    public static final int FLAG_GAMEPAD = 1 << 0;
+    /**
+     * @brief Flag for touch navigation devices (which also report key events).
+     */
+    public static final int FLAG_TOUCH_NAVIGATION = 1 << 1;
+    /**
+     * @brief Flag for devices that report key events.
+     */
+    public static final int FLAG_KEYBOARD = 1 << 2;
+    /**
+     * @brief Flag for touch screens.
+     */
+    public static final int FLAG_TOUCHSCREEN = 1 << 3;
+
+    /**
+     * @brief Exclusive upper bound on the axes whose motion ranges are cached.
+     */
+    public static final int NUM_AXES = 64;
+
+    // Cached information about a single device. Devices which do not exist are cached with no
+    // flags so that events from them do not repeatedly query the InputManager.
+    private static class DeviceInfo {
+        int flags = 0;
+        // Flat, min and range of each axis, in MotionEventAxes.RANGE_VALUES_PER_AXIS consecutive
+        // floats per axis, or NaN if the device does not report a motion range for the axis.
+        final float[] motionRanges = new float[NUM_AXES * MotionEventAxes.RANGE_VALUES_PER_AXIS];
+    }
+
+    private final InputManager mInputManager;
+    private final SparseArray<DeviceInfo> mDevices = new SparseArray<DeviceInfo>();
+    private int mTouchScreenDeviceId = -1;
+    private boolean mTouchScreenDeviceIdValid = false;
+
+    /**
+     * @brief Constructs an empty registry.
+     * @param inputManager @c InputManager to query devices from
+     */
+    public InputDeviceRegistry(InputManager inputManager) {
+        mInputManager = inputManager;
+    }
+
+    /**
+     * @brief Returns whether or not the device identified by @p deviceId has all of @p flags.
+     * @param deviceId Id of the device to query
+     * @param flags Combination of #FLAG_GAMEPAD, #FLAG_TOUCH_NAVIGATION, #FLAG_KEYBOARD and
+     * #FLAG_TOUCHSCREEN
+     */
+    public synchronized boolean hasFlags(int deviceId, int flags) {
+        return (getDeviceInfo(deviceId).flags & flags) == flags;
+    }
+
+    /**
+     * @brief Returns the cached motion ranges of the device identified by @p deviceId.
+     *
+     * The returned array holds MotionEventAxes.RANGE_VALUES_PER_AXIS floats per axis, indexed by
+     * axis, and must not be modified.
+     * @param deviceId Id of the device to query
+     */
+    public synchronized float[] getMotionRanges(int deviceId) {
+        return getDeviceInfo(deviceId).motionRanges;
+    }
+
+    /**
+     * @brief Returns the id of the touch screen input device, or -1 if none exists.
+     * @note If multiple touch screen devices are present, this returns the id of the first one
+     * discovered.
+     */
+    public synchronized int getTouchScreenDeviceId() {
+        if (!mTouchScreenDeviceIdValid) {
+            mTouchScreenDeviceId = -1;
+            for (int deviceId : mInputManager.getInputDeviceIds()) {
+                if (hasFlags(deviceId, FLAG_TOUCHSCREEN)) {
+                    mTouchScreenDeviceId = deviceId;
+                    break;
+                }
+            }
+            mTouchScreenDeviceIdValid = true;
+        }
+        return mTouchScreenDeviceId;
+    }
+
+    /**
+     * @brief Forgets a device that was previously cached as missing.
+     * @param deviceId Id of the device that was added
+     */
+    public synchronized void onInputDeviceAdded(int deviceId) {
+        mDevices.remove(deviceId);
+        mTouchScreenDeviceIdValid = false;
+    }
+
+    /**
+     * @brief Forgets the cached properties of a device.
+     * @param deviceId Id of the device that has changed
+     */
+    public synchronized void onInputDeviceChanged(int deviceId) {
+        mDevices.remove(deviceId);
+        mTouchScreenDeviceIdValid = false;
+    }
+
+    /**
+     * @brief Forgets a device that was removed.
+     * @param deviceId Id of the device that was removed
+     */
+    public synchronized void onInputDeviceRemoved(int deviceId) {
+        mDevices.remove(deviceId);
+        mTouchScreenDeviceIdValid = false;
+    }
+
+    /**
+     * @brief Forgets all cached devices.
+     */
+    public synchronized void clear() {
+        mDevices.clear();
+        mTouchScreenDeviceIdValid = false;
+    }
+
+    private DeviceInfo getDeviceInfo(int deviceId) {
+        DeviceInfo info = mDevices.get(deviceId);
+        if (info == null) {
+            info = createDeviceInfo(mInputManager.getInputDevice(deviceId));
+            mDevices.put(deviceId, info);
+        }
+        return info;
+    }
+
+    private static DeviceInfo createDeviceInfo(InputDevice device) {
+        DeviceInfo info = new DeviceInfo();
+        Arrays.fill(info.motionRanges, Float.NaN);
+        if (device == null) {
+            return info;
+        }
+
+        int sources = device.getSources();
+        if (isSourceType(sources, InputDevice.SOURCE_JOYSTICK)
+                || isSourceType(sources, InputDevice.SOURCE_GAMEPAD)) {
+            info.flags |= FLAG_GAMEPAD;
+        }
+        if (isSourceType(sources, InputDevice.SOURCE_TOUCH_NAVIGATION)
+                && isSourceType(sources, InputDevice.SOURCE_KEYBOARD)) {
+            info.flags |= FLAG_TOUCH_NAVIGATION;
+        }
+        if (isSourceType(sources, InputDevice.SOURCE_KEYBOARD)) {
+            info.flags |= FLAG_KEYBOARD;
+        }
+        if (isSourceType(sources, InputDevice.SOURCE_TOUCHSCREEN)) {
+            info.flags |= FLAG_TOUCHSCREEN;
+        }
+
+        List<InputDevice.MotionRange> ranges = device.getMotionRanges();
+        if (ranges != null) {
+            for (InputDevice.MotionRange range : ranges) {
+                int axis = range.getAxis();
+                int offset = axis * MotionEventAxes.RANGE_VALUES_PER_AXIS;
+                // Like InputDevice.getMotionRange(int), keep the first range reported for an axis.
+                if (axis < 0 || axis >= NUM_AXES || !Float.isNaN(info.motionRanges[offset])) {
+                    continue;
+                }
+                info.motionRanges[offset + MotionEventAxes.RANGE_FLAT_OFFSET] = range.getFlat();
+                info.motionRanges[offset + MotionEventAxes.RANGE_MIN_OFFSET] = range.getMin();
+                info.motionRanges[offset + MotionEventAxes.RANGE_RANGE_OFFSET] = range.getRange();
+            }
+        }
+        return info;
+    }
+
+    private static boolean isSourceType(int sources, int querySource) {
+        return (sources & querySource) == querySource;
+    }
+}
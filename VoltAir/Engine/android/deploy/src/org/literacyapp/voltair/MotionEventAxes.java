@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.voltair;
+
+import android.view.MotionEvent;
+
+/**
+ * @brief Packs the axis values of a @c MotionEvent, including any batched historical samples,
+ * along with the motion ranges of its device, into a flat @c float[] so that they can be passed to
+ * native code in a single JNI call.
+ *
+ * For an axis table of @c n axes, the packed buffer holds:
+ *   - @c n * #RANGE_VALUES_PER_AXIS floats: the flat, min and range of the device's motion range
+ *     for each axis (see #RANGE_FLAT_OFFSET, #RANGE_MIN_OFFSET and #RANGE_RANGE_OFFSET), or
+ *     @c NaN if the device does not report one
+ *   - @c n floats per sample: the (unflattened) value of each axis, with samples ordered from
+ *     oldest to newest
+ *
+ * The event time of each sample is packed into a separate @c long[] in the same order.
+ * @note The axis tables and #MAX_SAMPLES must be kept in sync with the constants of the same name
+ * in AndroidActivity.cpp.
+ */
+public final class MotionEventAxes {
+    /**
+     * @brief Number of floats per axis in a motion range.
+     */
+    public static final int RANGE_VALUES_PER_AXIS = 3;
+    /**
+     * @brief Offset of the flat region within the motion range of an axis.
+     */
+    public static final int RANGE_FLAT_OFFSET = 0;
+    /**
+     * @brief Offset of the minimum value within the motion range of an axis.
+     */
+    public static final int RANGE_MIN_OFFSET = 1;
+    /**
+     * @brief Offset of the extent within the motion range of an axis.
+     */
+    public static final int RANGE_RANGE_OFFSET = 2;
+    /**
+     * @brief Maximum number of samples packed per event.
+     *
+     * If an event batches more samples than this, the oldest ones are dropped.
+     */
+    public static final int MAX_SAMPLES = 16;
+
+    /**
+     * @brief Axes packed for gamepad events.
+     *
+     * Axes are in ascending order so that native code applies aliased trigger axes in the same
+     * order as before.
+     */
+    public static final int[] GAMEPAD_AXES = {
+        MotionEvent.AXIS_X,
+        MotionEvent.AXIS_Y,
+        MotionEvent.AXIS_Z,
+        MotionEvent.AXIS_RZ,
+        MotionEvent.AXIS_HAT_X,
+        MotionEvent.AXIS_HAT_Y,
+        MotionEvent.AXIS_LTRIGGER,
+        MotionEvent.AXIS_RTRIGGER,
+        MotionEvent.AXIS_GAS,
+        MotionEvent.AXIS_BRAKE,
+    };
+    /**
+     * @brief Axes packed for touch navigation events.
+     */
+    public static final int[] TOUCH_NAVIGATION_AXES = {
+        MotionEvent.AXIS_X,
+        MotionEvent.AXIS_Y,
+    };
+
+    private MotionEventAxes() {
+    }
+
+    /**
+     * @brief Returns a new axis buffer large enough to pack any of the axis tables.
+     */
+    public static float[] createBuffer() {
+        return new float[Math.max(GAMEPAD_AXES.length, TOUCH_NAVIGATION_AXES.length)
+                * (RANGE_VALUES_PER_AXIS + MAX_SAMPLES)];
+    }
+
+    /**
+     * @brief Returns a new buffer large enough to pack the event times of all samples.
+     */
+    public static long[] createEventTimeBuffer() {
+        return new long[MAX_SAMPLES];
+    }
+
+    /**
+     * @brief Packs the values of @p axes from @p event into @p out.
+     * @param event @c MotionEvent to read axis values from
+     * @param axes Axis table, either #GAMEPAD_AXES or #TOUCH_NAVIGATION_AXES
+     * @param motionRanges Motion ranges of the event's device, as returned by
+     * InputDeviceRegistry.getMotionRanges()
+     * @param includeHistory Whether or not to pack batched historical samples, rather than only
+     * the current one
+     * @param out Axis buffer to pack into, see createBuffer()
+     * @param eventTimesOut Buffer to pack sample event times into, in milliseconds since boot, see
+     * createEventTimeBuffer()
+     * @returns Number of samples packed
+     */
+    public static int pack(MotionEvent event, int[] axes, float[] motionRanges,
+            boolean includeHistory, float[] out, long[] eventTimesOut) {
+        for (int i = 0; i < axes.length; ++i) {
+            int offset = i * RANGE_VALUES_PER_AXIS;
+            int rangeOffset = axes[i] * RANGE_VALUES_PER_AXIS;
+            out[offset + RANGE_FLAT_OFFSET] = motionRanges[rangeOffset + RANGE_FLAT_OFFSET];
+            out[offset + RANGE_MIN_OFFSET] = motionRanges[rangeOffset + RANGE_MIN_OFFSET];
+            out[offset + RANGE_RANGE_OFFSET] = motionRanges[rangeOffset + RANGE_RANGE_OFFSET];
+        }
+
+        int historySize = includeHistory ? event.getHistorySize() : 0;
+        int firstHistoricalSample = Math.max(0, historySize - (MAX_SAMPLES - 1));
+        int numSamples = 0;
+        int offset = axes.length * RANGE_VALUES_PER_AXIS;
+        for (int pos = firstHistoricalSample; pos < historySize; ++pos) {
+            for (int i = 0; i < axes.length; ++i) {
+                out[offset++] = event.getHistoricalAxisValue(axes[i], pos);
+            }
+            eventTimesOut[numSamples++] = event.getHistoricalEventTime(pos);
+        }
+        for (int i = 0; i < axes.length; ++i) {
+            out[offset++] = event.getAxisValue(axes[i]);
+        }
+        eventTimesOut[numSamples++] = event.getEventTime();
+        return numSamples;
+    }
+}
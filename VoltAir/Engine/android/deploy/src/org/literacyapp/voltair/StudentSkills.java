@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.literacyapp.voltair;
+
+import java.util.Locale;
+
+/**
+ * @brief Encodes the letters and numbers a student has learned as a fixed-width bitset.
+ *
+ * The encoded skills are an @c int[] of #NUM_WORDS words, which crosses JNI as a primitive array
+ * and mirrors the native StudentSkills class:
+ *   - Word #LETTERS_WORD has bit <tt>c - 'a'</tt> set for every valid lowercase letter @c c
+ *   - Word #NUMBERS_WORD has bit @c n set for every valid number @c n below #NUM_NUMBERS
+ *
+ * Letters outside the alphabet of the current locale are dropped while encoding.
+ */
+public final class StudentSkills {
+    /**
+     * @brief Index of the word holding letter bits.
+     */
+    public static final int LETTERS_WORD = 0;
+    /**
+     * @brief Index of the word holding number bits.
+     */
+    public static final int NUMBERS_WORD = 1;
+    /**
+     * @brief Number of words in encoded skills.
+     */
+    public static final int NUM_WORDS = 2;
+    /**
+     * @brief Exclusive upper bound on numbers that can be encoded.
+     */
+    public static final int NUM_NUMBERS = 32;
+
+    private static final String ALPHABET_EN = "abcdefghijklmnopqrstuvwxyz";
+    // Swahili does not use q and x.
+    private static final String ALPHABET_SW = "abcdefghijklmnoprstuvwyz";
+
+    private StudentSkills() {
+    }
+
+    /**
+     * @brief Returns the alphabet of @p locale, in lowercase.
+     * @param locale Locale to return the alphabet of
+     */
+    public static String getAlphabet(Locale locale) {
+        return "sw".equals(locale.getLanguage()) ? ALPHABET_SW : ALPHABET_EN;
+    }
+
+    /**
+     * @brief Encodes @p letters and @p numbers into a new skills array.
+     * @param alphabet Alphabet of valid letters, see getAlphabet()
+     * @param letters String of letters, or @c null for none
+     * @param numbers Numbers separated by any non-digit characters, or @c null for none
+     */
+    public static int[] encode(String alphabet, String letters, String numbers) {
+        int[] skills = new int[NUM_WORDS];
+        if (letters != null) {
+            String lowerCaseLetters = letters.toLowerCase(Locale.US);
+            for (int i = 0; i < lowerCaseLetters.length(); ++i) {
+                char letter = lowerCaseLetters.charAt(i);
+                if (alphabet.indexOf(letter) >= 0) {
+                    skills[LETTERS_WORD] |= 1 << (letter - 'a');
+                }
+            }
+        }
+        if (numbers != null) {
+            int number = -1;
+            for (int i = 0; i <= numbers.length(); ++i) {
+                char c = (i < numbers.length()) ? numbers.charAt(i) : ' ';
+                if (c >= '0' && c <= '9') {
+                    number = Math.min(NUM_NUMBERS, Math.max(number, 0) * 10 + (c - '0'));
+                } else if (number >= 0) {
+                    if (number < NUM_NUMBERS) {
+                        skills[NUMBERS_WORD] |= 1 << number;
+                    }
+                    number = -1;
+                }
+            }
+        }
+        return skills;
+    }
+}
@@ -3,32 +3,144 @@ package org.literacyapp.voltair;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.util.Log;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import java.util.ArrayList;
 
+/**
+ * @brief Receives @c STUDENT_UPDATED broadcasts and forwards the student's letters and numbers to
+ * the VoltAirActivity.
+ *
+ * Broadcasts are handled off the main thread with @c goAsync(). The companion app sends them in
+ * bursts, so duplicate payloads are dropped and bursts are coalesced: only the latest payload
+ * received within #DEBOUNCE_DELAY_MS of the previous one is applied. A burst that never pauses is
+ * still applied #MAX_DEBOUNCE_DELAY_MS after its first change.
+ */
 public class StudentUpdateReceiver extends BroadcastReceiver {
 
 
     public static final String PREF_STUDENT_LETTERS = "pref_student_letters";
     public static final String PREF_STUDENT_NUMBERS = "pref_student_numbers";
 
-    private VoltAirActivity mActivity = null;
+    /**
+     * @brief Time, in milliseconds, to wait for further broadcasts before applying an update.
+     */
+    public static final long DEBOUNCE_DELAY_MS = 500;
+    /**
+     * @brief Maximum time, in milliseconds, that an update is held back by further broadcasts.
+     */
+    public static final long MAX_DEBOUNCE_DELAY_MS = 2000;
+
+    private final Handler mHandler;
+    private final HandlerThread mHandlerThread;
+    // State below is only touched on mHandlerThread.
+    private final ArrayList<PendingResult> mPendingResults = new ArrayList<PendingResult>();
+    // Latest payload received, and whether it has yet to be applied.
+    private String mLatestLetters = null;
+    private String mLatestNumbers = null;
+    private boolean mUpdatePending = false;
+    // Uptime at which the pending update must be applied at the latest.
+    private long mApplyDeadlineMs = 0;
+    private final Runnable mApplyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyPendingUpdate();
+        }
+    };
+
+    private volatile VoltAirActivity mActivity = null;
+
+    public StudentUpdateReceiver() {
+        mHandlerThread = new HandlerThread("StudentUpdateReceiver",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper());
+    }
 
     public void setActivity(VoltAirActivity activity) {
         mActivity = activity;
     }
 
+    /**
+     * @brief Stops the background thread, and applies any update that is still pending before
+     * returning.
+     *
+     * This method should be called after the receiver has been unregistered, and before the
+     * activity is destroyed.
+     */
+    public void release() {
+        mHandler.removeCallbacks(mApplyRunnable);
+        // Broadcasts already received are still handled, which only takes a moment.
+        mHandlerThread.quitSafely();
+        try {
+            mHandlerThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        // The background thread has finished, so its state can be touched from this thread.
+        applyPendingUpdate();
+    }
+
     @Override
     public void onReceive(Context context, Intent intent) {
-        Log.i(getClass().getName(), "onReceive");
-
-        // Customize the user interface to match the current Student's level
+        Bundle extras = intent.getExtras();
+        final String availableLetters = (extras != null)
+                ? extras.getString("availableLetters") : null;
+        final String availableNumbers = (extras != null)
+                ? extras.getString("availableNumbers") : null;
+        final PendingResult result = goAsync();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onUpdateReceived(availableLetters, availableNumbers, result);
+            }
+        });
+    }
 
-        String availableLetters = intent.getExtras().getString("availableLetters");
-        Log.i(getClass().getName(), "availableLetters: " + availableLetters);
+    private void onUpdateReceived(String letters, String numbers, PendingResult result) {
+        boolean lettersChanged = letters != null && !letters.equals(mLatestLetters);
+        boolean numbersChanged = numbers != null && !numbers.equals(mLatestNumbers);
+        if (!lettersChanged && !numbersChanged) {
+            // Duplicate payload. Don't extend the debounce window for it.
+            if (mUpdatePending) {
+                mPendingResults.add(result);
+            } else {
+                result.finish();
+            }
+            return;
+        }
+        if (lettersChanged) {
+            mLatestLetters = letters;
+        }
+        if (numbersChanged) {
+            mLatestNumbers = numbers;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (!mUpdatePending) {
+            mApplyDeadlineMs = now + MAX_DEBOUNCE_DELAY_MS;
+        }
+        mUpdatePending = true;
+        mPendingResults.add(result);
+        // Restart the debounce window on every change within a burst, up to the deadline.
+        mHandler.removeCallbacks(mApplyRunnable);
+        mHandler.postDelayed(mApplyRunnable,
+                Math.max(0, Math.min(DEBOUNCE_DELAY_MS, mApplyDeadlineMs - now)));
+    }
 
-        if (mActivity != null) {
-            mActivity.studentUpdateReceiver(availableLetters);
+    private void applyPendingUpdate() {
+        VoltAirActivity activity = mActivity;
+        if (mUpdatePending && activity != null) {
+            // The activity drops the update if it matches what it already has. Otherwise the
+            // native engine picks the change up at its next frame boundary.
+            activity.studentUpdateReceiver(mLatestLetters, mLatestNumbers);
+        }
+        mUpdatePending = false;
+        for (PendingResult result : mPendingResults) {
+            result.finish();
         }
+        mPendingResults.clear();
     }
 }
@@ -17,39 +17,51 @@
 // TODO: Remove VoltAir references in this file.
 package org.literacyapp.voltair;
 
-import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.hardware.input.InputManager;
 import android.media.AudioManager;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.view.Gravity;
-import android.view.InputDevice;
 import android.view.InputEvent;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.widget.Toast;
 
 import org.literacyapp.voltair.R;
+import org.literacyapp.utils.ChoreographerFrameClock;
+import org.literacyapp.utils.CloudSaveService;
+import org.literacyapp.utils.CloudSaveSync;
+import org.literacyapp.utils.DecodedAudioCache;
+import org.literacyapp.utils.DeferredInitScheduler;
+import org.literacyapp.utils.FileCloudSaveService;
+import org.literacyapp.utils.HttpTelemetryUploader;
+import org.literacyapp.utils.MemoryPressure;
+import org.literacyapp.utils.SaveStateStore;
+import org.literacyapp.utils.SettingsStore;
+import org.literacyapp.utils.SoundEffectManager;
 import org.literacyapp.utils.SoundManager;
+import org.literacyapp.utils.StartupTracer;
+import org.literacyapp.utils.TelemetryPipeline;
+import org.literacyapp.utils.TelemetryQueue;
 
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.qtproject.qt5.android.bindings.QtActivity;
 
 import java.util.ArrayList;
 import android.preference.PreferenceManager;
-import android.content.SharedPreferences;
 import java.util.Locale;
 
 
@@ -61,9 +73,10 @@ import java.util.Locale;
  *   - Capturing @c InputEvent%s
  *   - Notifying the native C++ application of relevant events
  *   - Providing hooks for Google Play Games Services (GPGS) sign-in, achievements, and cloud sync
- *   - Providing hooks for Google Analytics (GA)
+ *   - Recording gameplay and performance telemetry (see TelemetryPipeline)
  *   - Exposing Android-specific SoundManager APIs to native code for gapless playback of background
  *     music (BGM)
+ *   - Exposing the Android-specific SoundEffectManager to native code for low-latency sound effects
  */
 public class VoltAirActivity extends QtActivity implements InputManager.InputDeviceListener {
     private static final String LOG_TAG = VoltAirActivity.class.getName();
@@ -72,38 +85,172 @@ public class VoltAirActivity extends QtActivity implements InputManager.InputDev
     // Request code when invoking Activities whose result we don't care about.
     private static final int RC_UNUSED = 5001;
     private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Local file that startup traces are appended to.
+    private static final String STARTUP_TRACE_FILE = "startup_trace.json";
+    // Time to keep background music ready to resume while in the background, which covers a quick
+    // switch to a companion app and back.
+    private static final long BGM_WARM_RESUME_TIMEOUT_MS = 60 * 1000;
+    // Local files holding the save state, and the save state as of the last cloud sync.
+    private static final String SAVE_STATE_FILE = "save_state.dat";
+    private static final String CLOUD_SAVE_BASE_FILE = "cloud_save_base.dat";
+    // Cloud save stand-in used by debuggable builds, in external storage so that it can be pulled,
+    // edited and pushed back with adb to simulate another device.
+    private static final String DEBUG_CLOUD_SAVE_FILE = "debug_cloud_save.dat";
+    // Delay after the first of a batch of achievement unlocks before the batch is flushed.
+    private static final long ACHIEVEMENT_FLUSH_DELAY_MS = 5 * 1000;
+    // Telemetry is queued in this directory of the app's files directory, and uploaded in batches
+    // of up to 200 events or 64KB, or once a batch is 15 minutes old. At most 1MB of compressed
+    // batches is kept while uploads fail.
+    private static final String TELEMETRY_DIR = "telemetry";
+    private static final int TELEMETRY_MAX_BATCH_EVENTS = 200;
+    private static final long TELEMETRY_MAX_BATCH_BYTES = 64 * 1024;
+    private static final long TELEMETRY_MAX_QUEUE_BYTES = 1024 * 1024;
+    private static final long TELEMETRY_MAX_BATCH_AGE_MS = 15 * 60 * 1000;
 
     private AudioManager mAudioManager = null;
     private InputManager mInputManager = null;
+    private InputDeviceRegistry mInputDeviceRegistry = null;
     private boolean mSignInFailed = false;
-    private boolean mSyncing = false;
-    // Data to save to cloud when connection is established
-    private String mBufferedCloudData = null;
+    // Created on first access, which may come from native code before onCreate() has finished.
+    private SaveStateStore mSaveStateStore = null;
+    private CloudSaveSync mCloudSaveSync = null;
+    private volatile AchievementRegistry mAchievementRegistry = null;
+    private volatile TelemetryPipeline mTelemetry = null;
+    private Handler mAchievementFlushHandler = null;
+    private boolean mAchievementFlushPosted = false;
+    // Reused buffer for draining the unlock queue. Only touched on the main thread.
+    private int[] mUnlockedAchievements = null;
+    private final Runnable mAchievementFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushAchievementUnlocks(true);
+        }
+    };
     private SoundManager mSoundManager = null;
+    private SoundEffectManager mSoundEffectManager = null;
     private StudentUpdateReceiver mStudentUpdateReceiver = null;
+    // Letters and numbers valid for the current student, and their encoding and version as last
+    // pushed to native code.
+    private String mStudentLetters = "";
+    private String mStudentNumbers = "";
+    private volatile int[] mStudentSkills = null;
+    private int mStudentSkillsVersion = 0;
+    // Reused buffers for packing MotionEvent samples passed to native code. Only touched on the
+    // main thread.
+    private final float[] mAxisBuffer = MotionEventAxes.createBuffer();
+    private final long[] mEventTimeBuffer = MotionEventAxes.createEventTimeBuffer();
+    private volatile boolean mMotionHistoryEnabled = true;
+    // Created along with the activity, so that the trace covers as much of startup as possible.
+    private final StartupTracer mStartupTracer = new StartupTracer();
+    private DeferredInitScheduler mDeferredInitScheduler = null;
+    // Whether Qt has already swapped its first frame in this process. Native code only reports it
+    // once, so an activity recreated afterwards must not wait for it.
+    private static boolean sFirstFrameSwapped = false;
 
     /**
      * @brief Called when the activity is starting.
      *
-     * Initializes services for BGM, GPGS, and GA.
+     * Initializes services for BGM, GPGS, and GA. Work that is not needed to render the first frame
+     * is deferred until after it (see DeferredInitScheduler), and each step is timed by a
+     * StartupTracer whose trace is appended to #STARTUP_TRACE_FILE in the app's files directory.
      * @param savedInstanceState Bundle that contains the data that was most recently supplied by
      * the activity through @c onSaveInstanceState()
      */
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        mStartupTracer.beginPhase("onCreate");
+        mStartupTracer.beginPhase("onCreate.super");
         super.onCreate(savedInstanceState);
+        mStartupTracer.endPhase("onCreate.super");
 
+        mStartupTracer.beginPhase("onCreate.services");
         mAudioManager = (AudioManager) getSystemService(AUDIO_SERVICE);
         mInputManager = (InputManager) getSystemService(INPUT_SERVICE);
+        mInputDeviceRegistry = new InputDeviceRegistry(mInputManager);
 
         mSoundManager = new SoundManager();
+        mSoundManager.setBackend(getResources().getInteger(R.integer.bgm_backend));
+        mSoundManager.setWarmResumeTimeout(BGM_WARM_RESUME_TIMEOUT_MS);
+        mSoundEffectManager = new SoundEffectManager();
+
+        // Resolved once up front, as resource lookups by name are slow.
+        AchievementRegistry achievementRegistry = new AchievementRegistry(getResources(),
+                getPackageName(), getResources().getStringArray(R.array.achievement_names));
+        mUnlockedAchievements = new int[achievementRegistry.size()];
+        mAchievementFlushHandler = new Handler();
+        mAchievementRegistry = achievementRegistry;
+        mStartupTracer.endPhase("onCreate.services");
+
+        mDeferredInitScheduler = new DeferredInitScheduler(new ChoreographerFrameClock(),
+                mStartupTracer);
+        mDeferredInitScheduler.setTraceListener(new DeferredInitScheduler.TraceListener() {
+            @Override
+            public void onStartupCompleted(StartupTracer tracer) {
+                tracer.writeAsync(new File(getFilesDir(), STARTUP_TRACE_FILE));
+                logTelemetryEvent("Startup", tracer.toJson());
+            }
+        });
+        // Until the skills are seeded, native code falls back to getStudentSkills() on its own
+        // thread. Later changes are pushed from studentUpdateReceiver(), so the receiver is only
+        // registered once the seed is in place.
+        mDeferredInitScheduler.schedule("deferred.studentSkills", new Runnable() {
+            @Override
+            public void run() {
+                SettingsStore settings = SettingsStore.getInstance(VoltAirActivity.this,
+                        VOLTAIR_PREFS);
+                pushStudentSkills(settings.getString(PREF_STUDENT_LETTERS, getDefaultLetters()),
+                        settings.getString(StudentUpdateReceiver.PREF_STUDENT_NUMBERS, ""));
+            }
+        });
+        mDeferredInitScheduler.schedule("deferred.studentUpdateReceiver", new Runnable() {
+            @Override
+            public void run() {
+                registerStudentUpdateReceiver();
+            }
+        });
+        mDeferredInitScheduler.schedule("deferred.telemetry", new Runnable() {
+            @Override
+            public void run() {
+                mTelemetry = createTelemetryPipeline();
+            }
+        });
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            mDeferredInitScheduler.schedule("deferred.debugCloudSave", new Runnable() {
+                @Override
+                public void run() {
+                    File dir = getExternalFilesDir(null);
+                    if (dir != null) {
+                        setCloudSaveService(new FileCloudSaveService(
+                                new File(dir, DEBUG_CLOUD_SAVE_FILE)));
+                    }
+                }
+            });
+        }
+        if (sFirstFrameSwapped) {
+            mDeferredInitScheduler.onFirstFrameRendered(System.nanoTime());
+        }
 
-        mStudentUpdateReceiver = new StudentUpdateReceiver();
-        mStudentUpdateReceiver.setActivity(this);
-        IntentFilter filter = new IntentFilter();
-        filter.addAction("literacyapp.intent.action.STUDENT_UPDATED");
-        registerReceiver(mStudentUpdateReceiver, filter);
+        mStartupTracer.beginPhase("onApplicationCreate");
         onApplicationCreate();
+        mStartupTracer.endPhase("onApplicationCreate");
+        mStartupTracer.endPhase("onCreate");
+    }
+
+    /**
+     * @brief Called once Qt has swapped its first frame to the screen.
+     *
+     * Qt renders on its own thread, so this rather than the first @c Choreographer frame is what
+     * releases the work queued on the DeferredInitScheduler.
+     * @note This is called from native code, on the Qt render thread.
+     * @param frameTimeNanos Time at which the frame was swapped, in the @c System.nanoTime() time
+     * base
+     */
+    public void onFirstFrameSwapped(final long frameTimeNanos) {
+        runOnUiThread(new Runnable() {
+            public void run() {
+                sFirstFrameSwapped = true;
+                mDeferredInitScheduler.onFirstFrameRendered(frameTimeNanos);
+            }});
     }
 
     /**
@@ -114,16 +261,41 @@ public class VoltAirActivity extends QtActivity implements InputManager.InputDev
      */
     @Override
     public void onStart() {
+        mStartupTracer.beginPhase("onStart");
+        mStartupTracer.beginPhase("onStart.super");
         super.onStart();
+        mStartupTracer.endPhase("onStart.super");
 
+        // Devices may have changed while we were not listening.
+        mInputDeviceRegistry.clear();
         mInputManager.registerInputDeviceListener(this, null);
 
-        // Restore preferences.
-        SharedPreferences settings = getSharedPreferences(VOLTAIR_PREFS, Context.MODE_PRIVATE);
-
+        // Resuming background music creates and prepares a player, so hold it back until the
+        // first frame is out.
+        mStartupTracer.beginPhase("onStart.sound");
+        mSoundManager.setTransitionsDeferred(true);
         mSoundManager.onStart(this);
+        mSoundEffectManager.onStart(this);
+        mStartupTracer.endPhase("onStart.sound");
+        mDeferredInitScheduler.schedule("deferred.bgmWarmUp", new Runnable() {
+            @Override
+            public void run() {
+                mSoundManager.setTransitionsDeferred(false);
+            }
+        });
+
+        // Pick up progress made on other devices while we were stopped.
+        CloudSaveSync cloudSaveSync = getCloudSaveSync();
+        if (cloudSaveSync != null) {
+            cloudSaveSync.requestSync();
+        }
 
+        mStartupTracer.beginPhase("onApplicationStart");
         onApplicationStart();
+        mStartupTracer.endPhase("onApplicationStart");
+        mStartupTracer.endPhase("onStart");
+
+        mDeferredInitScheduler.start();
     }
 
     /**
@@ -152,12 +324,23 @@ public class VoltAirActivity extends QtActivity implements InputManager.InputDev
     public void onStop() {
         super.onStop();
 
+        // Deferred work may not have run yet if we are stopped right after starting.
+        mDeferredInitScheduler.runPending();
+
         mInputManager.unregisterInputDeviceListener(this);
 
         // Save preferences.
         saveBufferedAchievements();
 
         mSoundManager.onStop();
+        mSoundEffectManager.onStop();
+        SettingsStore.flushAll();
+        flushSaveState();
+        // The radio is likely awake anyway while switching apps, so send what we have.
+        TelemetryPipeline telemetry = mTelemetry;
+        if (telemetry != null) {
+            telemetry.flush();
+        }
 
         onApplicationStop();
     }
@@ -169,12 +352,36 @@ public class VoltAirActivity extends QtActivity implements InputManager.InputDev
     public void onDestroy() {
         if (mStudentUpdateReceiver != null) {
             unregisterReceiver(mStudentUpdateReceiver);
+            mStudentUpdateReceiver.release();
             mStudentUpdateReceiver = null;
         }
         super.onDestroy();
         onApplicationDestroy();
     }
 
+    /**
+     * @brief Called when the operating system has determined that it is a good time for the
+     * process to trim unneeded memory.
+     *
+     * @p level is mapped onto an eviction tier (see MemoryPressure), which is applied to the
+     * background music first and then forwarded to the native engine.
+     * @param level Context of the trim, giving a hint of the amount of trimming to perform
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        trimMemory(MemoryPressure.getTier(level));
+    }
+
+    /**
+     * @brief Called when the overall system is running low on memory.
+     */
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        trimMemory(MemoryPressure.TIER_ALL);
+    }
+
     /**
      * @brief Called to process (and possibly intercept) generic motion events.
      * @param event Generic @c MotionEvent to handle
@@ -183,11 +390,19 @@ public class VoltAirActivity extends QtActivity implements InputManager.InputDev
     @Override
     public boolean dispatchGenericMotionEvent(MotionEvent event) {
         if (isGamepadEvent(event)) {
-            if (onGamepadMotionEvent(event)) {
+            int numSamples = MotionEventAxes.pack(event, MotionEventAxes.GAMEPAD_AXES,
+                    mInputDeviceRegistry.getMotionRanges(event.getDeviceId()),
+                    mMotionHistoryEnabled, mAxisBuffer, mEventTimeBuffer);
+            if (onGamepadMotionEvent(event.getDeviceId(), numSamples, mEventTimeBuffer,
+                    mAxisBuffer)) {
                 return true;
             }
         } else if (isTouchNavigationEvent(event)) {
-            if (onTouchNavigationMotionEvent(event)) {
+            int numSamples = MotionEventAxes.pack(event, MotionEventAxes.TOUCH_NAVIGATION_AXES,
+                    mInputDeviceRegistry.getMotionRanges(event.getDeviceId()),
+                    mMotionHistoryEnabled, mAxisBuffer, mEventTimeBuffer);
+            if (onTouchNavigationMotionEvent(event.getDeviceId(), event.getActionMasked(),
+                    numSamples, mEventTimeBuffer, mAxisBuffer)) {
                 return true;
             }
         }
@@ -226,15 +441,18 @@ public class VoltAirActivity extends QtActivity implements InputManager.InputDev
         // key events) so as to not spawn two separate controllers (one here with the Android
         // KeyEvent, and the other one in "InputArea" with the translated QKeyEvent).
         if (isGamepadEvent(event)) {
-            if (onGamepadKeyEvent(event)) {
+            if (onGamepadKeyEvent(event.getDeviceId(), event.getAction(), event.getKeyCode(),
+                    event.getEventTime())) {
                 return true;
             }
         } else if (isTouchNavigationEvent(event)) {
-            if (onTouchNavigationKeyEvent(event)) {
+            if (onTouchNavigationKeyEvent(event.getDeviceId(), event.getAction(),
+                    event.getKeyCode(), event.getEventTime())) {
                 return true;
             }
         } else if (isKeyboardEvent(event)) {
-            if (onKeyboardKeyEvent(event)) {
+            if (onKeyboardKeyEvent(event.getDeviceId(), event.getAction(), event.getKeyCode(),
+                    event.getEventTime())) {
                 return true;
             }
         }
@@ -247,7 +465,8 @@ public class VoltAirActivity extends QtActivity implements InputManager.InputDev
      */
     @Override
     public void onInputDeviceAdded(int deviceId) {
-        // Do nothing. We only care about when a device disconnects as we lazily initialize.
+        // Controllers are lazily initialized natively, so only the registry needs to know.
+        mInputDeviceRegistry.onInputDeviceAdded(deviceId);
     }
 
     /**
@@ -257,7 +476,8 @@ public class VoltAirActivity extends QtActivity implements InputManager.InputDev
      */
     @Override
     public void onInputDeviceChanged(int deviceId) {
-        // Do nothing. We only care about when a device disconnects as we lazily initialize.
+        // Controllers are lazily initialized natively, so only the registry needs to know.
+        mInputDeviceRegistry.onInputDeviceChanged(deviceId);
     }
 
     /**
@@ -266,22 +486,29 @@ public class VoltAirActivity extends QtActivity implements InputManager.InputDev
      */
     @Override
     public void onInputDeviceRemoved(int deviceId) {
+        mInputDeviceRegistry.onInputDeviceRemoved(deviceId);
         onControllerDisconnect(deviceId);
     }
 
+    /**
+     * @brief Sets whether or not batched historical samples of motion events are passed to native
+     * code.
+     *
+     * When enabled (the default), every sample Android batched into a gamepad or touch navigation
+     * @c MotionEvent is routed in order, rather than only the latest one.
+     * @param enabled Whether or not to pass historical samples
+     */
+    public void setMotionHistoryEnabled(boolean enabled) {
+        mMotionHistoryEnabled = enabled;
+    }
+
     /**
      * @brief Returns the hardware deviceId of the touch screen input device, or -1 if none exists.
      * @note If multiple touch screen devices are present, this returns the id of the first one
      * discovered.
      */
     public int getTouchScreenDeviceId() {
-        for (int deviceId : mInputManager.getInputDeviceIds()) {
-            InputDevice device = mInputManager.getInputDevice(deviceId);
-            if (isSourceType(device, InputDevice.SOURCE_TOUCHSCREEN)) {
-                return device.getId();
-            }
-        }
-        return -1;
+        return mInputDeviceRegistry.getTouchScreenDeviceId();
     }
 
     /**
@@ -292,6 +519,14 @@ public class VoltAirActivity extends QtActivity implements InputManager.InputDev
         return mSoundManager;
     }
 
+    /**
+     * @brief Returns a reference to the Java-based SoundEffectManager used for low-latency sound
+     * effect playback.
+     */
+    public SoundEffectManager getSoundEffectManager() {
+        return mSoundEffectManager;
+    }
+
     /**
      * @brief Returns the version string of the Android application.
      */
@@ -328,31 +563,56 @@ public class VoltAirActivity extends QtActivity implements InputManager.InputDev
      * @brief Native callback for onDestroy() lifecycle event.
      */
     public native void onApplicationDestroy();
+    /**
+     * @brief Native callback for onTrimMemory() and onLowMemory().
+     * @param tier Eviction tier, one of the MemoryPressure tiers
+     */
+    public native void onApplicationTrimMemory(int tier);
     /**
      * @brief Native callback for onInputDeviceRemoved().
      */
     public native void onControllerDisconnect(int deviceId);
     /**
      * @brief Native callback for dispatchGenericMotionEvent() of gamepad related @c MotionEvent%s.
+     * @param deviceId Id of the device which generated the event
+     * @param numSamples Number of samples packed
+     * @param eventTimes Event time of each sample, in milliseconds since boot
+     * @param axes Axes packed by MotionEventAxes.pack() with MotionEventAxes.GAMEPAD_AXES
      */
-    public native boolean onGamepadMotionEvent(MotionEvent e);
+    public native boolean onGamepadMotionEvent(int deviceId, int numSamples, long[] eventTimes,
+            float[] axes);
     /**
      * @brief Native callback for dispatchGenericMotionEvent() of touch navigation related @c
      * MotionEvent%s.
+     * @param deviceId Id of the device which generated the event
+     * @param action Masked action of the event
+     * @param numSamples Number of samples packed
+     * @param eventTimes Event time of each sample, in milliseconds since boot
+     * @param axes Axes packed by MotionEventAxes.pack() with
+     * MotionEventAxes.TOUCH_NAVIGATION_AXES
      */
-    public native boolean onTouchNavigationMotionEvent(MotionEvent e);
+    public native boolean onTouchNavigationMotionEvent(int deviceId, int action, int numSamples,
+            long[] eventTimes, float[] axes);
     /**
      * @brief Native callback for dispatchKeyEvent() of gamepad related @c KeyEvent%s.
+     * @param deviceId Id of the device which generated the event
+     * @param action Action of the event
+     * @param keyCode Key code of the event
+     * @param eventTime Time at which the event occurred, in milliseconds since boot
      */
-    public native boolean onGamepadKeyEvent(KeyEvent e);
+    public native boolean onGamepadKeyEvent(int deviceId, int action, int keyCode, long eventTime);
     /**
      * @brief Native callback for dispatchKeyEvent() of touch navigation related @c KeyEvent%s.
+     * @see onGamepadKeyEvent()
      */
-    public native boolean onTouchNavigationKeyEvent(KeyEvent e);
+    public native boolean onTouchNavigationKeyEvent(int deviceId, int action, int keyCode,
+            long eventTime);
     /**
      * @brief Native callback for dispatchKeyEvent() of keyboard related @c KeyEvent%s.
+     * @see onGamepadKeyEvent()
      */
-    public native boolean onKeyboardKeyEvent(KeyEvent e);
+    public native boolean onKeyboardKeyEvent(int deviceId, int action, int keyCode,
+            long eventTime);
     /**
      * @brief Native callback for onSignInSucceeded() and onSignInFailed().
      * @param signedIntoCloud @c true if notifying of sign-in success
@@ -371,81 +631,310 @@ public class VoltAirActivity extends QtActivity implements InputManager.InputDev
      */
     public native String onCloudDataConflict(String localData, String serverData);
 
-    public native void onStudentUpdateReceiver(String availableLetters);
+    /**
+     * @brief Native callback for changes to the letters and numbers valid for the current student.
+     * @param skills Letters and numbers encoded as described in StudentSkills
+     * @param version Version of @p skills, which increases with every change
+     */
+    public native void onStudentSkillsChanged(int[] skills, int version);
 
-    private static boolean isSourceType(InputDevice device, int querySource) {
-        if (device == null) {
-            return false;
-        } else {
-            return (device.getSources() & querySource) == querySource;
+    private void trimMemory(int tier) {
+        if (tier == MemoryPressure.TIER_NONE) {
+            return;
+        }
+        long bytesFreed = mSoundManager.trimMemory(tier);
+        bytesFreed += DecodedAudioCache.getInstance(this).trimMemory(tier);
+        Log.i(LOG_TAG, String.format("Memory trim tier %d: released ~%d bytes of audio", tier,
+                bytesFreed));
+        logTelemetryEvent("MemoryTrim", String.format("{\"tier\":%d,\"audioBytesFreed\":%d}",
+                tier, bytesFreed));
+        onApplicationTrimMemory(tier);
+    }
+
+    /**
+     * @brief Records the telemetry event @p name, to be uploaded later in a batch.
+     *
+     * Events logged before the telemetry pipeline has been created after the first frame are
+     * dropped.
+     * @note This is called from native code.
+     * @param name Name of the event
+     * @param fieldsJson JSON object holding the fields of the event, or @c null if it has none
+     */
+    public void logTelemetryEvent(String name, String fieldsJson) {
+        TelemetryPipeline telemetry = mTelemetry;
+        if (telemetry != null) {
+            telemetry.log(name, fieldsJson);
+        }
+    }
+
+    private TelemetryPipeline createTelemetryPipeline() {
+        TelemetryQueue queue = new TelemetryQueue(new File(getFilesDir(), TELEMETRY_DIR),
+                TELEMETRY_MAX_BATCH_EVENTS, TELEMETRY_MAX_BATCH_BYTES, TELEMETRY_MAX_QUEUE_BYTES);
+        // Without an endpoint, events are only queued locally.
+        TelemetryPipeline.Uploader uploader = null;
+        String url = getString(R.string.telemetry_url);
+        if (!url.isEmpty()) {
+            try {
+                uploader = new HttpTelemetryUploader(new URL(url));
+            } catch (MalformedURLException e) {
+                Log.w(LOG_TAG, "Invalid telemetry URL: " + url);
+            }
         }
+        return new TelemetryPipeline(queue, uploader, TELEMETRY_MAX_BATCH_AGE_MS);
     }
-    private static boolean isFromSource(InputEvent event, int querySource) {
-        return isSourceType(event.getDevice(), querySource);
+
+    private void registerStudentUpdateReceiver() {
+        mStudentUpdateReceiver = new StudentUpdateReceiver();
+        mStudentUpdateReceiver.setActivity(this);
+        IntentFilter filter = new IntentFilter();
+        filter.addAction("literacyapp.intent.action.STUDENT_UPDATED");
+        registerReceiver(mStudentUpdateReceiver, filter);
     }
-    private static boolean isTouchNavigationEvent(InputEvent event) {
-        return isFromSource(event, InputDevice.SOURCE_TOUCH_NAVIGATION)
-                && isFromSource(event, InputDevice.SOURCE_KEYBOARD);
+
+    private boolean isFromDevice(InputEvent event, int flags) {
+        return mInputDeviceRegistry.hasFlags(event.getDeviceId(), flags);
     }
-    private static boolean isGamepadEvent(MotionEvent event) {
-        return (isFromSource(event, InputDevice.SOURCE_JOYSTICK)
-                || isFromSource(event, InputDevice.SOURCE_GAMEPAD))
+    private boolean isTouchNavigationEvent(InputEvent event) {
+        return isFromDevice(event, InputDeviceRegistry.FLAG_TOUCH_NAVIGATION);
+    }
+    private boolean isGamepadEvent(MotionEvent event) {
+        return isFromDevice(event, InputDeviceRegistry.FLAG_GAMEPAD)
                && event.getActionMasked() == MotionEvent.ACTION_MOVE;
     }
-    private static boolean isGamepadEvent(KeyEvent event) {
-        return isFromSource(event, InputDevice.SOURCE_JOYSTICK)
-                || isFromSource(event, InputDevice.SOURCE_GAMEPAD);
+    private boolean isGamepadEvent(KeyEvent event) {
+        return isFromDevice(event, InputDeviceRegistry.FLAG_GAMEPAD);
     }
-    private static boolean isKeyboardEvent(KeyEvent event) {
-        return isFromSource(event, InputDevice.SOURCE_KEYBOARD);
+    private boolean isKeyboardEvent(KeyEvent event) {
+        return isFromDevice(event, InputDeviceRegistry.FLAG_KEYBOARD);
     }
 
     private String getAchievementId(String name) {
-        int id = getResources().getIdentifier(name, "string", getPackageName());
-        return getString(id);
+        int index = mAchievementRegistry.indexOf(name);
+        return (index >= 0) ? mAchievementRegistry.getId(index) : null;
     }
 
     private String getAchievementTitle(String name) {
-        int id = getResources().getIdentifier(String.format("%s_title", name), "string",
-                getPackageName());
-        return getString(id);
+        int index = mAchievementRegistry.indexOf(name);
+        return (index >= 0) ? mAchievementRegistry.getTitle(index) : name;
     }
 
     // TODO: Move this into C++ and use the styled custom toast.
-    private void showAchievementToast(final String prefix, final String achievementName) {
+    private void showAchievementToast(final String prefix, final String achievementTitles) {
         runOnUiThread(new Runnable() {
             public void run() {
                 Toast toast = Toast.makeText(VoltAirActivity.this, String.format("%s: %s",
-                        prefix, getAchievementTitle(achievementName)), Toast.LENGTH_LONG);
+                        prefix, achievementTitles), Toast.LENGTH_LONG);
                 toast.setGravity(Gravity.TOP | Gravity.CENTER_HORIZONTAL, 0, 0);
                 toast.show();
             }});
     }
 
+    /**
+     * @brief Queues the unlock of the achievement @p name.
+     *
+     * Unlocks are only recorded here, and flushed in a single batch after
+     * #ACHIEVEMENT_FLUSH_DELAY_MS or when the activity is stopped, so that the game thread never
+     * waits on them.
+     * @note This is called from native code.
+     * @param name Resource name of the achievement
+     * @returns @c true if the achievement is known and its unlock has been queued
+     */
+    public boolean unlockAchievement(String name) {
+        AchievementRegistry registry = mAchievementRegistry;
+        if (registry == null || !registry.unlockAchievement(name)) {
+            Log.w(LOG_TAG, "Unknown achievement: " + name);
+            return false;
+        }
+        synchronized (mAchievementFlushRunnable) {
+            if (!mAchievementFlushPosted) {
+                mAchievementFlushPosted = true;
+                mAchievementFlushHandler.postDelayed(mAchievementFlushRunnable,
+                        ACHIEVEMENT_FLUSH_DELAY_MS);
+            }
+        }
+        return true;
+    }
+
     private void saveBufferedAchievements() {
+        // Not announced, as we are no longer visible.
+        flushAchievementUnlocks(false);
+    }
+
+    // Flushes all queued achievement unlocks as a single batch. Must be called on the main thread.
+    private void flushAchievementUnlocks(boolean showToast) {
+        synchronized (mAchievementFlushRunnable) {
+            mAchievementFlushHandler.removeCallbacks(mAchievementFlushRunnable);
+            mAchievementFlushPosted = false;
+        }
+        int numUnlocked = mAchievementRegistry.drainUnlocks(mUnlockedAchievements);
+        if (numUnlocked == 0) {
+            return;
+        }
+        StringBuilder titles = new StringBuilder();
+        for (int i = 0; i < numUnlocked; ++i) {
+            int index = mUnlockedAchievements[i];
+            Log.i(LOG_TAG, "Achievement unlocked: " + mAchievementRegistry.getName(index));
+            if (i > 0) {
+                titles.append(", ");
+            }
+            titles.append(mAchievementRegistry.getTitle(index));
+        }
+        if (showToast) {
+            showAchievementToast(getString(R.string.achievement_unlocked), titles.toString());
+        }
+    }
+
+    /**
+     * @brief Sets the cloud save service to sync the save state with.
+     *
+     * Remote changes are merged into the local save state before native code is notified, so that
+     * onCloudDataConflict() is only called for entries that changed both locally and remotely.
+     * @param service Service to sync with, or @c null to only save locally
+     */
+    public synchronized void setCloudSaveService(CloudSaveService service) {
+        if (service == null) {
+            mCloudSaveSync = null;
+            return;
+        }
+        mCloudSaveSync = new CloudSaveSync(getSaveStateStore(),
+                new SaveStateStore(new File(getFilesDir(), CLOUD_SAVE_BASE_FILE)), service,
+                new CloudSaveSync.Listener() {
+                    @Override
+                    public void onCloudDataMerged(String json) {
+                        onCloudDataLoaded(0, json);
+                    }
+
+                    @Override
+                    public String onCloudDataConflict(String localJson, String serverJson) {
+                        return VoltAirActivity.this.onCloudDataConflict(localJson, serverJson);
+                    }
+                });
+        mCloudSaveSync.requestSync();
+    }
+
+    /**
+     * @brief Replaces the save state with the entries in @p keys and @p values.
+     *
+     * Only the entries that changed are written, on a background thread, and then synced to the
+     * cloud save if one is set.
+     * @note This is called from native code.
+     * @param keys Keys of the entries
+     * @param values JSON encoded values of the entries, in the same order as @p keys
+     */
+    public void saveState(String[] keys, String[] values) {
+        Map<String, String> entries = new HashMap<String, String>();
+        for (int i = 0; i < keys.length; ++i) {
+            entries.put(keys[i], values[i]);
+        }
+        getSaveStateStore().put(entries);
+        CloudSaveSync cloudSaveSync = getCloudSaveSync();
+        if (cloudSaveSync != null) {
+            // Requested even if nothing changed locally, as merged remote changes may not have
+            // been pushed yet.
+            cloudSaveSync.requestSync();
+        }
     }
 
-    public void studentUpdateReceiver(String availableLetters) {
-        if (availableLetters != null) {
-            Log.i(LOG_TAG, availableLetters);
+    /**
+     * @brief Returns the save state entries as alternating keys and JSON encoded values.
+     * @note This is called from native code.
+     */
+    public String[] loadState() {
+        Map<String, String> entries = getSaveStateStore().getEntries();
+        String[] keysAndValues = new String[entries.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            keysAndValues[i++] = entry.getKey();
+            keysAndValues[i++] = entry.getValue();
         }
+        return keysAndValues;
+    }
 
-        SharedPreferences settings = getSharedPreferences(VOLTAIR_PREFS, Context.MODE_PRIVATE);
-        settings.edit().putString(PREF_STUDENT_LETTERS, availableLetters).commit();
+    /**
+     * @brief Deletes the local save state.
+     * @note This is called from native code.
+     */
+    public void clearState() {
+        getSaveStateStore().clear();
+    }
+
+    private synchronized SaveStateStore getSaveStateStore() {
+        if (mSaveStateStore == null) {
+            mSaveStateStore = new SaveStateStore(new File(getFilesDir(), SAVE_STATE_FILE));
+        }
+        return mSaveStateStore;
+    }
 
-        onStudentUpdateReceiver(availableLetters);
+    private synchronized CloudSaveSync getCloudSaveSync() {
+        return mCloudSaveSync;
     }
 
-    public String getValidLetters() {
+    private void flushSaveState() {
+        SaveStateStore store;
+        synchronized (this) {
+            store = mSaveStateStore;
+        }
+        if (store != null) {
+            store.flush();
+        }
+    }
+
+    /**
+     * @brief Updates the letters and numbers valid for the current student, and pushes them to
+     * native code if they have changed.
+     * @note This is called on the StudentUpdateReceiver background thread.
+     * @param availableLetters String of all letters valid for the student, or @c null if unchanged
+     * @param availableNumbers String of all numbers valid for the student, or @c null if unchanged
+     */
+    public synchronized void studentUpdateReceiver(String availableLetters,
+            String availableNumbers) {
+        String letters = (availableLetters != null) ? availableLetters : mStudentLetters;
+        String numbers = (availableNumbers != null) ? availableNumbers : mStudentNumbers;
+        if (letters.equals(mStudentLetters) && numbers.equals(mStudentNumbers)) {
+            return;
+        }
+        Log.i(LOG_TAG, "Student letters: " + letters + ", numbers: " + numbers);
+
+        // Written behind, so that no disk I/O happens while the game may be mid-frame.
+        SettingsStore settings = SettingsStore.getInstance(this, VOLTAIR_PREFS);
+        settings.putString(PREF_STUDENT_LETTERS, letters);
+        settings.putString(StudentUpdateReceiver.PREF_STUDENT_NUMBERS, numbers);
+
+        pushStudentSkills(letters, numbers);
+    }
+
+    /**
+     * @brief Returns the letters and numbers valid for the current student, encoded as described
+     * in StudentSkills.
+     * @note Native code reads its own cached copy, which is kept up to date by pushing every change.
+     * This method only serves as a fallback before the first push.
+     */
+    public int[] getStudentSkills() {
+        int[] skills = mStudentSkills;
+        if (skills != null) {
+            return skills;
+        }
+        SettingsStore settings = SettingsStore.getInstance(this, VOLTAIR_PREFS);
+        return StudentSkills.encode(StudentSkills.getAlphabet(Locale.getDefault()),
+                settings.getString(PREF_STUDENT_LETTERS, getDefaultLetters()),
+                settings.getString(StudentUpdateReceiver.PREF_STUDENT_NUMBERS, ""));
+    }
+
+    private static String getDefaultLetters() {
         String letters = "eta"; // English
-	if ("sw".equals(Locale.getDefault().getLanguage())) {
-	    letters = "aiu";
-	}
-        SharedPreferences settings = getSharedPreferences(VOLTAIR_PREFS, Context.MODE_PRIVATE);
-        if (settings != null) {
-            letters = settings.getString(PREF_STUDENT_LETTERS, letters);
+        if ("sw".equals(Locale.getDefault().getLanguage())) {
+            letters = "aiu";
         }
         return letters;
     }
 
+    private synchronized void pushStudentSkills(String letters, String numbers) {
+        mStudentLetters = letters;
+        mStudentNumbers = numbers;
+        mStudentSkills = StudentSkills.encode(StudentSkills.getAlphabet(Locale.getDefault()),
+                letters, numbers);
+        mStudentSkillsVersion++;
+        onStudentSkillsChanged(mStudentSkills, mStudentSkillsVersion);
+    }
+
 }
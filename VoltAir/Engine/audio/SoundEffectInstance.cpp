@@ -17,6 +17,10 @@
 #include <QSoundEffect>
 #include "SoundEffectInstance.h"
 
+#ifdef Q_OS_ANDROID
+#include "android/AndroidActivity.h"
+#endif
+
 SoundEffectInstance::SoundEffectInstance() {
 }
 
@@ -24,6 +28,11 @@ SoundEffectInstance::SoundEffectInstance(const QSharedPointer<QSoundEffect>& sou
         mSoundEffect(soundEffect) {
 }
 
+#ifdef Q_OS_ANDROID
+SoundEffectInstance::SoundEffectInstance(int handle) : mHandle(handle) {
+}
+#endif
+
 SoundEffectInstance::~SoundEffectInstance() {
     reset();
 }
@@ -37,6 +46,10 @@ SoundEffectInstance& SoundEffectInstance::operator=(SoundEffectInstance&& other)
     std::swap(mLooped, other.mLooped);
     std::swap(mPlayingLooped, other.mPlayingLooped);
     std::swap(mVolume, other.mVolume);
+#ifdef Q_OS_ANDROID
+    std::swap(mHandle, other.mHandle);
+    std::swap(mPlaybackId, other.mPlaybackId);
+#endif
     return *this;
 }
 
@@ -47,6 +60,13 @@ void SoundEffectInstance::reset() {
         stopIfNecessary(true);
         mSoundEffect.reset();
     }
+#ifdef Q_OS_ANDROID
+    if (mHandle >= 0) {
+        stopIfNecessary(true);
+        mHandle = -1;
+        mPlaybackId = 0;
+    }
+#endif
 }
 
 void SoundEffectInstance::reset(SoundEffectInstance&& other) {
@@ -63,6 +83,13 @@ void SoundEffectInstance::setLooped(bool value) {
     if (mSoundEffect) {
         mSoundEffect->setLoopCount(mLooped ? QSoundEffect::Infinite : 0);
     }
+#ifdef Q_OS_ANDROID
+    if (mPlayingLooped && !mLooped) {
+        // Let the current iteration finish, like QSoundEffect does.
+        AndroidActivity::setSoundEffectLooped(mPlaybackId, false);
+        mPlayingLooped = false;
+    }
+#endif
 }
 
 void SoundEffectInstance::setVolume(float value) {
@@ -71,6 +98,11 @@ void SoundEffectInstance::setVolume(float value) {
 }
 
 bool SoundEffectInstance::isPlaying() const {
+#ifdef Q_OS_ANDROID
+    if (mHandle >= 0) {
+        return mPlayingLooped;
+    }
+#endif
     if (mSoundEffect) {
         return mSoundEffect->isPlaying();
     } else {
@@ -96,6 +128,12 @@ void SoundEffectInstance::stopIfNecessary(bool isStopped) {
 }
 
 void SoundEffectInstance::updateVolume() {
+#ifdef Q_OS_ANDROID
+    // Plays are not shared with other instances, so one-shot sounds can be updated as well.
+    if (mPlaybackId != 0) {
+        AndroidActivity::setSoundEffectVolume(mPlaybackId, mVolume);
+    }
+#endif
     if (!mSoundEffect) {
         return;
     }
@@ -109,6 +147,17 @@ void SoundEffectInstance::updateVolume() {
 }
 
 void SoundEffectInstance::applyPlay() {
+#ifdef Q_OS_ANDROID
+    if (mHandle >= 0) {
+        // Relaunch rather than overlap our own previous play.
+        if (mPlaybackId != 0) {
+            AndroidActivity::stopSoundEffect(mPlaybackId);
+        }
+        mPlaybackId = AndroidActivity::startSoundEffect(mHandle, mVolume, mLooped);
+        mPlayingLooped = mLooped && mPlaybackId != 0;
+        return;
+    }
+#endif
     if (!mSoundEffect) {
         return;
     }
@@ -124,6 +173,16 @@ void SoundEffectInstance::applyPlay() {
 }
 
 void SoundEffectInstance::applyStop() {
+#ifdef Q_OS_ANDROID
+    if (mHandle >= 0) {
+        mPlayingLooped = false;
+        if (mPlaybackId != 0) {
+            AndroidActivity::stopSoundEffect(mPlaybackId);
+            mPlaybackId = 0;
+        }
+        return;
+    }
+#endif
     if (!mSoundEffect) {
         return;
     }
@@ -32,6 +32,8 @@ class QSoundEffect;
  * played concurrently. That is, only once instance can be heard at a time. The last instance to
  * play will override all other instances, silencing them. Instances referencing different sound
  * effect sources can still be played simultaneously.
+ * @note On Android, instances are backed by the SoundPool of the Android SoundEffectManager
+ * instead, so instances of the same sound effect play independently of each other.
  */
 class SoundEffectInstance {
 public:
@@ -48,6 +50,18 @@ public:
      * @param soundEffect Shared @c QSoundEffect to reference
      */
     explicit SoundEffectInstance(const QSharedPointer<QSoundEffect>& soundEffect);
+#ifdef Q_OS_ANDROID
+    /**
+     * @brief Create a SoundEffectInstance playing the sound effect with @p handle through the
+     * Android SoundEffectManager.
+     *
+     * When this SoundEffectInstance is destroyed, it stops its play of the sound effect, if the
+     * sound is looped.
+     * @param handle Handle of the sound effect, as returned by
+     * AndroidActivity::preloadSoundEffects(), or @c -1 to reference nothing
+     */
+    explicit SoundEffectInstance(int handle);
+#endif
     /**
      * @brief Move-constructs a SoundEffectInstance instance, making it use the same shared @c
      * QSoundEffect reference that @p other was using.
@@ -108,6 +122,8 @@ public:
 
     /**
      * @brief Returns whether or not this sample is currently playing.
+     * @note On Android, the end of a one-shot play cannot be observed, so only looped plays are
+     * reported as playing.
      */
     bool isPlaying() const;
 
@@ -149,6 +165,11 @@ private:
     void applyStop();
 
     QSharedPointer<QSoundEffect> mSoundEffect;
+#ifdef Q_OS_ANDROID
+    // Android SoundEffectManager handle of the sound effect, and playback id of the last play.
+    int mHandle = -1;
+    int mPlaybackId = 0;
+#endif
     bool mLooped = false;
     float mVolume = 1.0f;
 
@@ -28,12 +28,47 @@ SoundManager::SoundManager(QObject* parent) : QObject(parent) {
 }
 
 SoundEffectInstance SoundManager::getSoundEffect(const QString& path) {
+#ifdef Q_OS_ANDROID
+    return SoundEffectInstance(getSoundEffectHandle(path));
+#else
     return SoundEffectInstance(cacheSoundEffect(path, false));
+#endif
 }
 
-void SoundManager::playSoundEffect(const QString& path) {
+void SoundManager::playSoundEffect(const QString& path, float volume) {
+#ifdef Q_OS_ANDROID
+    int handle = getSoundEffectHandle(path);
+    if (handle >= 0) {
+        AndroidActivity::playSoundEffect(handle, volume);
+    }
+#else
     // Create a temporary SoundEffectInstance so everything goes through there.
-    SoundEffectInstance(cacheSoundEffect(path, false)).play();
+    SoundEffectInstance soundEffect(cacheSoundEffect(path, false));
+    soundEffect.setVolume(volume);
+    soundEffect.play();
+#endif
+}
+
+void SoundManager::preloadSoundEffects(const QStringList& paths) {
+#ifdef Q_OS_ANDROID
+    QStringList newPaths;
+    for (const QString& path : paths) {
+        if (!mSoundEffectHandles.contains(path)) {
+            newPaths.append(path);
+        }
+    }
+    if (newPaths.isEmpty()) {
+        return;
+    }
+    QVector<int> handles = AndroidActivity::preloadSoundEffects(newPaths);
+    for (int i = 0; i < handles.size(); ++i) {
+        mSoundEffectHandles.insert(newPaths[i], handles[i]);
+    }
+#else
+    for (const QString& path : paths) {
+        cacheSoundEffect(path, false);
+    }
+#endif
 }
 
 void SoundManager::clearBGMTrack(BGMPriority priority) {
@@ -61,6 +96,14 @@ void SoundManager::setBGMTrack(BGMPriority priority, const QString& path) {
 #endif
 }
 
+void SoundManager::prefetchBGMTrack(const QString& path) {
+#ifdef Q_OS_ANDROID
+    AndroidActivity::prefetchBGMTrack(path);
+#else
+    Q_UNUSED(path);
+#endif
+}
+
 bool SoundManager::isBGMMuted() const {
 #ifdef Q_OS_ANDROID
     return AndroidActivity::isBGMMuted();
@@ -94,6 +137,19 @@ void SoundManager::onBGMMediaStatusChanged(QMediaPlayer::MediaStatus status) {
     }
 }
 
+#ifdef Q_OS_ANDROID
+int SoundManager::getSoundEffectHandle(const QString& path) {
+    auto it = mSoundEffectHandles.constFind(path);
+    if (it == mSoundEffectHandles.constEnd()) {
+        preloadSoundEffects(QStringList(path));
+        it = mSoundEffectHandles.constFind(path);
+        if (it == mSoundEffectHandles.constEnd()) {
+            return -1;
+        }
+    }
+    return it.value();
+}
+#else
 QSharedPointer<QSoundEffect> SoundManager::cacheSoundEffect(const QString& path, bool lookupOnly) {
     // TODO: Consider making case insensitive.
     QSharedPointer<QSoundEffect> soundEffect = mSoundEffectMap.value(path);
@@ -111,6 +167,7 @@ QSharedPointer<QSoundEffect> SoundManager::cacheSoundEffect(const QString& path,
     soundEffect->setSource(Util::getUrlPathToAsset(path));
     return soundEffect;
 }
+#endif
 
 void SoundManager::updateCurrentBGMTrack() {
     const QUrl& bgmTrack = (!mBGMTracks.isEmpty()) ? mBGMTracks.last() : QUrl();
@@ -17,10 +17,12 @@
 #ifndef SOUNDMANAGER_H
 #define SOUNDMANAGER_H
 
+#include <QHash>
 #include <QMediaPlayer>
 #include <QObject>
 #include <QSoundEffect>
 #include <QString>
+#include <QStringList>
 #include <QUrl>
 #include "SoundEffectInstance.h"
 
@@ -30,7 +32,8 @@
  * during the game.
  *
  * The SoundManager defines methods for:
- *   - Retrieving and loading SoundEffectInstance%s from cached @c QSoundEffect data
+ *   - Retrieving and loading SoundEffectInstance%s from cached @c QSoundEffect data, or on Android,
+ *     from the @c SoundPool of the Android SoundEffectManager
  *   - Defining different priority levels for BGM and methods to set audio tracks for those levels
  *   - Playing the BGM track with the highest priority level
  *
@@ -111,6 +114,8 @@ public:
      * @note This method caches sound effect data of @p file for reuse.
      * @note Only 44.1kHz wav files have been extensively tested. Other formats may encounter odd
      * issues.
+     * @note On Android, the sound effect is loaded into the same @c SoundPool as one-shot sound
+     * effects, see preloadSoundEffects().
      * @param path Sound file asset path to load for the sound effect
      * @returns A SoundEffectInstance of the loaded sound effect
      */
@@ -121,8 +126,17 @@ public:
      * @note Only 44.1kHz wav files have been extensively tested. Other formats may encounter odd
      * issues.
      * @param path Sound file asset path to play for the sound effect
+     * @param volume Volume level <tt>[0.0f, 1.0f]</tt> to play the sound effect at
      */
-    Q_INVOKABLE void playSoundEffect(const QString& path);
+    Q_INVOKABLE void playSoundEffect(const QString& path, float volume = 1.0f);
+    /**
+     * @brief Starts loading the one-shot sound effects at @p paths so that the first
+     * playSoundEffect() call for each of them does not have to wait on file IO or decoding.
+     * @note On Android, one-shot sound effects are played through a preloaded @c SoundPool rather
+     * than @c QSoundEffect.
+     * @param paths Sound file asset paths to preload
+     */
+    Q_INVOKABLE void preloadSoundEffects(const QStringList& paths);
 
     /**
      * @brief Clears the audio track of the specified background music priority level.
@@ -139,6 +153,13 @@ public:
      * @param path Audio track asset path to load for the sound effect
      */
     Q_INVOKABLE void setBGMTrack(BGMPriority priority, const QString& path);
+    /**
+     * @brief Hints that the audio track at @p path is likely to be set as a background music track
+     * soon, so that it can be prepared ahead of time.
+     * @note Prefetching is currently only implemented on Android and is a no-op elsewhere.
+     * @param path Audio track asset path to prefetch
+     */
+    Q_INVOKABLE void prefetchBGMTrack(const QString& path);
 
 signals:
     /**
@@ -158,12 +179,23 @@ private:
     void pauseAll();
     void resumeAll();
     void applyVolume();
+#ifdef Q_OS_ANDROID
+    int getSoundEffectHandle(const QString& path);
+#else
     QSharedPointer<QSoundEffect> cacheSoundEffect(const QString& path, bool lookupOnly);
+#endif
 
     QMediaPlayer mBGMPlayer;
     QMap<BGMPriority, QUrl> mBGMTracks;
     QUrl mCurrentBGMTrack;
+#ifdef Q_OS_ANDROID
+    // Android SoundEffectManager handles of sound effects, keyed by asset path. Sound effects are
+    // only ever loaded through these on Android, as the loose sound files are packed into
+    // AudioAssetPack's archive and removed from the APK.
+    QHash<QString, int> mSoundEffectHandles;
+#else
     QMap<QString, QSharedPointer<QSoundEffect>> mSoundEffectMap;
+#endif
 
     bool mBGMMuted = false;
     bool mPaused = true;
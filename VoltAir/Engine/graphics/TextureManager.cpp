@@ -144,6 +144,33 @@ void TextureManager::processDeletion() {
     mDeleteQueue.clear();
 }
 
+qint64 TextureManager::releasePendingDeletions() {
+    return releaseUnused(&mDeleteQueue);
+}
+
+qint64 TextureManager::releaseUnusedTextures() {
+    return releaseUnused(&mTextures);
+}
+
+qint64 TextureManager::getTextureSize(const TexturePtr& texture) {
+    // Textures are uploaded as 32-bit RGBA.
+    return qint64(texture->getWidth()) * texture->getHeight() * 4;
+}
+
+qint64 TextureManager::releaseUnused(QMap<QString, TexturePtr>* textures) {
+    qint64 bytesFreed = 0;
+    for (auto it = textures->begin(); it != textures->end(); ) {
+        if (it.value().unique()) {
+            // We hold the only reference to this texture, so delete it.
+            bytesFreed += getTextureSize(it.value());
+            it = textures->erase(it);
+        } else {
+            ++it;
+        }
+    }
+    return bytesFreed;
+}
+
 TextureImpl::TextureImpl(QSGTexture* texture) : mTexture(texture) {
     // Make sure our defaults are the same as defaults for GL.
     texture->setFiltering(QSGTexture::Linear);
@@ -76,7 +76,26 @@ public:
      */
     void processDeletion();
 
+    /**
+     * @brief Releases all Texture%s on the delete list that are no longer in use, without waiting
+     * for the next call to processDeletion().
+     *
+     * Texture%s on the delete list that are still in use are left for processDeletion().
+     * @returns Estimated number of bytes freed
+     */
+    qint64 releasePendingDeletions();
+    /**
+     * @brief Releases all cached Texture%s that are not currently in use.
+     *
+     * Released Texture%s are reloaded from disk if they are requested again.
+     * @returns Estimated number of bytes freed
+     */
+    qint64 releaseUnusedTextures();
+
 private:
+    static qint64 getTextureSize(const TexturePtr& texture);
+    static qint64 releaseUnused(QMap<QString, TexturePtr>* textures);
+
     // TODO: Switch to QHash.
     QMap<QString, TexturePtr> mTextures;
     QMap<QString, TexturePtr> mDeleteQueue;
@@ -15,6 +15,8 @@
  */
 
 #include <QDebug>
+#include <QJsonDocument>
+#include <QJsonObject>
 #include "DebugMetricsMonitor.h"
 
 #if defined(Q_OS_ANDROID)
@@ -49,6 +51,8 @@ void DebugMetricsMonitor::update() {
     }
     if (mMemoryUsageRefreshTime.elapsed() >= mMemoryUsageRefreshIntervalMs) {
         updateMemoryUsage();
+        updateAudioMetrics();
+        updateInputLatencyMetrics();
         mMemoryUsageRefreshTime.restart();
     }
 }
@@ -93,6 +97,60 @@ void DebugMetricsMonitor::updateMemoryUsage() {
     emit memoryUsageChanged();
 }
 
+void DebugMetricsMonitor::updateAudioMetrics() {
+#if defined(Q_OS_ANDROID)
+    QJsonDocument metrics = QJsonDocument::fromJson(AndroidActivity::getAudioMetrics().toUtf8());
+    mAudioMetrics = metrics.object().toVariantMap();
+
+    if (mLoggingMetrics && !mAudioMetrics.isEmpty()) {
+        QVariantMap prepareTime = mAudioMetrics.value("prepareTimeMs").toMap();
+        QVariantMap loopGap = mAudioMetrics.value("loopGapMs").toMap();
+        QVariantMap loopRewindTime = mAudioMetrics.value("loopRewindTimeMs").toMap();
+        qDebug() << "Audio Players Alive:" << mAudioMetrics.value("playersAlive").toInt()
+                 << "Prepare p95:" << prepareTime.value("p95").toFloat() << "ms"
+                 << "Loop Gap max:" << loopGap.value("max").toFloat() << "ms"
+                 << "Loop Rewind max:" << loopRewindTime.value("max").toFloat() << "ms";
+    }
+    emit audioMetricsChanged();
+#endif
+}
+
+void DebugMetricsMonitor::updateInputLatencyMetrics() {
+#if defined(Q_OS_ANDROID)
+    mInputLatencyMetrics = AndroidActivity::getInputLatencyMetrics().toVariantMap();
+
+    if (mLoggingMetrics) {
+        for (auto it = mInputLatencyMetrics.constBegin(); it != mInputLatencyMetrics.constEnd();
+                ++it) {
+            QVariantMap frameLatency = it.value().toMap().value("frameMs").toMap();
+            if (frameLatency.value("count").toLongLong() > 0) {
+                qDebug() << "Input Latency" << it.key() << "p50:"
+                         << frameLatency.value("p50").toFloat() << "ms" << "p95:"
+                         << frameLatency.value("p95").toFloat() << "ms";
+            }
+        }
+    }
+    emit inputLatencyMetricsChanged();
+#endif
+}
+
+QString DebugMetricsMonitor::dumpInputLatencyMetrics() const {
+    QJsonObject dump;
+#if defined(Q_OS_ANDROID)
+    dump.insert("deviceModel", AndroidActivity::getDeviceModel());
+    dump.insert("inputLatency", QJsonObject::fromVariantMap(
+            AndroidActivity::getInputLatencyMetrics().toVariantMap()));
+#endif
+    return QString::fromUtf8(QJsonDocument(dump).toJson(QJsonDocument::Compact));
+}
+
+void DebugMetricsMonitor::resetInputLatencyMetrics() {
+#if defined(Q_OS_ANDROID)
+    AndroidActivity::resetInputLatencyMetrics();
+    updateInputLatencyMetrics();
+#endif
+}
+
 void DebugMetricsMonitor::setFpsAverageWindowSizeMs(int value) {
     mFpsAverageWindowSizeMs = value;
     emit fpsAverageWindowSizeMsChanged();
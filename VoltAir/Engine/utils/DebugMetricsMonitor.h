@@ -20,13 +20,14 @@
 #include <QObject>
 #include <QTime>
 #include <QVariant>
+#include <QVariantMap>
 
 /**
  * @ingroup Engine
  * @brief Tracks and provides mechanisms for reporting various debug metrics.
  *
- * Current metrics that are supported include: frames rendered per second and application memory
- * usage.
+ * Current metrics that are supported include: frames rendered per second, application memory
+ * usage and, on Android, audio performance and input latency metrics.
  * @note In order for DebugMetricsMonitor to report correctly, update() must be called every frame.
  */
 class DebugMetricsMonitor : public QObject {
@@ -65,6 +66,25 @@ class DebugMetricsMonitor : public QObject {
      */
     Q_PROPERTY(int memoryUsageRefreshIntervalMs READ getMemoryUsageRefreshIntervalMs
                WRITE setMemoryUsageRefreshIntervalMs NOTIFY memoryUsageRefreshIntervalMsChanged)
+    /**
+     * @brief Snapshot of the audio performance metrics, refreshed along with #memoryUsage.
+     *
+     * Contains counters for players alive and created, completed transitions and prepare errors,
+     * as well as histograms of player open and prepare times, loop gaps, fade tick jitter and
+     * transition queue depth.
+     * @note Audio metrics are currently only reported on Android, and are empty elsewhere.
+     */
+    Q_PROPERTY(QVariantMap audioMetrics READ getAudioMetrics NOTIFY audioMetricsChanged)
+    /**
+     * @brief Snapshot of the input latency metrics, refreshed along with #memoryUsage.
+     *
+     * Contains histograms for the gamepad, touch navigation and keyboard sources of the latency
+     * from an input event occurring until it was dispatched to native code, routed, and consumed
+     * by a frame. See InputLatencyMetrics::toVariantMap() for the layout.
+     * @note Input latency metrics are currently only reported on Android, and are empty elsewhere.
+     */
+    Q_PROPERTY(QVariantMap inputLatencyMetrics READ getInputLatencyMetrics
+               NOTIFY inputLatencyMetricsChanged)
     /**
      * @brief Whether or not DebugMetricsMonitor logs debug information to @c qDebug.
      * @note Currently only the #fps metric is logged.
@@ -118,6 +138,24 @@ public:
      * @param value Integer to set #memoryUsageRefreshIntervalMs to
      */
     void setMemoryUsageRefreshIntervalMs(int value);
+    /**
+     * @brief Returns #audioMetrics.
+     */
+    const QVariantMap& getAudioMetrics() const { return mAudioMetrics; }
+    /**
+     * @brief Returns #inputLatencyMetrics.
+     */
+    const QVariantMap& getInputLatencyMetrics() const { return mInputLatencyMetrics; }
+    /**
+     * @brief Returns a JSON dump of the current input latency metrics, tagged with the device
+     * model, for comparison across devices.
+     * @note Unlike #inputLatencyMetrics, the dump is not limited by the refresh interval.
+     */
+    Q_INVOKABLE QString dumpInputLatencyMetrics() const;
+    /**
+     * @brief Clears all recorded input latency metrics.
+     */
+    Q_INVOKABLE void resetInputLatencyMetrics();
     /**
      * @brief Returns #loggingMetrics.
      */
@@ -157,6 +195,14 @@ signals:
      * @brief Emitted when #memoryUsageRefreshIntervalMs changes.
      */
     void memoryUsageRefreshIntervalMsChanged();
+    /**
+     * @brief Emitted when #audioMetrics changes.
+     */
+    void audioMetricsChanged();
+    /**
+     * @brief Emitted when #inputLatencyMetrics changes.
+     */
+    void inputLatencyMetricsChanged();
     /**
      * @brief Emitted when #loggingMetrics changes.
      */
@@ -165,6 +211,8 @@ signals:
 private:
     void updateFps();
     void updateMemoryUsage();
+    void updateAudioMetrics();
+    void updateInputLatencyMetrics();
 
     float mFps = 0.0f;
     int mFpsAverageWindowSizeMs = 1000;
@@ -179,6 +227,9 @@ private:
     int mMemoryUsageRefreshIntervalMs = 1000;
     QTime mMemoryUsageRefreshTime;
 
+    QVariantMap mAudioMetrics;
+    QVariantMap mInputLatencyMetrics;
+
     bool mLoggingMetrics = true;
 };
 
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <QJsonDocument>
+#include <QJsonObject>
+#include <QVariantList>
+#include <cmath>
+#include "InputLatencyMetrics.h"
+
+namespace {
+
+const char* const SOURCE_NAMES[] = { "gamepad", "touchNavigation", "keyboard" };
+const char* const STAGE_NAMES[] = { "dispatchMs", "routingMs", "frameMs" };
+
+} // namespace
+
+void InputLatencyMetrics::record(Source source, Stage stage, double latencyMs) {
+    Histogram& histogram = mHistograms[source][stage];
+    latencyMs = qMax(0.0, latencyMs);
+    histogram.buckets[getBucket(latencyMs)]++;
+    histogram.count++;
+    histogram.sum += latencyMs;
+    histogram.max = qMax(histogram.max, latencyMs);
+}
+
+void InputLatencyMetrics::reset() {
+    for (int source = 0; source < NUM_SOURCES; ++source) {
+        for (int stage = 0; stage < NUM_STAGES; ++stage) {
+            mHistograms[source][stage] = Histogram();
+        }
+    }
+}
+
+QVariantMap InputLatencyMetrics::toVariantMap() const {
+    QVariantMap metrics;
+    for (int source = 0; source < NUM_SOURCES; ++source) {
+        QVariantMap sourceMetrics;
+        for (int stage = 0; stage < NUM_STAGES; ++stage) {
+            const Histogram& histogram = mHistograms[source][stage];
+            QVariantList buckets;
+            for (int bucket = 0; bucket < NUM_BUCKETS; ++bucket) {
+                buckets.append(histogram.buckets[bucket]);
+            }
+            QVariantMap stageMetrics;
+            stageMetrics.insert("count", histogram.count);
+            stageMetrics.insert("mean", histogram.count > 0
+                    ? (float) (histogram.sum / histogram.count) : 0.0f);
+            stageMetrics.insert("max", (float) histogram.max);
+            stageMetrics.insert("p50", getPercentile(histogram, 0.5f));
+            stageMetrics.insert("p95", getPercentile(histogram, 0.95f));
+            stageMetrics.insert("buckets", buckets);
+            sourceMetrics.insert(STAGE_NAMES[stage], stageMetrics);
+        }
+        metrics.insert(SOURCE_NAMES[source], sourceMetrics);
+    }
+    return metrics;
+}
+
+QString InputLatencyMetrics::toJson() const {
+    return QString::fromUtf8(QJsonDocument(QJsonObject::fromVariantMap(toVariantMap()))
+            .toJson(QJsonDocument::Compact));
+}
+
+float InputLatencyMetrics::getPercentile(const Histogram& histogram, float percentile) {
+    // Returns the upper bound of the bucket containing the given percentile.
+    if (histogram.count == 0) {
+        return 0.0f;
+    }
+    qint64 rank = (qint64) std::ceil(percentile * histogram.count);
+    qint64 seen = 0;
+    for (int bucket = 0; bucket < NUM_BUCKETS - 1; ++bucket) {
+        seen += histogram.buckets[bucket];
+        if (seen >= rank) {
+            return qMin((float) (1 << bucket), (float) histogram.max);
+        }
+    }
+    return (float) histogram.max;
+}
+
+int InputLatencyMetrics::getBucket(double value) {
+    int bucket = 0;
+    while (bucket < NUM_BUCKETS - 1 && value >= (1 << bucket)) {
+        bucket++;
+    }
+    return bucket;
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef INPUTLATENCYMETRICS_H
+#define INPUTLATENCYMETRICS_H
+
+#include <QString>
+#include <QVariantMap>
+
+/**
+ * @ingroup Engine
+ * @brief Per-source histograms of the latency between a controller input occurring and the game
+ * reacting to it.
+ *
+ * Latency is broken down into three stages, each measured from the platform's event time:
+ *   - #DISPATCH_STAGE: until the event was queued by the native input callback
+ *   - #ROUTING_STAGE: from being queued until being routed to the VirtualController%s
+ *   - #FRAME_STAGE: until the end of the logic and physics update of the frame that consumed it
+ *
+ * Histograms use power-of-two millisecond buckets, so recording never allocates.
+ * @note InputLatencyMetrics is not thread-safe.
+ */
+class InputLatencyMetrics {
+public:
+    /**
+     * @brief Kind of device an input event originated from.
+     */
+    enum Source {
+        GAMEPAD_SOURCE = 0,
+        TOUCH_NAVIGATION_SOURCE,
+        KEYBOARD_SOURCE,
+        NUM_SOURCES
+    };
+    /**
+     * @brief Stage of input handling a latency was measured up to.
+     */
+    enum Stage {
+        DISPATCH_STAGE = 0,
+        ROUTING_STAGE,
+        FRAME_STAGE,
+        NUM_STAGES
+    };
+
+    /**
+     * @brief Records a latency sample.
+     * @param source Source of the input event
+     * @param stage Stage the latency was measured up to
+     * @param latencyMs Latency in milliseconds
+     */
+    void record(Source source, Stage stage, double latencyMs);
+    /**
+     * @brief Clears all histograms.
+     */
+    void reset();
+    /**
+     * @brief Returns a snapshot of all histograms.
+     *
+     * The map is keyed by source name (@c "gamepad", @c "touchNavigation" and @c "keyboard"), each
+     * holding a map keyed by stage name (@c "dispatchMs", @c "routingMs" and @c "frameMs"). Each
+     * histogram reports its sample count, mean, maximum, approximate 50th and 95th percentiles, and
+     * raw buckets.
+     */
+    QVariantMap toVariantMap() const;
+    /**
+     * @brief Returns the snapshot returned by toVariantMap() as compact JSON.
+     */
+    QString toJson() const;
+
+private:
+    // Bucket i holds samples in [2^(i-1), 2^i) milliseconds, with bucket 0 holding samples below 1.
+    static const int NUM_BUCKETS = 12;
+
+    struct Histogram {
+        qint64 buckets[NUM_BUCKETS] = { };
+        qint64 count = 0;
+        double sum = 0.0;
+        double max = 0.0;
+    };
+
+    static float getPercentile(const Histogram& histogram, float percentile);
+    static int getBucket(double value);
+
+    Histogram mHistograms[NUM_SOURCES][NUM_STAGES];
+};
+
+#endif // INPUTLATENCYMETRICS_H
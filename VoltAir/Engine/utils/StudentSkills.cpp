@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "StudentSkills.h"
+
+StudentSkills::StudentSkills(const QVector<int>& words) {
+    mLetterBits = (words.size() > LETTERS_WORD) ? quint32(words[LETTERS_WORD]) : 0;
+    mNumberBits = (words.size() > NUMBERS_WORD) ? quint32(words[NUMBERS_WORD]) : 0;
+    updateLetters();
+}
+
+StudentSkills StudentSkills::fromLetters(const QString& letters) {
+    StudentSkills skills;
+    for (QChar letter : letters) {
+        int bit = getLetterBit(letter);
+        if (bit >= 0) {
+            skills.mLetterBits |= 1u << bit;
+        }
+    }
+    skills.updateLetters();
+    return skills;
+}
+
+bool StudentSkills::hasLetter(QChar letter) const {
+    int bit = getLetterBit(letter);
+    return bit >= 0 && (mLetterBits & (1u << bit));
+}
+
+bool StudentSkills::hasNumber(int number) const {
+    return number >= 0 && number < NUM_NUMBERS && (mNumberBits & (1u << number));
+}
+
+QVector<int> StudentSkills::toWords() const {
+    QVector<int> words(NUM_WORDS);
+    words[LETTERS_WORD] = int(mLetterBits);
+    words[NUMBERS_WORD] = int(mNumberBits);
+    return words;
+}
+
+int StudentSkills::getLetterBit(QChar letter) {
+    ushort c = letter.toLower().unicode();
+    return (c >= 'a' && c <= 'z') ? c - 'a' : -1;
+}
+
+void StudentSkills::updateLetters() {
+    mLetters.clear();
+    for (int bit = 0; bit <= 'z' - 'a'; ++bit) {
+        if (mLetterBits & (1u << bit)) {
+            mLetters.append(QChar('a' + bit));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef STUDENTSKILLS_H
+#define STUDENTSKILLS_H
+
+#include <QString>
+#include <QVector>
+
+/**
+ * @ingroup Engine
+ * @brief Set of letters and numbers a student has learned, stored as a fixed-width bitset.
+ *
+ * The bitset layout mirrors the Android @c StudentSkills class, so that skills can be passed over
+ * JNI as a primitive @c int array:
+ *   - Word #LETTERS_WORD has bit <tt>c - 'a'</tt> set for every valid lowercase letter @c c
+ *   - Word #NUMBERS_WORD has bit @c n set for every valid number @c n below #NUM_NUMBERS
+ *
+ * Membership tests are O(1). The valid letters are additionally cached as a string in alphabetical
+ * order, so that a random letter can be picked in O(1) as well.
+ */
+class StudentSkills {
+public:
+    /**
+     * @brief Index of the word holding letter bits.
+     */
+    static const int LETTERS_WORD = 0;
+    /**
+     * @brief Index of the word holding number bits.
+     */
+    static const int NUMBERS_WORD = 1;
+    /**
+     * @brief Number of words in an encoded skill set.
+     */
+    static const int NUM_WORDS = 2;
+    /**
+     * @brief Exclusive upper bound on numbers that can be represented.
+     */
+    static const int NUM_NUMBERS = 32;
+
+    /**
+     * @brief Constructs an empty StudentSkills.
+     */
+    StudentSkills() = default;
+    /**
+     * @brief Constructs a StudentSkills from its bitset encoding.
+     * @param words Encoded skill set of #NUM_WORDS words; missing words are treated as empty
+     */
+    explicit StudentSkills(const QVector<int>& words);
+
+    /**
+     * @brief Returns a StudentSkills containing the letters of @p letters and no numbers.
+     * @param letters String of letters; characters other than ASCII letters are ignored
+     */
+    static StudentSkills fromLetters(const QString& letters);
+
+    /**
+     * @brief Returns whether or not @p letter is valid for the student, regardless of case.
+     * @param letter Letter to test
+     */
+    bool hasLetter(QChar letter) const;
+    /**
+     * @brief Returns whether or not @p number is valid for the student.
+     * @param number Number to test
+     */
+    bool hasNumber(int number) const;
+    /**
+     * @brief Returns all valid letters in alphabetical order.
+     */
+    const QString& getLetters() const { return mLetters; }
+    /**
+     * @brief Returns the bitset encoding of this StudentSkills.
+     */
+    QVector<int> toWords() const;
+
+    /**
+     * @brief Returns whether or not @p other contains exactly the same letters and numbers.
+     * @param other StudentSkills to compare to
+     */
+    bool operator==(const StudentSkills& other) const {
+        return mLetterBits == other.mLetterBits && mNumberBits == other.mNumberBits;
+    }
+    /**
+     * @brief Returns whether or not @p other differs in any letter or number.
+     * @param other StudentSkills to compare to
+     */
+    bool operator!=(const StudentSkills& other) const { return !(*this == other); }
+
+private:
+    static int getLetterBit(QChar letter);
+    void updateLetters();
+
+    quint32 mLetterBits = 0;
+    quint32 mNumberBits = 0;
+    QString mLetters;
+};
+
+#endif // STUDENTSKILLS_H
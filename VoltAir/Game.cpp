@@ -31,6 +31,10 @@
 #include "UiInternal.h"
 #include "inputs/PlayerManager.h"
 
+#ifdef Q_OS_ANDROID
+#include "android/AndroidActivity.h"
+#endif
+
 Game* Game::sInstance = nullptr;
 
 Game::Game(QObject* parent)
@@ -282,6 +286,16 @@ void Game::onLevelCompleted() {
 
     mPlayerProfile.save();
 
+#ifdef Q_OS_ANDROID
+    AndroidActivity::logTelemetryEvent("LevelCompleted", {
+                { "progression", levelProgression->getName() },
+                { "level", levelInfo->getName() },
+                { "players", PlayerManager::getInstance()->getAvailablePlayers().size() },
+                { "score", singlePlayerScore },
+                { "stars", starScore },
+            });
+#endif
+
     ScoringInfo scoringInfo = getScoringInfo();
     emit levelCompleted(progressionIsOver, scoringInfo.oneStarThreshold,
             scoringInfo.twoStarThreshold, scoringInfo.threeStarThreshold, scoringInfo.perfectScore,
@@ -337,12 +351,23 @@ void Game::revealAchievement(const QString& name, bool immediately) {
 
 QString Game::getValidLetter(const double randomNumber)
 {
-    QString validLetters = Engine::getInstance()->validLetters();
-    int letterIndex = (int) (validLetters.length()  * randomNumber);
-    qDebug() << validLetters.at(letterIndex);
+    const QString& validLetters = Engine::getInstance()->validLetters();
+    if (validLetters.isEmpty()) {
+        return QString();
+    }
+    int letterIndex = qBound(0, (int) (validLetters.length() * randomNumber),
+            validLetters.length() - 1);
     return validLetters.at(letterIndex);
 }
 
+bool Game::isValidLetter(const QString& letter) const {
+    return letter.length() == 1 && Engine::getInstance()->getStudentSkills().hasLetter(letter[0]);
+}
+
+bool Game::isValidNumber(int number) const {
+    return Engine::getInstance()->getStudentSkills().hasNumber(number);
+}
+
 void Game::onUiActiveChanged(bool isActive) {
     mIsUiActive = isActive;
 }
@@ -469,6 +494,12 @@ void Game::abandonCurrentLevel() {
 
     mIsPlayingLevel = false;
 
+#ifdef Q_OS_ANDROID
+    AndroidActivity::logTelemetryEvent("LevelAbandoned", {
+                { "level", engine->getLevel()->getName() },
+            });
+#endif
+
     // Save the player profile and abandon the current level.
     mPlayerProfile.save();
     mPlayerProfile.onCurrentLevelAbandoned();
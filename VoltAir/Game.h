@@ -164,7 +164,22 @@ public:
     Q_INVOKABLE void revealAchievement(const QString& name, bool immediately = true);
 
 
+    /**
+     * @brief Returns a letter the current student has learned.
+     * @param randomNumber Number in the range [0, 1) used to pick the letter
+     * @returns The picked letter, or an empty string if the student has not learned any letters
+     */
     Q_INVOKABLE QString getValidLetter(const double randomNumber);
+    /**
+     * @brief Returns whether or not the current student has learned @p letter.
+     * @param letter Single letter to test, regardless of case
+     */
+    Q_INVOKABLE bool isValidLetter(const QString& letter) const;
+    /**
+     * @brief Returns whether or not the current student has learned @p number.
+     * @param number Number to test
+     */
+    Q_INVOKABLE bool isValidNumber(int number) const;
 
     /**
      * @brief Gets the singleton Game.
@@ -69,6 +69,17 @@ public:
      */
     void setDeviceId(int deviceId) { mDeviceId = deviceId; }
 
+    /**
+     * @brief Returns the time at which the input described by this ControllerEvent occurred, in
+     * milliseconds in the platform's input event time base, or @c 0 if unknown.
+     */
+    long long getEventTime() const { return mEventTime; }
+    /**
+     * @brief Sets the time at which the input described by this ControllerEvent occurred.
+     * @param eventTime Time in milliseconds in the platform's input event time base
+     */
+    void setEventTime(long long eventTime) { mEventTime = eventTime; }
+
     /**
      * @brief Returns whether or not this ControllerEvent contains any key press information.
      */
@@ -153,6 +164,7 @@ public:
 
 private:
     int mDeviceId;
+    long long mEventTime = 0;
     KeyStates mKeyStates;
     JoystickAxisStates mJoystickAxisStates;
     TriggerAxisStates mTriggerAxisStates;
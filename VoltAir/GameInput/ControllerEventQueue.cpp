@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "ControllerEvent.h"
+#include "ControllerEventQueue.h"
+#include "InputRouter.h"
+
+void ControllerEventQueue::Record::reset(InputRouter* router, int deviceId,
+        long long eventTime) {
+    this->router = router;
+    this->deviceId = deviceId;
+    this->eventTime = eventTime;
+    queueTime = 0;
+    isDisconnect = false;
+    numKeys = 0;
+    joystickAxisMask = 0;
+    triggerAxisMask = 0;
+}
+
+void ControllerEventQueue::Record::setKeyState(KeyCode keyCode, bool isPressed) {
+    if (numKeys < MAX_KEYS) {
+        keyCodes[numKeys] = keyCode;
+        keyStates[numKeys] = isPressed;
+        numKeys++;
+    }
+}
+
+void ControllerEventQueue::Record::setJoystickAxisValue(JoystickAxisCode axis, float value) {
+    joystickAxisValues[axis] = value;
+    joystickAxisMask |= 1u << axis;
+}
+
+void ControllerEventQueue::Record::setTriggerAxisValue(TriggerAxisCode axis, float value) {
+    triggerAxisValues[axis] = value;
+    triggerAxisMask |= 1u << axis;
+}
+
+void ControllerEventQueue::Record::toControllerEvent(ControllerEvent* event) const {
+    event->setDeviceId(deviceId);
+    event->setEventTime(eventTime);
+    for (int i = 0; i < numKeys; ++i) {
+        event->setKeyState(keyCodes[i], keyStates[i]);
+    }
+    for (int axis = 0; axis < NUM_JOYSTICK_AXES; ++axis) {
+        if (joystickAxisMask & (1u << axis)) {
+            event->setJoystickAxisValue(static_cast<JoystickAxisCode>(axis),
+                    joystickAxisValues[axis]);
+        }
+    }
+    for (int axis = 0; axis < NUM_TRIGGER_AXES; ++axis) {
+        if (triggerAxisMask & (1u << axis)) {
+            event->setTriggerAxisValue(static_cast<TriggerAxisCode>(axis),
+                    triggerAxisValues[axis]);
+        }
+    }
+}
+
+ControllerEventQueue::ControllerEventQueue(size_t capacity)
+    : mWriteIndex(0), mReadIndex(0), mTotalOverflowCount(0) {
+    size_t powerOfTwoCapacity = 1;
+    while (powerOfTwoCapacity < capacity) {
+        powerOfTwoCapacity <<= 1;
+    }
+    mRecords.resize(powerOfTwoCapacity);
+    mMask = powerOfTwoCapacity - 1;
+}
+
+bool ControllerEventQueue::push(const Record& record) {
+    const size_t writeIndex = mWriteIndex.load(std::memory_order_relaxed);
+    if (writeIndex - mReadIndex.load(std::memory_order_acquire) > mMask) {
+        mTotalOverflowCount.fetch_add(1, std::memory_order_relaxed);
+        return false;
+    }
+    mRecords[writeIndex & mMask] = record;
+    mWriteIndex.store(writeIndex + 1, std::memory_order_release);
+    return true;
+}
+
+size_t ControllerEventQueue::drain(const RoutedCallback& onRouted) {
+    size_t readIndex = mReadIndex.load(std::memory_order_relaxed);
+    // Only drain records pushed before we started, so a busy producer cannot stall the consumer.
+    const size_t writeIndex = mWriteIndex.load(std::memory_order_acquire);
+    const size_t numRecords = writeIndex - readIndex;
+    for (; readIndex != writeIndex; ++readIndex) {
+        const Record& record = mRecords[readIndex & mMask];
+        if (record.isDisconnect) {
+            record.router->onControllerDisconnect(record.deviceId);
+        } else {
+            ControllerEvent event;
+            record.toControllerEvent(&event);
+            record.router->routeControllerEvent(&event);
+        }
+        if (onRouted) {
+            onRouted(record);
+        }
+        // Release each record as soon as it has been routed to make room for the producer.
+        mReadIndex.store(readIndex + 1, std::memory_order_release);
+    }
+    return numRecords;
+}
+
+unsigned long long ControllerEventQueue::takeOverflowCount() {
+    const unsigned long long totalOverflowCount =
+            mTotalOverflowCount.load(std::memory_order_relaxed);
+    const unsigned long long overflowCount = totalOverflowCount - mReportedOverflowCount;
+    mReportedOverflowCount = totalOverflowCount;
+    return overflowCount;
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef CONTROLLEREVENTQUEUE_H
+#define CONTROLLEREVENTQUEUE_H
+
+#include <atomic>
+#include <cstddef>
+#include <functional>
+#include <vector>
+#include "JoystickAxisCodes.h"
+#include "KeyCodes.h"
+#include "TriggerAxisCodes.h"
+
+class ControllerEvent;
+class InputRouter;
+
+/**
+ * @ingroup GameInput
+ * @brief Lock-free single-producer/single-consumer queue of input records, for handing input
+ * captured on a platform thread over to the thread that routes it.
+ *
+ * Records are fixed-size and preallocated, so pushing a record never blocks and never allocates.
+ * If the queue is full, the record is dropped and counted as an overflow.
+ * @note push() must only be called from a single producer thread, and drain() and
+ * takeOverflowCount() from a single consumer thread.
+ */
+class ControllerEventQueue {
+public:
+    /**
+     * @brief A single input record.
+     *
+     * A record either describes a controller event to route to #router, or (if #isDisconnect is
+     * @c true) that the device identified by #deviceId has disconnected.
+     */
+    struct Record {
+        /**
+         * @brief Maximum number of key states in a single record.
+         */
+        static const int MAX_KEYS = 4;
+        /**
+         * @brief Number of joystick axes a record can hold.
+         */
+        static const int NUM_JOYSTICK_AXES = TOUCH_NAVIGATION_Y + 1;
+        /**
+         * @brief Number of trigger axes a record can hold.
+         */
+        static const int NUM_TRIGGER_AXES = RIGHT_TRIGGER + 1;
+
+        /**
+         * @brief Clears all input from this record, making it an empty event for @p router.
+         * @param router InputRouter to route the event with
+         * @param deviceId Id of the device which generated the event
+         * @param eventTime Time at which the input occurred, see ControllerEvent::getEventTime()
+         */
+        void reset(InputRouter* router, int deviceId, long long eventTime);
+        /**
+         * @brief Sets whether or not a key has been pressed or released.
+         * @note Key states beyond #MAX_KEYS are ignored.
+         */
+        void setKeyState(KeyCode keyCode, bool isPressed);
+        /**
+         * @brief Sets the <tt>[-1.0f, 1.0f]</tt> value of a joystick axis.
+         */
+        void setJoystickAxisValue(JoystickAxisCode axis, float value);
+        /**
+         * @brief Sets the <tt>[0.0f, 1.0f]</tt> value of a trigger axis.
+         */
+        void setTriggerAxisValue(TriggerAxisCode axis, float value);
+        /**
+         * @brief Copies the input in this record into @p event.
+         */
+        void toControllerEvent(ControllerEvent* event) const;
+
+        /**
+         * @brief InputRouter to route this record with.
+         */
+        InputRouter* router;
+        /**
+         * @brief Id of the device which generated this record.
+         */
+        int deviceId;
+        /**
+         * @brief Time at which the input occurred, see ControllerEvent::getEventTime().
+         */
+        long long eventTime;
+        /**
+         * @brief Time at which this record was queued, in nanoseconds in the same time base as
+         * #eventTime, or @c 0 if unknown.
+         */
+        long long queueTime;
+        /**
+         * @brief Whether this record describes a device disconnection rather than an event.
+         */
+        bool isDisconnect;
+        /**
+         * @brief Number of valid entries in #keyCodes and #keyStates.
+         */
+        int numKeys;
+        /**
+         * @brief Codes of keys whose state has changed.
+         */
+        KeyCode keyCodes[MAX_KEYS];
+        /**
+         * @brief Pressed states of the keys in #keyCodes.
+         */
+        bool keyStates[MAX_KEYS];
+        /**
+         * @brief Bitmask of joystick axes set in #joystickAxisValues.
+         */
+        unsigned int joystickAxisMask;
+        /**
+         * @brief Joystick axis values, indexed by JoystickAxisCode.
+         */
+        float joystickAxisValues[NUM_JOYSTICK_AXES];
+        /**
+         * @brief Bitmask of trigger axes set in #triggerAxisValues.
+         */
+        unsigned int triggerAxisMask;
+        /**
+         * @brief Trigger axis values, indexed by TriggerAxisCode.
+         */
+        float triggerAxisValues[NUM_TRIGGER_AXES];
+    };
+
+    /**
+     * @brief Constructs an empty ControllerEventQueue.
+     * @param capacity Number of records to preallocate, rounded up to a power of two
+     */
+    explicit ControllerEventQueue(size_t capacity = 256);
+
+    /**
+     * @brief Callback invoked by drain() after each record has been routed.
+     */
+    typedef std::function<void(const Record& record)> RoutedCallback;
+
+    /**
+     * @brief Pushes a copy of @p record onto the queue.
+     * @returns @c false if the queue was full and @p record was dropped
+     */
+    bool push(const Record& record);
+    /**
+     * @brief Routes all records pushed so far, in order.
+     * @param onRouted Optional callback to invoke after each record has been routed
+     * @returns Number of records routed
+     */
+    size_t drain(const RoutedCallback& onRouted = RoutedCallback());
+    /**
+     * @brief Returns the number of records dropped since the last call to this method.
+     */
+    unsigned long long takeOverflowCount();
+    /**
+     * @brief Returns the total number of records dropped since construction.
+     */
+    unsigned long long getTotalOverflowCount() const { return mTotalOverflowCount.load(); }
+
+private:
+    std::vector<Record> mRecords;
+    size_t mMask;
+    // Index of the next record to write, only written by the producer.
+    std::atomic<size_t> mWriteIndex;
+    // Index of the next record to read, only written by the consumer.
+    std::atomic<size_t> mReadIndex;
+    std::atomic<unsigned long long> mTotalOverflowCount;
+    unsigned long long mReportedOverflowCount = 0;
+};
+
+#endif // CONTROLLEREVENTQUEUE_H
@@ -21,6 +21,7 @@ INCLUDEPATH += $$PWD
 
 HEADERS += \
     $$PWD/ControllerEvent.h \
+    $$PWD/ControllerEventQueue.h \
     $$PWD/ControllerFactory.h \
     $$PWD/ControllerManager.h \
     $$PWD/InputRouter.h \
@@ -39,6 +40,7 @@ HEADERS += \
 
 SOURCES +=  \
     $$PWD/ControllerEvent.cpp \
+    $$PWD/ControllerEventQueue.cpp \
     $$PWD/ControllerManager.cpp \
     $$PWD/InputRouter.cpp \
     $$PWD/VirtualController.cpp \
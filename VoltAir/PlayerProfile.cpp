@@ -459,6 +459,8 @@ void PlayerProfile::onCloudDataLoaded(int statusCode, const QString& data) {
         PlayerProfile playerProfile(doc, mLevelProgressionList);
         merge(playerProfile);
         qDebug() << "Successfully merged cloud save data!";
+        // Persist the merged state, which also pushes any local progress back to the cloud.
+        saveToLocal();
     }
 }
 
@@ -520,6 +522,14 @@ bool PlayerProfile::tryFinishLoadFromCloud() {
 
 void PlayerProfile::loadFromLocal() {
 #if defined(Q_OS_ANDROID)
+    QMap<QString, QString> entries = AndroidActivity::loadState();
+    if (!entries.isEmpty()) {
+        PlayerProfile playerProfile(fromSaveStateEntries(entries), mLevelProgressionList);
+        merge(playerProfile);
+        return;
+    }
+
+    // Fall back to the whole-document file written by earlier versions.
     QFile playerProfileFile(QString("%1/playerProfile.json").arg(QDir::homePath()));
     if (playerProfileFile.exists()) {
         playerProfileFile.open(QIODevice::ReadOnly | QIODevice::Text);
@@ -557,13 +567,69 @@ void PlayerProfile::saveAchievementsToCloud() {
 void PlayerProfile::saveToLocal() {
     // TODO: Decide if we want to also save state on Mac as writing to QFile would also work on Mac
 #ifdef Q_OS_ANDROID
-    QFile playerProfileFile(QString("%1/playerProfile.json").arg(QDir::homePath()));
-    playerProfileFile.open(QIODevice::WriteOnly | QIODevice::Text);
-    playerProfileFile.write(toJsonDocument().toJson());
-    playerProfileFile.close();
+    // Only the entries that changed are written, behind, by the Android save state store.
+    AndroidActivity::saveState(toSaveStateEntries(toJsonDocument()));
 #endif
 }
 
+QMap<QString, QString> PlayerProfile::toSaveStateEntries(const QJsonDocument& doc) {
+    QMap<QString, QString> entries;
+    QJsonObject object = doc.object();
+    for (auto it = object.constBegin(); it != object.constEnd(); ++it) {
+        const QJsonValue& value = it.value();
+        bool isSplit = value.isObject() && !value.toObject().isEmpty();
+        if (isSplit) {
+            for (const QJsonValue& member : value.toObject()) {
+                isSplit = isSplit && (member.isObject() || member.isArray());
+            }
+        }
+        if (isSplit) {
+            QJsonObject members = value.toObject();
+            for (auto member = members.constBegin(); member != members.constEnd(); ++member) {
+                QJsonDocument memberDoc = member.value().isObject()
+                        ? QJsonDocument(member.value().toObject())
+                        : QJsonDocument(member.value().toArray());
+                entries.insert(QString("%1/%2").arg(it.key(), member.key()),
+                        QString::fromUtf8(memberDoc.toJson(QJsonDocument::Compact)));
+            }
+        } else if (value.isObject()) {
+            entries.insert(it.key(), QString::fromUtf8(
+                    QJsonDocument(value.toObject()).toJson(QJsonDocument::Compact)));
+        } else if (value.isArray()) {
+            entries.insert(it.key(), QString::fromUtf8(
+                    QJsonDocument(value.toArray()).toJson(QJsonDocument::Compact)));
+        } else {
+            qDebug() << "Skipping scalar save state value" << it.key();
+        }
+    }
+    return entries;
+}
+
+QJsonDocument PlayerProfile::fromSaveStateEntries(const QMap<QString, QString>& entries) {
+    QJsonObject object;
+    QMap<QString, QJsonObject> splitObjects;
+    for (auto it = entries.constBegin(); it != entries.constEnd(); ++it) {
+        QJsonParseError err;
+        QJsonDocument valueDoc = QJsonDocument::fromJson(it.value().toUtf8(), &err);
+        if (err.error != QJsonParseError::NoError) {
+            qDebug() << "Error parsing save state entry" << it.key() << ":" << err.errorString();
+            continue;
+        }
+        QJsonValue value = valueDoc.isObject() ? QJsonValue(valueDoc.object())
+                : QJsonValue(valueDoc.array());
+        int separator = it.key().indexOf('/');
+        if (separator < 0) {
+            object.insert(it.key(), value);
+        } else {
+            splitObjects[it.key().left(separator)].insert(it.key().mid(separator + 1), value);
+        }
+    }
+    for (auto it = splitObjects.constBegin(); it != splitObjects.constEnd(); ++it) {
+        object.insert(it.key(), it.value());
+    }
+    return QJsonDocument(object);
+}
+
 QJsonArray PlayerProfile::getAchievementsAsJsonArray() const {
     QJsonArray json;
     for (auto achievement : mAchievements) {
@@ -585,6 +651,7 @@ void PlayerProfile::clearCloud() {
 
 void PlayerProfile::clearLocal() {
 #ifdef Q_OS_ANDROID
+    AndroidActivity::clearState();
     QFile playerProfileFile(QString("%1/playerProfile.json").arg(QDir::homePath()));
     playerProfileFile.remove();
 #endif
@@ -284,6 +284,16 @@ private:
     void clearLocal();
     void clearAchievements();
     QJsonArray getAchievementsAsJsonArray() const;
+    /**
+     * Splits @p doc into save state entries of JSON encoded values. Top-level objects whose members
+     * are all objects or arrays are split into one entry per member, keyed as "Top/Member", so that
+     * the entries of different level progressions can be stored and merged independently.
+     */
+    static QMap<QString, QString> toSaveStateEntries(const QJsonDocument& doc);
+    /**
+     * Reassembles save state entries split by toSaveStateEntries() into a JSON document.
+     */
+    static QJsonDocument fromSaveStateEntries(const QMap<QString, QString>& entries);
     QSharedPointer<Achievement>& getAchievement(const QString& name);
 
     LoadState mLoadState = UNLOADED;
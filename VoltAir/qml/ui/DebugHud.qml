@@ -62,7 +62,7 @@ Item {
     }
 
     Text {
-        id: levelNameReporter
+        id: inputLatencyReporter
 
         anchors.left: parent.left
         anchors.top: memoryUsageReporter.bottom
@@ -71,6 +71,16 @@ Item {
         font.pixelSize: 0.05 * root.height
     }
 
+    Text {
+        id: levelNameReporter
+
+        anchors.left: parent.left
+        anchors.top: inputLatencyReporter.bottom
+
+        color: "white"
+        font.pixelSize: 0.05 * root.height
+    }
+
     DebugMetricsMonitor {
         objectName: "debugMetricsMonitor"
 
@@ -86,5 +96,17 @@ Item {
         onMemoryUsageChanged: {
             memoryUsageReporter.text = (memoryUsage / 1000000.0).toFixed(2) + ' MB'
         }
+
+        onInputLatencyMetricsChanged: {
+            // Show the 95th percentile end-to-end latency of each input source that has been used.
+            var reports = []
+            for (var source in inputLatencyMetrics) {
+                var frameLatency = inputLatencyMetrics[source].frameMs
+                if (frameLatency.count > 0) {
+                    reports.push(source + ' ' + frameLatency.p95.toFixed(0) + ' ms')
+                }
+            }
+            inputLatencyReporter.text = reports.length > 0 ? 'Input p95: ' + reports.join(', ') : ''
+        }
     }
 }
@@ -143,6 +143,25 @@ def RunMakeInstall():
                  "install", "INSTALL_ROOT=%s/android-build" % os.getcwd()])
 
 
+def RunPackAudio(voltair_root):
+  """Pack the installed audio assets into a single archive.
+
+  The archive is opened by offset at runtime (see AudioAssetPack.java), so the
+  packed files are removed from the assets to keep them from shipping twice.
+  The project's assets folder is deployed into android-build/assets/assets, so
+  the sounds are packed by the same "assets/sounds/..." paths that native code
+  loads them by (see Util::getPathToSound).
+
+  Args:
+    voltair_root: VoltAir project location.
+  """
+  RunSubprocess([sys.executable,
+                 voltair_root + "/tools/pack_audio.py",
+                 "--assets-dir", os.getcwd() + "/android-build/assets",
+                 "--sounds-dir", "assets/sounds",
+                 "--remove-packed"])
+
+
 def RunAndroidDeployQt(qt_root, voltair_root, build_dir, ant, ndk_platform,
                        jdk, keystore, key, password):
   """Run the 'androiddeployqt' command.
@@ -285,6 +304,9 @@ def main():
     # This places the libVoltAir.so file in the appropriate directory.
     RunMakeInstall()
 
+    # Packs the installed audio assets into one archive with an offset index.
+    RunPackAudio(voltair_root)
+
     # Runs 'androiddeployqt' which constructs the APK from the libVoltAir.so and
     # the other files specified in the Qt project (e.g. java files,
     # AndroidManifest.xml, and so on).
@@ -0,0 +1,179 @@
+#!/usr/bin/python
+#
+# Copyright 2014 Google Inc. All Rights Reserved.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""Packs VoltAir audio assets into a single archive with an offset index.
+
+The archive is read by AudioAssetPack.java, which reads its index once and opens
+every sound by offset into one shared file descriptor, instead of looking up and
+opening each asset in the APK separately. All integers are big-endian:
+
+  magic        4 bytes  "VAPK"
+  version      uint32   2
+  entry_count  uint32
+  data_offset  uint32   size of the header, padded to DATA_ALIGNMENT
+  entry_count times, sorted by path:
+    path_length  uint16
+    path         path_length bytes of UTF-8, relative to the assets directory
+    offset       uint64   from the start of the archive
+    length       uint64
+    crc32        uint32   of the file data, which keys caches derived from it
+  file data, each file starting at a multiple of DATA_ALIGNMENT
+
+The archive must be stored uncompressed in the APK, so its default name ends in
+an extension that aapt does not compress. With --remove-packed, the packed files
+are deleted afterwards so that they do not ship twice; AudioAssetPack.java only
+opens assets individually if they are missing from the archive. This is only
+safe for the Android build, where every sound effect and music track is loaded
+through AudioAssetPack.java by path relative to the APK assets, e.g.
+"assets/sounds/jump.wav", and never by Qt. Desktop builds load the loose files
+with QSoundEffect, so they must not be packed with --remove-packed.
+"""
+import argparse
+import os
+import struct
+import sys
+import zlib
+
+MAGIC = b"VAPK"
+VERSION = 2
+DATA_ALIGNMENT = 16
+AUDIO_EXTENSIONS = (".mp3", ".ogg", ".wav")
+DEFAULT_PACK_NAME = "sounds.pack.ogg"
+
+
+def FindAudioFiles(assets_dir, sounds_subdir):
+  """Returns the paths of all audio files under a directory of the assets.
+
+  Args:
+    assets_dir: assets directory that paths are made relative to
+    sounds_subdir: subdirectory of assets_dir to search
+
+  Returns:
+    Sorted list of paths relative to assets_dir, using '/' as the separator.
+  """
+  paths = []
+  for root, _, files in os.walk(os.path.join(assets_dir, sounds_subdir)):
+    for name in files:
+      if name.lower().endswith(AUDIO_EXTENSIONS):
+        path = os.path.relpath(os.path.join(root, name), assets_dir)
+        paths.append(path.replace(os.sep, "/"))
+  return sorted(paths)
+
+
+def Align(value):
+  """Rounds value up to a multiple of DATA_ALIGNMENT."""
+  return (value + DATA_ALIGNMENT - 1) // DATA_ALIGNMENT * DATA_ALIGNMENT
+
+
+def WritePack(assets_dir, paths, output):
+  """Writes the archive of paths to output.
+
+  Args:
+    assets_dir: assets directory that paths are relative to
+    paths: paths of the files to pack
+    output: path of the archive to write
+
+  Returns:
+    Total size in bytes of the packed files.
+  """
+  encoded_paths = [path.encode("utf-8") for path in paths]
+  header_size = 16 + sum(2 + len(path) + 20 for path in encoded_paths)
+
+  offset = Align(header_size)
+  data_offset = offset
+  entries = []
+  for path in paths:
+    with open(os.path.join(assets_dir, path), "rb") as source:
+      data = source.read()
+    entries.append((offset, len(data), zlib.crc32(data) & 0xffffffff))
+    offset = Align(offset + len(data))
+
+  temp_output = output + ".tmp"
+  with open(temp_output, "wb") as pack:
+    pack.write(MAGIC)
+    pack.write(struct.pack(">III", VERSION, len(paths), data_offset))
+    for encoded_path, entry in zip(encoded_paths, entries):
+      entry_offset, length, crc = entry
+      pack.write(struct.pack(">H", len(encoded_path)))
+      pack.write(encoded_path)
+      pack.write(struct.pack(">QQI", entry_offset, length, crc))
+    for path, (entry_offset, length, crc) in zip(paths, entries):
+      pack.write(b"\0" * (entry_offset - pack.tell()))
+      with open(os.path.join(assets_dir, path), "rb") as source:
+        data = source.read()
+      if len(data) != length or zlib.crc32(data) & 0xffffffff != crc:
+        raise IOError("%s changed while packing" % path)
+      pack.write(data)
+  os.rename(temp_output, output)
+  return sum(length for _, length, _ in entries)
+
+
+def RemovePackedFiles(assets_dir, sounds_subdir, paths):
+  """Deletes packed files, and any directories left empty by that.
+
+  Args:
+    assets_dir: assets directory that paths are relative to
+    sounds_subdir: subdirectory of assets_dir that paths were found in
+    paths: paths of the packed files
+  """
+  for path in paths:
+    os.remove(os.path.join(assets_dir, path))
+  sounds_dir = os.path.join(assets_dir, sounds_subdir)
+  for root, _, _ in os.walk(sounds_dir, topdown=False):
+    if not os.listdir(root):
+      os.rmdir(root)
+
+
+def Main():
+  """Parses arguments and writes the archive."""
+  parser = argparse.ArgumentParser(description=__doc__.split("\n")[0])
+  parser.add_argument("--assets-dir", required=True,
+                      help="Assets directory, e.g. VoltAir/assets or the "
+                      "android-build/assets directory of a build.")
+  parser.add_argument("--sounds-dir", default="assets/sounds",
+                      help="Subdirectory of the assets directory to pack. "
+                      "Packed paths must match the paths the game loads, "
+                      "which are under assets/sounds in the APK assets.")
+  parser.add_argument("--output",
+                      help="Archive to write. Defaults to %s in the assets "
+                      "directory." % DEFAULT_PACK_NAME)
+  parser.add_argument("--remove-packed", action="store_true",
+                      help="Delete the packed files from the assets directory "
+                      "once the archive has been written.")
+  args = parser.parse_args()
+
+  output = args.output or os.path.join(args.assets_dir, DEFAULT_PACK_NAME)
+  paths = FindAudioFiles(args.assets_dir, args.sounds_dir)
+  if not paths:
+    if args.remove_packed and os.path.exists(output):
+      # Packed by an earlier run, which already removed the files.
+      sys.stderr.write("Audio files already packed into %s\n" % output)
+      return 0
+    sys.stderr.write("No audio files found under %s\n" %
+                     os.path.join(args.assets_dir, args.sounds_dir))
+    return 1
+  packed_bytes = WritePack(args.assets_dir, paths, output)
+  sys.stderr.write("Packed %d files (%d bytes) into %s\n" %
+                   (len(paths), packed_bytes, output))
+  if args.remove_packed:
+    RemovePackedFiles(args.assets_dir, args.sounds_dir, paths)
+    sys.stderr.write("Removed %d packed files from %s\n" %
+                     (len(paths), args.assets_dir))
+  return 0
+
+
+if __name__ == "__main__":
+  sys.exit(Main())
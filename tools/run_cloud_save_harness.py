@@ -0,0 +1,78 @@
+#!/usr/bin/python
+#
+# Copyright 2014 Google Inc. All Rights Reserved.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""Builds and runs the cloud save harness on a plain JVM.
+
+Compiles the save state sources from the Android utils package together with
+CloudSaveHarness from VoltAir/Engine/android/bench, then runs it. The harness
+syncs several simulated devices through a FileCloudSaveService in a temporary
+directory, covering merges, conflicts and logs truncated by a crash. These
+classes only depend on the Java standard library, so no Android SDK, device or
+emulator is needed. Any javac warning fails the build, and the harness exits
+with a non-zero status if a check fails.
+
+Example:
+  tools/run_cloud_save_harness.py
+"""
+import argparse
+import os
+import shutil
+import subprocess
+import sys
+import tempfile
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+ANDROID_DIR = os.path.join(ROOT, "VoltAir", "Engine", "android")
+UTILS_DIR = os.path.join(ANDROID_DIR, "deploy", "src", "org", "literacyapp",
+                         "utils")
+BENCH_DIR = os.path.join(ANDROID_DIR, "bench", "src", "org", "literacyapp",
+                         "utils", "bench")
+SOURCES = [
+    os.path.join(UTILS_DIR, "CloudSaveService.java"),
+    os.path.join(UTILS_DIR, "CloudSaveSync.java"),
+    os.path.join(UTILS_DIR, "FileCloudSaveService.java"),
+    os.path.join(UTILS_DIR, "SaveStateMerger.java"),
+    os.path.join(UTILS_DIR, "SaveStateStore.java"),
+    os.path.join(BENCH_DIR, "CloudSaveHarness.java"),
+]
+MAIN_CLASS = "org.literacyapp.utils.bench.CloudSaveHarness"
+
+
+def Main():
+  """Parses arguments, compiles the harness and runs it."""
+  parser = argparse.ArgumentParser(description=__doc__.split("\n")[0])
+  parser.add_argument("--jdk", default="",
+                      help="Java Development Kit location. Defaults to the "
+                      "javac and java found on the PATH.")
+  args = parser.parse_args()
+
+  javac = os.path.join(args.jdk, "bin", "javac") if args.jdk else "javac"
+  java = os.path.join(args.jdk, "bin", "java") if args.jdk else "java"
+  class_dir = tempfile.mkdtemp(prefix="cloud_save_harness")
+  try:
+    # Any warning fails the build.
+    subprocess.check_call([javac, "-Xlint:all", "-Werror",
+                           "-encoding", "UTF-8", "-d", class_dir] + SOURCES)
+    return subprocess.call([java, "-classpath", class_dir, MAIN_CLASS])
+  except subprocess.CalledProcessError as error:
+    sys.stderr.write("Could not compile the harness: %s\n" % error)
+    return 1
+  finally:
+    shutil.rmtree(class_dir)
+
+
+if __name__ == "__main__":
+  sys.exit(Main())
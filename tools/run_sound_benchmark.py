@@ -0,0 +1,98 @@
+#!/usr/bin/python
+#
+# Copyright 2014 Google Inc. All Rights Reserved.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""Builds and runs the SoundManager benchmark on a plain JVM.
+
+Compiles the Android utils sources together with the benchmark harness in
+VoltAir/Engine/android/bench against the Android SDK's android.jar, then runs
+SoundManagerBenchmark, which drives background music transitions with fake
+players in virtual time. No device or emulator is needed. The sources are
+compiled with all javac lint warnings enabled, and any warning fails the run.
+The benchmark exits with a non-zero status if a transition never completes.
+
+Example:
+  tools/run_sound_benchmark.py \\
+      --android-jar $ANDROID_SDK/platforms/android-18/android.jar
+"""
+import argparse
+import os
+import shutil
+import subprocess
+import sys
+import tempfile
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+ANDROID_DIR = os.path.join(ROOT, "VoltAir", "Engine", "android")
+SOURCE_DIRS = [
+    os.path.join(ANDROID_DIR, "deploy", "src", "org", "literacyapp", "utils"),
+    os.path.join(ANDROID_DIR, "bench", "src"),
+]
+MAIN_CLASS = "org.literacyapp.utils.bench.SoundManagerBenchmark"
+
+
+def FindJavaSources(directories):
+  """Returns the paths of all .java files under directories."""
+  sources = []
+  for directory in directories:
+    for root, _, files in os.walk(directory):
+      sources.extend(os.path.join(root, name) for name in files
+                     if name.endswith(".java"))
+  return sorted(sources)
+
+
+def Main():
+  """Parses arguments, compiles the benchmark and runs it."""
+  parser = argparse.ArgumentParser(description=__doc__.split("\n")[0])
+  parser.add_argument("--android-jar", required=True,
+                      help="android.jar of an Android SDK platform (>= "
+                      "android-18), only used to compile and load classes.")
+  parser.add_argument("--jdk", default="",
+                      help="Java Development Kit location. Defaults to the "
+                      "javac and java found on the PATH.")
+  parser.add_argument("--iterations", default="5000",
+                      help="Number of random requests to issue.")
+  parser.add_argument("--warmup", default="500",
+                      help="Number of requests issued before measuring.")
+  parser.add_argument("--seed", default="1", help="Random seed.")
+  parser.add_argument("--error-rate", default="0.01",
+                      help="Probability of a player failing to prepare.")
+  args = parser.parse_args()
+
+  javac = os.path.join(args.jdk, "bin", "javac") if args.jdk else "javac"
+  java = os.path.join(args.jdk, "bin", "java") if args.jdk else "java"
+  class_dir = tempfile.mkdtemp(prefix="sound_benchmark")
+  try:
+    # Any warning fails the build.
+    subprocess.check_call([javac, "-Xlint:all", "-Werror",
+                           "-encoding", "UTF-8",
+                           "-classpath", args.android_jar, "-d", class_dir] +
+                          FindJavaSources(SOURCE_DIRS))
+    return subprocess.call([java, "-classpath",
+                            os.pathsep.join([class_dir, args.android_jar]),
+                            MAIN_CLASS,
+                            "--iterations", args.iterations,
+                            "--warmup", args.warmup,
+                            "--seed", args.seed,
+                            "--error-rate", args.error_rate])
+  except subprocess.CalledProcessError as error:
+    sys.stderr.write("Could not compile the benchmark: %s\n" % error)
+    return 1
+  finally:
+    shutil.rmtree(class_dir)
+
+
+if __name__ == "__main__":
+  sys.exit(Main())
@@ -0,0 +1,161 @@
+#!/usr/bin/python
+#
+# Copyright 2014 Google Inc. All Rights Reserved.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""Local stub of the VoltAir telemetry endpoint.
+
+Accepts the gzip-compressed, newline-delimited JSON batches POSTed by
+TelemetryPipeline, and reports batching and throughput statistics, so that the
+pipeline can be exercised offline. Point a device or emulator at it by setting
+the telemetry_url string resource, e.g. to http://10.0.2.2:8080/telemetry from
+the Android emulator.
+"""
+import argparse
+import gzip
+import io
+import json
+import random
+import sys
+import threading
+import time
+
+try:
+  from http.server import BaseHTTPRequestHandler
+  from http.server import HTTPServer
+except ImportError:
+  from BaseHTTPServer import BaseHTTPRequestHandler
+  from BaseHTTPServer import HTTPServer
+
+
+class Stats(object):
+  """Running totals across all received batches."""
+
+  def __init__(self):
+    self.lock = threading.Lock()
+    self.start_time = time.time()
+    self.batches = 0
+    self.events = 0
+    self.malformed_events = 0
+    self.compressed_bytes = 0
+    self.raw_bytes = 0
+    self.failed_requests = 0
+
+  def Report(self):
+    """Returns a one-line summary of the totals."""
+    elapsed = max(time.time() - self.start_time, 1e-6)
+    ratio = float(self.raw_bytes) / self.compressed_bytes if self.compressed_bytes else 0.0
+    per_batch = float(self.events) / self.batches if self.batches else 0.0
+    return ('%d batches, %d events (%d malformed), %.1f events/batch, '
+            '%d bytes compressed (%.1fx), %.2f events/s, %d failed requests' %
+            (self.batches, self.events, self.malformed_events, per_batch,
+             self.compressed_bytes, ratio, self.events / elapsed,
+             self.failed_requests))
+
+
+class TelemetryHandler(BaseHTTPRequestHandler):
+  """Handles telemetry batch uploads."""
+
+  # Set by Main().
+  options = None
+  stats = None
+  output = None
+
+  def do_POST(self):
+    """Accepts one batch."""
+    if self.path != self.options.path:
+      self._Respond(404)
+      return
+    if random.random() < self.options.fail_rate:
+      with self.stats.lock:
+        self.stats.failed_requests += 1
+      self._Respond(503)
+      return
+
+    length = int(self.headers.get('Content-Length', 0))
+    body = self.rfile.read(length)
+    try:
+      if self.headers.get('Content-Encoding') == 'gzip':
+        data = gzip.GzipFile(fileobj=io.BytesIO(body)).read()
+      else:
+        data = body
+    except IOError:
+      self._Respond(400)
+      return
+
+    lines = [line for line in data.decode('utf-8', 'replace').split('\n') if line]
+    malformed = 0
+    for line in lines:
+      try:
+        json.loads(line)
+      except ValueError:
+        malformed += 1
+      if self.output:
+        self.output.write(line + '\n')
+    if self.output:
+      self.output.flush()
+
+    with self.stats.lock:
+      self.stats.batches += 1
+      self.stats.events += len(lines)
+      self.stats.malformed_events += malformed
+      self.stats.compressed_bytes += len(body)
+      self.stats.raw_bytes += len(data)
+      sys.stdout.write('Batch of %d events from %s: %s\n' %
+                       (len(lines), self.client_address[0], self.stats.Report()))
+      sys.stdout.flush()
+    self._Respond(204)
+
+  def log_message(self, unused_format, *unused_args):
+    # Batches are reported by do_POST() instead.
+    pass
+
+  def _Respond(self, status):
+    self.send_response(status)
+    self.send_header('Content-Length', '0')
+    self.end_headers()
+
+
+def Main():
+  """Parses arguments and serves until interrupted."""
+  parser = argparse.ArgumentParser(description=__doc__.split('\n')[0])
+  parser.add_argument('--port', type=int, default=8080,
+                      help='Port to listen on.')
+  parser.add_argument('--path', default='/telemetry',
+                      help='Path batches are POSTed to.')
+  parser.add_argument('--fail-rate', type=float, default=0.0,
+                      help='Fraction of uploads to fail with 503, to exercise backoff.')
+  parser.add_argument('--output',
+                      help='File to append received events to, one per line.')
+  options = parser.parse_args()
+
+  TelemetryHandler.options = options
+  TelemetryHandler.stats = Stats()
+  if options.output:
+    TelemetryHandler.output = open(options.output, 'a')
+
+  server = HTTPServer(('', options.port), TelemetryHandler)
+  print('Listening on port %d, path %s' % (options.port, options.path))
+  try:
+    server.serve_forever()
+  except KeyboardInterrupt:
+    pass
+  finally:
+    print(TelemetryHandler.stats.Report())
+    if TelemetryHandler.output:
+      TelemetryHandler.output.close()
+
+
+if __name__ == '__main__':
+  Main()